@@ -0,0 +1,730 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.api.json.JSONArray;
+import com.api.json.JSONObject;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * A home grown CBOR (RFC 8949) encoder/decoder for the JSON data model, used
+ * as a binary alternative to JSON text for service requests and responses.
+ * Strings are carried as length prefixed UTF-8 so large html and markdown
+ * content is neither escaped nor scanned for escapes, and numbers are carried
+ * in binary. Objects are encoded from, and decoded to, either the
+ * JSONObject/JSONArray or the Jackson JsonNode model.
+ * <p>
+ * Decoding accepts any well formed CBOR: indefinite lengths, half, single and
+ * double precision floats, tags (which are ignored), undefined (decoded as
+ * null), and byte strings (decoded as Base64 strings). Map keys that are not
+ * strings are converted to strings.
+ *
+ * @author Nathaniel Mills
+ */
+public class MDfromHTMLCBORCodec {
+
+   /**
+    * media type of CBOR content
+    */
+   static public final String MEDIA_TYPE = "application/cbor";
+
+   /**
+    * deepest nesting of arrays and maps accepted when decoding
+    */
+   static public final int MAX_DEPTH = 1000;
+
+   static final int MAJOR_UNSIGNED = 0;
+   static final int MAJOR_NEGATIVE = 1;
+   static final int MAJOR_BYTES = 2;
+   static final int MAJOR_TEXT = 3;
+   static final int MAJOR_ARRAY = 4;
+   static final int MAJOR_MAP = 5;
+   static final int MAJOR_TAG = 6;
+   static final int MAJOR_SIMPLE = 7;
+
+   static final int FALSE = 0xf4;
+   static final int TRUE = 0xf5;
+   static final int NULL = 0xf6;
+   static final int UNDEFINED = 0xf7;
+   static final int HALF_FLOAT = 0xf9;
+   static final int SINGLE_FLOAT = 0xfa;
+   static final int DOUBLE_FLOAT = 0xfb;
+   static final int BREAK = 0xff;
+   static final int INDEFINITE = 31;
+
+   /**
+    * strings longer than this are read in pieces so a corrupt length can not
+    * force a large allocation before the content arrives
+    */
+   static final int READ_CHUNK = 65536;
+
+   /**
+    * @param contentType
+    *           the value of a Content-Type header (may be null)
+    * @return true if the content type is CBOR
+    */
+   static public boolean isCBOR(String contentType) {
+      if (contentType == null) {
+         return false;
+      }
+      int index = contentType.indexOf(';');
+      if (index >= 0) {
+         contentType = contentType.substring(0, index);
+      }
+      return MEDIA_TYPE.equalsIgnoreCase(contentType.trim());
+   }
+
+   /**
+    * Determine whether the client prefers CBOR. The media range with the
+    * highest quality is selected, with ties going to the range listed first,
+    * so clients list application/cbor first (or with a higher q) to request
+    * CBOR responses.
+    *
+    * @param accept
+    *           the value of an Accept header (may be null)
+    * @return true if the most preferred media type is CBOR
+    */
+   static public boolean prefersCBOR(String accept) {
+      if (accept == null) {
+         return false;
+      }
+      String preferred = null;
+      double preferredQuality = 0.0d;
+      for (String range : accept.split(",")) {
+         String[] parts = range.split(";");
+         String type = parts[0].trim();
+         double quality = 1.0d;
+         for (int i = 1; i < parts.length; i++) {
+            String param = parts[i].trim();
+            if (param.startsWith("q=")) {
+               try {
+                  quality = Double.parseDouble(param.substring(2).trim());
+               } catch (NumberFormatException e) {
+                  quality = 0.0d;
+               }
+            }
+         }
+         if (quality > preferredQuality) {
+            preferred = type;
+            preferredQuality = quality;
+         }
+      }
+      return MEDIA_TYPE.equalsIgnoreCase(preferred);
+   }
+
+   /**
+    * @param value
+    *           a JSONObject, JSONArray (or other Map or List), String,
+    *           Number, Boolean or null
+    * @return the CBOR encoding of the value
+    */
+   static public byte[] encode(Object value) {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      try {
+         encode(value, baos);
+      } catch (IOException e) {
+         // not thrown by ByteArrayOutputStream
+         throw new IllegalStateException(e);
+      }
+      return baos.toByteArray();
+   }
+
+   /**
+    * Write the CBOR encoding of the value
+    *
+    * @param value
+    *           a JSONObject, JSONArray (or other Map or List), String,
+    *           Number, Boolean or null
+    * @param os
+    *           the stream receiving the encoding
+    * @throws IOException
+    *            if the encoding can not be written
+    */
+   static public void encode(Object value, OutputStream os)
+      throws IOException {
+      if (value == null) {
+         os.write(NULL);
+      } else if (value instanceof String) {
+         writeText((String) value, os);
+      } else if (value instanceof Map) {
+         Map<?, ?> map = (Map<?, ?>) value;
+         writeHeader(MAJOR_MAP, map.size(), os);
+         for (Map.Entry<?, ?> entry : map.entrySet()) {
+            writeText(String.valueOf(entry.getKey()), os);
+            encode(entry.getValue(), os);
+         }
+      } else if (value instanceof List) {
+         List<?> list = (List<?>) value;
+         writeHeader(MAJOR_ARRAY, list.size(), os);
+         for (Object item : list) {
+            encode(item, os);
+         }
+      } else if (value instanceof Boolean) {
+         os.write((Boolean) value ? TRUE : FALSE);
+      } else if (value instanceof Long || value instanceof Integer
+         || value instanceof Short || value instanceof Byte) {
+         writeInteger(((Number) value).longValue(), os);
+      } else if (value instanceof BigInteger
+         && ((BigInteger) value).bitLength() < 64) {
+         writeInteger(((BigInteger) value).longValue(), os);
+      } else if (value instanceof Float) {
+         writeFloat((Float) value, os);
+      } else if (value instanceof Number) {
+         writeDouble(((Number) value).doubleValue(), os);
+      } else {
+         writeText(value.toString(), os);
+      }
+   }
+
+   /**
+    * @param node
+    *           the Jackson tree to be encoded
+    * @return the CBOR encoding of the tree
+    */
+   static public byte[] encode(JsonNode node) {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      try {
+         encode(node, baos);
+      } catch (IOException e) {
+         // not thrown by ByteArrayOutputStream
+         throw new IllegalStateException(e);
+      }
+      return baos.toByteArray();
+   }
+
+   /**
+    * Write the CBOR encoding of the Jackson tree
+    *
+    * @param node
+    *           the Jackson tree to be encoded
+    * @param os
+    *           the stream receiving the encoding
+    * @throws IOException
+    *            if the encoding can not be written
+    */
+   static public void encode(JsonNode node, OutputStream os)
+      throws IOException {
+      if (node == null || node.isNull() || node.isMissingNode()) {
+         os.write(NULL);
+      } else if (node.isTextual()) {
+         writeText(node.textValue(), os);
+      } else if (node.isObject()) {
+         writeHeader(MAJOR_MAP, node.size(), os);
+         for (Iterator<Map.Entry<String, JsonNode>> it = node.fields(); it
+            .hasNext();) {
+            Map.Entry<String, JsonNode> field = it.next();
+            writeText(field.getKey(), os);
+            encode(field.getValue(), os);
+         }
+      } else if (node.isArray()) {
+         writeHeader(MAJOR_ARRAY, node.size(), os);
+         for (JsonNode item : node) {
+            encode(item, os);
+         }
+      } else if (node.isBoolean()) {
+         os.write(node.booleanValue() ? TRUE : FALSE);
+      } else if (node.isIntegralNumber() && node.canConvertToLong()) {
+         writeInteger(node.longValue(), os);
+      } else if (node.isFloat()) {
+         writeFloat(node.floatValue(), os);
+      } else if (node.isNumber()) {
+         writeDouble(node.doubleValue(), os);
+      } else if (node.isBinary()) {
+         byte[] bytes = node.binaryValue();
+         writeHeader(MAJOR_BYTES, bytes.length, os);
+         os.write(bytes);
+      } else {
+         writeText(node.asText(), os);
+      }
+   }
+
+   static void writeHeader(int major, long length, OutputStream os)
+      throws IOException {
+      int type = major << 5;
+      if (length < 24L) {
+         os.write(type | (int) length);
+      } else if (length < 0x100L) {
+         os.write(type | 24);
+         os.write((int) length);
+      } else if (length < 0x10000L) {
+         os.write(type | 25);
+         os.write((int) (length >>> 8));
+         os.write((int) length);
+      } else if (length < 0x100000000L) {
+         os.write(type | 26);
+         os.write((int) (length >>> 24));
+         os.write((int) (length >>> 16));
+         os.write((int) (length >>> 8));
+         os.write((int) length);
+      } else {
+         os.write(type | 27);
+         for (int shift = 56; shift >= 0; shift -= 8) {
+            os.write((int) (length >>> shift));
+         }
+      }
+   }
+
+   static void writeInteger(long value, OutputStream os) throws IOException {
+      if (value >= 0L) {
+         writeHeader(MAJOR_UNSIGNED, value, os);
+      } else {
+         // -1 - value without overflow
+         writeHeader(MAJOR_NEGATIVE, ~value, os);
+      }
+   }
+
+   static void writeFloat(float value, OutputStream os) throws IOException {
+      int bits = Float.floatToIntBits(value);
+      os.write(SINGLE_FLOAT);
+      os.write(bits >>> 24);
+      os.write(bits >>> 16);
+      os.write(bits >>> 8);
+      os.write(bits);
+   }
+
+   static void writeDouble(double value, OutputStream os) throws IOException {
+      long bits = Double.doubleToLongBits(value);
+      os.write(DOUBLE_FLOAT);
+      for (int shift = 56; shift >= 0; shift -= 8) {
+         os.write((int) (bits >>> shift));
+      }
+   }
+
+   static void writeText(String text, OutputStream os) throws IOException {
+      byte[] bytes = text.getBytes(MDfromHTMLUtils.UTF8_CHARSET);
+      writeHeader(MAJOR_TEXT, bytes.length, os);
+      os.write(bytes);
+   }
+
+   /**
+    * @param bytes
+    *           the CBOR encoding of a map
+    * @return the decoded JSONObject
+    * @throws IOException
+    *            if the bytes are not a well formed CBOR map
+    */
+   static public JSONObject decodeJSONObject(byte[] bytes)
+      throws IOException {
+      return decodeJSONObject(new ByteArrayInputStream(bytes));
+   }
+
+   /**
+    * @param is
+    *           stream containing the CBOR encoding of a map
+    * @return the decoded JSONObject
+    * @throws IOException
+    *            if the stream does not contain a well formed CBOR map
+    */
+   static public JSONObject decodeJSONObject(InputStream is)
+      throws IOException {
+      Object value = decode(is);
+      if (value instanceof JSONObject) {
+         return (JSONObject) value;
+      }
+      throw new IOException("The CBOR content is not an object.");
+   }
+
+   /**
+    * @param is
+    *           stream containing a CBOR data item
+    * @return the decoded JSONObject, JSONArray, String, Long, Double, Boolean
+    *         or null
+    * @throws IOException
+    *            if the stream does not contain a well formed CBOR data item
+    */
+   static public Object decode(InputStream is) throws IOException {
+      return new Decoder(is).readValue(0);
+   }
+
+   /**
+    * @param is
+    *           stream containing a CBOR data item
+    * @return the decoded Jackson tree
+    * @throws IOException
+    *            if the stream does not contain a well formed CBOR data item
+    */
+   static public JsonNode decodeJsonNode(InputStream is) throws IOException {
+      return new Decoder(is).readNode(0);
+   }
+
+   /**
+    * Reads data items from a stream. The initial byte of each item has been
+    * read into _initial before its content is read.
+    */
+   static class Decoder {
+      InputStream _is;
+      int _initial = 0;
+      byte[] _scratch = new byte[8];
+
+      Decoder(InputStream is) {
+         _is = is;
+      }
+
+      int read() throws IOException {
+         int b = _is.read();
+         if (b < 0) {
+            throw new EOFException("The CBOR content ended unexpectedly.");
+         }
+         return b;
+      }
+
+      void readFully(byte[] bytes, int offset, int length) throws IOException {
+         while (length > 0) {
+            int count = _is.read(bytes, offset, length);
+            if (count < 0) {
+               throw new EOFException("The CBOR content ended unexpectedly.");
+            }
+            offset += count;
+            length -= count;
+         }
+      }
+
+      /**
+       * @return the argument of the current item's initial byte, or -1 for
+       *         an indefinite length
+       */
+      long readArgument() throws IOException {
+         int info = _initial & 0x1f;
+         if (info < 24) {
+            return info;
+         }
+         int count = 0;
+         switch (info) {
+            case 24: {
+               count = 1;
+               break;
+            }
+            case 25: {
+               count = 2;
+               break;
+            }
+            case 26: {
+               count = 4;
+               break;
+            }
+            case 27: {
+               count = 8;
+               break;
+            }
+            case INDEFINITE: {
+               return -1L;
+            }
+            default: {
+               throw new IOException(
+                  "Invalid CBOR additional information " + info);
+            }
+         }
+         readFully(_scratch, 0, count);
+         long value = 0L;
+         for (int i = 0; i < count; i++) {
+            value = (value << 8) | (_scratch[i] & 0xff);
+         }
+         return value;
+      }
+
+      /**
+       * @return the definite length of the current item
+       */
+      int readLength() throws IOException {
+         long length = readArgument();
+         if (length < 0L || length > Integer.MAX_VALUE - 8) {
+            throw new IOException("Unsupported CBOR length " + length);
+         }
+         return (int) length;
+      }
+
+      byte[] readBytes(int length) throws IOException {
+         if (length <= READ_CHUNK) {
+            byte[] bytes = new byte[length];
+            readFully(bytes, 0, length);
+            return bytes;
+         }
+         ByteArrayOutputStream baos = new ByteArrayOutputStream(READ_CHUNK);
+         byte[] chunk = new byte[READ_CHUNK];
+         while (length > 0) {
+            int count = Math.min(length, READ_CHUNK);
+            readFully(chunk, 0, count);
+            baos.write(chunk, 0, count);
+            length -= count;
+         }
+         return baos.toByteArray();
+      }
+
+      /**
+       * @return the content of the current byte or text string, joining the
+       *         chunks of indefinite length strings
+       */
+      byte[] readStringBytes() throws IOException {
+         int major = _initial >>> 5;
+         if ((_initial & 0x1f) != INDEFINITE) {
+            return readBytes(readLength());
+         }
+         ByteArrayOutputStream baos = new ByteArrayOutputStream();
+         while ((_initial = read()) != BREAK) {
+            if ((_initial >>> 5) != major
+               || (_initial & 0x1f) == INDEFINITE) {
+               throw new IOException("Invalid CBOR string chunk.");
+            }
+            baos.write(readBytes(readLength()));
+         }
+         return baos.toByteArray();
+      }
+
+      /**
+       * @return the current item's integer, float, or simple value as a Long,
+       *         Double, Boolean or null
+       */
+      Object readScalar() throws IOException {
+         int major = _initial >>> 5;
+         switch (major) {
+            case MAJOR_UNSIGNED: {
+               long value = readArgument();
+               if (value < 0L) {
+                  // beyond the range of a long
+                  return new BigInteger(Long.toUnsignedString(value))
+                     .doubleValue();
+               }
+               return value;
+            }
+            case MAJOR_NEGATIVE: {
+               long value = readArgument();
+               if (value < 0L) {
+                  return -1.0d - new BigInteger(Long.toUnsignedString(value))
+                     .doubleValue();
+               }
+               return -1L - value;
+            }
+            case MAJOR_SIMPLE: {
+               switch (_initial) {
+                  case FALSE: {
+                     return Boolean.FALSE;
+                  }
+                  case TRUE: {
+                     return Boolean.TRUE;
+                  }
+                  case NULL:
+                  case UNDEFINED: {
+                     return null;
+                  }
+                  case HALF_FLOAT: {
+                     return halfToDouble((int) readArgument());
+                  }
+                  case SINGLE_FLOAT: {
+                     return (double) Float
+                        .intBitsToFloat((int) readArgument());
+                  }
+                  case DOUBLE_FLOAT: {
+                     return Double.longBitsToDouble(readArgument());
+                  }
+                  default: {
+                     throw new IOException(
+                        "Unsupported CBOR simple value " + _initial);
+                  }
+               }
+            }
+            default: {
+               throw new IOException("Unexpected CBOR major type " + major);
+            }
+         }
+      }
+
+      /**
+       * Skip any tags preceding the next item, leaving its initial byte in
+       * _initial
+       *
+       * @return false if the next item is a break
+       */
+      boolean next() throws IOException {
+         _initial = read();
+         while ((_initial >>> 5) == MAJOR_TAG) {
+            readArgument();
+            _initial = read();
+         }
+         return _initial != BREAK;
+      }
+
+      Object readValue(int depth) throws IOException {
+         if (next() == false) {
+            throw new IOException("Unexpected CBOR break.");
+         }
+         return readCurrentValue(depth);
+      }
+
+      Object readCurrentValue(int depth) throws IOException {
+         switch (_initial >>> 5) {
+            case MAJOR_TEXT: {
+               return new String(readStringBytes(),
+                  MDfromHTMLUtils.UTF8_CHARSET);
+            }
+            case MAJOR_BYTES: {
+               return Base64.getEncoder().encodeToString(readStringBytes());
+            }
+            case MAJOR_MAP: {
+               checkDepth(depth);
+               long count = readArgument();
+               JSONObject map = new JSONObject();
+               for (long i = 0; count < 0L || i < count; i++) {
+                  if (next() == false) {
+                     if (count < 0L) {
+                        break;
+                     }
+                     throw new IOException("Unexpected CBOR break.");
+                  }
+                  String key = String.valueOf(readCurrentValue(depth + 1));
+                  map.put(key, readValue(depth + 1));
+               }
+               return map;
+            }
+            case MAJOR_ARRAY: {
+               checkDepth(depth);
+               long count = readArgument();
+               JSONArray array = new JSONArray(
+                  (int) Math.max(0L, Math.min(count, 1024L)));
+               for (long i = 0; count < 0L || i < count; i++) {
+                  if (next() == false) {
+                     if (count < 0L) {
+                        break;
+                     }
+                     throw new IOException("Unexpected CBOR break.");
+                  }
+                  array.add(readCurrentValue(depth + 1));
+               }
+               return array;
+            }
+            default: {
+               return readScalar();
+            }
+         }
+      }
+
+      JsonNode readNode(int depth) throws IOException {
+         if (next() == false) {
+            throw new IOException("Unexpected CBOR break.");
+         }
+         return readCurrentNode(depth);
+      }
+
+      JsonNode readCurrentNode(int depth) throws IOException {
+         JsonNodeFactory factory = JsonNodeFactory.instance;
+         switch (_initial >>> 5) {
+            case MAJOR_TEXT: {
+               return factory.textNode(new String(readStringBytes(),
+                  MDfromHTMLUtils.UTF8_CHARSET));
+            }
+            case MAJOR_BYTES: {
+               return factory.binaryNode(readStringBytes());
+            }
+            case MAJOR_MAP: {
+               checkDepth(depth);
+               long count = readArgument();
+               ObjectNode map = factory.objectNode();
+               for (long i = 0; count < 0L || i < count; i++) {
+                  if (next() == false) {
+                     if (count < 0L) {
+                        break;
+                     }
+                     throw new IOException("Unexpected CBOR break.");
+                  }
+                  String key = readCurrentNode(depth + 1).asText();
+                  map.set(key, readNode(depth + 1));
+               }
+               return map;
+            }
+            case MAJOR_ARRAY: {
+               checkDepth(depth);
+               long count = readArgument();
+               ArrayNode array = factory.arrayNode();
+               for (long i = 0; count < 0L || i < count; i++) {
+                  if (next() == false) {
+                     if (count < 0L) {
+                        break;
+                     }
+                     throw new IOException("Unexpected CBOR break.");
+                  }
+                  array.add(readCurrentNode(depth + 1));
+               }
+               return array;
+            }
+            default: {
+               Object value = readScalar();
+               if (value == null) {
+                  return factory.nullNode();
+               }
+               if (value instanceof Boolean) {
+                  return factory.booleanNode((Boolean) value);
+               }
+               if (value instanceof Double) {
+                  return factory.numberNode((Double) value);
+               }
+               long longValue = (Long) value;
+               if (longValue == (int) longValue) {
+                  return factory.numberNode((int) longValue);
+               }
+               return factory.numberNode(longValue);
+            }
+         }
+      }
+
+      void checkDepth(int depth) throws IOException {
+         if (depth >= MAX_DEPTH) {
+            throw new IOException(
+               "The CBOR content is nested more than " + MAX_DEPTH
+                  + " levels deep.");
+         }
+      }
+   }
+
+   /**
+    * @param bits
+    *           IEEE 754 half precision value
+    * @return the value as a double
+    */
+   static double halfToDouble(int bits) {
+      int exponent = (bits >>> 10) & 0x1f;
+      int mantissa = bits & 0x3ff;
+      double value;
+      if (exponent == 0) {
+         value = mantissa * Math.pow(2.0d, -24);
+      } else if (exponent == 31) {
+         value = mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+      } else {
+         value = (mantissa + 1024) * Math.pow(2.0d, exponent - 25);
+      }
+      return (bits & 0x8000) == 0 ? value : -value;
+   }
+}
@@ -22,14 +22,17 @@
 
 package com.mdfromhtml.core;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.util.Base64;
 import java.util.Iterator;
+import java.util.zip.GZIPInputStream;
 
 import com.api.json.JSON;
 import com.api.json.JSONObject;
@@ -45,15 +48,50 @@ import com.google.gson.JsonObject;
 
 /**
  * Communications utilities
+ * <p>
+ * Request and response content is JSON text unless the service object
+ * contains "encoding":"cbor", in which case requests with content (all but
+ * GET) are sent as CBOR (see {@link MDfromHTMLCBORCodec}) and CBOR responses
+ * are requested. Responses are decoded based on their Content-Type, so a
+ * service answering in JSON is still understood. Compressed (gzip) responses
+ * are requested and decoded.
+ * <p>
+ * Callers sending many requests to a service should use
+ * {@link MDfromHTMLServiceClient}, which reuses the parsed service settings
+ * and sends requests concurrently.
  */
 public class MDfromHTMLComms {
 
+   /**
+    * service encoding sending and requesting CBOR content
+    */
+   static public final String ENCODING_CBOR = "cbor";
+
+   /**
+    * service encoding sending and requesting JSON text (the default)
+    */
+   static public final String ENCODING_JSON = "json";
+
+   /**
+    * Accept header used for CBOR requests, allowing JSON (e.g., from servers
+    * not supporting CBOR)
+    */
+   static final String CBOR_ACCEPT = MDfromHTMLCBORCodec.MEDIA_TYPE
+      + ", application/json;q=0.9";
+
    static boolean s_debug = false; // true;
 
    static Gson s_gson = new GsonBuilder().create();
 
    static public JSONObject sendRequest(String method, JSONObject service,
       JSONObject params) throws Exception {
+      if (isCBOR(method, service.get("encoding"))) {
+         ObjectNode serviceObj = (ObjectNode) new ObjectMapper()
+            .readTree(service.toString());
+         Object response = sendCBORRequest(method, serviceObj,
+            MDfromHTMLCBORCodec.encode(params), false);
+         return (JSONObject) response;
+      }
       JsonObject serviceObj = s_gson.fromJson(service.toString(),
          JsonObject.class);
       JsonObject parameters = s_gson.fromJson(params.toString(),
@@ -64,6 +102,11 @@ public class MDfromHTMLComms {
 
    static public ObjectNode sendRequest(String method, ObjectNode serviceObj,
       ObjectNode params) throws Exception {
+      if (serviceObj != null && params != null
+         && isCBOR(method, serviceObj.path("encoding").asText(null))) {
+         return (ObjectNode) sendCBORRequest(method, serviceObj,
+            MDfromHTMLCBORCodec.encode(params), true);
+      }
       JsonObject parameters = s_gson.fromJson(params.toString(),
          JsonObject.class);
       return sendRequest(method, serviceObj, parameters);
@@ -132,25 +175,9 @@ public class MDfromHTMLComms {
       if (params == null) {
          throw new Exception("The params object is null");
       }
-      int timeout = 10000;
-      try {
-         timeout = new Integer(apitimeout);
-         if (timeout < 0) {
-            throw new Exception(
-               "The apitimeout is less than zero milliseconds.");
-         }
-      } catch (NumberFormatException nfe) {
-         throw new Exception(
-            "The apitimeout is not a positive integer of milliseconds.");
-      }
-      ObjectNode responseObj = null;
-      String url = protocol + "://" + domain;
-      if (portnumber != null && portnumber.length() > 0) {
-         url += ":" + portnumber;
-      }
+      int timeout = getTimeout(apitimeout);
+      String url = getServiceURL(protocol, domain, portnumber, endpoint);
       boolean needsQuestionMark = (endpoint.indexOf("?") == -1);
-      // Note: assume endpoint entered with appropriate encoding
-      url += endpoint;
       if ("GET".equals(method)) {
          // move parameters to URL query string
          String key = null;
@@ -180,6 +207,100 @@ public class MDfromHTMLComms {
             url += URLEncoder.encode(sb.toString(), "UTF-8");
          }
       }
+      HttpURLConnection serviceConnection = openConnection(method, url,
+         username, password, timeout, "application/json", null,
+         "GET".equals(method) ? new byte[0]
+            : MDfromHTMLUtils.toUTF8Bytes(params.toString()));
+      return (ObjectNode) readResponse(serviceConnection, true);
+   };
+
+   /**
+    * Send the CBOR encoded request content to the service described by the
+    * service object, requesting a CBOR response
+    *
+    * @param method
+    *           the HTTP method (e.g., POST)
+    * @param serviceObj
+    *           the service's protocol, domain, portnumber, endpoint,
+    *           username, password and apitimeout
+    * @param content
+    *           the CBOR encoded request
+    * @param jsonNodes
+    *           true to return the response as an ObjectNode, false to return
+    *           a JSONObject
+    * @return the response, or an object containing the errorCode and errorMsg
+    *         if the request failed
+    * @throws Exception
+    *            if the request can not be sent or its response decoded
+    */
+   static public Object sendCBORRequest(String method, ObjectNode serviceObj,
+      byte[] content, boolean jsonNodes) throws Exception {
+      if (method == null) {
+         throw new Exception("The method is null.");
+      }
+      if (serviceObj == null) {
+         throw new Exception("The serviceObj is null");
+      }
+      JsonNode portnumberElt = serviceObj.get("portnumber");
+      if (portnumberElt == null || portnumberElt.isValueNode() == false) {
+         throw new Exception(
+            "The portnumber is not a String of a number, nor a Number.");
+      }
+      String url = getServiceURL(
+         getStringFromObject(serviceObj, "protocol").trim(),
+         getStringFromObject(serviceObj, "domain").trim(),
+         portnumberElt.asText().trim(),
+         getStringFromObject(serviceObj, "endpoint", "").trim());
+      int timeout = getTimeout(
+         getStringFromObject(serviceObj, "apitimeout").trim());
+      HttpURLConnection serviceConnection = openConnection(method.trim(), url,
+         getStringFromObject(serviceObj, "username").trim(),
+         getStringFromObject(serviceObj, "password").trim(), timeout,
+         MDfromHTMLCBORCodec.MEDIA_TYPE, CBOR_ACCEPT, content);
+      return readResponse(serviceConnection, jsonNodes);
+   }
+
+   /**
+    * @param method
+    *           the HTTP method
+    * @param encoding
+    *           the service's encoding (may be null)
+    * @return true if the request should be sent as CBOR
+    */
+   static boolean isCBOR(String method, Object encoding) {
+      return ENCODING_CBOR.equals(encoding) && method != null
+         && "GET".equals(method.trim()) == false;
+   }
+
+   static int getTimeout(String apitimeout) throws Exception {
+      int timeout = 10000;
+      try {
+         timeout = new Integer(apitimeout);
+         if (timeout < 0) {
+            throw new Exception(
+               "The apitimeout is less than zero milliseconds.");
+         }
+      } catch (NumberFormatException nfe) {
+         throw new Exception(
+            "The apitimeout is not a positive integer of milliseconds.");
+      }
+      return timeout;
+   }
+
+   static String getServiceURL(String protocol, String domain,
+      String portnumber, String endpoint) {
+      String url = protocol + "://" + domain;
+      if (portnumber != null && portnumber.length() > 0) {
+         url += ":" + portnumber;
+      }
+      // Note: assume endpoint entered with appropriate encoding
+      url += endpoint;
+      return url;
+   }
+
+   static HttpURLConnection openConnection(String method, String url,
+      String username, String password, int timeout, String contentType,
+      String accept, byte[] content) throws Exception {
       if (s_debug) {
          System.out.println("URL: " + url);
       }
@@ -197,46 +318,119 @@ public class MDfromHTMLComms {
          authStringEnc = "Basic " + authStringEnc;
          serviceConnection.setRequestProperty("Authorization", authStringEnc);
       }
-      serviceConnection.setRequestProperty("Content-Type", "application/json");
+      serviceConnection.setRequestProperty("Content-Type", contentType);
+      if (accept != null) {
+         serviceConnection.setRequestProperty("Accept", accept);
+      }
+      serviceConnection.setRequestProperty("Accept-Encoding", "gzip");
+      serviceConnection.setConnectTimeout(timeout);
       serviceConnection.setDoOutput(true);
-
       OutputStream os = serviceConnection.getOutputStream();
-      serviceConnection.setConnectTimeout(timeout);
-      if ("GET".equals(method)) {
-         os.write(new byte[0]);
-      } else {
-         os.write(params.toString().getBytes());
-      }
+      os.write(content);
       os.flush();
       os.close();
+      return serviceConnection;
+   }
+
+   /**
+    * Read the response, decoding it as CBOR or JSON based on its
+    * Content-Type
+    *
+    * @param serviceConnection
+    *           the connection that sent the request
+    * @param jsonNodes
+    *           true to return an ObjectNode, false to return a JSONObject
+    * @return the response, or an object containing the errorCode and errorMsg
+    *         if the request failed
+    * @throws Exception
+    *            if the response can not be read or decoded
+    */
+   static Object readResponse(HttpURLConnection serviceConnection,
+      boolean jsonNodes) throws Exception {
       int responseCode = serviceConnection.getResponseCode();
       String responseMsg = serviceConnection.getResponseMessage();
       if (s_debug) {
          System.out
             .println("Returned code " + responseCode + " " + responseMsg);
       }
-      if (responseCode >= 200 && responseCode < 299) { // success
-         BufferedReader in = new BufferedReader(
-            new InputStreamReader(serviceConnection.getInputStream()));
-         String inputLine;
-         StringBuffer response = new StringBuffer();
-         while ((inputLine = in.readLine()) != null) {
-            response.append(inputLine);
-         }
-         in.close();
-         ObjectMapper mapper = new ObjectMapper();
-         // convert request to JsonNode
-         JsonNode responseNode = mapper.readTree(response.toString());
-         if (responseNode.isObject()) {
-            responseObj = (ObjectNode) responseNode;
+      if (responseCode < 200 || responseCode >= 299) {
+         discardErrorContent(serviceConnection);
+         if (jsonNodes) {
+            ObjectNode responseObj = JsonNodeFactory.instance.objectNode();
+            responseObj.put("errorCode", responseCode);
+            responseObj.put("errorMsg", responseMsg);
+            return responseObj;
          }
-      } else {
-         responseObj = JsonNodeFactory.instance.objectNode();
+         JSONObject responseObj = new JSONObject();
          responseObj.put("errorCode", responseCode);
          responseObj.put("errorMsg", responseMsg);
+         return responseObj;
       }
-      return responseObj;
-   };
+      byte[] content = null;
+      try (InputStream is = getResponseStream(serviceConnection)) {
+         ByteArrayOutputStream baos = new ByteArrayOutputStream(Math.max(
+            serviceConnection.getContentLength(), 1024));
+         byte[] buffer = new byte[8192];
+         int count = 0;
+         while ((count = is.read(buffer)) >= 0) {
+            baos.write(buffer, 0, count);
+         }
+         content = baos.toByteArray();
+      }
+      boolean cbor = MDfromHTMLCBORCodec
+         .isCBOR(serviceConnection.getContentType());
+      if (jsonNodes) {
+         JsonNode responseNode = cbor
+            ? MDfromHTMLCBORCodec
+               .decodeJsonNode(new ByteArrayInputStream(content))
+            : new ObjectMapper().readTree(content);
+         if (responseNode.isObject()) {
+            return (ObjectNode) responseNode;
+         }
+         return null;
+      }
+      if (cbor) {
+         return MDfromHTMLCBORCodec.decodeJSONObject(content);
+      }
+      return JSONObject
+         .parse(new String(content, MDfromHTMLUtils.UTF8_CHARSET));
+   }
+
+   /**
+    * @param serviceConnection
+    *           connection whose request succeeded
+    * @return the response content, decompressed if it was sent gzip encoded
+    * @throws IOException
+    *            if the content can not be read
+    */
+   static InputStream getResponseStream(HttpURLConnection serviceConnection)
+      throws IOException {
+      InputStream is = serviceConnection.getInputStream();
+      if ("gzip".equalsIgnoreCase(serviceConnection.getContentEncoding())) {
+         return new GZIPInputStream(is, 8192);
+      }
+      return is;
+   }
+
+   /**
+    * Read and close the content of an error response so the connection may
+    * be kept alive and reused for later requests
+    *
+    * @param serviceConnection
+    *           connection whose request failed
+    */
+   static void discardErrorContent(HttpURLConnection serviceConnection) {
+      try (InputStream es = serviceConnection.getErrorStream()) {
+         if (es != null) {
+            byte[] buffer = new byte[8192];
+            while (es.read(buffer) >= 0) {
+               // discard
+            }
+         }
+      } catch (IOException e) {
+         // the connection will not be reused
+      }
+   }
 
    static public ArrayNode getArrayFromObject(ObjectNode obj, String key)
       throws Exception {
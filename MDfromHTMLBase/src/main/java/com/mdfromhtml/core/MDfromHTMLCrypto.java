@@ -22,28 +22,14 @@
 
 package com.mdfromhtml.core;
 
-import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.security.spec.InvalidKeySpecException;
-import java.util.Base64;
-
-import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
-import javax.crypto.SecretKey;
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.PBEKeySpec;
-import javax.crypto.spec.PBEParameterSpec;
-
 /**
  * Utility to mask / unmask text. While there is a well defined key used for
  * masking, a different key can be set as either an environment variable or
  * passed as a system property (e.g., -Dname=value on Java command line) using
  * the name defined by {@link MDfromHTMLMasker#ENV_MASKER_KEY}
+ * <p>
+ * The work is done by the {@link MDfromHTMLMaskingEngine} for the key and
+ * salt, which derives the key once and reuses its ciphers.
  */
 
 public class MDfromHTMLCrypto {
@@ -55,14 +41,6 @@ public class MDfromHTMLCrypto {
       (byte) 0x53, (byte) 0x16, (byte) 0x25,
    };
 
-   private static byte[] base64Decode(String property) throws IOException {
-      return Base64.getUrlDecoder().decode(property);
-   }
-
-   private static String base64Encode(byte[] bytes) {
-      return Base64.getUrlEncoder().encodeToString(bytes);
-   }
-
    /**
     * Unmasks the text using the salt and key
     * 
@@ -78,38 +56,7 @@ public class MDfromHTMLCrypto {
     */
    public static String decrypt(String text, char[] key, byte[] salt)
       throws Exception {
-      SecretKeyFactory keyFactory;
-      try {
-         keyFactory = SecretKeyFactory.getInstance("PBEWithMD5AndDES");
-         SecretKey secretKey = keyFactory.generateSecret(new PBEKeySpec(key));
-         Cipher pbeCipher = Cipher.getInstance("PBEWithMD5AndDES");
-         pbeCipher.init(Cipher.DECRYPT_MODE, secretKey,
-            new PBEParameterSpec(salt, 20));
-         return new String(pbeCipher.doFinal(base64Decode(text)), "UTF-8");
-      } catch (NoSuchAlgorithmException e) {
-         throw new Exception(
-            "Can not find needed algorithm: " + e.getLocalizedMessage(), e);
-      } catch (InvalidKeySpecException e) {
-         throw new Exception(
-            "Invalid key specification: " + e.getLocalizedMessage(), e);
-      } catch (NoSuchPaddingException e) {
-         throw new Exception("Missing padding: " + e.getLocalizedMessage(), e);
-      } catch (InvalidKeyException e) {
-         throw new Exception("Invalid key: " + e.getLocalizedMessage(), e);
-      } catch (InvalidAlgorithmParameterException e) {
-         throw new Exception(
-            "Invalid algorithm parameter: " + e.getLocalizedMessage(), e);
-      } catch (UnsupportedEncodingException e) {
-         throw new Exception("Unsupported encoding: " + e.getLocalizedMessage(),
-            e);
-      } catch (IllegalBlockSizeException e) {
-         throw new Exception("Illegal block size: " + e.getLocalizedMessage(),
-            e);
-      } catch (BadPaddingException e) {
-         throw new Exception("Bad padding: " + e.getLocalizedMessage(), e);
-      } catch (IOException e) {
-         throw new Exception("IO Exception: " + e.getLocalizedMessage(), e);
-      }
+      return MDfromHTMLMaskingEngine.getInstance(key, salt).decrypt(text);
    }
 
    /**
@@ -159,36 +106,7 @@ public class MDfromHTMLCrypto {
     */
    public static String encrypt(String text, char[] key, byte[] salt)
       throws Exception {
-      SecretKeyFactory keyFactory;
-      try {
-         keyFactory = SecretKeyFactory.getInstance("PBEWithMD5AndDES");
-         SecretKey secretKey = keyFactory.generateSecret(new PBEKeySpec(key));
-         Cipher pbeCipher = Cipher.getInstance("PBEWithMD5AndDES");
-         pbeCipher.init(Cipher.ENCRYPT_MODE, secretKey,
-            new PBEParameterSpec(salt, 20));
-         return base64Encode(pbeCipher.doFinal(text.getBytes("UTF-8")));
-      } catch (NoSuchAlgorithmException e) {
-         throw new Exception(
-            "Can not find needed algorithm: " + e.getLocalizedMessage(), e);
-      } catch (InvalidKeySpecException e) {
-         throw new Exception(
-            "Invalid key specification: " + e.getLocalizedMessage(), e);
-      } catch (NoSuchPaddingException e) {
-         throw new Exception("Missing padding: " + e.getLocalizedMessage(), e);
-      } catch (InvalidKeyException e) {
-         throw new Exception("Invalid key: " + e.getLocalizedMessage(), e);
-      } catch (InvalidAlgorithmParameterException e) {
-         throw new Exception(
-            "Invalid algorithm parameter: " + e.getLocalizedMessage(), e);
-      } catch (UnsupportedEncodingException e) {
-         throw new Exception("Unsupported encoding: " + e.getLocalizedMessage(),
-            e);
-      } catch (IllegalBlockSizeException e) {
-         throw new Exception("Illegal block size: " + e.getLocalizedMessage(),
-            e);
-      } catch (BadPaddingException e) {
-         throw new Exception("Bad padding: " + e.getLocalizedMessage(), e);
-      }
+      return MDfromHTMLMaskingEngine.getInstance(key, salt).encrypt(text);
    }
 
    public static void main(String[] args) throws Exception {
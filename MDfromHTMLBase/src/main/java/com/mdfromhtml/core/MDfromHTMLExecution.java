@@ -0,0 +1,415 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.core;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Schedules the work of the batch programs and web services. Per item work
+ * and its blocking file I/O run on I/O threads, while CPU bound conversion is
+ * submitted to a bounded pool of platform threads sized to the processors.
+ * <p>
+ * On Java 21 and later the I/O threads are virtual threads (one per task),
+ * so waiting on files or on the conversion pool does not tie up platform
+ * threads. The Java 21 support is packaged in the multi-release jar, so on
+ * older JVMs (or when run from an unpackaged classes directory) the I/O
+ * threads fall back to a pool of platform threads sized to the number of
+ * items allowed in flight.
+ * <p>
+ * Settings may be supplied as system properties:
+ * <ul>
+ * <li>mdfromhtml.threads: conversion threads (default is the number of
+ * processors). 0 runs all work serially on the calling thread as done
+ * previously.</li>
+ * <li>mdfromhtml.inFlight: items processed concurrently by
+ * {@link #forEachOrdered(Iterable, Task, ResultHandler)} (default is 4 per
+ * conversion thread, at least 8)</li>
+ * <li>mdfromhtml.virtualThreads: false to use platform I/O threads even when
+ * virtual threads are supported (default true)</li>
+ * </ul>
+ *
+ * @author Nathaniel Mills
+ */
+public class MDfromHTMLExecution implements Closeable {
+
+   /**
+    * Work performed for an item
+    *
+    * @param <I>
+    *           the type of item
+    * @param <R>
+    *           the type of result
+    */
+   public interface Task<I, R> {
+      /**
+       * @param item
+       *           the item to be processed
+       * @return the result of processing the item
+       * @throws Exception
+       *            if the item can not be processed
+       */
+      public R call(I item) throws Exception;
+   }
+
+   /**
+    * Consumer of the results of the tasks, called in the order the items were
+    * supplied
+    *
+    * @param <R>
+    *           the type of result
+    */
+   public interface ResultHandler<R> {
+      /**
+       * @param result
+       *           the result of the next item's task
+       * @return true to continue, false to stop processing further items
+       * @throws Exception
+       *            if the result can not be handled, stopping processing of
+       *            further items
+       */
+      public boolean accept(R result) throws Exception;
+   }
+
+   /**
+    * system property setting the number of items processed concurrently
+    */
+   static public final String IN_FLIGHT_PROPERTY = "mdfromhtml.inFlight";
+
+   /**
+    * system property setting the number of conversion threads (0 for serial)
+    */
+   static public final String THREADS_PROPERTY = "mdfromhtml.threads";
+
+   /**
+    * system property set to false to avoid using virtual threads
+    */
+   static public final String VIRTUAL_THREADS_PROPERTY = "mdfromhtml.virtualThreads";
+
+   /**
+    * identifies the conversion pool (if any) running the current thread so
+    * nested conversion work is run in place rather than waiting on the pool
+    */
+   static final ThreadLocal<MDfromHTMLExecution> CPU_POOL = new ThreadLocal<MDfromHTMLExecution>();
+
+   int _cpuThreads;
+   ExecutorService _cpuExecutor = null;
+   ExecutorService _ioExecutor = null;
+   int _maxInFlight;
+   boolean _virtualThreads;
+
+   /**
+    * Constructor
+    *
+    * @param cpuThreads
+    *           number of platform threads performing CPU bound conversion, or
+    *           0 to run all work serially on the calling thread
+    * @param maxInFlight
+    *           number of items processed concurrently by
+    *           {@link #forEachOrdered(Iterable, Task, ResultHandler)}
+    * @param virtualThreads
+    *           true to use virtual threads for the I/O work when the JVM
+    *           supports them
+    */
+   public MDfromHTMLExecution(int cpuThreads, int maxInFlight,
+      boolean virtualThreads) {
+      _cpuThreads = Math.max(0, cpuThreads);
+      _maxInFlight = Math.max(1, maxInFlight);
+      _virtualThreads = _cpuThreads > 0 && virtualThreads
+         && MDfromHTMLVirtualThreads.isSupported();
+      if (_cpuThreads > 0) {
+         final MDfromHTMLExecution execution = this;
+         _cpuExecutor = newPlatformPool(_cpuThreads, "mdfromhtml-cpu-",
+            new Runnable() {
+               @Override
+               public void run() {
+                  CPU_POOL.set(execution);
+               }
+            });
+         if (_virtualThreads) {
+            _ioExecutor = MDfromHTMLVirtualThreads.newExecutor("mdfromhtml-io-");
+         } else {
+            _ioExecutor = newPlatformPool(_maxInFlight, "mdfromhtml-io-", null);
+         }
+      }
+   }
+
+   /**
+    * @return an execution configured by the mdfromhtml.threads,
+    *         mdfromhtml.inFlight and mdfromhtml.virtualThreads system
+    *         properties
+    */
+   static public MDfromHTMLExecution fromProperties() {
+      int cpuThreads = Integer.getInteger(THREADS_PROPERTY,
+         Runtime.getRuntime().availableProcessors());
+      int maxInFlight = Integer.getInteger(IN_FLIGHT_PROPERTY,
+         Math.max(8, 4 * cpuThreads));
+      boolean virtualThreads = Boolean.parseBoolean(
+         System.getProperty(VIRTUAL_THREADS_PROPERTY, "true"));
+      return new MDfromHTMLExecution(cpuThreads, maxInFlight, virtualThreads);
+   }
+
+   /**
+    * @return true if this JVM supports virtual threads and the multi-release
+    *         jar's Java 21 support was loaded
+    */
+   static public boolean supportsVirtualThreads() {
+      return MDfromHTMLVirtualThreads.isSupported();
+   }
+
+   static ExecutorService newPlatformPool(int threads, final String namePrefix,
+      final Runnable threadInit) {
+      final AtomicInteger threadCount = new AtomicInteger();
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+         60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+         new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+               Thread thread = new Thread(new Runnable() {
+                  @Override
+                  public void run() {
+                     if (threadInit != null) {
+                        threadInit.run();
+                     }
+                     r.run();
+                  }
+               }, namePrefix + threadCount.incrementAndGet());
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+      executor.allowCoreThreadTimeOut(true);
+      return executor;
+   }
+
+   /**
+    * Run the task on the conversion pool and wait for its result. The task is
+    * run on the calling thread when serial or when already running on the
+    * conversion pool.
+    *
+    * @param task
+    *           the CPU bound work
+    * @return the task's result
+    * @throws Exception
+    *            the exception thrown by the task
+    */
+   public <T> T callCPU(Callable<T> task) throws Exception {
+      if (_cpuExecutor == null || CPU_POOL.get() == this) {
+         return task.call();
+      }
+      return getResult(_cpuExecutor.submit(task));
+   }
+
+   /**
+    * Stop the threads once their current work completes
+    */
+   @Override
+   public void close() {
+      if (_cpuExecutor != null) {
+         _cpuExecutor.shutdown();
+      }
+      if (_ioExecutor != null) {
+         _ioExecutor.shutdown();
+      }
+   }
+
+   /**
+    * @return a description of the threads used for logging
+    */
+   public String describe() {
+      if (_cpuThreads == 0) {
+         return "serial execution";
+      }
+      return _cpuThreads + " conversion threads, " + _maxInFlight
+         + " items in flight on " + (_virtualThreads ? "virtual" : "platform")
+         + " I/O threads";
+   }
+
+   /**
+    * Process the items concurrently, each on an I/O thread, while handing
+    * their results to the handler on the calling thread in the order the
+    * items were supplied so output is the same as processing them serially.
+    * At most {@link #getMaxInFlight()} items are in progress at a time. Once
+    * the handler returns false (or throws an exception) no further items are
+    * started and the results of those already started are discarded.
+    *
+    * @param items
+    *           the items to be processed
+    * @param task
+    *           the work performed for each item
+    * @param handler
+    *           the consumer of each item's result
+    * @return true if all items were processed, false if the handler stopped
+    *         processing
+    * @throws Exception
+    *            the exception thrown by a task or by the handler
+    */
+   public <I, R> boolean forEachOrdered(Iterable<I> items,
+      final Task<I, R> task, ResultHandler<R> handler) throws Exception {
+      if (_ioExecutor == null) {
+         for (I item : items) {
+            if (handler.accept(task.call(item)) == false) {
+               return false;
+            }
+         }
+         return true;
+      }
+      Deque<Future<R>> inFlight = new ArrayDeque<Future<R>>(_maxInFlight);
+      boolean completed = false;
+      try {
+         for (final I item : items) {
+            if (inFlight.size() >= _maxInFlight) {
+               if (handler.accept(getResult(inFlight.removeFirst())) == false) {
+                  return false;
+               }
+            }
+            inFlight.addLast(_ioExecutor.submit(new Callable<R>() {
+               @Override
+               public R call() throws Exception {
+                  return task.call(item);
+               }
+            }));
+         }
+         while (inFlight.isEmpty() == false) {
+            if (handler.accept(getResult(inFlight.removeFirst())) == false) {
+               return false;
+            }
+         }
+         completed = true;
+         return true;
+      } finally {
+         if (completed == false) {
+            // let running items finish but start no others
+            for (Future<R> future : inFlight) {
+               future.cancel(false);
+            }
+         }
+      }
+   }
+
+   /**
+    * @return the number of conversion threads (0 when serial)
+    */
+   public int getCPUThreads() {
+      return _cpuThreads;
+   }
+
+   /**
+    * @return the executor for I/O work (null when serial)
+    */
+   public ExecutorService getIOExecutor() {
+      return _ioExecutor;
+   }
+
+   /**
+    * @return the number of items processed concurrently
+    */
+   public int getMaxInFlight() {
+      return _maxInFlight;
+   }
+
+   /**
+    * @return true unless all work is run serially on the calling thread
+    */
+   public boolean isConcurrent() {
+      return _cpuThreads > 0;
+   }
+
+   /**
+    * @return true if the I/O work is run on virtual threads
+    */
+   public boolean isVirtual() {
+      return _virtualThreads;
+   }
+
+   /**
+    * Start the CPU bound task on the conversion pool. When serial the task is
+    * run before returning.
+    *
+    * @param task
+    *           the CPU bound work
+    * @return the pending result of the task
+    */
+   public <T> Future<T> submitCPU(Callable<T> task) {
+      if (_cpuExecutor == null || CPU_POOL.get() == this) {
+         FutureTask<T> future = new FutureTask<T>(task);
+         future.run();
+         return future;
+      }
+      return _cpuExecutor.submit(task);
+   }
+
+   /**
+    * Start the blocking I/O task on an I/O thread. When serial the task is
+    * run before returning.
+    *
+    * @param task
+    *           the I/O bound work
+    * @return the pending result of the task
+    */
+   public <T> Future<T> submitIO(Callable<T> task) {
+      if (_ioExecutor == null) {
+         FutureTask<T> future = new FutureTask<T>(task);
+         future.run();
+         return future;
+      }
+      return _ioExecutor.submit(task);
+   }
+
+   /**
+    * Wait for the result of the future, unwrapping the exception thrown by
+    * its task
+    *
+    * @param future
+    *           the pending result
+    * @return the result
+    * @throws Exception
+    *            the exception thrown by the task, or InterruptedException if
+    *            interrupted while waiting
+    */
+   static public <T> T getResult(Future<T> future) throws Exception {
+      try {
+         return future.get();
+      } catch (ExecutionException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof Exception) {
+            throw (Exception) cause;
+         }
+         if (cause instanceof Error) {
+            throw (Error) cause;
+         }
+         throw e;
+      }
+   }
+}
@@ -0,0 +1,206 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.api.json.JSONObject;
+
+/**
+ * Thread safe latency histogram using log-linear buckets in the style of an
+ * HDR histogram. Values below 2^SUB_BUCKET_BITS are recorded exactly and
+ * larger values are recorded within 1/2^SUB_BUCKET_BITS (about 3%) of their
+ * true value, so percentiles remain accurate from nanoseconds through hours
+ * with a fixed footprint. Recording is a few arithmetic operations and atomic
+ * increments with no locking or allocation.
+ *
+ * @author Nathaniel Mills
+ */
+public class MDfromHTMLHistogram {
+
+   /**
+    * number of bits of precision kept for each power of 2 range
+    */
+   static public final int SUB_BUCKET_BITS = 5;
+
+   static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+   static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+   /**
+    * the percentiles reported by {@link #toJSON()}
+    */
+   static public final double[] REPORTED_PERCENTILES = new double[] { 50.0,
+      75.0, 90.0, 95.0, 99.0, 99.9 };
+
+   AtomicLongArray _buckets = new AtomicLongArray(BUCKET_COUNT);
+   LongAdder _count = new LongAdder();
+   LongAccumulator _max = new LongAccumulator(Math::max, 0L);
+   LongAccumulator _min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+   LongAdder _total = new LongAdder();
+
+   /**
+    * @param value
+    *           a non-negative value
+    * @return the index of the bucket holding the supplied value
+    */
+   static int getBucketIndex(long value) {
+      if (value < SUB_BUCKET_COUNT) {
+         return (int) value;
+      }
+      int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+      return ((shift + 1) << SUB_BUCKET_BITS)
+         + (int) ((value >>> shift) - SUB_BUCKET_COUNT);
+   }
+
+   /**
+    * @param index
+    *           the index of a bucket
+    * @return the largest value recorded in the bucket at the supplied index
+    */
+   static long getBucketHighestValue(int index) {
+      if (index < (SUB_BUCKET_COUNT << 1)) {
+         return index;
+      }
+      int shift = (index >>> SUB_BUCKET_BITS) - 1;
+      long subBucket = (index & (SUB_BUCKET_COUNT - 1)) + SUB_BUCKET_COUNT;
+      return ((subBucket + 1L) << shift) - 1L;
+   }
+
+   /**
+    * Record a value. Negative values are recorded as 0.
+    *
+    * @param value
+    *           the value to be recorded (e.g., elapsed nanoseconds)
+    */
+   public void recordValue(long value) {
+      if (value < 0L) {
+         value = 0L;
+      }
+      _buckets.incrementAndGet(getBucketIndex(value));
+      _count.increment();
+      _total.add(value);
+      _max.accumulate(value);
+      _min.accumulate(value);
+   }
+
+   /**
+    * @return the number of values recorded
+    */
+   public long getCount() {
+      return _count.sum();
+   }
+
+   /**
+    * @return the largest value recorded, or 0 if none have been recorded
+    */
+   public long getMax() {
+      return _max.get();
+   }
+
+   /**
+    * @return the mean of the values recorded, or 0 if none have been recorded
+    */
+   public double getMean() {
+      long count = _count.sum();
+      return count == 0L ? 0.0 : (double) _total.sum() / (double) count;
+   }
+
+   /**
+    * @return the smallest value recorded, or 0 if none have been recorded
+    */
+   public long getMin() {
+      long min = _min.get();
+      return min == Long.MAX_VALUE ? 0L : min;
+   }
+
+   /**
+    * @param percentile
+    *           the percentile (0.0 to 100.0) of interest
+    * @return the value at or below which the supplied percentile of recorded
+    *         values fall (reported as the highest value equivalent to the
+    *         bucket containing it), or 0 if none have been recorded
+    */
+   public long getValueAtPercentile(double percentile) {
+      long count = 0L;
+      long[] counts = new long[BUCKET_COUNT];
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+         counts[i] = _buckets.get(i);
+         count += counts[i];
+      }
+      if (count == 0L) {
+         return 0L;
+      }
+      long target = (long) Math
+         .ceil((Math.min(Math.max(percentile, 0.0), 100.0) / 100.0) * count);
+      if (target < 1L) {
+         target = 1L;
+      }
+      long seen = 0L;
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+         seen += counts[i];
+         if (seen >= target) {
+            return Math.min(getBucketHighestValue(i), getMax());
+         }
+      }
+      return getMax();
+   }
+
+   /**
+    * Discard all recorded values
+    */
+   public void reset() {
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+         _buckets.set(i, 0L);
+      }
+      _count.reset();
+      _total.reset();
+      _max.reset();
+      _min.reset();
+   }
+
+   /**
+    * Summarize the recorded values, assumed to be nanoseconds, in
+    * microseconds
+    *
+    * @return object containing the count, min, mean, max and reported
+    *         percentiles (e.g., p99_9Micros for the 99.9th percentile)
+    */
+   public JSONObject toJSON() {
+      JSONObject result = new JSONObject();
+      result.put("count", getCount());
+      result.put("minMicros", getMin() / 1000L);
+      result.put("meanMicros", (long) (getMean() / 1000.0));
+      for (double percentile : REPORTED_PERCENTILES) {
+         String name = "p" + (percentile == Math.rint(percentile)
+            ? Long.toString((long) percentile)
+            : Double.toString(percentile).replace('.', '_'));
+         result.put(name + "Micros",
+            getValueAtPercentile(percentile) / 1000L);
+      }
+      result.put("maxMicros", getMax() / 1000L);
+      return result;
+   }
+}
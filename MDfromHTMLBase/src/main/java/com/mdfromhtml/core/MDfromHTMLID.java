@@ -116,8 +116,8 @@ public class MDfromHTMLID implements Serializable, Comparable<Object>, Cloneable
 
    /**
     * Construct a compressed MDfromHTMLID based on
-    * {@link MDfromHTMLBASE64Codec#encode(byte[],boolean)} of the bytes gleaned from
-    * {@link UUID#randomUUID()}
+    * {@link MDfromHTMLBASE64Codec#encode(byte[],boolean)} of the bytes of a
+    * random (version 4) UUID drawn from {@link MDfromHTMLRandom}
     */
    public MDfromHTMLID() {
       _id = getUUID();
@@ -164,15 +164,22 @@ public class MDfromHTMLID implements Serializable, Comparable<Object>, Cloneable
    }
 
    private String getUUID() {
-      UUID uuid = UUID.randomUUID();
-      long msb = uuid.getMostSignificantBits();
-      long lsb = uuid.getLeastSignificantBits();
       byte[] bUUID = new byte[16];
-      for (int i = 0; i < 8; i++) {
-         bUUID[i] = (byte) (msb >>> 8 * (7 - i));
-      }
-      for (int i = 8; i < 16; i++) {
-         bUUID[i] = (byte) (lsb >>> 8 * (7 - i));
+      if (MDfromHTMLRandom.isSecure()) {
+         // same layout as UUID.randomUUID without its shared generator
+         MDfromHTMLRandom.nextBytes(bUUID);
+         bUUID[6] = (byte) ((bUUID[6] & 0x0f) | 0x40); // version 4
+         bUUID[8] = (byte) ((bUUID[8] & 0x3f) | 0x80); // IETF variant
+      } else {
+         UUID uuid = UUID.randomUUID();
+         long msb = uuid.getMostSignificantBits();
+         long lsb = uuid.getLeastSignificantBits();
+         for (int i = 0; i < 8; i++) {
+            bUUID[i] = (byte) (msb >>> 8 * (7 - i));
+         }
+         for (int i = 8; i < 16; i++) {
+            bUUID[i] = (byte) (lsb >>> 8 * (7 - i));
+         }
       }
       /**
        * strip the trailing "==" from the Base64 encoding and use URL Safe
@@ -0,0 +1,682 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import com.api.json.JSONObject;
+
+/**
+ * Fixed layout binary codec for {@link MDfromHTMLIPCMessage}s. Rather than
+ * joining the header fields into a delimited String (see
+ * {@link MDfromHTMLIPCMessage#toByteArray(MDfromHTMLIPCMessage)}), the header
+ * is written directly into a caller supplied (heap or direct) ByteBuffer at
+ * fixed offsets, followed by the variable length UTF-8 publisher name, topic
+ * and type, and then the message content:
+ * 
+ * <pre>
+ * offset size
+ *      0    4 magic (distinguishes this format from the delimited format)
+ *      4    4 sequence
+ *      8    8 create time
+ *     16    4 application value
+ *     20    4 verb value
+ *     24    4 content length
+ *     28    2 publisher name length (UTF-8 bytes)
+ *     30    2 topic length (UTF-8 bytes)
+ *     32    2 type length (UTF-8 bytes)
+ *     34    1 flags (1 if the content is JSON)
+ *     35    1 reserved
+ *     36    4 chunk count (on the last frame of a sequence, otherwise 0)
+ *     40   22 session id
+ *     62   22 user id
+ *     84      publisher name, topic, type, content
+ * </pre>
+ * 
+ * All values are little endian, as in the delimited format. Read as the
+ * delimited format's header length, the magic is negative so older readers
+ * reject the message rather than misinterpreting it, while
+ * {@link MDfromHTMLIPCMessage#fromByteArray(byte[])} and
+ * {@link #decode(byte[])} read either format.
+ * <p>
+ * Decoding the header does not copy the content: {@link #decodeHeader(ByteBuffer)}
+ * returns a slice of the buffer, and {@link #encodeSequenced(MDfromHTMLIPCMessage, int, boolean)}
+ * splits a message into frames whose content buffers are slices of the
+ * original message, suited to a gathering write.
+ *
+ * @author Nathaniel Mills
+ */
+public class MDfromHTMLIPCCodec {
+
+   /**
+    * The header of a binary encoded message, along with a slice of the buffer
+    * holding its content
+    */
+   static public class Header {
+      MDfromHTMLIPCApplications _appl = MDfromHTMLIPCApplications.UNDEFINED;
+      ByteBuffer _body = null;
+      boolean _isJSON = false;
+      String _publisherName = null;
+      int _chunks = 0;
+      int _seqnum = 0;
+      MDfromHTMLID _sessionID = MDfromHTMLID.UNDEFINED_ID;
+      long _time = 0L;
+      String _topic = null;
+      String _type = null;
+      MDfromHTMLID _userID = MDfromHTMLID.UNDEFINED_ID;
+      MDfromHTMLIPCVerbs _verb = MDfromHTMLIPCVerbs.UNDEFINED;
+
+      /**
+       * @return the application that sent the message
+       */
+      public MDfromHTMLIPCApplications getApplication() {
+         return _appl;
+      }
+
+      /**
+       * @return a read only slice of the decoded buffer holding the message
+       *         content (not a copy)
+       */
+      public ByteBuffer getBody() {
+         return _body;
+      }
+
+      /**
+       * @return the length (in bytes) of the message content
+       */
+      public int getBodyLength() {
+         return _body.remaining();
+      }
+
+      /**
+       * @return the number of chunks in the sequence when this is its last
+       *         message, otherwise 0
+       */
+      public int getChunkCount() {
+         return _chunks;
+      }
+
+      /**
+       * @return the unique name of the publisher of the message
+       */
+      public String getPublisherName() {
+         return _publisherName;
+      }
+
+      /**
+       * @return the sequence number (0 for an only message,
+       *         {@link Integer#MAX_VALUE} for the last of a sequence)
+       */
+      public int getSequence() {
+         return _seqnum;
+      }
+
+      /**
+       * @return the session identifier
+       */
+      public MDfromHTMLID getSessionID() {
+         return _sessionID;
+      }
+
+      /**
+       * @return the time the original message was created
+       */
+      public long getTime() {
+         return _time;
+      }
+
+      /**
+       * @return the topic used for publish/subscribe routing
+       */
+      public String getTopic() {
+         return _topic;
+      }
+
+      /**
+       * @return the type of the message
+       */
+      public String getType() {
+         return _type;
+      }
+
+      /**
+       * @return the user identifier
+       */
+      public MDfromHTMLID getUserID() {
+         return _userID;
+      }
+
+      /**
+       * @return the verb describing the message's action
+       */
+      public MDfromHTMLIPCVerbs getVerb() {
+         return _verb;
+      }
+
+      /**
+       * @return true if the content is a JSONObject
+       */
+      public boolean isJSON() {
+         return _isJSON;
+      }
+
+      /**
+       * @return true if this is the last message of a sequence
+       */
+      public boolean isLastMessage() {
+         return _seqnum == Integer.MAX_VALUE;
+      }
+
+      /**
+       * @return true if this is the only message (not a sequence)
+       */
+      public boolean isOnlyMessage() {
+         return _seqnum == 0;
+      }
+
+      /**
+       * Create the message, copying the content from the buffer
+       * 
+       * @return the message described by this header
+       */
+      public MDfromHTMLIPCMessage toMessage() {
+         byte[] body = new byte[_body.remaining()];
+         _body.duplicate().get(body);
+         MDfromHTMLIPCMessage msg = new MDfromHTMLIPCMessage(_publisherName,
+            _sessionID, _appl, _topic, _type, _verb, _userID, body, _isJSON,
+            _time, _seqnum);
+         msg.setChunkCount(_chunks);
+         return msg;
+      }
+   }
+
+   static public final int FLAG_JSON = 0x01;
+   /**
+    * the length of the session and user identifiers, which must match
+    * {@link MDfromHTMLID#ID_LENGTH}
+    */
+   static public final int ID_BYTES = 22;
+   /**
+    * "MH" followed by the format version 3 and 0xFF (making the value
+    * negative when read as a delimited format header length)
+    */
+   static public final int MAGIC = 0xFF03484D;
+   static public final int FIXED_HEADER_SIZE = 40 + 2 * ID_BYTES;
+   static public final int MAX_STRING_BYTES = 0xFFFF;
+
+   static final int OFFSET_SEQUENCE = 4;
+   static final int OFFSET_TIME = 8;
+   static final int OFFSET_APPL = 16;
+   static final int OFFSET_VERB = 20;
+   static final int OFFSET_BODY_LENGTH = 24;
+   static final int OFFSET_PUBLISHER_LENGTH = 28;
+   static final int OFFSET_TOPIC_LENGTH = 30;
+   static final int OFFSET_TYPE_LENGTH = 32;
+   static final int OFFSET_FLAGS = 34;
+   static final int OFFSET_CHUNK_COUNT = 36;
+   static final int OFFSET_SESSION_ID = 40;
+   static final int OFFSET_USER_ID = OFFSET_SESSION_ID + ID_BYTES;
+
+   static {
+      // the wire layout fixes the length of the identifiers
+      if (MDfromHTMLID.ID_LENGTH != ID_BYTES) {
+         throw new IllegalStateException("The identifier length "
+            + MDfromHTMLID.ID_LENGTH + " differs from the " + ID_BYTES
+            + " bytes of the binary message layout.");
+      }
+   }
+
+   /**
+    * @param bytes
+    *           bytes received
+    * @return true if the bytes hold a message in the binary format
+    */
+   static public boolean isBinary(byte[] bytes) {
+      return bytes != null && bytes.length >= FIXED_HEADER_SIZE
+         && isBinary(ByteBuffer.wrap(bytes));
+   }
+
+   /**
+    * @param buffer
+    *           buffer positioned at the start of a message
+    * @return true if the buffer holds a message in the binary format at its
+    *         position
+    */
+   static public boolean isBinary(ByteBuffer buffer) {
+      return buffer.remaining() >= FIXED_HEADER_SIZE && buffer
+         .duplicate().order(ByteOrder.LITTLE_ENDIAN).getInt() == MAGIC;
+   }
+
+   /**
+    * @param msg
+    *           the message to be encoded
+    * @return the number of bytes needed to encode the message's header
+    *         (excluding its content)
+    */
+   static public int getHeaderSize(MDfromHTMLIPCMessage msg) {
+      return FIXED_HEADER_SIZE + utf8Length(msg.getPublisherName())
+         + utf8Length(msg.getTopic()) + utf8Length(msg.getType());
+   }
+
+   /**
+    * @param msg
+    *           the message to be encoded
+    * @return the number of bytes needed to encode the message
+    */
+   static public int getEncodedSize(MDfromHTMLIPCMessage msg) {
+      return getHeaderSize(msg) + msg.getMessageBytes().length;
+   }
+
+   /**
+    * Write the message into the buffer at its position, advancing the
+    * position past the message
+    * 
+    * @param msg
+    *           the message to be encoded
+    * @param buffer
+    *           buffer with at least {@link #getEncodedSize(MDfromHTMLIPCMessage)}
+    *           bytes remaining
+    * @throws Exception
+    *            if the message is null, a string is too long, or the buffer
+    *            is too small
+    */
+   static public void encode(MDfromHTMLIPCMessage msg, ByteBuffer buffer)
+      throws Exception {
+      if (msg == null) {
+         throw new Exception("Message is null.");
+      }
+      byte[] body = msg.getMessageBytes();
+      writeHeader(msg, msg.getSequence(), msg.getChunkCount(), msg.isJSON(),
+         body.length, buffer);
+      buffer.put(body);
+   }
+
+   /**
+    * @param msg
+    *           the message to be encoded
+    * @param direct
+    *           true to allocate a direct buffer
+    * @return a buffer holding the encoded message, positioned at its start
+    * @throws Exception
+    *            if the message is null or a string is too long
+    */
+   static public ByteBuffer encode(MDfromHTMLIPCMessage msg, boolean direct)
+      throws Exception {
+      if (msg == null) {
+         throw new Exception("Message is null.");
+      }
+      int size = getEncodedSize(msg);
+      ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(size)
+         : ByteBuffer.allocate(size);
+      encode(msg, buffer);
+      buffer.flip();
+      return buffer;
+   }
+
+   /**
+    * @param msg
+    *           the message to be encoded
+    * @return the byte array holding the encoded message
+    * @throws Exception
+    *            if the message is null or a string is too long
+    */
+   static public byte[] toByteArray(MDfromHTMLIPCMessage msg)
+      throws Exception {
+      return encode(msg, false).array();
+   }
+
+   /**
+    * Split the message into frames of at most chunkSize content bytes,
+    * numbered as by {@link MDfromHTMLIPCMessage#getSequencedMessages(int)}.
+    * The returned array alternates each frame's header with a read only slice
+    * of the message's content (the content is not copied), so writing the
+    * array with a gathering write (e.g.,
+    * {@link java.nio.channels.GatheringByteChannel#write(ByteBuffer[])})
+    * sends the frames back to back. The headers share one allocation. As
+    * with the sequenced messages, the content of each chunk is flagged as not
+    * being JSON until the message is reassembled, and the last frame carries
+    * the number of frames.
+    * 
+    * @param msg
+    *           the message to be split
+    * @param chunkSize
+    *           maximum content bytes per frame
+    * @param direct
+    *           true to allocate the headers in a direct buffer
+    * @return header and content buffers for each frame
+    * @throws Exception
+    *            if the message is null, the chunk size is invalid, or a
+    *            string is too long
+    */
+   static public ByteBuffer[] encodeSequenced(MDfromHTMLIPCMessage msg,
+      int chunkSize, boolean direct) throws Exception {
+      if (msg == null) {
+         throw new Exception("Message is null.");
+      }
+      if (chunkSize < 2 || chunkSize > MDfromHTMLIPCMessage.IPC_MAX_MESSAGE_SIZE) {
+         throw new Exception("Invalid chunk size. Must be > 1 or < "
+            + MDfromHTMLIPCMessage.IPC_MAX_MESSAGE_SIZE + ".");
+      }
+      byte[] body = msg.getMessageBytes();
+      int chunks = chunkSize >= body.length ? 1
+         : (body.length + chunkSize - 1) / chunkSize;
+      int headerSize = getHeaderSize(msg);
+      ByteBuffer headers = direct
+         ? ByteBuffer.allocateDirect(headerSize * chunks)
+         : ByteBuffer.allocate(headerSize * chunks);
+      ByteBuffer content = ByteBuffer.wrap(body).asReadOnlyBuffer();
+      ByteBuffer[] frames = new ByteBuffer[chunks * 2];
+      for (int chunk = 0; chunk < chunks; chunk++) {
+         int offset = chunk * chunkSize;
+         int length = Math.min(chunkSize, body.length - offset);
+         int seq = msg.getSequence();
+         int count = msg.getChunkCount();
+         if (chunks > 1) {
+            seq = chunk == chunks - 1 ? Integer.MAX_VALUE : chunk + 1;
+            count = chunk == chunks - 1 ? chunks : 0;
+         }
+         headers.limit(headers.position() + headerSize);
+         ByteBuffer header = headers.slice();
+         writeHeader(msg, seq, count, chunks == 1 && msg.isJSON(), length,
+            header);
+         header.flip();
+         headers.position(headers.limit());
+         content.limit(offset + length).position(offset);
+         frames[chunk * 2] = header;
+         frames[chunk * 2 + 1] = content.slice();
+      }
+      return frames;
+   }
+
+   static void writeHeader(MDfromHTMLIPCMessage msg, int seq, int chunkCount,
+      boolean isJSON, int bodyLength, ByteBuffer buffer) throws Exception {
+      byte[] publisherName = utf8Bytes(msg.getPublisherName());
+      byte[] topic = utf8Bytes(msg.getTopic());
+      byte[] type = utf8Bytes(msg.getType());
+      ByteOrder order = buffer.order();
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      try {
+         buffer.putInt(MAGIC);
+         buffer.putInt(seq);
+         buffer.putLong(msg.getTime());
+         buffer.putInt(msg.getApplicationValue());
+         buffer.putInt(msg.getVerbValue());
+         buffer.putInt(bodyLength);
+         buffer.putShort((short) publisherName.length);
+         buffer.putShort((short) topic.length);
+         buffer.putShort((short) type.length);
+         buffer.put((byte) (isJSON ? FLAG_JSON : 0));
+         buffer.put((byte) 0);
+         buffer.putInt(chunkCount);
+         putID(msg.getSessionID(), buffer);
+         putID(msg.getUserID(), buffer);
+         buffer.put(publisherName);
+         buffer.put(topic);
+         buffer.put(type);
+      } finally {
+         buffer.order(order);
+      }
+   }
+
+   static void putID(MDfromHTMLID id, ByteBuffer buffer) throws Exception {
+      String value = id.toString();
+      if (value.length() != ID_BYTES) {
+         throw new Exception("Identifier \"" + value + "\" is not " + ID_BYTES
+            + " characters.");
+      }
+      for (int i = 0; i < ID_BYTES; i++) {
+         buffer.put((byte) value.charAt(i));
+      }
+   }
+
+   static byte[] utf8Bytes(String value) throws Exception {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      if (bytes.length > MAX_STRING_BYTES) {
+         throw new Exception("Header value is longer than " + MAX_STRING_BYTES
+            + " bytes: " + MDfromHTMLUtils.shortenString(value, 100));
+      }
+      return bytes;
+   }
+
+   static int utf8Length(String value) {
+      int length = 0;
+      for (int i = 0; i < value.length(); i++) {
+         char c = value.charAt(i);
+         if (c < 0x80) {
+            length++;
+         } else if (c < 0x800) {
+            length += 2;
+         } else if (Character.isHighSurrogate(c)) {
+            length += 4;
+            i++;
+         } else {
+            length += 3;
+         }
+      }
+      return length;
+   }
+
+   /**
+    * Read the header of the binary message at the buffer's position,
+    * advancing the position past the message. The content is not copied: the
+    * header's body is a slice of the buffer, so the buffer's content must not
+    * be changed while the body is in use.
+    * 
+    * @param buffer
+    *           buffer positioned at the start of a binary message
+    * @return the message's header and content
+    * @throws Exception
+    *            if the buffer does not hold a complete binary message
+    */
+   static public Header decodeHeader(ByteBuffer buffer) throws Exception {
+      if (isBinary(buffer) == false) {
+         throw new Exception(
+            "Buffer is too short or does not contain a binary message.");
+      }
+      int start = buffer.position();
+      ByteBuffer bb = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+      Header header = new Header();
+      header._seqnum = bb.getInt(start + OFFSET_SEQUENCE);
+      header._chunks = bb.getInt(start + OFFSET_CHUNK_COUNT);
+      header._time = bb.getLong(start + OFFSET_TIME);
+      header._appl = MDfromHTMLIPCApplications
+         .fromValue(bb.getInt(start + OFFSET_APPL));
+      header._verb = MDfromHTMLIPCVerbs
+         .fromValue(bb.getInt(start + OFFSET_VERB));
+      int bodyLength = bb.getInt(start + OFFSET_BODY_LENGTH);
+      int publisherLength = bb.getShort(start + OFFSET_PUBLISHER_LENGTH)
+         & 0xFFFF;
+      int topicLength = bb.getShort(start + OFFSET_TOPIC_LENGTH) & 0xFFFF;
+      int typeLength = bb.getShort(start + OFFSET_TYPE_LENGTH) & 0xFFFF;
+      header._isJSON = (bb.get(start + OFFSET_FLAGS) & FLAG_JSON) != 0;
+      int stringsStart = start + FIXED_HEADER_SIZE;
+      int bodyStart = stringsStart + publisherLength + topicLength
+         + typeLength;
+      if (bodyLength < 0 || bodyStart + (long) bodyLength > buffer.limit()) {
+         throw new Exception("Invalid body length in buffer.");
+      }
+      header._sessionID = MDfromHTMLID
+         .getExistingID(getString(bb, start + OFFSET_SESSION_ID, ID_BYTES));
+      header._userID = MDfromHTMLID
+         .getExistingID(getString(bb, start + OFFSET_USER_ID, ID_BYTES));
+      header._publisherName = getString(bb, stringsStart, publisherLength);
+      header._topic = getString(bb, stringsStart + publisherLength,
+         topicLength);
+      header._type = getString(bb,
+         stringsStart + publisherLength + topicLength, typeLength);
+      bb.limit(bodyStart + bodyLength).position(bodyStart);
+      header._body = bb.slice().asReadOnlyBuffer();
+      buffer.position(bodyStart + bodyLength);
+      return header;
+   }
+
+   static String getString(ByteBuffer bb, int offset, int length) {
+      if (bb.hasArray()) {
+         return new String(bb.array(), bb.arrayOffset() + offset, length,
+            StandardCharsets.UTF_8);
+      }
+      byte[] bytes = new byte[length];
+      for (int i = 0; i < length; i++) {
+         bytes[i] = bb.get(offset + i);
+      }
+      return new String(bytes, StandardCharsets.UTF_8);
+   }
+
+   /**
+    * Read the binary message at the buffer's position, advancing the position
+    * past the message. The content is copied once into the message.
+    * 
+    * @param buffer
+    *           buffer positioned at the start of a binary message
+    * @return the decoded message
+    * @throws Exception
+    *            if the buffer does not hold a complete binary message
+    */
+   static public MDfromHTMLIPCMessage decode(ByteBuffer buffer)
+      throws Exception {
+      return decodeHeader(buffer).toMessage();
+   }
+
+   /**
+    * Decode a message in either the binary or the delimited format
+    * 
+    * @param bytes
+    *           bytes received
+    * @return the decoded message
+    * @throws Exception
+    *            if the bytes are not a valid message in either format
+    */
+   static public MDfromHTMLIPCMessage decode(byte[] bytes) throws Exception {
+      if (isBinary(bytes)) {
+         return decode(ByteBuffer.wrap(bytes));
+      }
+      return MDfromHTMLIPCMessage.fromByteArray(bytes);
+   }
+
+   /**
+    * Benchmark of encode and decode throughput for the delimited and binary
+    * formats
+    * 
+    * @param args
+    *           optional content size in bytes (default 4096), iterations
+    *           (default 200000) and chunk size (default 1024)
+    */
+   public static void main(String[] args) {
+      int size = 4096;
+      int iterations = 200000;
+      int chunkSize = 1024;
+      try {
+         if (args.length > 0) {
+            size = new Integer(args[0]);
+         }
+         if (args.length > 1) {
+            iterations = new Integer(args[1]);
+         }
+         if (args.length > 2) {
+            chunkSize = new Integer(args[2]);
+         }
+         StringBuilder sb = new StringBuilder();
+         while (sb.length() < size - 12) {
+            sb.append((char) ('a' + sb.length() % 26));
+         }
+         JSONObject content = new JSONObject();
+         content.put("text", sb.toString());
+         MDfromHTMLIPCMessage msg = new MDfromHTMLIPCMessage(null,
+            new MDfromHTMLID(), MDfromHTMLIPCApplications.MDfromHTML,
+            "mdfromhtml/topic", "type1", MDfromHTMLIPCVerbs.UNDEFINED,
+            new MDfromHTMLID(), content);
+         System.out.println("Content bytes: " + msg.getMessageBytes().length
+            + ", delimited bytes: "
+            + MDfromHTMLIPCMessage.toByteArray(msg).length
+            + ", binary bytes: " + getEncodedSize(msg));
+         MDfromHTMLIPCMessage check = decode(toByteArray(msg));
+         if (check.toJson().toString().equals(msg.toJson().toString()) == false) {
+            throw new Exception("Binary round trip does not match: " + check);
+         }
+         ByteBuffer direct = ByteBuffer.allocateDirect(getEncodedSize(msg));
+         long sink = 0L;
+         for (int pass = 0; pass < 2; pass++) {
+            String label = pass == 0 ? "warmup " : "";
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+               sink += MDfromHTMLIPCMessage.toByteArray(msg).length;
+            }
+            report(label + "delimited encode", iterations, size, start);
+            byte[] delimited = MDfromHTMLIPCMessage.toByteArray(msg);
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+               sink += MDfromHTMLIPCMessage.fromByteArray(delimited)
+                  .getSequence();
+            }
+            report(label + "delimited decode", iterations, size, start);
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+               direct.clear();
+               encode(msg, direct);
+               sink += direct.position();
+            }
+            report(label + "binary encode (direct buffer)", iterations, size,
+               start);
+            direct.flip();
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+               sink += decodeHeader(direct.duplicate()).getBodyLength();
+            }
+            report(label + "binary decode header (direct buffer)", iterations,
+               size, start);
+            byte[] binary = toByteArray(msg);
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+               sink += decode(binary).getSequence();
+            }
+            report(label + "binary decode message", iterations, size, start);
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+               sink += msg.getSequencedMessages(chunkSize).length;
+            }
+            report(label + "getSequencedMessages(" + chunkSize + ")",
+               iterations, size, start);
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+               sink += encodeSequenced(msg, chunkSize, false).length;
+            }
+            report(label + "encodeSequenced(" + chunkSize + ")", iterations,
+               size, start);
+         }
+         if (sink == 0L) {
+            System.out.println("Unexpected empty results");
+         }
+      } catch (Exception e) {
+         e.printStackTrace();
+      }
+   }
+
+   static void report(String label, int iterations, int size, long start) {
+      long elapsed = System.nanoTime() - start;
+      System.out.println(String.format("%-45s %10.0f msgs/s %8.1f MB/s", label,
+         iterations * 1.0E9d / elapsed,
+         (double) iterations * size * 1000.0d / elapsed));
+   }
+}
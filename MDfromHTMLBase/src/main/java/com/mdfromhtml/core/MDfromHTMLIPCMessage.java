@@ -69,7 +69,9 @@ public class MDfromHTMLIPCMessage implements IMDfromHTMLIPCMessage, Serializable
 
 	/**
 	 * Converts the message format sent across the wire into a MDfromHTMLIPCMessage
-	 * object
+	 * object. Both the delimited format written by
+	 * {@link #toByteArray(MDfromHTMLIPCMessage)} and the binary format written
+	 * by {@link MDfromHTMLIPCCodec} are accepted.
 	 * 
 	 * @param bytes
 	 *            byte array carrying the message
@@ -83,6 +85,10 @@ public class MDfromHTMLIPCMessage implements IMDfromHTMLIPCMessage, Serializable
 		if (bytes == null || bytes.length < 8) {
 			throw new Exception("Byte array is null or too short to be valid.");
 		}
+		if (MDfromHTMLIPCCodec.isBinary(bytes)) {
+			// fixed layout format written by MDfromHTMLIPCCodec
+			return MDfromHTMLIPCCodec.decode(ByteBuffer.wrap(bytes));
+		}
 		ByteBuffer bb = ByteBuffer.wrap(bytes);
 		bb.order(ByteOrder.LITTLE_ENDIAN);
 		int headerLen = bb.getInt();
@@ -114,6 +120,8 @@ public class MDfromHTMLIPCMessage implements IMDfromHTMLIPCMessage, Serializable
 		long time = new Long(parts[8]);
 		int seq = new Integer(parts[9]);
 		boolean isJSON = parts[10].compareToIgnoreCase("1") == 0;
+		// the chunk count follows the final delimiter of the last chunk
+		int chunks = parts[11].length() == 0 ? 0 : new Integer(parts[11]);
 		MDfromHTMLIPCMessage msg = null;
 		if (isJSON && seq == 0) { // only message
 			JSONObject jsonObj;
@@ -134,6 +142,7 @@ public class MDfromHTMLIPCMessage implements IMDfromHTMLIPCMessage, Serializable
 		}
 		msg.setTime(time);
 		msg.setSequence(seq);
+		msg.setChunkCount(chunks);
 		return msg;
 	}
 
@@ -277,6 +286,9 @@ public class MDfromHTMLIPCMessage implements IMDfromHTMLIPCMessage, Serializable
 		sb.append(MDfromHTMLConstants.MDfromHTML_DELIMITER);
 		sb.append(msg.isJSON() ? "1" : "0");
 		sb.append(MDfromHTMLConstants.MDfromHTML_DELIMITER);
+		if (msg.getChunkCount() > 0) {
+			sb.append(msg.getChunkCount());
+		}
 		ByteBuffer bb = null;
 		byte[] header = MDfromHTMLUtils.toUTF8Bytes(sb.toString());
 		byte[] body = msg.getMessageBytes();
@@ -294,6 +306,12 @@ public class MDfromHTMLIPCMessage implements IMDfromHTMLIPCMessage, Serializable
 	 */
 	private MDfromHTMLIPCApplications _appl = MDfromHTMLIPCApplications.MDfromHTML;
 
+	/**
+	 * Number of chunks in the sequence, set on its last chunk (otherwise zero)
+	 * so the chunks can be reassembled in whatever order they arrive
+	 */
+	private int _chunkCount = 0;
+
 	/**
 	 * Time the original message was created
 	 */
@@ -317,11 +335,10 @@ public class MDfromHTMLIPCMessage implements IMDfromHTMLIPCMessage, Serializable
 
 	/**
 	 * Sequence number for chunked messages (if > 0). Special
-	 * {@link Integer#MAX_VALUE} is a semaphore to signal the last message. This
-	 * works because we will not group consumers of messages. If this changes we
-	 * would need to add a message count field to ensure messages that could
-	 * then arrive out of sequence are accounted for. A single message will have
-	 * a sequence of zero.
+	 * {@link Integer#MAX_VALUE} is a semaphore to signal the last message,
+	 * which also carries the chunk count (see {@link #getChunkCount()}) so
+	 * chunks arriving out of sequence are accounted for. A single message will
+	 * have a sequence of zero.
 	 */
 	private int _seqnum = 0;
 
@@ -438,6 +455,50 @@ public class MDfromHTMLIPCMessage implements IMDfromHTMLIPCMessage, Serializable
 		setMessage(message);
 	}
 
+	/**
+	 * Constructor used when decoding a message whose content type, time and
+	 * sequence are already known, avoiding the JSON parse used to detect the
+	 * content type.
+	 * 
+	 * @param publisherName
+	 *            the publisher's unique name
+	 * @param sessionID
+	 *            the session identifier
+	 * @param appl
+	 *            the application id
+	 * @param topic
+	 *            the topic
+	 * @param type
+	 *            the type
+	 * @param verb
+	 *            the verb id
+	 * @param userID
+	 *            the user id within the session
+	 * @param message
+	 *            the content (used as is, not copied)
+	 * @param isJSON
+	 *            whether the content is a JSONObject
+	 * @param time
+	 *            the time the original message was created
+	 * @param seqnum
+	 *            the sequence number
+	 */
+	MDfromHTMLIPCMessage(String publisherName, MDfromHTMLID sessionID, MDfromHTMLIPCApplications appl, String topic,
+			String type, MDfromHTMLIPCVerbs verb, MDfromHTMLID userID, byte[] message, boolean isJSON, long time,
+			int seqnum) {
+		setPublisherName(publisherName);
+		setSessionID(sessionID);
+		setApplication(appl);
+		setTopic(topic);
+		setType(type);
+		setVerb(verb);
+		setUserID(userID);
+		_message = message == null ? new byte[0] : message;
+		_isJSON = isJSON;
+		setTime(time);
+		setSequence(seqnum);
+	}
+
 	public MDfromHTMLIPCMessage(JSONObject message) throws Exception {
 		try {
 			String publisherName = (String) message.get("publisher");
@@ -456,6 +517,10 @@ public class MDfromHTMLIPCMessage implements IMDfromHTMLIPCMessage, Serializable
 			setUserID(userID);
 			Long seq = (Long) message.get("seq");
 			setSequence(seq.intValue());
+			Long chunks = (Long) message.get("chunks");
+			if (chunks != null) {
+				setChunkCount(chunks.intValue());
+			}
 			Boolean isJSON = (Boolean) message.get("isJSON");
 			if (isJSON) {
 				JSONObject msgObj = (JSONObject) message.get("msg");
@@ -480,11 +545,22 @@ public class MDfromHTMLIPCMessage implements IMDfromHTMLIPCMessage, Serializable
 	 * @return whether the passed array is a JSONObject
 	 */
 	private boolean checkIsJSON(byte[] bytes) {
+		return isJSONContent(_message);
+	}
+
+	/**
+	 * Determines whether the passed array is a JSONObject
+	 * 
+	 * @param bytes
+	 *            array to be tested to see if it represents a JSON object
+	 * @return whether the passed array is a JSONObject
+	 */
+	static boolean isJSONContent(byte[] bytes) {
 		boolean isJSON = false;
 		// simple test to determine if this is a JSONObject
-		if ((_message.length > 1) && (_message[0] == 123) && (_message[_message.length - 1] == 125)) {
+		if ((bytes.length > 1) && (bytes[0] == 123) && (bytes[bytes.length - 1] == 125)) {
 			try {
-				JSON.parse(MDfromHTMLUtils.fromUTF8Bytes(_message));
+				JSON.parse(MDfromHTMLUtils.fromUTF8Bytes(bytes));
 				isJSON = true;
 			} catch (NullPointerException | IOException e) {
 				// keave isJSON = false
@@ -522,6 +598,17 @@ public class MDfromHTMLIPCMessage implements IMDfromHTMLIPCMessage, Serializable
 		return _appl.getValue();
 	}
 
+	/**
+	 * Retrieve the number of chunks in the sequence
+	 * 
+	 * @return the number of chunks in the sequence when this is its last
+	 *         message, otherwise zero (as it is for the last message of a
+	 *         sender that does not provide the count)
+	 */
+	public int getChunkCount() {
+		return _chunkCount;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -598,6 +685,10 @@ public class MDfromHTMLIPCMessage implements IMDfromHTMLIPCMessage, Serializable
 		iSize += 1;
 		// sb.append(MDfromHTMLConstants.MDfromHTML_DELIMITER);
 		iSize += MDfromHTMLConstants.MDfromHTML_DELIMITER.length();
+		// sb.append(msg.getChunkCount());
+		if (_chunkCount > 0) {
+			iSize += Integer.toString(_chunkCount).length();
+		}
 		// int message length
 		iSize += Integer.BYTES; // could be Integer.SIZE/Byte.SIZE pre 1.8
 		iSize += _message.length;
@@ -684,6 +775,7 @@ public class MDfromHTMLIPCMessage implements IMDfromHTMLIPCMessage, Serializable
 				// flag this is the last in the sequence
 				msg.setSequence(Integer.MAX_VALUE);
 			}
+			msg.setChunkCount(list.size());
 		}
 
 		return list.toArray(new MDfromHTMLIPCMessage[0]);
@@ -857,6 +949,16 @@ public class MDfromHTMLIPCMessage implements IMDfromHTMLIPCMessage, Serializable
 		_publisherName = publisherName;
 	}
 
+	/**
+	 * Updates the chunk count when splitting a message or receiving its last
+	 * chunk
+	 * 
+	 * @param chunkCount
+	 */
+	void setChunkCount(int chunkCount) {
+		_chunkCount = Math.max(0, chunkCount);
+	}
+
 	/**
 	 * Updates the sequence number when splitting or reassembling a chunked
 	 * message
@@ -1111,6 +1213,9 @@ public class MDfromHTMLIPCMessage implements IMDfromHTMLIPCMessage, Serializable
 		jsonObj.put("publisher", _publisherName);
 		jsonObj.put("time", new MDfromHTMLDate(_createTime).toStringDateTime());
 		jsonObj.put("seq", new Long(_seqnum));
+		if (_chunkCount > 0) {
+			jsonObj.put("chunks", new Long(_chunkCount));
+		}
 		jsonObj.put("isJSON", _isJSON);
 		jsonObj.put("isLast", isLastMessage());
 		jsonObj.put("isOnly", isOnlyMessage());
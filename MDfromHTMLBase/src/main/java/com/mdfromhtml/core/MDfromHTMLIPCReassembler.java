@@ -0,0 +1,535 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.api.json.JSONObject;
+
+/**
+ * Thread safe reassembly of sequenced messages (see
+ * {@link MDfromHTMLIPCMessage#getSequencedMessages(int)} and
+ * {@link MDfromHTMLIPCCodec#encodeSequenced(MDfromHTMLIPCMessage, int, boolean)})
+ * received from many threads, possibly interleaved with the chunks of other
+ * messages. Chunks are grouped by publisher, session, topic and create time,
+ * and may arrive in any order: the terminal chunk (sequence
+ * {@link Integer#MAX_VALUE}) carries the number of chunks (see
+ * {@link MDfromHTMLIPCMessage#getChunkCount()}), and once it and sequences 1
+ * through one less than that count have arrived, the content is copied once
+ * into a buffer sized to the total content and the reassembled message is
+ * returned. A message whose chunks disagree with its count is discarded.
+ * Terminal chunks from senders that do not provide the count are taken to
+ * arrive after the rest of their message.
+ * <p>
+ * Incomplete messages not receiving a chunk within the timeout are discarded,
+ * as are messages whose content would exceed the per message limit, or whose
+ * chunks would push the content held for all incomplete messages beyond the
+ * overall limit (the remaining chunks of such a message are ignored until
+ * none has arrived within the timeout). Expiry is checked as chunks arrive, and may also be driven
+ * by calling {@link #expire()} periodically.
+ *
+ * @author Nathaniel Mills
+ */
+public class MDfromHTMLIPCReassembler {
+
+   /**
+    * Identifies the chunks belonging to one message
+    */
+   static final class Key {
+      final int _hash;
+      final String _publisherName;
+      final String _sessionID;
+      final long _time;
+      final String _topic;
+
+      Key(String publisherName, MDfromHTMLID sessionID, String topic,
+         long time) {
+         _publisherName = publisherName;
+         _sessionID = sessionID.toString();
+         _topic = topic;
+         _time = time;
+         int hash = _publisherName.hashCode();
+         hash = 31 * hash + _sessionID.hashCode();
+         hash = 31 * hash + _topic.hashCode();
+         _hash = 31 * hash + Long.hashCode(_time);
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+         if (this == obj) {
+            return true;
+         }
+         if (obj instanceof Key == false) {
+            return false;
+         }
+         Key key = (Key) obj;
+         return _hash == key._hash && _time == key._time
+            && _publisherName.equals(key._publisherName)
+            && _sessionID.equals(key._sessionID) && _topic.equals(key._topic);
+      }
+
+      @Override
+      public int hashCode() {
+         return _hash;
+      }
+
+      @Override
+      public String toString() {
+         return _publisherName + MDfromHTMLConstants.MDfromHTML_DELIMITER
+            + _sessionID + MDfromHTMLConstants.MDfromHTML_DELIMITER + _topic
+            + MDfromHTMLConstants.MDfromHTML_DELIMITER + _time;
+      }
+   }
+
+   /**
+    * The chunks received so far for one message. Access is synchronized on
+    * the instance.
+    */
+   static final class Pending {
+      long _bytes = 0L;
+      Map<Integer, byte[]> _chunks = new HashMap<Integer, byte[]>();
+      int _count = 0;
+      boolean _done = false;
+      boolean _dropped = false;
+      MDfromHTMLIPCMessage _first = null;
+      long _lastUpdate;
+      int _maxSeq = 0;
+      byte[] _terminal = null;
+
+      Pending(long now) {
+         _lastUpdate = now;
+      }
+
+      /**
+       * @return the highest sequence number preceding the terminal chunk
+       */
+      int getLastSeq() {
+         return _count > 0 ? _count - 1 : _maxSeq;
+      }
+
+      boolean isComplete() {
+         return _terminal != null && _chunks.size() == getLastSeq();
+      }
+   }
+
+   static public final long DEFAULT_MAX_MESSAGE_BYTES = 64L * 1024L * 1024L;
+   static public final long DEFAULT_MAX_PENDING_BYTES = 256L * 1024L * 1024L;
+   static public final long DEFAULT_TIMEOUT_MILLIS = 30000L;
+
+   LongAdder _assembled = new LongAdder();
+   LongAdder _duplicates = new LongAdder();
+   LongAdder _expired = new LongAdder();
+   AtomicLong _lastSweep = new AtomicLong(System.currentTimeMillis());
+   long _maxMessageBytes;
+   long _maxPendingBytes;
+   LongAdder _overLimit = new LongAdder();
+   Map<Key, Pending> _pending = new ConcurrentHashMap<Key, Pending>();
+   AtomicLong _pendingBytes = new AtomicLong();
+   long _sweepMillis;
+   long _timeoutMillis;
+
+   /**
+    * Constructor using the default timeout and limits
+    */
+   public MDfromHTMLIPCReassembler() {
+      this(DEFAULT_TIMEOUT_MILLIS, DEFAULT_MAX_MESSAGE_BYTES,
+         DEFAULT_MAX_PENDING_BYTES);
+   }
+
+   /**
+    * Constructor
+    *
+    * @param timeoutMillis
+    *           milliseconds an incomplete message is kept after receiving its
+    *           most recent chunk
+    * @param maxMessageBytes
+    *           largest content accepted for a single message
+    * @param maxPendingBytes
+    *           most content held for all incomplete messages
+    */
+   public MDfromHTMLIPCReassembler(long timeoutMillis, long maxMessageBytes,
+      long maxPendingBytes) {
+      _timeoutMillis = Math.max(1L, timeoutMillis);
+      _maxMessageBytes = Math.min(Integer.MAX_VALUE - 8,
+         Math.max(1L, maxMessageBytes));
+      _maxPendingBytes = Math.max(1L, maxPendingBytes);
+      _sweepMillis = Math.max(1L, _timeoutMillis / 4L);
+   }
+
+   /**
+    * Add a received chunk
+    *
+    * @param header
+    *           header and content of a binary encoded message (the content is
+    *           copied so the header's buffer may be reused)
+    * @return the reassembled message if this chunk completed it, the message
+    *         itself if it was not sequenced, otherwise null
+    */
+   public MDfromHTMLIPCMessage accept(MDfromHTMLIPCCodec.Header header) {
+      return accept(header.toMessage());
+   }
+
+   /**
+    * Add a received chunk
+    *
+    * @param msg
+    *           message received (its content is retained, not copied, until
+    *           the message is reassembled)
+    * @return the reassembled message if this chunk completed it, the message
+    *         itself if it was not sequenced, otherwise null
+    */
+   public MDfromHTMLIPCMessage accept(MDfromHTMLIPCMessage msg) {
+      if (msg.isOnlyMessage()) {
+         return msg;
+      }
+      long now = System.currentTimeMillis();
+      long lastSweep = _lastSweep.get();
+      if (now - lastSweep >= _sweepMillis
+         && _lastSweep.compareAndSet(lastSweep, now)) {
+         expire(now);
+      }
+      int seq = msg.getSequence();
+      byte[] content = msg.getMessageBytes();
+      if (seq < 0 || (seq != Integer.MAX_VALUE && seq > _maxMessageBytes)) {
+         _overLimit.increment();
+         return null;
+      }
+      Key key = new Key(msg.getPublisherName(), msg.getSessionID(),
+         msg.getTopic(), msg.getTime());
+      while (true) {
+         Pending pending = _pending.get(key);
+         if (pending == null) {
+            Pending created = new Pending(now);
+            pending = _pending.putIfAbsent(key, created);
+            if (pending == null) {
+               pending = created;
+            }
+         }
+         synchronized (pending) {
+            if (pending._done) {
+               // completed or discarded by another thread, start afresh
+               _pending.remove(key, pending);
+               continue;
+            }
+            if (pending._dropped) {
+               // the rest of a discarded message
+               pending._lastUpdate = now;
+               _overLimit.increment();
+               return null;
+            }
+            boolean isTerminal = seq == Integer.MAX_VALUE;
+            if (isTerminal ? pending._terminal != null
+               : pending._chunks.containsKey(seq)) {
+               _duplicates.increment();
+               return null;
+            }
+            int count = isTerminal ? msg.getChunkCount() : pending._count;
+            if (count > 0 && (count > _maxMessageBytes + 1L
+               || (isTerminal ? pending._maxSeq >= count : seq >= count))) {
+               // a chunk beyond the count, the message can't be reassembled
+               drop(pending);
+               _overLimit.increment();
+               return null;
+            }
+            if (pending._bytes + content.length > _maxMessageBytes
+               || _pendingBytes.addAndGet(content.length) > _maxPendingBytes) {
+               if (pending._bytes + content.length <= _maxMessageBytes) {
+                  _pendingBytes.addAndGet(-content.length);
+               }
+               drop(pending);
+               _overLimit.increment();
+               return null;
+            }
+            pending._bytes += content.length;
+            pending._lastUpdate = now;
+            if (pending._first == null) {
+               pending._first = msg;
+            }
+            if (isTerminal) {
+               pending._terminal = content;
+               pending._count = count;
+            } else {
+               pending._chunks.put(seq, content);
+               pending._maxSeq = Math.max(pending._maxSeq, seq);
+            }
+            if (pending.isComplete() == false) {
+               return null;
+            }
+            MDfromHTMLIPCMessage assembled = assemble(pending);
+            discard(key, pending);
+            _assembled.increment();
+            return assembled;
+         }
+      }
+   }
+
+   /**
+    * @param pending
+    *           a complete message's chunks
+    * @return the reassembled message
+    */
+   static MDfromHTMLIPCMessage assemble(Pending pending) {
+      byte[] content = new byte[(int) pending._bytes];
+      int offset = 0;
+      for (int seq = 1, lastSeq = pending.getLastSeq(); seq <= lastSeq;
+         seq++) {
+         byte[] chunk = pending._chunks.get(seq);
+         System.arraycopy(chunk, 0, content, offset, chunk.length);
+         offset += chunk.length;
+      }
+      System.arraycopy(pending._terminal, 0, content, offset,
+         pending._terminal.length);
+      MDfromHTMLIPCMessage first = pending._first;
+      return new MDfromHTMLIPCMessage(first.getPublisherName(),
+         first.getSessionID(), first.getApplication(), first.getTopic(),
+         first.getType(), first.getVerb(), first.getUserID(), content,
+         MDfromHTMLIPCMessage.isJSONContent(content), first.getTime(), 0);
+   }
+
+   /**
+    * Release the incomplete message's content. Must be called while
+    * synchronized on pending.
+    */
+   void discard(Key key, Pending pending) {
+      drop(pending);
+      pending._done = true;
+      _pending.remove(key, pending);
+   }
+
+   /**
+    * Release the content of a message exceeding the limits, leaving it pending
+    * so its remaining chunks are ignored until it expires. Must be called
+    * while synchronized on pending.
+    */
+   void drop(Pending pending) {
+      _pendingBytes.addAndGet(-pending._bytes);
+      pending._bytes = 0L;
+      pending._chunks = Collections.emptyMap();
+      pending._terminal = null;
+      pending._first = null;
+      pending._dropped = true;
+   }
+
+   /**
+    * Discard the incomplete messages that have not received a chunk within
+    * the timeout, along with those discarded for exceeding the limits
+    *
+    * @return the number of messages discarded
+    */
+   public int expire() {
+      long now = System.currentTimeMillis();
+      _lastSweep.set(now);
+      return expire(now);
+   }
+
+   int expire(long now) {
+      int count = 0;
+      for (Iterator<Map.Entry<Key, Pending>> it = _pending.entrySet()
+         .iterator(); it.hasNext();) {
+         Map.Entry<Key, Pending> entry = it.next();
+         Pending pending = entry.getValue();
+         synchronized (pending) {
+            if (pending._done == false
+               && now - pending._lastUpdate >= _timeoutMillis) {
+               if (pending._dropped == false) {
+                  _expired.increment();
+                  count++;
+               }
+               discard(entry.getKey(), pending);
+            }
+         }
+      }
+      return count;
+   }
+
+   /**
+    * @return the number of incomplete messages
+    */
+   public int getPendingCount() {
+      return _pending.size();
+   }
+
+   /**
+    * @return the bytes of content held for incomplete messages
+    */
+   public long getPendingBytes() {
+      return _pendingBytes.get();
+   }
+
+   /**
+    * @return counts of the messages assembled, expired, and discarded for
+    *         exceeding the limits, duplicate chunks ignored, and the
+    *         incomplete messages and their bytes
+    */
+   public JSONObject getStatistics() {
+      JSONObject stats = new JSONObject();
+      stats.put("assembled", _assembled.sum());
+      stats.put("duplicates", _duplicates.sum());
+      stats.put("expired", _expired.sum());
+      stats.put("overLimit", _overLimit.sum());
+      stats.put("pendingMessages", (long) getPendingCount());
+      stats.put("pendingBytes", getPendingBytes());
+      return stats;
+   }
+
+   /**
+    * Test rig splitting messages into chunks, shuffling the chunks of all
+    * messages, and reassembling them on several threads, first with each
+    * terminal chunk after the rest of its message and then with the terminal
+    * chunks ahead of the others
+    *
+    * @param args
+    *           optional number of messages (default 2000), content size
+    *           (default 20000), chunk size (default 1024), and threads
+    *           (default 4)
+    */
+   public static void main(String[] args) {
+      int messages = 2000;
+      int size = 20000;
+      int chunkSize = 1024;
+      int threads = 4;
+      try {
+         if (args.length > 0) {
+            messages = new Integer(args[0]);
+         }
+         if (args.length > 1) {
+            size = new Integer(args[1]);
+         }
+         if (args.length > 2) {
+            chunkSize = new Integer(args[2]);
+         }
+         if (args.length > 3) {
+            threads = new Integer(args[3]);
+         }
+         StringBuilder sb = new StringBuilder();
+         while (sb.length() < size) {
+            sb.append((char) ('a' + sb.length() % 26));
+         }
+         MDfromHTMLID sessionID = new MDfromHTMLID();
+         List<MDfromHTMLIPCMessage> chunks = new ArrayList<MDfromHTMLIPCMessage>();
+         List<MDfromHTMLIPCMessage> terminals = new ArrayList<MDfromHTMLIPCMessage>();
+         for (int i = 0; i < messages; i++) {
+            JSONObject content = new JSONObject();
+            content.put("index", (long) i);
+            content.put("text", sb.toString());
+            MDfromHTMLIPCMessage msg = new MDfromHTMLIPCMessage("publisher",
+               sessionID, MDfromHTMLIPCApplications.MDfromHTML,
+               "topic" + (i % 10), "type", MDfromHTMLIPCVerbs.UNDEFINED,
+               MDfromHTMLID.UNDEFINED_ID,
+               MDfromHTMLUtils.toUTF8Bytes(content.serialize()), true, i, 0);
+            for (MDfromHTMLIPCMessage chunk : msg.getSequencedMessages(
+               chunkSize)) {
+               (chunk.isLastMessage() ? terminals : chunks).add(chunk);
+            }
+         }
+         Collections.shuffle(chunks);
+         Collections.shuffle(terminals);
+         MDfromHTMLIPCReassembler reassembler = new MDfromHTMLIPCReassembler();
+         Queue<MDfromHTMLIPCMessage> results = new ConcurrentLinkedQueue<MDfromHTMLIPCMessage>();
+         long start = System.nanoTime();
+         acceptAll(reassembler, chunks, threads, results);
+         acceptAll(reassembler, terminals, threads, results);
+         long elapsed = System.nanoTime() - start;
+         int total = chunks.size() + terminals.size();
+         int correct = countCorrect(results, size);
+         System.out.println("Reassembled " + correct + " of " + messages
+            + " messages from " + total + " chunks on " + threads
+            + " threads in " + (elapsed / 1000000L) + " ms ("
+            + Math.round(total * 1.0E9d / elapsed) + " chunks/s)");
+         System.out.println("Statistics: " + reassembler.getStatistics());
+
+         // terminal chunks overtaking the middle chunks
+         reassembler = new MDfromHTMLIPCReassembler();
+         results.clear();
+         Collections.shuffle(chunks);
+         acceptAll(reassembler, terminals, threads, results);
+         int early = results.size();
+         acceptAll(reassembler, chunks, threads, results);
+         correct = countCorrect(results, size);
+         System.out.println("Reassembled " + correct + " of " + messages
+            + " messages with the terminal chunks first (" + early
+            + " before the middle chunks arrived). Statistics: "
+            + reassembler.getStatistics());
+
+         // messages missing their terminal chunk expire
+         reassembler = new MDfromHTMLIPCReassembler(100L,
+            DEFAULT_MAX_MESSAGE_BYTES, DEFAULT_MAX_PENDING_BYTES);
+         acceptAll(reassembler, chunks, threads, results);
+         Thread.sleep(200L);
+         System.out.println("Expired " + reassembler.expire()
+            + " incomplete messages. Statistics: "
+            + reassembler.getStatistics());
+      } catch (Exception e) {
+         e.printStackTrace();
+      }
+   }
+
+   static int countCorrect(Queue<MDfromHTMLIPCMessage> results, int size)
+      throws Exception {
+      int correct = 0;
+      for (MDfromHTMLIPCMessage msg : results) {
+         JSONObject content = msg.getMessage();
+         if (content.get("index").equals(msg.getTime())
+            && ((String) content.get("text")).length() == size) {
+            correct++;
+         }
+      }
+      return correct;
+   }
+
+   static void acceptAll(final MDfromHTMLIPCReassembler reassembler,
+      final List<MDfromHTMLIPCMessage> chunks, final int threads,
+      final Queue<MDfromHTMLIPCMessage> results) throws InterruptedException {
+      final CountDownLatch done = new CountDownLatch(threads);
+      for (int t = 0; t < threads; t++) {
+         final int offset = t;
+         new Thread(new Runnable() {
+            @Override
+            public void run() {
+               try {
+                  for (int i = offset; i < chunks.size(); i += threads) {
+                     MDfromHTMLIPCMessage msg = reassembler.accept(chunks.get(i));
+                     if (msg != null) {
+                        results.add(msg);
+                     }
+                  }
+               } finally {
+                  done.countDown();
+               }
+            }
+         }).start();
+      }
+      done.await();
+   }
+}
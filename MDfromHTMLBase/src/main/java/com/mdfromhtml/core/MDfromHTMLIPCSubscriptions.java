@@ -0,0 +1,493 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Registry of subscribers and the {@link SessionTopicTypeRegexSearch} filters
+ * describing the messages they want, finding the subscribers for a message
+ * without testing every subscription. Subscriptions are indexed by topic:
+ * plain topics in a hash table, topics ending in ".*" in a trie of their
+ * prefixes, and only topics needing the regex engine are tested one by one.
+ * The session and type of each candidate found by topic are then checked.
+ * <p>
+ * Lookups may run concurrently with each other, while subscribing and
+ * unsubscribing briefly exclude lookups.
+ *
+ * @param <T>
+ *           the type of subscriber
+ * @author Nathaniel Mills
+ */
+public class MDfromHTMLIPCSubscriptions<T> {
+
+   /**
+    * A subscriber's filter
+    */
+   static final class Subscription<T> {
+      final SessionTopicTypeRegexSearch _search;
+      final T _subscriber;
+
+      Subscription(SessionTopicTypeRegexSearch search, T subscriber) {
+         _search = search;
+         _subscriber = subscriber;
+      }
+   }
+
+   /**
+    * A node of the topic prefix trie
+    */
+   static final class Node<T> {
+      Map<Character, Node<T>> _children = null;
+      List<Subscription<T>> _subscriptions = null;
+
+      boolean isEmpty() {
+         return (_children == null || _children.isEmpty())
+            && (_subscriptions == null || _subscriptions.isEmpty());
+      }
+   }
+
+   List<Subscription<T>> _anyTopic = new ArrayList<Subscription<T>>();
+   Map<T, List<Subscription<T>>> _bySubscriber = new HashMap<T, List<Subscription<T>>>();
+   Map<String, List<Subscription<T>>> _exactTopics = new HashMap<String, List<Subscription<T>>>();
+   ReadWriteLock _lock = new ReentrantReadWriteLock();
+   List<Subscription<T>> _patternTopics = new ArrayList<Subscription<T>>();
+   Node<T> _prefixTopics = new Node<T>();
+   int _size = 0;
+
+   /**
+    * Add a subscription. A subscriber may have several subscriptions.
+    *
+    * @param search
+    *           the filter for the messages wanted
+    * @param subscriber
+    *           the subscriber to be returned for matching messages
+    */
+   public void subscribe(SessionTopicTypeRegexSearch search, T subscriber) {
+      Subscription<T> subscription = new Subscription<T>(search, subscriber);
+      SessionTopicTypeRegexSearch.Criterion topic = search._topicCriterion;
+      _lock.writeLock().lock();
+      try {
+         switch (topic._kind) {
+            case SessionTopicTypeRegexSearch.Criterion.EXACT: {
+               List<Subscription<T>> list = _exactTopics.get(topic._literal);
+               if (list == null) {
+                  list = new ArrayList<Subscription<T>>(1);
+                  _exactTopics.put(topic._literal, list);
+               }
+               list.add(subscription);
+               break;
+            }
+            case SessionTopicTypeRegexSearch.Criterion.PREFIX: {
+               Node<T> node = _prefixTopics;
+               for (int i = 0; i < topic._literal.length(); i++) {
+                  if (node._children == null) {
+                     node._children = new HashMap<Character, Node<T>>();
+                  }
+                  Character c = topic._literal.charAt(i);
+                  Node<T> child = node._children.get(c);
+                  if (child == null) {
+                     child = new Node<T>();
+                     node._children.put(c, child);
+                  }
+                  node = child;
+               }
+               if (node._subscriptions == null) {
+                  node._subscriptions = new ArrayList<Subscription<T>>(1);
+               }
+               node._subscriptions.add(subscription);
+               break;
+            }
+            case SessionTopicTypeRegexSearch.Criterion.PATTERN: {
+               _patternTopics.add(subscription);
+               break;
+            }
+            default: {
+               _anyTopic.add(subscription);
+               break;
+            }
+         }
+         List<Subscription<T>> list = _bySubscriber.get(subscriber);
+         if (list == null) {
+            list = new ArrayList<Subscription<T>>(1);
+            _bySubscriber.put(subscriber, list);
+         }
+         list.add(subscription);
+         _size++;
+      } finally {
+         _lock.writeLock().unlock();
+      }
+   }
+
+   /**
+    * Remove a subscription
+    *
+    * @param search
+    *           the filter passed to
+    *           {@link #subscribe(SessionTopicTypeRegexSearch, Object)}
+    * @param subscriber
+    *           the subscriber
+    * @return true if the subscription was found and removed
+    */
+   public boolean unsubscribe(SessionTopicTypeRegexSearch search, T subscriber) {
+      _lock.writeLock().lock();
+      try {
+         List<Subscription<T>> list = _bySubscriber.get(subscriber);
+         if (list == null) {
+            return false;
+         }
+         for (Iterator<Subscription<T>> it = list.iterator(); it.hasNext();) {
+            Subscription<T> subscription = it.next();
+            if (subscription._search == search) {
+               it.remove();
+               if (list.isEmpty()) {
+                  _bySubscriber.remove(subscriber);
+               }
+               remove(subscription);
+               return true;
+            }
+         }
+         return false;
+      } finally {
+         _lock.writeLock().unlock();
+      }
+   }
+
+   /**
+    * Remove all of a subscriber's subscriptions
+    *
+    * @param subscriber
+    *           the subscriber
+    * @return the number of subscriptions removed
+    */
+   public int unsubscribe(T subscriber) {
+      _lock.writeLock().lock();
+      try {
+         List<Subscription<T>> list = _bySubscriber.remove(subscriber);
+         if (list == null) {
+            return 0;
+         }
+         for (Subscription<T> subscription : list) {
+            remove(subscription);
+         }
+         return list.size();
+      } finally {
+         _lock.writeLock().unlock();
+      }
+   }
+
+   /**
+    * Remove the subscription from the topic index. Must be called holding the
+    * write lock.
+    */
+   void remove(Subscription<T> subscription) {
+      SessionTopicTypeRegexSearch.Criterion topic = subscription._search._topicCriterion;
+      switch (topic._kind) {
+         case SessionTopicTypeRegexSearch.Criterion.EXACT: {
+            List<Subscription<T>> list = _exactTopics.get(topic._literal);
+            list.remove(subscription);
+            if (list.isEmpty()) {
+               _exactTopics.remove(topic._literal);
+            }
+            break;
+         }
+         case SessionTopicTypeRegexSearch.Criterion.PREFIX: {
+            List<Node<T>> path = new ArrayList<Node<T>>(
+               topic._literal.length() + 1);
+            Node<T> node = _prefixTopics;
+            path.add(node);
+            for (int i = 0; i < topic._literal.length(); i++) {
+               node = node._children.get(topic._literal.charAt(i));
+               path.add(node);
+            }
+            node._subscriptions.remove(subscription);
+            // prune the branch no longer leading to any subscriptions
+            for (int i = path.size() - 1; i > 0 && path.get(i).isEmpty(); i--) {
+               path.get(i - 1)._children.remove(topic._literal.charAt(i - 1));
+            }
+            break;
+         }
+         case SessionTopicTypeRegexSearch.Criterion.PATTERN: {
+            _patternTopics.remove(subscription);
+            break;
+         }
+         default: {
+            _anyTopic.remove(subscription);
+            break;
+         }
+      }
+      _size--;
+   }
+
+   /**
+    * Find the subscribers wanting the message
+    *
+    * @param msg
+    *           the message to be delivered
+    * @return the distinct subscribers with a subscription matching the
+    *         message, in no particular order
+    */
+   public List<T> getSubscribers(IMDfromHTMLIPCMessage msg) {
+      String topic = msg.getTopic();
+      List<T> result = new ArrayList<T>();
+      Set<T> found = null;
+      _lock.readLock().lock();
+      try {
+         found = addMatches(_exactTopics.get(topic), msg, result, found);
+         Node<T> node = _prefixTopics;
+         found = addMatches(node._subscriptions, msg, result, found);
+         for (int i = 0; i < topic.length() && node._children != null; i++) {
+            node = node._children.get(topic.charAt(i));
+            if (node == null) {
+               break;
+            }
+            found = addMatches(node._subscriptions, msg, result, found);
+         }
+         found = addMatches(_anyTopic, msg, result, found);
+         found = addMatches(_patternTopics, msg, result, found);
+      } finally {
+         _lock.readLock().unlock();
+      }
+      return result;
+   }
+
+   /**
+    * Add the subscribers of the candidate subscriptions matching the message
+    * to the result, ignoring those already added
+    *
+    * @return the set of subscribers added, created once a second subscriber
+    *         is found
+    */
+   Set<T> addMatches(List<Subscription<T>> candidates,
+      IMDfromHTMLIPCMessage msg, List<T> result, Set<T> found) {
+      if (candidates == null) {
+         return found;
+      }
+      for (int i = 0; i < candidates.size(); i++) {
+         Subscription<T> subscription = candidates.get(i);
+         if (subscription._search.isMessageWanted(msg) == false) {
+            continue;
+         }
+         T subscriber = subscription._subscriber;
+         if (result.isEmpty()) {
+            result.add(subscriber);
+         } else {
+            if (found == null) {
+               found = new HashSet<T>(result);
+            }
+            if (found.add(subscriber)) {
+               result.add(subscriber);
+            }
+         }
+      }
+      return found;
+   }
+
+   /**
+    * @return the number of subscriptions
+    */
+   public int size() {
+      _lock.readLock().lock();
+      try {
+         return _size;
+      } finally {
+         _lock.readLock().unlock();
+      }
+   }
+
+   /**
+    * @return the number of subscriptions whose topic must be tested by the
+    *         regex engine for every message
+    */
+   public int getPatternCount() {
+      _lock.readLock().lock();
+      try {
+         return _patternTopics.size();
+      } finally {
+         _lock.readLock().unlock();
+      }
+   }
+
+   /**
+    * Benchmark comparing the registry with testing every subscription, both
+    * as done previously (recompiling the regular expressions for each test)
+    * and with the precompiled filters, checking all return the same
+    * subscribers
+    *
+    * @param args
+    *           optional number of subscriptions (default 10000), messages
+    *           (default 100000), and percentage of subscriptions with regex
+    *           topics (default 1)
+    */
+   public static void main(String[] args) {
+      int subscriptions = 10000;
+      int messages = 100000;
+      int patternPercent = 1;
+      try {
+         if (args.length > 0) {
+            subscriptions = new Integer(args[0]);
+         }
+         if (args.length > 1) {
+            messages = new Integer(args[1]);
+         }
+         if (args.length > 2) {
+            patternPercent = new Integer(args[2]);
+         }
+         Random random = new Random(42L);
+         MDfromHTMLID[] sessions = new MDfromHTMLID[16];
+         for (int i = 0; i < sessions.length; i++) {
+            sessions[i] = new MDfromHTMLID();
+         }
+         int topics = Math.max(1, subscriptions / 2);
+         MDfromHTMLIPCSubscriptions<Integer> registry = new MDfromHTMLIPCSubscriptions<Integer>();
+         List<Subscription<Integer>> all = new ArrayList<Subscription<Integer>>();
+         for (int i = 0; i < subscriptions; i++) {
+            int pick = random.nextInt(100);
+            String topicRegex;
+            if (pick < patternPercent) {
+               topicRegex = "feed/" + random.nextInt(10) + "[0-9]*/.*";
+            } else if (pick < 20) {
+               topicRegex = "feed/" + random.nextInt(topics / 10 + 1) + "/.*";
+            } else if (pick < 21) {
+               topicRegex = null;
+            } else {
+               topicRegex = "feed/" + random.nextInt(topics / 10 + 1) + "/"
+                  + random.nextInt(10);
+            }
+            MDfromHTMLID sessionID = random.nextInt(4) == 0
+               ? sessions[random.nextInt(sessions.length)]
+               : null;
+            String typeRegex = random.nextInt(4) == 0 ? "type" + random.nextInt(4)
+               : null;
+            SessionTopicTypeRegexSearch search = new SessionTopicTypeRegexSearch(
+               sessionID, topicRegex, typeRegex);
+            Integer subscriber = i / 2;
+            registry.subscribe(search, subscriber);
+            all.add(new Subscription<Integer>(search, subscriber));
+         }
+         MDfromHTMLIPCMessage[] msgs = new MDfromHTMLIPCMessage[1000];
+         for (int i = 0; i < msgs.length; i++) {
+            msgs[i] = new MDfromHTMLIPCMessage("publisher",
+               sessions[random.nextInt(sessions.length)],
+               MDfromHTMLIPCApplications.MDfromHTML,
+               "feed/" + random.nextInt(topics / 10 + 1) + "/"
+                  + random.nextInt(10),
+               "type" + random.nextInt(4), MDfromHTMLIPCVerbs.POST,
+               MDfromHTMLID.UNDEFINED_ID, new byte[0]);
+         }
+         System.out.println(registry.size() + " subscriptions, "
+            + registry.getPatternCount() + " needing the regex engine");
+
+         // check the registry finds the same subscribers as testing each
+         long matched = 0L;
+         for (MDfromHTMLIPCMessage msg : msgs) {
+            Set<Integer> expected = new HashSet<Integer>();
+            for (Subscription<Integer> subscription : all) {
+               SessionTopicTypeRegexSearch search = subscription._search;
+               if ((MDfromHTMLID.isUndefined(search.getSessionID())
+                  || msg.getSessionID().equals(search.getSessionID()))
+                  && (MDfromHTMLUtils.isUndefined(search.getTopicRegex())
+                     || msg.getTopic().matches(search.getTopicRegex()))
+                  && (MDfromHTMLUtils.isUndefined(search.getTypeRegex())
+                     || msg.getType().matches(search.getTypeRegex()))) {
+                  expected.add(subscription._subscriber);
+               }
+            }
+            List<Integer> actual = registry.getSubscribers(msg);
+            if (actual.size() != expected.size()
+               || expected.containsAll(actual) == false) {
+               System.out.println("Mismatch for " + msg + ": expected "
+                  + expected + " but found " + actual);
+               return;
+            }
+            matched += actual.size();
+         }
+         System.out.println("Registry matches String.matches for "
+            + msgs.length + " messages (" + matched + " deliveries)");
+
+         // previous approach, recompiling each regex for every test
+         int count = Math.min(messages, msgs.length);
+         long start = System.nanoTime();
+         for (int i = 0; i < count; i++) {
+            MDfromHTMLIPCMessage msg = msgs[i];
+            for (Subscription<Integer> subscription : all) {
+               SessionTopicTypeRegexSearch search = subscription._search;
+               if ((MDfromHTMLID.isUndefined(search.getSessionID())
+                  || msg.getSessionID().equals(search.getSessionID()))
+                  && (MDfromHTMLUtils.isUndefined(search.getTopicRegex())
+                     || msg.getTopic().matches(search.getTopicRegex()))
+                  && (MDfromHTMLUtils.isUndefined(search.getTypeRegex())
+                     || msg.getType().matches(search.getTypeRegex()))) {
+                  matched++;
+               }
+            }
+         }
+         report("String.matches per subscription", count,
+            System.nanoTime() - start);
+
+         start = System.nanoTime();
+         for (int i = 0; i < count; i++) {
+            MDfromHTMLIPCMessage msg = msgs[i];
+            for (Subscription<Integer> subscription : all) {
+               if (subscription._search.isMessageWanted(msg)) {
+                  matched++;
+               }
+            }
+         }
+         report("precompiled isMessageWanted per subscription", count,
+            System.nanoTime() - start);
+
+         // warm up, then time the registry
+         for (int i = 0; i < 20000; i++) {
+            matched += registry.getSubscribers(msgs[i % msgs.length]).size();
+         }
+         start = System.nanoTime();
+         for (int i = 0; i < messages; i++) {
+            matched += registry.getSubscribers(msgs[i % msgs.length]).size();
+         }
+         report("registry getSubscribers", messages,
+            System.nanoTime() - start);
+         if (matched < 0L) {
+            System.out.println(matched);
+         }
+      } catch (Exception e) {
+         e.printStackTrace();
+      }
+   }
+
+   static void report(String label, int messages, long nanos) {
+      System.out.println(label + ": " + messages + " messages in "
+         + (nanos / 1000000L) + " ms ("
+         + Math.round(messages * 1.0E9d / Math.max(1L, nanos)) + " msgs/s, "
+         + (nanos / Math.max(1, messages) / 1000L) + " us/msg)");
+   }
+}
@@ -22,14 +22,16 @@
 
 package com.mdfromhtml.core;
 
-import java.util.Set;
-
 import com.api.json.JSONArray;
 import com.api.json.JSONObject;
 
 /**
  * Utility class to provide obfuscation of text and JSON objects. Content that
  * is masked can also be unmasked using the complementary functions.
+ * <p>
+ * The work is done by the {@link MDfromHTMLMaskingEngine} for the current key
+ * (see {@link MDfromHTMLUtils#getKey()}), which also offers masking of JSON
+ * text as a stream.
  */
 public class MDfromHTMLMasker {
 
@@ -85,26 +87,7 @@ public class MDfromHTMLMasker {
     *            if there is a problem with the cryptographic environment
     */
    public static JSONArray maskArray(JSONArray array) throws Exception {
-      if (array == null) {
-         return null;
-      }
-      JSONArray newArray = new JSONArray();
-      for (int i = 0; i < array.size(); i++) {
-         Object value = array.get(i);
-         if (value instanceof String) {
-            value = mask((String) value);
-         } else if (value instanceof JSONObject) {
-            value = maskObject((JSONObject) value);
-         } else if (value instanceof JSONArray) {
-            value = maskArray((JSONArray) value);
-         }
-         // else fall through to save value as is
-         newArray.add(value);
-         if (s_debug) {
-            System.out.println("pushed =" + value);
-         }
-      }
-      return newArray;
+      return MDfromHTMLMaskingEngine.getInstance().maskArray(array);
    };
 
    /**
@@ -117,28 +100,7 @@ public class MDfromHTMLMasker {
     *            if there is a problem with the cryptographic environment
     */
    public static JSONObject maskObject(JSONObject object) throws Exception {
-      if (object == null) {
-         return null;
-      }
-      Set<String> keyset = object.keySet();
-      String[] keys = keyset.toArray(new String[0]);
-      JSONObject newObj = new JSONObject();
-      for (int i = 0; i < keys.length; i++) {
-         Object value = object.get(keys[i]);
-         if (value instanceof String) {
-            value = mask((String) value);
-         } else if (value instanceof JSONObject) {
-            value = maskObject((JSONObject) value);
-         } else if (value instanceof JSONArray) {
-            value = maskArray((JSONArray) value);
-         }
-         // else fall through to save value as is
-         newObj.put(keys[i], value);
-         if (s_debug) {
-            System.out.println("processed " + keys[i] + "=" + value);
-         }
-      }
-      return newObj;
+      return MDfromHTMLMaskingEngine.getInstance().maskObject(object);
    };
 
    /**
@@ -164,26 +126,7 @@ public class MDfromHTMLMasker {
     *            if there is a problem with the cryptographic environment
     */
    public static JSONArray unmaskArray(JSONArray array) throws Exception {
-      if (array == null) {
-         return null;
-      }
-      JSONArray newArray = new JSONArray();
-      for (int i = 0; i < array.size(); i++) {
-         Object value = array.get(i);
-         if (value instanceof String) {
-            value = unmask((String) value);
-         } else if (value instanceof JSONObject) {
-            value = unmaskObject((JSONObject) value);
-         } else if (value instanceof JSONArray) {
-            value = unmaskArray((JSONArray) value);
-         }
-         // else fall through to save value as is
-         newArray.add(value);
-         if (s_debug) {
-            System.out.println("pushed =" + value);
-         }
-      }
-      return newArray;
+      return MDfromHTMLMaskingEngine.getInstance().unmaskArray(array);
    };
 
    /**
@@ -196,28 +139,7 @@ public class MDfromHTMLMasker {
     *            if there is a problem with the cryptographic environment
     */
    public static JSONObject unmaskObject(JSONObject object) throws Exception {
-      if (object == null) {
-         return null;
-      }
-      Set<String> keyset = object.keySet();
-      String[] keys = keyset.toArray(new String[0]);
-      JSONObject newObj = new JSONObject();
-      for (int i = 0; i < keys.length; i++) {
-         Object value = object.get(keys[i]);
-         if (value instanceof String) {
-            value = unmask((String) value);
-         } else if (value instanceof JSONObject) {
-            value = unmaskObject((JSONObject) value);
-         } else if (value instanceof JSONArray) {
-            value = unmaskArray((JSONArray) value);
-         }
-         // else fall through to save value as is
-         newObj.put(keys[i], value);
-         if (s_debug) {
-            System.out.println("processed " + keys[i] + "=" + value);
-         }
-      }
-      return newObj;
+      return MDfromHTMLMaskingEngine.getInstance().unmaskObject(object);
    }
 
 }
@@ -0,0 +1,643 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.PBEParameterSpec;
+
+import com.api.json.JSONArray;
+import com.api.json.JSONObject;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Masks and unmasks text and JSON content producing the same results as
+ * {@link MDfromHTMLCrypto} and {@link MDfromHTMLMasker}, but derives the
+ * secret key once per key and salt, and reuses Cipher instances initialized
+ * for each thread, rather than looking up the algorithm and initializing a
+ * new Cipher for every string.
+ * <p>
+ * JSON objects and arrays are copied once, with their strings masked
+ * afterward as a batch, split across the common fork join pool when there
+ * are enough of them. JSON text may also be masked as a stream without
+ * building any objects.
+ *
+ * @author Nathaniel Mills
+ */
+public class MDfromHTMLMaskingEngine {
+
+   static final String ALGORITHM = "PBEWithMD5AndDES";
+   static final int ITERATIONS = 20;
+
+   /**
+    * fewest strings masked in parallel
+    */
+   static public final int PARALLEL_THRESHOLD = 256;
+
+   /**
+    * strings masked by each fork join task
+    */
+   static final int STRINGS_PER_TASK = 64;
+
+   static final JsonFactory JSON_FACTORY = new JsonFactory()
+      .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE)
+      .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+   static Map<String, MDfromHTMLMaskingEngine> s_engines = new ConcurrentHashMap<String, MDfromHTMLMaskingEngine>();
+
+   /**
+    * Where a masked string is to be stored
+    */
+   static final class Slot {
+      final Object _container;
+      final Object _keyOrIndex;
+      final String _text;
+
+      Slot(Object container, Object keyOrIndex, String text) {
+         _container = container;
+         _keyOrIndex = keyOrIndex;
+         _text = text;
+      }
+   }
+
+   /**
+    * Fork join task masking or unmasking a range of strings
+    */
+   final class Transform extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+      final boolean _encrypt;
+      final int _end;
+      final Exception[] _error;
+      final String[] _in;
+      final String[] _out;
+      final int _start;
+
+      Transform(boolean encrypt, String[] in, String[] out, int start,
+         int end, Exception[] error) {
+         _encrypt = encrypt;
+         _in = in;
+         _out = out;
+         _start = start;
+         _end = end;
+         _error = error;
+      }
+
+      @Override
+      protected void compute() {
+         if (_end - _start > STRINGS_PER_TASK) {
+            int mid = (_start + _end) >>> 1;
+            invokeAll(new Transform(_encrypt, _in, _out, _start, mid, _error),
+               new Transform(_encrypt, _in, _out, mid, _end, _error));
+            return;
+         }
+         try {
+            for (int i = _start; i < _end && _error[0] == null; i++) {
+               _out[i] = _encrypt ? encrypt(_in[i]) : decrypt(_in[i]);
+            }
+         } catch (Exception e) {
+            synchronized (_error) {
+               if (_error[0] == null) {
+                  _error[0] = e;
+               }
+            }
+         }
+      }
+   }
+
+   final ThreadLocal<Cipher> _decryptCipher;
+   final ThreadLocal<Cipher> _encryptCipher;
+   final PBEParameterSpec _parameterSpec;
+   final SecretKey _secretKey;
+
+   /**
+    * Constructor deriving the secret key
+    *
+    * @param key
+    *           character phrase used to mask the text
+    * @param salt
+    *           bytes used to initialize the cryptographic environment
+    * @throws Exception
+    *            if there is a problem with the cryptographic environment
+    */
+   public MDfromHTMLMaskingEngine(char[] key, byte[] salt) throws Exception {
+      try {
+         _secretKey = SecretKeyFactory.getInstance(ALGORITHM)
+            .generateSecret(new PBEKeySpec(key));
+      } catch (NoSuchAlgorithmException e) {
+         throw new Exception(
+            "Can not find needed algorithm: " + e.getLocalizedMessage(), e);
+      } catch (InvalidKeySpecException e) {
+         throw new Exception(
+            "Invalid key specification: " + e.getLocalizedMessage(), e);
+      }
+      _parameterSpec = new PBEParameterSpec(salt.clone(), ITERATIONS);
+      _encryptCipher = newCipher(Cipher.ENCRYPT_MODE);
+      _decryptCipher = newCipher(Cipher.DECRYPT_MODE);
+      // report problems initializing the cipher now rather than when used
+      getCipher(_encryptCipher);
+   }
+
+   /**
+    * @return the engine for the key returned by
+    *         {@link MDfromHTMLUtils#getKey()} and {@link MDfromHTMLCrypto#SALT}
+    * @throws Exception
+    *            if there is a problem with the cryptographic environment
+    */
+   static public MDfromHTMLMaskingEngine getInstance() throws Exception {
+      return getInstance(MDfromHTMLUtils.getKey(), MDfromHTMLCrypto.SALT);
+   }
+
+   /**
+    * @param key
+    *           character phrase used to mask the text
+    * @param salt
+    *           bytes used to initialize the cryptographic environment
+    * @return the engine for the key and salt, created on first use
+    * @throws Exception
+    *            if there is a problem with the cryptographic environment
+    */
+   static public MDfromHTMLMaskingEngine getInstance(char[] key, byte[] salt)
+      throws Exception {
+      String id = new String(key) + MDfromHTMLConstants.MDfromHTML_DELIMITER
+         + Arrays.toString(salt);
+      MDfromHTMLMaskingEngine engine = s_engines.get(id);
+      if (engine == null) {
+         engine = new MDfromHTMLMaskingEngine(key, salt);
+         MDfromHTMLMaskingEngine existing = s_engines.putIfAbsent(id, engine);
+         if (existing != null) {
+            engine = existing;
+         }
+      }
+      return engine;
+   }
+
+   ThreadLocal<Cipher> newCipher(final int mode) {
+      return new ThreadLocal<Cipher>() {
+         @Override
+         protected Cipher initialValue() {
+            try {
+               Cipher cipher = Cipher.getInstance(ALGORITHM);
+               cipher.init(mode, _secretKey, _parameterSpec);
+               return cipher;
+            } catch (GeneralSecurityException e) {
+               throw new IllegalStateException(e);
+            }
+         }
+      };
+   }
+
+   /**
+    * @return this thread's cipher, ready for use since doFinal leaves it in
+    *         its initialized state
+    * @throws Exception
+    *            if there is a problem with the cryptographic environment
+    */
+   static Cipher getCipher(ThreadLocal<Cipher> cipher) throws Exception {
+      try {
+         return cipher.get();
+      } catch (IllegalStateException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof NoSuchAlgorithmException) {
+            throw new Exception(
+               "Can not find needed algorithm: " + cause.getLocalizedMessage(),
+               cause);
+         }
+         if (cause instanceof NoSuchPaddingException) {
+            throw new Exception(
+               "Missing padding: " + cause.getLocalizedMessage(), cause);
+         }
+         if (cause instanceof InvalidKeyException) {
+            throw new Exception("Invalid key: " + cause.getLocalizedMessage(),
+               cause);
+         }
+         if (cause instanceof InvalidAlgorithmParameterException) {
+            throw new Exception(
+               "Invalid algorithm parameter: " + cause.getLocalizedMessage(),
+               cause);
+         }
+         throw e;
+      }
+   }
+
+   /**
+    * Masks the supplied text
+    *
+    * @param text
+    *           string to be masked
+    * @return masked version of the text
+    * @throws Exception
+    *            if there is a problem with the cryptographic environment
+    */
+   public String encrypt(String text) throws Exception {
+      try {
+         return Base64.getUrlEncoder().encodeToString(getCipher(_encryptCipher)
+            .doFinal(text.getBytes(MDfromHTMLUtils.UTF8_CHARSET)));
+      } catch (IllegalBlockSizeException e) {
+         _encryptCipher.remove();
+         throw new Exception("Illegal block size: " + e.getLocalizedMessage(),
+            e);
+      } catch (BadPaddingException e) {
+         _encryptCipher.remove();
+         throw new Exception("Bad padding: " + e.getLocalizedMessage(), e);
+      }
+   }
+
+   /**
+    * Unmasks the masked text
+    *
+    * @param text
+    *           string to be unmasked
+    * @return unmasked version of the masked text
+    * @throws Exception
+    *            if there is a problem with the cryptographic environment, or
+    *            the text was not masked with this engine's key
+    * @throws IllegalArgumentException
+    *            if the text is not URL safe Base64
+    */
+   public String decrypt(String text) throws Exception {
+      byte[] masked = Base64.getUrlDecoder().decode(text);
+      try {
+         return new String(getCipher(_decryptCipher).doFinal(masked),
+            MDfromHTMLUtils.UTF8_CHARSET);
+      } catch (IllegalBlockSizeException e) {
+         _decryptCipher.remove();
+         throw new Exception("Illegal block size: " + e.getLocalizedMessage(),
+            e);
+      } catch (BadPaddingException e) {
+         _decryptCipher.remove();
+         throw new Exception("Bad padding: " + e.getLocalizedMessage(), e);
+      }
+   }
+
+   /**
+    * Masks all string values found in the supplied object
+    *
+    * @param object
+    *           the JSON object whose string values are to be masked
+    * @return a masked copy of the JSON object
+    * @throws Exception
+    *            if there is a problem with the cryptographic environment
+    */
+   public JSONObject maskObject(JSONObject object) throws Exception {
+      return (JSONObject) transform(object, true);
+   }
+
+   /**
+    * Masks all string values found in the supplied array
+    *
+    * @param array
+    *           Array of elements whose string values are to be masked
+    * @return a masked copy of the array
+    * @throws Exception
+    *            if there is a problem with the cryptographic environment
+    */
+   public JSONArray maskArray(JSONArray array) throws Exception {
+      return (JSONArray) transform(array, true);
+   }
+
+   /**
+    * Unmasks all string values found within the supplied object
+    *
+    * @param object
+    *           JSON object to be unmasked
+    * @return an unmasked copy of the JSON object
+    * @throws Exception
+    *            if there is a problem with the cryptographic environment
+    */
+   public JSONObject unmaskObject(JSONObject object) throws Exception {
+      return (JSONObject) transform(object, false);
+   }
+
+   /**
+    * Unmasks any string values found in the array elements
+    *
+    * @param array
+    *           Array whose string elements are to be unmasked
+    * @return an unmasked copy of the array
+    * @throws Exception
+    *            if there is a problem with the cryptographic environment
+    */
+   public JSONArray unmaskArray(JSONArray array) throws Exception {
+      return (JSONArray) transform(array, false);
+   }
+
+   /**
+    * Copy the object or array, then mask or unmask the strings it contains
+    * and store them in the copy
+    */
+   Object transform(Object value, boolean encrypt) throws Exception {
+      if (value == null) {
+         return null;
+      }
+      List<Slot> slots = new ArrayList<Slot>();
+      Object copy = copy(value, slots);
+      String[] in = new String[slots.size()];
+      for (int i = 0; i < in.length; i++) {
+         in[i] = slots.get(i)._text;
+      }
+      String[] out = transform(in, encrypt);
+      for (int i = 0; i < out.length; i++) {
+         Slot slot = slots.get(i);
+         if (slot._container instanceof JSONObject) {
+            ((JSONObject) slot._container).put((String) slot._keyOrIndex,
+               out[i]);
+         } else {
+            ((JSONArray) slot._container).set((Integer) slot._keyOrIndex,
+               out[i]);
+         }
+      }
+      return copy;
+   }
+
+   /**
+    * @param in
+    *           strings to be masked or unmasked
+    * @param encrypt
+    *           true to mask, false to unmask
+    * @return the masked or unmasked strings, in the same order
+    * @throws Exception
+    *            if there is a problem with the cryptographic environment
+    */
+   public String[] transform(String[] in, boolean encrypt) throws Exception {
+      String[] out = new String[in.length];
+      if (in.length < PARALLEL_THRESHOLD
+         || ForkJoinPool.getCommonPoolParallelism() < 2) {
+         for (int i = 0; i < in.length; i++) {
+            out[i] = encrypt ? encrypt(in[i]) : decrypt(in[i]);
+         }
+         return out;
+      }
+      Exception[] error = new Exception[1];
+      ForkJoinPool.commonPool()
+         .invoke(new Transform(encrypt, in, out, 0, in.length, error));
+      if (error[0] != null) {
+         throw error[0];
+      }
+      return out;
+   }
+
+   /**
+    * Copy the JSON structure, recording where each string is to be stored
+    * (left null in the copy until transformed)
+    */
+   static Object copy(Object value, List<Slot> slots) {
+      if (value instanceof JSONObject) {
+         JSONObject object = (JSONObject) value;
+         JSONObject newObj = new JSONObject();
+         for (Map.Entry<String, Object> entry : object.entrySet()) {
+            Object child = entry.getValue();
+            if (child instanceof String) {
+               slots.add(new Slot(newObj, entry.getKey(), (String) child));
+               child = null;
+            } else {
+               child = copy(child, slots);
+            }
+            newObj.put(entry.getKey(), child);
+         }
+         return newObj;
+      }
+      if (value instanceof JSONArray) {
+         JSONArray array = (JSONArray) value;
+         JSONArray newArray = new JSONArray(array.size());
+         for (int i = 0; i < array.size(); i++) {
+            Object child = array.get(i);
+            if (child instanceof String) {
+               slots.add(new Slot(newArray, i, (String) child));
+               child = null;
+            } else {
+               child = copy(child, slots);
+            }
+            newArray.add(child);
+         }
+         return newArray;
+      }
+      // else save value as is
+      return value;
+   }
+
+   /**
+    * Copy JSON text from the input to the output, masking its string values
+    * (but not field names) as they are read, without building objects
+    *
+    * @param input
+    *           JSON text (left open)
+    * @param output
+    *           receives the masked JSON text (left open)
+    * @throws Exception
+    *            if the input is not valid JSON, can not be read or written, or
+    *            there is a problem with the cryptographic environment
+    */
+   public void maskStream(InputStream input, OutputStream output)
+      throws Exception {
+      transformStream(input, output, true);
+   }
+
+   /**
+    * Copy JSON text from the input to the output, unmasking its string values
+    * as they are read, without building objects
+    *
+    * @param input
+    *           masked JSON text (left open)
+    * @param output
+    *           receives the unmasked JSON text (left open)
+    * @throws Exception
+    *            if the input is not valid JSON, can not be read or written, or
+    *            there is a problem with the cryptographic environment
+    */
+   public void unmaskStream(InputStream input, OutputStream output)
+      throws Exception {
+      transformStream(input, output, false);
+   }
+
+   void transformStream(InputStream input, OutputStream output,
+      boolean encrypt) throws Exception {
+      try (JsonParser parser = JSON_FACTORY.createParser(input);
+         JsonGenerator generator = JSON_FACTORY.createGenerator(output)) {
+         JsonToken token;
+         while ((token = parser.nextToken()) != null) {
+            if (token == JsonToken.VALUE_STRING) {
+               String text = parser.getText();
+               generator.writeString(encrypt ? encrypt(text) : decrypt(text));
+            } else {
+               generator.copyCurrentEvent(parser);
+            }
+         }
+      }
+   }
+
+   /**
+    * Compatibility checks against ciphertext produced before the engine was
+    * introduced, followed by a benchmark masking a provenance sized object one
+    * string at a time as done previously, with the engine, and as a stream
+    *
+    * @param args
+    *           optional number of nodes in the test object (default 5000)
+    */
+   public static void main(String[] args) {
+      int nodes = 5000;
+      try {
+         if (args.length > 0) {
+            nodes = new Integer(args[0]);
+         }
+         // ciphertext recorded using the default key before this change
+         String[][] known = new String[][] { { "", "9d4VFE328XM=" },
+            { "secret", "5AkFMA1ey1U=" },
+            { "Masking large provenance objects",
+               "D_cKQl25eSsvZrKvvqjrmSgIJXEZxRr2QChJCF9tUYifmdb99tMmhA==" },
+            { "\u00e9\u4e2d\ud83d\ude00 unicode",
+               "QVSQ8y9UW228GFNPtsfkxxjguZNS3ZmI" },
+            { "0123456789abcdef", "o2wXbgFcrhpRC-ZiB56FaOJzyZufVthM" } };
+         MDfromHTMLMaskingEngine engine = getInstance(
+            MDfromHTMLConstants.MDfromHTML_DEFAULT_PROPERTY_FILE_KEY,
+            MDfromHTMLCrypto.SALT);
+         int failures = 0;
+         for (String[] pair : known) {
+            if (pair[1].equals(engine.encrypt(pair[0])) == false
+               || pair[0].equals(engine.decrypt(pair[1])) == false) {
+               System.out.println("Mismatch for \"" + pair[0] + "\"");
+               failures++;
+            }
+         }
+         if ("njRNMw2VAIw=".equals(getInstance("other key".toCharArray(),
+            MDfromHTMLCrypto.SALT).encrypt("secret")) == false) {
+            System.out.println("Mismatch for another key");
+            failures++;
+         }
+
+         JSONObject provenance = new JSONObject();
+         JSONArray entries = new JSONArray();
+         for (int i = 0; i < nodes; i++) {
+            JSONObject entry = new JSONObject();
+            entry.put("html", "<p class=\"c" + i + "\">Paragraph " + i
+               + " with some text to be masked</p>");
+            entry.put("md", "Paragraph " + i + " with some text to be masked");
+            entry.put("level", (long) (i % 7));
+            JSONArray ids = new JSONArray();
+            ids.add("id" + i);
+            ids.add(Boolean.TRUE);
+            entry.put("ids", ids);
+            entries.add(entry);
+         }
+         provenance.put("provenance", entries);
+         provenance.put("url", "http://example.com/page");
+
+         long start = System.nanoTime();
+         Object legacy = legacyMask(provenance);
+         long legacyNanos = System.nanoTime() - start;
+         for (int i = 0; i < 3; i++) {
+            engine.maskObject(provenance);
+         }
+         start = System.nanoTime();
+         JSONObject masked = engine.maskObject(provenance);
+         long engineNanos = System.nanoTime() - start;
+         if (masked.equals(legacy) == false) {
+            System.out.println("Engine and previous masking differ");
+            failures++;
+         }
+         if (engine.unmaskObject(masked).equals(provenance) == false) {
+            System.out.println("Unmasked object differs from the original");
+            failures++;
+         }
+         byte[] text = MDfromHTMLUtils.toUTF8Bytes(provenance.toString());
+         ByteArrayOutputStream baos = new ByteArrayOutputStream(
+            text.length * 2);
+         engine.maskStream(new ByteArrayInputStream(text), baos);
+         start = System.nanoTime();
+         baos.reset();
+         engine.maskStream(new ByteArrayInputStream(text), baos);
+         long streamNanos = System.nanoTime() - start;
+         if (JSONObject.parse(baos.toString("UTF-8")).equals(masked) == false) {
+            System.out.println("Stream and object masking differ");
+            failures++;
+         }
+         int strings = 3 * nodes + 1;
+         System.out.println("Compatibility checks "
+            + (failures == 0 ? "passed" : "FAILED (" + failures + ")"));
+         System.out.println("Masking " + strings + " strings: previous "
+            + (legacyNanos / 1000000L) + " ms, engine "
+            + (engineNanos / 1000000L) + " ms, stream "
+            + (streamNanos / 1000000L) + " ms");
+      } catch (Exception e) {
+         e.printStackTrace();
+      }
+   }
+
+   /**
+    * Masking as done before the engine, deriving the key and creating a
+    * Cipher for every string, for comparison
+    */
+   static Object legacyMask(Object value) throws Exception {
+      if (value instanceof String) {
+         SecretKey secretKey = SecretKeyFactory.getInstance(ALGORITHM)
+            .generateSecret(new PBEKeySpec(
+               MDfromHTMLConstants.MDfromHTML_DEFAULT_PROPERTY_FILE_KEY));
+         Cipher pbeCipher = Cipher.getInstance(ALGORITHM);
+         pbeCipher.init(Cipher.ENCRYPT_MODE, secretKey,
+            new PBEParameterSpec(MDfromHTMLCrypto.SALT, ITERATIONS));
+         return Base64.getUrlEncoder().encodeToString(
+            pbeCipher.doFinal(((String) value).getBytes("UTF-8")));
+      }
+      if (value instanceof JSONObject) {
+         JSONObject newObj = new JSONObject();
+         for (Map.Entry<String, Object> entry : ((JSONObject) value)
+            .entrySet()) {
+            newObj.put(entry.getKey(), legacyMask(entry.getValue()));
+         }
+         return newObj;
+      }
+      if (value instanceof JSONArray) {
+         JSONArray newArray = new JSONArray();
+         for (Object child : (JSONArray) value) {
+            newArray.add(legacyMask(child));
+         }
+         return newArray;
+      }
+      return value;
+   }
+}
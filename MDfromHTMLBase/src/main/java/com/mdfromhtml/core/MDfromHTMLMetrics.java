@@ -0,0 +1,412 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.core;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.api.json.JSONObject;
+
+/**
+ * Process wide registry of the latencies of the html to markdown conversion
+ * phases and of counters (e.g., nodes processed by each NodeHandler, and hits
+ * for each HTML filter rule). Collection is enabled unless the system property
+ * mdfromhtml.metrics is set to false, and costs a System.nanoTime() call per
+ * phase plus an uncontended counter increment per node when enabled.
+ * <p>
+ * Phases are timed by bracketing the work:
+ *
+ * <pre>
+ * long start = MDfromHTMLMetrics.start();
+ * doc = cleaner.clean(doc);
+ * MDfromHTMLMetrics.recordPhase(MDfromHTMLMetrics.PHASE_CLEAN, start);
+ * </pre>
+ *
+ * The metrics are returned as JSON by the web services, and batch programs
+ * publish them through JMX by calling {@link #registerMBean()}.
+ *
+ * @author Nathaniel Mills
+ */
+public class MDfromHTMLMetrics implements MDfromHTMLMetricsMBean {
+
+   /**
+    * counter group for html filter rules that removed a node, named
+    * domain~rule~attribute~filter (or domain~:tagnames~tag)
+    */
+   static public final String COUNTER_FILTER_RULES = "filterRules";
+
+   /**
+    * counter group for the nodes processed by each NodeHandler
+    */
+   static public final String COUNTER_NODE_HANDLERS = "nodeHandlers";
+
+   /**
+    * system property used to disable collection by setting it to false
+    */
+   static public final String ENABLED_PROPERTY = "mdfromhtml.metrics";
+
+   /**
+    * the name under which the metrics are registered with the platform MBean
+    * server
+    */
+   static public final String OBJECT_NAME = "com.mdfromhtml:type=MDfromHTMLMetrics";
+
+   /**
+    * jsoup cleaning of the parsed document using the HTML filter whitelist
+    */
+   static public final String PHASE_CLEAN = "clean";
+
+   /**
+    * parsing the html into a jsoup Document
+    */
+   static public final String PHASE_HTML_PARSE = "htmlParse";
+
+   /**
+    * parsing a request or capture file's JSON
+    */
+   static public final String PHASE_JSON_PARSE = "jsonParse";
+
+   /**
+    * cleanup of the generated markdown
+    */
+   static public final String PHASE_POST_PROCESS = "postProcess";
+
+   /**
+    * completing and saving (or returning) the provenance
+    */
+   static public final String PHASE_PROVENANCE = "provenance";
+
+   /**
+    * serializing the response returned by a web service
+    */
+   static public final String PHASE_SERIALIZE = "serialize";
+
+   /**
+    * walking the cleaned document's nodes to generate markdown
+    */
+   static public final String PHASE_WALK_NODES = "walkNodes";
+
+   static final MDfromHTMLMetrics INSTANCE = new MDfromHTMLMetrics();
+
+   static final ClassValue<String> SIMPLE_NAMES = new ClassValue<String>() {
+      @Override
+      protected String computeValue(Class<?> type) {
+         return type.getSimpleName();
+      }
+   };
+
+   static final ThreadLocal<Map<String, Long>> TRACE = new ThreadLocal<Map<String, Long>>();
+
+   static volatile boolean s_enabled = Boolean
+      .parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"));
+
+   static boolean s_registered = false;
+
+   /**
+    * @return the process wide metrics
+    */
+   static public MDfromHTMLMetrics getInstance() {
+      return INSTANCE;
+   }
+
+   /**
+    * Begin tracing the phases recorded by the current thread, so the timings
+    * of an individual conversion can be retrieved by {@link #endTrace()}
+    */
+   static public void beginTrace() {
+      TRACE.set(new LinkedHashMap<String, Long>());
+   }
+
+   /**
+    * Stop tracing the phases recorded by the current thread
+    *
+    * @return the elapsed nanoseconds of each phase recorded since
+    *         {@link #beginTrace()} in the order first recorded (empty if not
+    *         tracing or metrics are not being collected)
+    */
+   static public Map<String, Long> endTrace() {
+      Map<String, Long> trace = TRACE.get();
+      TRACE.remove();
+      if (trace == null) {
+         trace = new LinkedHashMap<String, Long>();
+      }
+      return trace;
+   }
+
+   /**
+    * Increment the named counter in the named group
+    *
+    * @param group
+    *           name of the counter group (e.g., {@link #COUNTER_FILTER_RULES})
+    * @param name
+    *           name of the counter within the group
+    */
+   static public void increment(String group, String name) {
+      if (s_enabled) {
+         INSTANCE.getCounter(group, name).increment();
+      }
+   }
+
+   /**
+    * Increment the counter named for the simple name of the supplied class in
+    * the named group
+    *
+    * @param group
+    *           name of the counter group (e.g., {@link #COUNTER_NODE_HANDLERS})
+    * @param type
+    *           class whose simple name names the counter
+    */
+   static public void increment(String group, Class<?> type) {
+      if (s_enabled) {
+         INSTANCE.getCounter(group, SIMPLE_NAMES.get(type)).increment();
+      }
+   }
+
+   /**
+    * @return true if metrics are being collected
+    */
+   static public boolean isEnabled() {
+      return s_enabled;
+   }
+
+   /**
+    * Record the time elapsed since the supplied start for the named phase
+    *
+    * @param phase
+    *           name of the phase (e.g., {@link #PHASE_WALK_NODES})
+    * @param start
+    *           the value returned by {@link #start()} when the phase began
+    */
+   static public void recordPhase(String phase, long start) {
+      if (start != 0L && s_enabled) {
+         long elapsed = System.nanoTime() - start;
+         INSTANCE.getHistogram(phase).recordValue(elapsed);
+         Map<String, Long> trace = TRACE.get();
+         if (trace != null) {
+            trace.merge(phase, elapsed, Long::sum);
+         }
+      }
+   }
+
+   /**
+    * Register the metrics with the platform MBean server under
+    * {@link #OBJECT_NAME}. Subsequent calls have no effect.
+    *
+    * @return true if the metrics are registered
+    */
+   static synchronized public boolean registerMBean() {
+      if (s_registered == false) {
+         try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name) == false) {
+               server.registerMBean(INSTANCE, name);
+            }
+            s_registered = true;
+         } catch (Exception e) {
+            System.out.println("Warning: Can not register " + OBJECT_NAME
+               + " reason: " + e.getLocalizedMessage());
+         }
+      }
+      return s_registered;
+   }
+
+   /**
+    * @param enabled
+    *           true to collect metrics, false to stop collecting them
+    */
+   static public void setEnabled(boolean enabled) {
+      s_enabled = enabled;
+   }
+
+   /**
+    * @return the start time to be passed to {@link #recordPhase(String, long)}
+    *         or 0 if metrics are not being collected
+    */
+   static public long start() {
+      return s_enabled ? System.nanoTime() : 0L;
+   }
+
+   Map<String, Map<String, LongAdder>> _counters = new ConcurrentHashMap<String, Map<String, LongAdder>>();
+   Map<String, MDfromHTMLHistogram> _phases = new ConcurrentHashMap<String, MDfromHTMLHistogram>();
+   volatile long _since = System.currentTimeMillis();
+
+   MDfromHTMLMetrics() {
+   }
+
+   LongAdder getCounter(String group, String name) {
+      Map<String, LongAdder> counters = _counters.get(group);
+      if (counters == null) {
+         counters = _counters.computeIfAbsent(group,
+            k -> new ConcurrentHashMap<String, LongAdder>());
+      }
+      LongAdder counter = counters.get(name);
+      if (counter == null) {
+         counter = counters.computeIfAbsent(name, k -> new LongAdder());
+      }
+      return counter;
+   }
+
+   @Override
+   public String[] getCounterGroups() {
+      return new TreeMap<String, Object>(_counters).keySet()
+         .toArray(new String[0]);
+   }
+
+   @Override
+   public String getCounters(String group) {
+      return getCountersJSON(group).toString();
+   }
+
+   /**
+    * @param group
+    *           name of the counter group
+    * @return object with each counter's name and value in the named group
+    */
+   public JSONObject getCountersJSON(String group) {
+      JSONObject result = new JSONObject();
+      Map<String, LongAdder> counters = _counters.get(group);
+      if (counters != null) {
+         for (Map.Entry<String, LongAdder> entry : new TreeMap<String, LongAdder>(
+            counters).entrySet()) {
+            result.put(entry.getKey(), entry.getValue().sum());
+         }
+      }
+      return result;
+   }
+
+   /**
+    * @param phase
+    *           name of the phase
+    * @return the histogram of the named phase's latencies in nanoseconds
+    */
+   public MDfromHTMLHistogram getHistogram(String phase) {
+      MDfromHTMLHistogram histogram = _phases.get(phase);
+      if (histogram == null) {
+         histogram = _phases.computeIfAbsent(phase,
+            k -> new MDfromHTMLHistogram());
+      }
+      return histogram;
+   }
+
+   @Override
+   public String getPhaseLatency(String phase) {
+      MDfromHTMLHistogram histogram = _phases.get(phase);
+      return histogram == null ? new JSONObject().toString()
+         : histogram.toJSON().toString();
+   }
+
+   @Override
+   public String[] getPhases() {
+      return new TreeMap<String, Object>(_phases).keySet()
+         .toArray(new String[0]);
+   }
+
+   @Override
+   public String getSnapshot() {
+      return toJSON().toString();
+   }
+
+   @Override
+   public boolean isCollecting() {
+      return s_enabled;
+   }
+
+   @Override
+   public void reset() {
+      for (MDfromHTMLHistogram histogram : _phases.values()) {
+         histogram.reset();
+      }
+      for (Map<String, LongAdder> counters : _counters.values()) {
+         counters.clear();
+      }
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+         if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+            pool.resetPeakUsage();
+         }
+      }
+      _since = System.currentTimeMillis();
+   }
+
+   @Override
+   public void setCollecting(boolean collecting) {
+      setEnabled(collecting);
+   }
+
+   /**
+    * @return object containing the heap's current used, committed and max
+    *         bytes, and the peak used bytes (the sum of each heap memory
+    *         pool's peak since the last reset, so an upper bound of the
+    *         heap's high-water mark)
+    */
+   public JSONObject getHeapJSON() {
+      JSONObject result = new JSONObject();
+      MemoryUsage usage = ManagementFactory.getMemoryMXBean()
+         .getHeapMemoryUsage();
+      result.put("usedBytes", usage.getUsed());
+      result.put("committedBytes", usage.getCommitted());
+      result.put("maxBytes", usage.getMax());
+      long peak = 0L;
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+         if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+            peak += pool.getPeakUsage().getUsed();
+         }
+      }
+      result.put("peakUsedBytes", peak);
+      return result;
+   }
+
+   /**
+    * @return object containing whether metrics are being collected, when
+    *         collection began (since, in epoch milliseconds), the heap usage,
+    *         the latency summary for each phase, and the counters in each
+    *         group
+    */
+   public JSONObject toJSON() {
+      JSONObject result = new JSONObject();
+      result.put("collecting", s_enabled);
+      result.put("since", _since);
+      result.put("heap", getHeapJSON());
+      JSONObject phases = new JSONObject();
+      for (String phase : getPhases()) {
+         phases.put(phase, _phases.get(phase).toJSON());
+      }
+      result.put("phases", phases);
+      JSONObject counters = new JSONObject();
+      for (String group : getCounterGroups()) {
+         counters.put(group, getCountersJSON(group));
+      }
+      result.put("counters", counters);
+      return result;
+   }
+}
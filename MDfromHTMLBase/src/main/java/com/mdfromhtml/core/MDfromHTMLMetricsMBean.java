@@ -0,0 +1,77 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.core;
+
+/**
+ * JMX management interface for {@link MDfromHTMLMetrics} so batch programs can
+ * be observed with jconsole, VisualVM, or other JMX clients.
+ *
+ * @author Nathaniel Mills
+ */
+public interface MDfromHTMLMetricsMBean {
+
+   /**
+    * @param group
+    *           name of the counter group (e.g., nodeHandlers or filterRules)
+    * @return the counters in the named group as a JSON formatted string
+    */
+   public String getCounters(String group);
+
+   /**
+    * @return the names of the counter groups
+    */
+   public String[] getCounterGroups();
+
+   /**
+    * @return the names of the phases with recorded latencies
+    */
+   public String[] getPhases();
+
+   /**
+    * @param phase
+    *           name of the phase (e.g., walkNodes)
+    * @return the latency summary of the phase as a JSON formatted string
+    */
+   public String getPhaseLatency(String phase);
+
+   /**
+    * @return all metrics as a JSON formatted string
+    */
+   public String getSnapshot();
+
+   /**
+    * @return true if metrics are being collected
+    */
+   public boolean isCollecting();
+
+   /**
+    * Discard all collected metrics and restart the heap peak usage tracking
+    */
+   public void reset();
+
+   /**
+    * @param collecting
+    *           true to collect metrics, false to stop collecting them
+    */
+   public void setCollecting(boolean collecting);
+}
@@ -0,0 +1,252 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.core;
+
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Source of random bytes for identifiers (see
+ * {@link MDfromHTMLUtils#getUniqueID()} and {@link MDfromHTMLID}) that avoids
+ * funneling every thread through one shared generator. Threads are spread
+ * across a fixed set of SHA1PRNG generators (stripes), so concurrent callers
+ * rarely wait on each other. Each stripe is seeded once, on first use, from
+ * {@link MDfromHTMLConstants#SEED_SECURE_RANDOM} mixed with the time and the
+ * stripe's index, after which it never reads system entropy and so never
+ * blocks.
+ * <p>
+ * Stripes are chosen by thread identity rather than held per thread, so the
+ * many short lived (e.g., virtual) threads handling requests do not each seed
+ * a generator.
+ *
+ * @author Nathaniel Mills
+ */
+public class MDfromHTMLRandom {
+
+   static final int STRIPES = stripeCount(
+      Runtime.getRuntime().availableProcessors());
+
+   static final AtomicReferenceArray<SecureRandom> s_stripes = new AtomicReferenceArray<SecureRandom>(
+      STRIPES);
+
+   /**
+    * @param processors
+    *           number of processors
+    * @return power of two number of stripes, 4 per processor, between 8 and
+    *         256
+    */
+   static int stripeCount(int processors) {
+      int stripes = 8;
+      while (stripes < 4 * processors && stripes < 256) {
+         stripes <<= 1;
+      }
+      return stripes;
+   }
+
+   /**
+    * @return true if secure generators are available (otherwise callers fall
+    *         back to a less sophisticated source, as done previously)
+    */
+   static public boolean isSecure() {
+      return MDfromHTMLConstants.SEED_SECURE_RANDOM != null;
+   }
+
+   /**
+    * Fill the array with random bytes from the calling thread's stripe
+    *
+    * @param bytes
+    *           array to be filled
+    * @throws IllegalStateException
+    *            if secure generators are not available (see
+    *            {@link #isSecure()})
+    */
+   static public void nextBytes(byte[] bytes) {
+      getStripe().nextBytes(bytes);
+   }
+
+   static SecureRandom getStripe() {
+      // spread sequential thread ids across the stripes
+      long id = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+      int index = (int) (id >>> 40) & (STRIPES - 1);
+      SecureRandom random = s_stripes.get(index);
+      if (random == null) {
+         random = newStripe(index);
+         if (s_stripes.compareAndSet(index, null, random) == false) {
+            random = s_stripes.get(index);
+         }
+      }
+      return random;
+   }
+
+   static SecureRandom newStripe(int index) {
+      SecureRandom seedRandom = MDfromHTMLConstants.SEED_SECURE_RANDOM;
+      if (seedRandom == null) {
+         throw new IllegalStateException(
+            "Unable to retrieve algorithm SHA1PRNG for unique id generation.");
+      }
+      try {
+         SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
+         byte[] seed = new byte[32];
+         seedRandom.nextBytes(seed);
+         ByteBuffer bb = ByteBuffer.allocate(seed.length + 20);
+         bb.put(seed);
+         bb.putLong(System.nanoTime());
+         bb.putLong(System.currentTimeMillis());
+         bb.putInt(index);
+         // setting the seed before first use replaces self seeding from
+         // system entropy
+         random.setSeed(bb.array());
+         return random;
+      } catch (NoSuchAlgorithmException e) {
+         throw new IllegalStateException(
+            "Unable to retrieve algorithm SHA1PRNG for unique id generation.",
+            e);
+      }
+   }
+
+   /**
+    * Contention benchmark comparing, on increasing numbers of threads, the
+    * previous synchronized generation of unique ids, UUIDs (used previously
+    * for {@link MDfromHTMLID}) and a synchronized counter with the striped
+    * generators and an atomic counter
+    *
+    * @param args
+    *           optional number of operations per thread (default 200000) and
+    *           most threads (default 16)
+    */
+   public static void main(String[] args) {
+      int operations = 200000;
+      int maxThreads = 16;
+      try {
+         if (args.length > 0) {
+            operations = new Integer(args[0]);
+         }
+         if (args.length > 1) {
+            maxThreads = new Integer(args[1]);
+         }
+         final Object lock = new Object();
+         final int[] syncCounter = new int[1];
+         final AtomicInteger atomicCounter = new AtomicInteger();
+         String[] labels = new String[] { "synchronized getUniqueID",
+            "striped getUniqueID", "UUID based MDfromHTMLID",
+            "striped MDfromHTMLID", "synchronized token counter",
+            "atomic token counter" };
+         for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            for (int test = 0; test < labels.length; test++) {
+               final int which = test;
+               final int count = operations;
+               Runnable work = new Runnable() {
+                  @Override
+                  public void run() {
+                     byte[] bytes = new byte[20];
+                     long sink = 0L;
+                     for (int i = 0; i < count; i++) {
+                        switch (which) {
+                           case 0: {
+                              synchronized (lock) {
+                                 MDfromHTMLConstants.SEED_SECURE_RANDOM
+                                    .nextBytes(bytes);
+                              }
+                              sink += MDfromHTMLUtils.hexEncode(bytes)
+                                 .length();
+                              break;
+                           }
+                           case 1: {
+                              sink += MDfromHTMLUtils.getUniqueID().length();
+                              break;
+                           }
+                           case 2: {
+                              sink += UUID.randomUUID().hashCode();
+                              break;
+                           }
+                           case 3: {
+                              sink += new MDfromHTMLID().hashCode();
+                              break;
+                           }
+                           case 4: {
+                              synchronized (lock) {
+                                 sink += ++syncCounter[0];
+                              }
+                              break;
+                           }
+                           default: {
+                              sink += atomicCounter.incrementAndGet();
+                              break;
+                           }
+                        }
+                     }
+                     if (sink == 42L) {
+                        System.out.print("");
+                     }
+                  }
+               };
+               long nanos = run(work, threads);
+               long total = (long) operations * threads;
+               System.out.println(labels[test] + " on " + threads
+                  + " threads: " + Math.round(total * 1.0E9d / nanos)
+                  + " ops/s");
+            }
+         }
+         String id = MDfromHTMLUtils.getUniqueID();
+         MDfromHTMLID mdID = new MDfromHTMLID();
+         System.out.println("Sample unique id " + id + " (" + id.length()
+            + " characters), MDfromHTMLID " + mdID + " (" + mdID.toString()
+               .length()
+            + " characters, valid: "
+            + (MDfromHTMLID.getExistingID(mdID.toString()).isUndefined() == false)
+            + ")");
+      } catch (Exception e) {
+         e.printStackTrace();
+      }
+   }
+
+   static long run(final Runnable work, int threads)
+      throws InterruptedException {
+      final CountDownLatch start = new CountDownLatch(1);
+      final CountDownLatch done = new CountDownLatch(threads);
+      for (int t = 0; t < threads; t++) {
+         new Thread(new Runnable() {
+            @Override
+            public void run() {
+               try {
+                  start.await();
+                  work.run();
+               } catch (InterruptedException e) {
+                  // exit
+               } finally {
+                  done.countDown();
+               }
+            }
+         }).start();
+      }
+      long begin = System.nanoTime();
+      start.countDown();
+      done.await();
+      return System.nanoTime() - begin;
+   }
+}
@@ -0,0 +1,438 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.core;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.api.json.JSONArray;
+import com.api.json.JSONObject;
+
+/**
+ * Checkpoints a batch run so a run restarted after a crash (or rerun after
+ * some inputs changed) converts only the inputs whose outputs are missing,
+ * failed or out of date. The manifest, kept in the output directory, records
+ * for each input:
+ * <ul>
+ * <li>the size, modification time and SHA-256 hash of its source files (the
+ * input and any files it depends on)</li>
+ * <li>the version of the settings it was converted with (e.g., a hash of the
+ * HTML filters)</li>
+ * <li>the name and size of each output produced, and whether it was converted
+ * successfully</li>
+ * </ul>
+ * An input is current if it was converted successfully with the same
+ * settings, its sources are unchanged (by size and modification time, or
+ * failing that by hash) and its outputs still have their recorded sizes.
+ * <p>
+ * Each input's entry is appended to the manifest as a line of JSON once its
+ * outputs have been saved, so a crash loses at most the inputs being
+ * converted. A partially written last line is ignored when the manifest is
+ * read, and the manifest is rewritten with one line per input when closed.
+ * Outputs should be written to a temporary file then renamed (see
+ * {@link MDfromHTMLUtils#replaceAtomically(Path, Path)}) so a crash never
+ * leaves a partial output with its recorded size.
+ * <p>
+ * The manifest is enabled by setting the mdfromhtml.manifest system property
+ * to true.
+ *
+ * @author Nathaniel Mills
+ */
+public class MDfromHTMLRunManifest implements Closeable {
+
+   /**
+    * system property set to true to checkpoint batch runs in a manifest
+    */
+   static public final String MANIFEST_PROPERTY = "mdfromhtml.manifest";
+   /**
+    * name of the manifest in the output directory
+    */
+   static public final String MANIFEST_NAME = "mdfromhtml_manifest.ndjson";
+
+   static public final String STATUS_COMPLETE = "complete";
+   static public final String STATUS_FAILED = "failed";
+
+   static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+   int _completed = 0;
+   Map<String, JSONObject> _entries = new LinkedHashMap<String, JSONObject>();
+   int _failed = 0;
+   Path _file;
+   Path _outputDir;
+   int _skipped = 0;
+   String _version;
+   BufferedWriter _writer = null;
+
+   /**
+    * Constructor reading the entries recorded by previous runs
+    *
+    * @param file
+    *           the manifest file
+    * @param outputDir
+    *           the directory containing the outputs
+    * @param version
+    *           identifies the settings of this run (see
+    *           {@link #getVersion(String...)})
+    * @throws IOException
+    *            if the manifest can not be read
+    */
+   public MDfromHTMLRunManifest(Path file, Path outputDir, String version)
+      throws IOException {
+      _file = file;
+      _outputDir = outputDir;
+      _version = version;
+      if (Files.exists(file)) {
+         try (BufferedReader reader = Files.newBufferedReader(file,
+            MDfromHTMLUtils.UTF8_CHARSET)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+               if (line.trim().length() == 0) {
+                  continue;
+               }
+               JSONObject entry;
+               try {
+                  entry = JSONObject.parse(line);
+               } catch (IOException e) {
+                  // the line being appended when a run crashed
+                  continue;
+               }
+               Object input = entry.get("input");
+               if (input instanceof String) {
+                  // later lines supersede earlier ones
+                  _entries.put((String) input, entry);
+               }
+            }
+         }
+      }
+   }
+
+   /**
+    * Create the manifest in the output directory if enabled by the system
+    * properties
+    *
+    * @param outputPath
+    *           the output directory (ending with a separator)
+    * @param version
+    *           identifies the settings of this run
+    * @return the manifest, or null if it is not enabled
+    * @throws IOException
+    *            if the manifest can not be read
+    */
+   static public MDfromHTMLRunManifest fromProperties(String outputPath,
+      String version) throws IOException {
+      if (Boolean.getBoolean(MANIFEST_PROPERTY) == false) {
+         return null;
+      }
+      Path outputDir = FileSystems.getDefault().getPath(outputPath);
+      return new MDfromHTMLRunManifest(outputDir.resolve(MANIFEST_NAME),
+         outputDir, version);
+   }
+
+   /**
+    * @param settings
+    *           the settings affecting the outputs (e.g., the HTML filters and
+    *           the program's options)
+    * @return the SHA-256 hash of the settings identifying them in the manifest
+    */
+   static public String getVersion(String... settings) {
+      MessageDigest digest = newDigest();
+      for (String setting : settings) {
+         digest.update(String.valueOf(setting)
+            .getBytes(MDfromHTMLUtils.UTF8_CHARSET));
+         digest.update((byte) 0);
+      }
+      return MDfromHTMLUtils.hexEncode(digest.digest()).toLowerCase();
+   }
+
+   /**
+    * @return a description of the manifest and the inputs skipped, converted
+    *         and failed so far
+    */
+   public synchronized String describe() {
+      return "manifest " + _file + " (" + _entries.size() + " inputs): "
+         + _skipped + " current inputs skipped, " + _completed
+         + " converted, " + _failed + " failed";
+   }
+
+   /**
+    * @return the number of inputs converted successfully by this run
+    */
+   public synchronized int getCompletedCount() {
+      return _completed;
+   }
+
+   /**
+    * @return the number of inputs that failed to convert in this run
+    */
+   public synchronized int getFailedCount() {
+      return _failed;
+   }
+
+   /**
+    * @return the number of inputs skipped by this run because their outputs
+    *         were current
+    */
+   public synchronized int getSkippedCount() {
+      return _skipped;
+   }
+
+   /**
+    * Describe the sources of an input as they are before it is converted, so
+    * a change made during the conversion is found by the next run
+    *
+    * @param sources
+    *           the input followed by any files its outputs depend on
+    * @return the name, size, modification time and hash of each source
+    * @throws IOException
+    *            if a source can not be read
+    */
+   public JSONArray fingerprint(List<Path> sources) throws IOException {
+      JSONArray result = new JSONArray();
+      for (Path source : sources) {
+         JSONObject fingerprint = new JSONObject();
+         fingerprint.put("name", source.getFileName().toString());
+         fingerprint.put("size", Files.size(source));
+         fingerprint.put("modified",
+            Files.getLastModifiedTime(source).toMillis());
+         fingerprint.put("sha256", hash(source));
+         result.add(fingerprint);
+      }
+      return result;
+   }
+
+   /**
+    * Determine whether an input's outputs are complete and current, counting
+    * it as skipped if so
+    *
+    * @param sources
+    *           the input followed by any files its outputs depend on
+    * @return true if the input was converted successfully with this run's
+    *         version, its sources are unchanged and its outputs are intact
+    * @throws IOException
+    *            if a source can not be read
+    */
+   public boolean isCurrent(List<Path> sources) throws IOException {
+      String input = sources.get(0).getFileName().toString();
+      JSONObject entry;
+      synchronized (this) {
+         entry = _entries.get(input);
+      }
+      if (entry == null || STATUS_COMPLETE.equals(entry.get("status")) == false
+         || _version.equals(entry.get("version")) == false) {
+         return false;
+      }
+      JSONArray recorded = (JSONArray) entry.get("sources");
+      if (recorded == null || recorded.size() != sources.size()) {
+         return false;
+      }
+      boolean touched = false;
+      for (int i = 0; i < sources.size(); i++) {
+         Path source = sources.get(i);
+         JSONObject fingerprint = (JSONObject) recorded.get(i);
+         if (source.getFileName().toString()
+            .equals(fingerprint.get("name")) == false) {
+            return false;
+         }
+         long size;
+         long modified;
+         try {
+            size = Files.size(source);
+            modified = Files.getLastModifiedTime(source).toMillis();
+         } catch (NoSuchFileException e) {
+            return false;
+         }
+         if (size != getLong(fingerprint, "size")) {
+            return false;
+         }
+         if (modified != getLong(fingerprint, "modified")) {
+            // copied or touched, but possibly with the same content
+            if (hash(source).equals(fingerprint.get("sha256")) == false) {
+               return false;
+            }
+            touched = true;
+         }
+      }
+      JSONObject outputs = (JSONObject) entry.get("outputs");
+      if (outputs == null) {
+         return false;
+      }
+      for (Object name : outputs.keySet()) {
+         Path output = _outputDir.resolve((String) name);
+         try {
+            if (Files.size(output) != getLong(outputs, (String) name)) {
+               return false;
+            }
+         } catch (NoSuchFileException e) {
+            return false;
+         }
+      }
+      JSONObject updated = null;
+      if (touched) {
+         // record the new modification times so they are not hashed again
+         updated = copy(entry);
+         updated.put("sources", fingerprint(sources));
+      }
+      synchronized (this) {
+         if (updated != null) {
+            append(updated);
+         }
+         _skipped++;
+      }
+      return true;
+   }
+
+   /**
+    * Record the outcome of converting an input. Call once its outputs have
+    * been saved.
+    *
+    * @param sources
+    *           the fingerprint of the input's sources taken before it was
+    *           converted (see {@link #fingerprint(List)})
+    * @param outputs
+    *           the names of the outputs produced, relative to the output
+    *           directory
+    * @param complete
+    *           true if the input was converted successfully
+    * @throws IOException
+    *            if an output can not be found or the manifest written
+    */
+   public synchronized void record(JSONArray sources,
+      Collection<String> outputs, boolean complete) throws IOException {
+      JSONObject outputSizes = new JSONObject();
+      for (String name : outputs) {
+         Path output = _outputDir.resolve(name);
+         if (complete && Files.exists(output) == false) {
+            // not saved, so not complete
+            complete = false;
+         }
+         outputSizes.put(name, Files.exists(output) ? Files.size(output) : -1L);
+      }
+      JSONObject entry = new JSONObject();
+      entry.put("input", ((JSONObject) sources.get(0)).get("name"));
+      entry.put("status", complete ? STATUS_COMPLETE : STATUS_FAILED);
+      entry.put("version", _version);
+      entry.put("sources", sources);
+      entry.put("outputs", outputSizes);
+      entry.put("recorded", System.currentTimeMillis());
+      append(entry);
+      if (complete) {
+         _completed++;
+      } else {
+         _failed++;
+      }
+   }
+
+   /**
+    * Rewrite the manifest with one line per input
+    */
+   @Override
+   public synchronized void close() throws IOException {
+      if (_writer != null) {
+         _writer.close();
+         _writer = null;
+      }
+      Path temp = MDfromHTMLUtils.getTempPath(_file);
+      try {
+         try (BufferedWriter writer = Files.newBufferedWriter(temp,
+            MDfromHTMLUtils.UTF8_CHARSET)) {
+            for (JSONObject entry : _entries.values()) {
+               writer.write(entry.serialize());
+               writer.write("\n");
+            }
+         }
+         MDfromHTMLUtils.replaceAtomically(temp, _file);
+      } finally {
+         Files.deleteIfExists(temp);
+      }
+   }
+
+   /**
+    * Append the entry to the manifest, flushing it so it survives the
+    * process
+    */
+   void append(JSONObject entry) throws IOException {
+      if (_writer == null) {
+         _writer = Files.newBufferedWriter(_file, MDfromHTMLUtils.UTF8_CHARSET,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+         if (Files.size(_file) > 0L) {
+            // terminate a line left partially written by a crash
+            _writer.write("\n");
+         }
+      }
+      _writer.write(entry.serialize());
+      _writer.write("\n");
+      _writer.flush();
+      _entries.put((String) entry.get("input"), entry);
+   }
+
+   static JSONObject copy(JSONObject entry) {
+      JSONObject result = new JSONObject();
+      for (Object key : entry.keySet()) {
+         result.put((String) key, entry.get(key));
+      }
+      return result;
+   }
+
+   static long getLong(JSONObject object, String field) {
+      Object value = object.get(field);
+      return value instanceof Number ? ((Number) value).longValue() : -1L;
+   }
+
+   /**
+    * @return the SHA-256 hash of the file's content
+    */
+   static String hash(Path file) throws IOException {
+      MessageDigest digest = newDigest();
+      byte[] buffer = new byte[HASH_BUFFER_SIZE];
+      try (InputStream in = Files.newInputStream(file)) {
+         int read;
+         while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+         }
+      }
+      return MDfromHTMLUtils.hexEncode(digest.digest()).toLowerCase();
+   }
+
+   static MessageDigest newDigest() {
+      try {
+         return MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+         // every Java platform is required to support SHA-256
+         throw new IllegalStateException(e);
+      }
+   }
+}
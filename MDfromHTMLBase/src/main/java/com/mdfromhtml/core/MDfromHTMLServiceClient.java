@@ -0,0 +1,481 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.core;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import com.api.json.JSONObject;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Client for sending many requests to one service, e.g., a crawler converting
+ * pages with the mdfromhtml/getMarkdown service. The service object (protocol,
+ * domain, portnumber, endpoint, username, password, apitimeout and optional
+ * encoding, as used by {@link MDfromHTMLComms}) is parsed once, and requests
+ * and responses are Jackson ObjectNodes serialized directly to and from the
+ * connection (JSON as UTF-8, or CBOR for "encoding":"cbor") without
+ * converting between JSON libraries.
+ * <p>
+ * Connections are kept alive and reused by the JDK's HTTP keep-alive cache,
+ * which only reuses connections whose responses were fully read, as is done
+ * here for successful and failed requests alike. The cache keeps at most
+ * http.maxConnections (default 5) idle connections per server for the whole
+ * JVM, so applications allowing more requests in flight should set that
+ * system property (e.g., -Dhttp.maxConnections=16) before their first HTTP
+ * connection is made, as the cache reads it only once. A warning is logged
+ * when it allows fewer connections than requests in flight. Responses are requested
+ * gzip compressed, and requests may optionally be sent compressed to servers
+ * supporting it (e.g., the MDfromHTMLServer launcher in
+ * MDfromHTMLWebServices).
+ * <p>
+ * {@link #submit(ObjectNode)} and
+ * {@link #sendAll(Iterable, MDfromHTMLExecution.ResultHandler)} send requests
+ * asynchronously on the I/O threads of an {@link MDfromHTMLExecution} (virtual
+ * threads where supported). At most maxInFlight requests are outstanding at a
+ * time across all callers of the client; further requests wait for one to
+ * complete.
+ *
+ * @author Nathaniel Mills
+ */
+public class MDfromHTMLServiceClient implements Closeable {
+
+   static public final int DEFAULT_COMPRESS_MIN_BYTES = 1024;
+   static public final int DEFAULT_MAX_CONNECTIONS = 5;
+   static public final int DEFAULT_MAX_IN_FLIGHT = 16;
+   static public final String MAX_CONNECTIONS_PROPERTY = "http.maxConnections";
+
+   // the response streams are drained and closed here after parsing
+   static final ObjectMapper MAPPER = new ObjectMapper()
+      .configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, false);
+
+   String _accept;
+   String _authorization = null;
+   AtomicLong _bytesReceived = new AtomicLong();
+   AtomicLong _bytesSent = new AtomicLong();
+   boolean _cbor;
+   boolean _compressRequests;
+   String _contentType;
+   MDfromHTMLExecution _execution;
+   Semaphore _inFlight;
+   int _maxInFlight;
+   String _method;
+   int _timeout;
+   String _url;
+
+   /**
+    * Constructor for a client POSTing JSON requests, accepting compressed
+    * responses but sending uncompressed requests, with at most
+    * {@link #DEFAULT_MAX_IN_FLIGHT} requests outstanding
+    *
+    * @param serviceObj
+    *           the service's protocol, domain, portnumber, endpoint,
+    *           username, password, apitimeout and optional encoding
+    * @throws Exception
+    *            if the service object is missing settings
+    */
+   public MDfromHTMLServiceClient(ObjectNode serviceObj) throws Exception {
+      this("POST", serviceObj, DEFAULT_MAX_IN_FLIGHT, false);
+   }
+
+   /**
+    * Constructor
+    *
+    * @param method
+    *           the HTTP method used for the requests (e.g., POST)
+    * @param serviceObj
+    *           the service's protocol, domain, portnumber, endpoint,
+    *           username, password, apitimeout and optional encoding
+    * @param maxInFlight
+    *           most requests outstanding at a time
+    * @param compressRequests
+    *           true to gzip request content of at least
+    *           {@link #DEFAULT_COMPRESS_MIN_BYTES} bytes (the server must
+    *           accept Content-Encoding: gzip)
+    * @throws Exception
+    *            if the method is missing, or the service object is missing
+    *            settings
+    */
+   public MDfromHTMLServiceClient(String method, ObjectNode serviceObj,
+      int maxInFlight, boolean compressRequests) throws Exception {
+      if (method == null || method.trim().length() == 0) {
+         throw new Exception("The method is null or empty.");
+      }
+      if (serviceObj == null) {
+         throw new Exception("The serviceObj is null");
+      }
+      _method = method.trim();
+      JsonNode portnumberElt = serviceObj.get("portnumber");
+      if (portnumberElt == null || portnumberElt.isValueNode() == false) {
+         throw new Exception(
+            "The portnumber is not a String of a number, nor a Number.");
+      }
+      _url = MDfromHTMLComms.getServiceURL(
+         MDfromHTMLComms.getStringFromObject(serviceObj, "protocol").trim(),
+         MDfromHTMLComms.getStringFromObject(serviceObj, "domain").trim(),
+         portnumberElt.asText().trim(), MDfromHTMLComms
+            .getStringFromObject(serviceObj, "endpoint", "").trim());
+      _timeout = MDfromHTMLComms.getTimeout(MDfromHTMLComms
+         .getStringFromObject(serviceObj, "apitimeout").trim());
+      String username = MDfromHTMLComms
+         .getStringFromObject(serviceObj, "username", null);
+      String password = MDfromHTMLComms
+         .getStringFromObject(serviceObj, "password", null);
+      if (username != null && password != null) {
+         // Note: do not use the Base64.getUrlEncoder for authentication
+         _authorization = "Basic " + Base64.getEncoder().encodeToString(
+            MDfromHTMLUtils.toUTF8Bytes(username.trim() + ":" + password.trim()));
+      }
+      _cbor = MDfromHTMLComms.isCBOR(_method,
+         serviceObj.path("encoding").asText(null));
+      _contentType = _cbor ? MDfromHTMLCBORCodec.MEDIA_TYPE
+         : "application/json; charset=UTF-8";
+      _accept = _cbor ? MDfromHTMLComms.CBOR_ACCEPT : "application/json";
+      _compressRequests = compressRequests;
+      _maxInFlight = Math.max(1, maxInFlight);
+      _inFlight = new Semaphore(_maxInFlight);
+      int maxConnections = getMaxConnections();
+      if (maxConnections < _maxInFlight) {
+         System.out.println("Warning: " + MAX_CONNECTIONS_PROPERTY + " ("
+            + maxConnections + ") is less than the " + _maxInFlight
+            + " requests allowed in flight, so connections beyond it are not"
+            + " kept alive. Set -D" + MAX_CONNECTIONS_PROPERTY + "="
+            + _maxInFlight + " when starting the application.");
+      }
+      _execution = new MDfromHTMLExecution(1, _maxInFlight, true);
+   }
+
+   /**
+    * @return the idle connections per server kept alive by the JDK's HTTP
+    *         keep-alive cache
+    */
+   static int getMaxConnections() {
+      try {
+         return Integer.parseInt(System.getProperty(MAX_CONNECTIONS_PROPERTY,
+            Integer.toString(DEFAULT_MAX_CONNECTIONS)).trim());
+      } catch (NumberFormatException e) {
+         return DEFAULT_MAX_CONNECTIONS;
+      }
+   }
+
+   /**
+    * Wait for requests in progress to complete and stop the I/O threads
+    */
+   @Override
+   public void close() {
+      _execution.close();
+   }
+
+   /**
+    * @return bytes of (possibly compressed) request content sent
+    */
+   public long getBytesSent() {
+      return _bytesSent.get();
+   }
+
+   /**
+    * @return bytes of (possibly compressed) response content received
+    */
+   public long getBytesReceived() {
+      return _bytesReceived.get();
+   }
+
+   /**
+    * @return most requests outstanding at a time
+    */
+   public int getMaxInFlight() {
+      return _maxInFlight;
+   }
+
+   /**
+    * Send the request, waiting while maxInFlight requests are outstanding
+    *
+    * @param request
+    *           the request content (for GET, its fields are sent as query
+    *           parameters)
+    * @return the response, or an object containing the errorCode and errorMsg
+    *         if the request failed
+    * @throws Exception
+    *            if the request can not be sent or its response decoded
+    */
+   public ObjectNode send(ObjectNode request) throws Exception {
+      if (request == null) {
+         throw new Exception("The request object is null");
+      }
+      _inFlight.acquire();
+      try {
+         return exchange(request);
+      } finally {
+         _inFlight.release();
+      }
+   }
+
+   /**
+    * Send the request on an I/O thread
+    *
+    * @param request
+    *           the request content
+    * @return the pending response (see {@link #send(ObjectNode)})
+    */
+   public Future<ObjectNode> submit(final ObjectNode request) {
+      return _execution.submitIO(new Callable<ObjectNode>() {
+         @Override
+         public ObjectNode call() throws Exception {
+            return send(request);
+         }
+      });
+   }
+
+   /**
+    * Send the requests concurrently, at most maxInFlight at a time, handing
+    * their responses to the handler on the calling thread in the order of
+    * the requests. Once the handler returns false (or throws an exception)
+    * no further requests are sent.
+    *
+    * @param requests
+    *           the requests to be sent
+    * @param handler
+    *           the consumer of each response (see {@link #send(ObjectNode)})
+    * @return true if all requests were sent, false if the handler stopped
+    *         processing
+    * @throws Exception
+    *            if a request could not be sent or its response decoded, or
+    *            the exception thrown by the handler
+    */
+   public boolean sendAll(Iterable<ObjectNode> requests,
+      MDfromHTMLExecution.ResultHandler<ObjectNode> handler) throws Exception {
+      return _execution.forEachOrdered(requests,
+         new MDfromHTMLExecution.Task<ObjectNode, ObjectNode>() {
+            @Override
+            public ObjectNode call(ObjectNode request) throws Exception {
+               return send(request);
+            }
+         }, handler);
+   }
+
+   ObjectNode exchange(ObjectNode request) throws Exception {
+      String url = _url;
+      byte[] content = null;
+      if ("GET".equals(_method)) {
+         url += getQueryString(request);
+      } else {
+         content = _cbor ? MDfromHTMLCBORCodec.encode(request)
+            : MAPPER.writeValueAsBytes(request);
+      }
+      HttpURLConnection connection = (HttpURLConnection) new URL(url)
+         .openConnection();
+      connection.setRequestMethod(_method);
+      connection.setConnectTimeout(_timeout);
+      if (_authorization != null) {
+         connection.setRequestProperty("Authorization", _authorization);
+      }
+      connection.setRequestProperty("Accept", _accept);
+      connection.setRequestProperty("Accept-Encoding", "gzip");
+      if (content != null) {
+         connection.setRequestProperty("Content-Type", _contentType);
+         if (_compressRequests && content.length >= DEFAULT_COMPRESS_MIN_BYTES) {
+            content = gzip(content);
+            connection.setRequestProperty("Content-Encoding", "gzip");
+         }
+         connection.setDoOutput(true);
+         connection.setFixedLengthStreamingMode(content.length);
+         try (OutputStream os = connection.getOutputStream()) {
+            os.write(content);
+         }
+         _bytesSent.addAndGet(content.length);
+      }
+      int responseCode = connection.getResponseCode();
+      if (responseCode < 200 || responseCode >= 299) {
+         MDfromHTMLComms.discardErrorContent(connection);
+         ObjectNode responseObj = JsonNodeFactory.instance.objectNode();
+         responseObj.put("errorCode", responseCode);
+         responseObj.put("errorMsg", connection.getResponseMessage());
+         return responseObj;
+      }
+      long length = connection.getContentLengthLong();
+      if (length > 0) {
+         _bytesReceived.addAndGet(length);
+      }
+      JsonNode response;
+      try (InputStream is = MDfromHTMLComms.getResponseStream(connection)) {
+         if (MDfromHTMLCBORCodec.isCBOR(connection.getContentType())) {
+            response = MDfromHTMLCBORCodec
+               .decodeJsonNode(new BufferedInputStream(is, 65536));
+         } else {
+            response = MAPPER.readTree(is);
+         }
+         // leave the connection ready for reuse
+         byte[] buffer = new byte[1024];
+         while (is.read(buffer) >= 0) {
+            // discard trailing content
+         }
+      }
+      if (response != null && response.isObject()) {
+         return (ObjectNode) response;
+      }
+      return null;
+   }
+
+   /**
+    * @return the request's fields as URL encoded query parameters whose
+    *         values are JSON
+    */
+   String getQueryString(ObjectNode request) throws IOException {
+      StringBuilder sb = new StringBuilder();
+      for (Iterator<Map.Entry<String, JsonNode>> it = request.fields(); it
+         .hasNext();) {
+         Map.Entry<String, JsonNode> field = it.next();
+         sb.append(sb.length() == 0 ? (_url.indexOf('?') == -1 ? "?" : "&")
+            : "&");
+         sb.append(URLEncoder.encode(field.getKey(), "UTF-8"));
+         sb.append("=");
+         sb.append(URLEncoder.encode(MAPPER.writeValueAsString(field.getValue()),
+            "UTF-8"));
+      }
+      return sb.toString();
+   }
+
+   static byte[] gzip(byte[] content) throws IOException {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream(
+         content.length / 4 + 64);
+      try (GZIPOutputStream gzos = new GZIPOutputStream(baos, 8192)) {
+         gzos.write(content);
+      }
+      return baos.toByteArray();
+   }
+
+   /**
+    * Benchmark comparing requests sent one at a time through
+    * {@link MDfromHTMLComms#sendRequest(String, JSONObject, JSONObject)} with
+    * those sent by this client
+    *
+    * @param args
+    *           serviceURL (e.g.,
+    *           http://localhost:9080/MDfromHTMLWebServices/v1/mdfromhtml/getMarkdown,
+    *           optionally with username:password@ before the host),
+    *           requestFile (json file containing the request object), count
+    *           of requests (default 200), maxInFlight (default 16), and
+    *           optional compress to gzip requests
+    */
+   public static void main(String[] args) {
+      if (args.length < 2) {
+         System.out.println("Usage: MDfromHTMLServiceClient serviceURL "
+            + "requestFile [count [maxInFlight [compress]]]");
+         System.exit(-1);
+      }
+      try {
+         URL url = new URL(args[0]);
+         int count = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+         int maxInFlight = args.length > 3 ? Integer.parseInt(args[3])
+            : DEFAULT_MAX_IN_FLIGHT;
+         boolean compress = args.length > 4
+            && "compress".equalsIgnoreCase(args[4]);
+         ObjectNode serviceObj = JsonNodeFactory.instance.objectNode();
+         serviceObj.put("protocol", url.getProtocol());
+         serviceObj.put("domain", url.getHost());
+         serviceObj.put("portnumber",
+            url.getPort() == -1 ? "" : Integer.toString(url.getPort()));
+         serviceObj.put("endpoint", url.getFile());
+         String[] userInfo = url.getUserInfo() == null ? new String[] { "", "" }
+            : (url.getUserInfo() + ":").split(":", -1);
+         serviceObj.put("username", userInfo[0]);
+         serviceObj.put("password", userInfo[1]);
+         serviceObj.put("apitimeout", "100000");
+         byte[] requestBytes = Files.readAllBytes(new File(args[1]).toPath());
+         ObjectNode request = (ObjectNode) MAPPER.readTree(requestBytes);
+         List<ObjectNode> requests = new ArrayList<ObjectNode>(count);
+         for (int i = 0; i < count; i++) {
+            requests.add(request);
+         }
+
+         JSONObject service = (JSONObject) JSONObject
+            .parse(serviceObj.toString());
+         JSONObject params = (JSONObject) JSONObject
+            .parse(new String(requestBytes, MDfromHTMLUtils.UTF8_CHARSET));
+         long start = System.nanoTime();
+         int errors = 0;
+         for (int i = 0; i < count; i++) {
+            if (MDfromHTMLComms.sendRequest("POST", service, params)
+               .get("errorCode") != null) {
+               errors++;
+            }
+         }
+         report("MDfromHTMLComms.sendRequest one at a time", count, errors,
+            System.nanoTime() - start);
+
+         try (MDfromHTMLServiceClient client = new MDfromHTMLServiceClient(
+            "POST", serviceObj, maxInFlight, compress)) {
+            final int[] clientErrors = new int[1];
+            start = System.nanoTime();
+            client.sendAll(requests,
+               new MDfromHTMLExecution.ResultHandler<ObjectNode>() {
+                  @Override
+                  public boolean accept(ObjectNode response) {
+                     if (response == null || response.has("errorCode")) {
+                        clientErrors[0]++;
+                     }
+                     return true;
+                  }
+               });
+            report("MDfromHTMLServiceClient.sendAll with " + maxInFlight
+               + " in flight", count, clientErrors[0],
+               System.nanoTime() - start);
+            System.out.println("Client sent " + client.getBytesSent()
+               + " bytes and received " + client.getBytesReceived()
+               + " bytes");
+         }
+      } catch (Exception e) {
+         e.printStackTrace();
+         System.exit(-1);
+      }
+   }
+
+   static void report(String label, int count, int errors, long nanos) {
+      System.out.println(label + ": " + count + " requests (" + errors
+         + " errors) in " + (nanos / 1000000L) + " ms ("
+         + Math.round(count * 1.0E9d / Math.max(1L, nanos)) + " requests/s)");
+   }
+}
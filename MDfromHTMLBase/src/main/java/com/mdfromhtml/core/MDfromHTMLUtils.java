@@ -39,10 +39,12 @@ import java.io.StringWriter;
 import java.math.BigInteger;
 import java.net.URI;
 import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.DirectoryIteratorException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -50,6 +52,7 @@ import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
+import java.util.UUID;
 
 import javax.management.modelmbean.InvalidTargetObjectTypeException;
 
@@ -613,12 +616,14 @@ public class MDfromHTMLUtils implements Serializable {
 
    /**
     * @return a 40 byte String random number based on invoking the
-    *         com.ibm.crypto.fips.provider.SecureRandom class.
+    *         com.ibm.crypto.fips.provider.SecureRandom class (one of the
+    *         striped generators of {@link MDfromHTMLRandom}, so concurrent
+    *         callers are not serialized).
     */
-   static public synchronized String getUniqueID() {
+   static public String getUniqueID() {
       byte[] byteID = new byte[20];
-      if (MDfromHTMLConstants.SEED_SECURE_RANDOM != null) {
-         MDfromHTMLConstants.SEED_SECURE_RANDOM.nextBytes(byteID);
+      if (MDfromHTMLRandom.isSecure()) {
+         MDfromHTMLRandom.nextBytes(byteID);
          return hexEncode(byteID);
       }
       // otherwise, use a less sophisticated generator.
@@ -1305,6 +1310,18 @@ public class MDfromHTMLUtils implements Serializable {
          .loadMDfromHTMLProperties(MDfromHTMLConstants.MDfromHTML_SVCS_PropertiesFileName);
    }
 
+   /**
+    * @param target
+    *           the file to be written
+    * @return a unique hidden temporary file in the target's directory, to be
+    *         written then moved over the target by
+    *         {@link #replaceAtomically(Path, Path)}
+    */
+   static public Path getTempPath(Path target) {
+      return target.resolveSibling(
+         "." + target.getFileName() + "." + UUID.randomUUID() + ".tmp");
+   }
+
    /**
     * Load the specified properties file and return the properties object, or
     * null if an error occurs.
@@ -2135,6 +2152,28 @@ public class MDfromHTMLUtils implements Serializable {
       return null;
    }
 
+   /**
+    * Move a fully written temporary file over its target so readers (and runs
+    * resumed after a crash) never see a partially written target
+    * 
+    * @param temp
+    *           the temporary file in the target's directory (see
+    *           {@link #getTempPath(Path)})
+    * @param target
+    *           the file to be replaced
+    * @throws IOException
+    *            if the file can not be moved
+    */
+   static public void replaceAtomically(Path temp, Path target)
+      throws IOException {
+      try {
+         Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+         Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+      }
+   }
+
    /**
     * Removes the tag identified with tagPrefix through its closing >
     * 
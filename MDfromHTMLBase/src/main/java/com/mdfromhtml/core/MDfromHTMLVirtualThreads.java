@@ -0,0 +1,58 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.core;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Access to virtual threads for {@link MDfromHTMLExecution}. This is the
+ * version used by JVMs prior to Java 21 where virtual threads are not
+ * available. The Java 21 version (src/main/java21) replaces it in the
+ * multi-release jar.
+ *
+ * @author Nathaniel Mills
+ */
+final class MDfromHTMLVirtualThreads {
+
+   private MDfromHTMLVirtualThreads() {
+   }
+
+   /**
+    * @return true if this JVM supports virtual threads
+    */
+   static boolean isSupported() {
+      return false;
+   }
+
+   /**
+    * @param namePrefix
+    *           prefix used to name the threads created
+    * @return an executor starting a new virtual thread for each task
+    * @throws UnsupportedOperationException
+    *            as virtual threads are not supported by this JVM
+    */
+   static ExecutorService newExecutor(String namePrefix) {
+      throw new UnsupportedOperationException(
+         "Virtual threads require Java 21 or later.");
+   }
+}
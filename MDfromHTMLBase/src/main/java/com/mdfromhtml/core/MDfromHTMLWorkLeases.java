@@ -0,0 +1,778 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.api.json.JSONArray;
+import com.api.json.JSONObject;
+
+/**
+ * Spreads the items of a batch run (e.g., the capture files of an input
+ * directory) across worker processes, on one host or on several hosts
+ * sharing a file system, using only files in a coordination directory:
+ * <ul>
+ * <li>plan.json: the items divided into numbered batches. The first worker
+ * to start writes it and every worker reads it back, so all workers agree on
+ * the batches even if they listed the items differently.</li>
+ * <li>leases/batch_NNNNN.lease: held by the worker converting the batch. It
+ * is created exclusively, so only one worker acquires it, and its
+ * modification time is refreshed by a heartbeat while the batch is
+ * converted.</li>
+ * <li>done/batch_NNNNN.json: the outcome of a completed batch, written
+ * atomically once its output has been saved.</li>
+ * <li>report.json: the outcomes of all batches merged when none remain.</li>
+ * </ul>
+ * A lease whose modification time has not changed for the lease duration, as
+ * measured by the observing worker's own clock, has expired (its worker
+ * crashed or hung) and is stolen by renaming it aside before acquiring it
+ * anew. Because expiry never compares clocks of different hosts it is not
+ * affected by clock skew. A batch is converted at least once: a batch whose
+ * worker loses its lease may be converted again by the worker that stole it,
+ * so the batch work must be idempotent (e.g., overwrite its output files).
+ * <p>
+ * Settings may be supplied as system properties:
+ * <ul>
+ * <li>mdfromhtml.coordinationDir: the coordination directory shared by the
+ * workers (coordination is disabled if not set)</li>
+ * <li>mdfromhtml.workerId: identifies this worker in leases and reports
+ * (default is the process id and host name)</li>
+ * <li>mdfromhtml.leaseSeconds: seconds without a heartbeat before a lease
+ * expires (default 60)</li>
+ * <li>mdfromhtml.leaseBatchFiles: items per batch (default 10)</li>
+ * </ul>
+ *
+ * @author Nathaniel Mills
+ */
+public class MDfromHTMLWorkLeases implements Closeable {
+
+   /**
+    * Work performed for a batch of items
+    */
+   public interface BatchWorker {
+      /**
+       * @param batch
+       *           the number of the batch
+       * @param items
+       *           the items in the batch
+       * @return the outcome of the batch. Numeric fields are totaled in the
+       *         run report and the items listed in a "failed" array are
+       *         collected there. May be null.
+       * @throws Exception
+       *            if the batch can not be processed. The error is recorded
+       *            as the batch's outcome.
+       */
+      public JSONObject process(int batch, List<String> items)
+         throws Exception;
+   }
+
+   /**
+    * A lease held by this worker
+    */
+   static class Lease {
+      int _batch;
+      volatile boolean _lost = false;
+      Path _path;
+      boolean _stolen;
+      String _token;
+
+      Lease(int batch, Path path, String token, boolean stolen) {
+         _batch = batch;
+         _path = path;
+         _token = token;
+         _stolen = stolen;
+      }
+   }
+
+   /**
+    * The state of another worker's lease when it was first seen unchanged
+    */
+   static class Observation {
+      long _modified;
+      long _seenNanos;
+      String _token;
+
+      Observation(String token, long modified, long seenNanos) {
+         _token = token;
+         _modified = modified;
+         _seenNanos = seenNanos;
+      }
+   }
+
+   /**
+    * system property naming the coordination directory
+    */
+   static public final String COORDINATION_DIR_PROPERTY = "mdfromhtml.coordinationDir";
+   /**
+    * system property setting the items per batch
+    */
+   static public final String LEASE_BATCH_FILES_PROPERTY = "mdfromhtml.leaseBatchFiles";
+   /**
+    * system property setting the seconds without a heartbeat before a lease
+    * expires
+    */
+   static public final String LEASE_SECONDS_PROPERTY = "mdfromhtml.leaseSeconds";
+   /**
+    * system property naming this worker
+    */
+   static public final String WORKER_ID_PROPERTY = "mdfromhtml.workerId";
+
+   static public final int DEFAULT_BATCH_FILES = 10;
+   static public final int DEFAULT_LEASE_SECONDS = 60;
+
+   static public final String DONE_DIR = "done";
+   static public final String LEASES_DIR = "leases";
+   static public final String PLAN_FILE = "plan.json";
+   static public final String REPORT_FILE = "report.json";
+
+   /**
+    * outcome fields set by the coordinator rather than totaled
+    */
+   static final String[] OUTCOME_FIELDS = new String[] { "batch", "worker",
+      "files", "stolen", "started", "ended", "elapsedMillis" };
+
+   List<List<String>> _batches = null;
+   int _batchSize;
+   Path _dir;
+   Path _doneDir;
+   ScheduledExecutorService _heartbeat = null;
+   long _leaseMillis;
+   Path _leasesDir;
+   Map<Integer, Observation> _observations = new HashMap<Integer, Observation>();
+   long _pollMillis;
+   String _workerId;
+
+   /**
+    * Constructor
+    *
+    * @param dir
+    *           the coordination directory shared by the workers (created if
+    *           needed)
+    * @param workerId
+    *           identifies this worker in leases and reports
+    * @param leaseMillis
+    *           milliseconds without a heartbeat before a lease expires
+    * @param batchSize
+    *           items per batch (used only if this worker writes the plan)
+    * @throws IOException
+    *            if the coordination directory can not be created
+    */
+   public MDfromHTMLWorkLeases(Path dir, String workerId, long leaseMillis,
+      int batchSize) throws IOException {
+      if (leaseMillis < 3L) {
+         throw new IllegalArgumentException(
+            "The lease duration must be at least 3 milliseconds.");
+      }
+      _dir = dir;
+      _workerId = workerId;
+      _leaseMillis = leaseMillis;
+      _batchSize = Math.max(1, batchSize);
+      // poll often enough to notice expiry promptly without busy waiting
+      _pollMillis = Math.max(1L, Math.min(1000L, leaseMillis / 4L));
+      _leasesDir = dir.resolve(LEASES_DIR);
+      _doneDir = dir.resolve(DONE_DIR);
+      Files.createDirectories(_leasesDir);
+      Files.createDirectories(_doneDir);
+   }
+
+   /**
+    * Create the coordinator configured by the system properties
+    *
+    * @return the coordinator, or null if no coordination directory was set
+    * @throws IOException
+    *            if the coordination directory can not be created
+    */
+   static public MDfromHTMLWorkLeases fromProperties() throws IOException {
+      String dir = System.getProperty(COORDINATION_DIR_PROPERTY);
+      if (dir == null || dir.trim().length() == 0) {
+         return null;
+      }
+      String workerId = System.getProperty(WORKER_ID_PROPERTY);
+      if (workerId == null || workerId.trim().length() == 0) {
+         workerId = ManagementFactory.getRuntimeMXBean().getName();
+      }
+      long leaseSeconds = Integer.getInteger(LEASE_SECONDS_PROPERTY,
+         DEFAULT_LEASE_SECONDS);
+      return new MDfromHTMLWorkLeases(
+         FileSystems.getDefault().getPath(dir.trim()),
+         workerId.trim(), leaseSeconds * 1000L,
+         Integer.getInteger(LEASE_BATCH_FILES_PROPERTY, DEFAULT_BATCH_FILES));
+   }
+
+   /**
+    * @return a description of the coordination settings
+    */
+   public String describe() {
+      return "worker " + _workerId + " coordinated through " + _dir
+         + " with " + _leaseMillis + "ms leases";
+   }
+
+   /**
+    * @return the batches of items in the plan (empty until
+    *         {@link #plan(List)} is called)
+    */
+   public List<List<String>> getBatches() {
+      return _batches == null ? Collections.<List<String>> emptyList()
+         : _batches;
+   }
+
+   /**
+    * @return the identifier of this worker
+    */
+   public String getWorkerId() {
+      return _workerId;
+   }
+
+   /**
+    * Divide the items into batches unless another worker already has, and
+    * read back the plan shared by all workers
+    *
+    * @param items
+    *           the names of the items (e.g., file names relative to the input
+    *           directory)
+    * @return the batches of items in the shared plan
+    * @throws IOException
+    *            if the plan can not be written or read
+    */
+   public List<List<String>> plan(List<String> items) throws IOException {
+      Path planFile = _dir.resolve(PLAN_FILE);
+      if (Files.exists(planFile) == false) {
+         List<String> sorted = new ArrayList<String>(items);
+         Collections.sort(sorted);
+         JSONArray batches = new JSONArray();
+         JSONArray batch = null;
+         for (String item : sorted) {
+            if (batch == null || batch.size() == _batchSize) {
+               batch = new JSONArray();
+               batches.add(batch);
+            }
+            batch.add(item);
+         }
+         JSONObject plan = new JSONObject();
+         plan.put("items", sorted.size());
+         plan.put("batchSize", _batchSize);
+         plan.put("batches", batches);
+         plan.put("planner", _workerId);
+         plan.put("created", System.currentTimeMillis());
+         // only the first worker to publish its plan succeeds, the others
+         // read back that plan even if they listed the items differently
+         writeOnce(planFile, plan);
+      }
+      JSONObject plan = readJSON(planFile);
+      if (plan == null || plan.get("batches") instanceof JSONArray == false) {
+         throw new IOException("The plan " + planFile + " is not readable.");
+      }
+      List<List<String>> result = new ArrayList<List<String>>();
+      for (Object batch : (JSONArray) plan.get("batches")) {
+         List<String> batchItems = new ArrayList<String>();
+         for (Object item : (JSONArray) batch) {
+            batchItems.add((String) item);
+         }
+         result.add(batchItems);
+      }
+      _batches = result;
+      return result;
+   }
+
+   /**
+    * Process batches of the plan until every batch is done, stealing the
+    * leases of workers whose heartbeats stop, then merge the outcomes of the
+    * batches into the run report
+    *
+    * @param worker
+    *           processes the items of each batch this worker acquires
+    * @return the run report (also saved as report.json)
+    * @throws IOException
+    *            if the coordination files can not be accessed
+    * @throws InterruptedException
+    *            if interrupted while waiting for other workers
+    */
+   public JSONObject run(BatchWorker worker)
+      throws IOException, InterruptedException {
+      if (_batches == null) {
+         throw new IllegalStateException("The plan has not been read.");
+      }
+      int count = _batches.size();
+      // start at different batches so workers rarely contend for a lease
+      int first = count == 0 ? 0 : Math.floorMod(_workerId.hashCode(), count);
+      while (true) {
+         int remaining = 0;
+         boolean processed = false;
+         for (int i = 0; i < count; i++) {
+            int batch = (first + i) % count;
+            if (isDone(batch)) {
+               continue;
+            }
+            remaining++;
+            Lease lease = acquire(batch);
+            if (lease == null) {
+               continue;
+            }
+            try {
+               // another worker may have finished it before we acquired it
+               if (isDone(batch) == false) {
+                  process(lease, worker);
+                  processed = true;
+               }
+            } finally {
+               release(lease);
+            }
+         }
+         if (remaining == 0) {
+            break;
+         }
+         if (processed == false) {
+            Thread.sleep(_pollMillis);
+         }
+      }
+      return writeReport();
+   }
+
+   @Override
+   public void close() {
+      synchronized (this) {
+         if (_heartbeat != null) {
+            _heartbeat.shutdownNow();
+            _heartbeat = null;
+         }
+      }
+   }
+
+   /**
+    * Try to acquire the lease for a batch, stealing it if its holder's
+    * heartbeat has stopped
+    *
+    * @param batch
+    *           the number of the batch
+    * @return the lease, or null if it is held by a live worker
+    * @throws IOException
+    *            if the lease file can not be accessed
+    */
+   Lease acquire(int batch) throws IOException {
+      Path path = getLeasePath(batch);
+      Lease lease = create(batch, path, false);
+      if (lease != null) {
+         return lease;
+      }
+      Observation expired = checkExpired(batch, path);
+      if (expired == null) {
+         return null;
+      }
+      // rename the expired lease aside so only one worker steals it
+      Path stolen = _leasesDir.resolve(path.getFileName() + ".stolen."
+         + UUID.randomUUID().toString());
+      try {
+         Files.move(path, stolen, StandardCopyOption.ATOMIC_MOVE);
+      } catch (NoSuchFileException e) {
+         // released or stolen by another worker
+         return null;
+      }
+      JSONObject holder = readJSON(stolen);
+      String token = holder == null ? "" : getString(holder, "token");
+      if (token.equals(expired._token) == false) {
+         // another worker stole it first and renewed it, so give it back
+         try {
+            Files.move(stolen, path);
+         } catch (FileAlreadyExistsException e) {
+            Files.deleteIfExists(stolen);
+         }
+         return null;
+      }
+      Files.deleteIfExists(stolen);
+      _observations.remove(batch);
+      return create(batch, path, true);
+   }
+
+   /**
+    * Create a lease file exclusively
+    *
+    * @return the lease, or null if the lease file already exists
+    */
+   Lease create(int batch, Path path, boolean stolen) throws IOException {
+      String token = UUID.randomUUID().toString();
+      JSONObject content = new JSONObject();
+      content.put("worker", _workerId);
+      content.put("token", token);
+      content.put("batch", batch);
+      content.put("acquired", System.currentTimeMillis());
+      try {
+         Files.write(path,
+            content.serialize().getBytes(MDfromHTMLUtils.UTF8_CHARSET),
+            StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+      } catch (FileAlreadyExistsException e) {
+         return null;
+      }
+      return new Lease(batch, path, token, stolen);
+   }
+
+   /**
+    * Determine whether another worker's lease has gone unchanged for the
+    * lease duration as measured by this worker's clock
+    *
+    * @return the observation of the expired lease, or null if the lease is
+    *         live (or no longer exists)
+    */
+   Observation checkExpired(int batch, Path path) throws IOException {
+      long modified;
+      JSONObject holder;
+      try {
+         modified = Files.getLastModifiedTime(path).toMillis();
+         holder = readJSON(path);
+      } catch (NoSuchFileException e) {
+         _observations.remove(batch);
+         return null;
+      }
+      // a lease still being written has no token yet and is treated as live
+      // until it changes or its duration passes
+      String token = holder == null ? "" : getString(holder, "token");
+      long now = System.nanoTime();
+      Observation observation = _observations.get(batch);
+      if (observation == null || observation._modified != modified
+         || observation._token.equals(token) == false) {
+         _observations.put(batch, new Observation(token, modified, now));
+         return null;
+      }
+      if (now - observation._seenNanos < TimeUnit.MILLISECONDS
+         .toNanos(_leaseMillis)) {
+         return null;
+      }
+      return observation;
+   }
+
+   /**
+    * Process a leased batch, renewing the lease until it is done, and record
+    * its outcome unless the lease was lost to another worker
+    */
+   void process(final Lease lease, BatchWorker worker) throws IOException {
+      long period = Math.max(1L, _leaseMillis / 3L);
+      ScheduledFuture<?> heartbeat = getHeartbeat()
+         .scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+               renew(lease);
+            }
+         }, period, period, TimeUnit.MILLISECONDS);
+      List<String> items = _batches.get(lease._batch);
+      long started = System.currentTimeMillis();
+      JSONObject outcome = null;
+      try {
+         outcome = worker.process(lease._batch, items);
+      } catch (Exception e) {
+         outcome = new JSONObject();
+         outcome.put("error", e.toString());
+      } finally {
+         heartbeat.cancel(false);
+      }
+      if (outcome == null) {
+         outcome = new JSONObject();
+      }
+      renew(lease);
+      if (lease._lost) {
+         System.err.println("Worker " + _workerId + " lost its lease on batch "
+            + lease._batch + " which will be recorded by another worker.");
+         return;
+      }
+      long ended = System.currentTimeMillis();
+      outcome.put("batch", lease._batch);
+      outcome.put("worker", _workerId);
+      outcome.put("files", items.size());
+      outcome.put("stolen", lease._stolen);
+      outcome.put("started", started);
+      outcome.put("ended", ended);
+      outcome.put("elapsedMillis", ended - started);
+      writeAtomically(getDonePath(lease._batch), outcome);
+   }
+
+   /**
+    * Refresh the modification time of a lease if it is still held by this
+    * worker, otherwise mark it lost
+    */
+   void renew(Lease lease) {
+      if (lease._lost) {
+         return;
+      }
+      try {
+         JSONObject holder = readJSON(lease._path);
+         if (holder == null
+            || lease._token.equals(getString(holder, "token")) == false) {
+            lease._lost = true;
+            return;
+         }
+         Files.setLastModifiedTime(lease._path,
+            FileTime.fromMillis(System.currentTimeMillis()));
+      } catch (NoSuchFileException e) {
+         lease._lost = true;
+      } catch (IOException e) {
+         // try again at the next heartbeat, the lease expires if this
+         // persists
+      }
+   }
+
+   /**
+    * Delete the lease file if it is still held by this worker
+    */
+   void release(Lease lease) throws IOException {
+      JSONObject holder = readJSON(lease._path);
+      if (holder != null
+         && lease._token.equals(getString(holder, "token"))) {
+         Files.deleteIfExists(lease._path);
+      }
+   }
+
+   /**
+    * Merge the outcomes of the batches into the run report
+    *
+    * @return the run report
+    * @throws IOException
+    *            if an outcome can not be read or the report saved
+    */
+   JSONObject writeReport() throws IOException {
+      JSONObject totals = new JSONObject();
+      JSONArray failed = new JSONArray();
+      JSONArray errors = new JSONArray();
+      Map<String, JSONObject> workers = new TreeMap<String, JSONObject>();
+      long files = 0L;
+      long steals = 0L;
+      long started = Long.MAX_VALUE;
+      long ended = 0L;
+      for (int batch = 0; batch < _batches.size(); batch++) {
+         JSONObject outcome = readJSON(getDonePath(batch));
+         if (outcome == null) {
+            throw new IOException("The outcome of batch " + batch
+               + " is missing from " + _doneDir);
+         }
+         long batchFiles = getLong(outcome, "files");
+         boolean stolen = Boolean.TRUE.equals(outcome.get("stolen"));
+         files += batchFiles;
+         steals += stolen ? 1L : 0L;
+         started = Math.min(started, getLong(outcome, "started"));
+         ended = Math.max(ended, getLong(outcome, "ended"));
+         String worker = getString(outcome, "worker");
+         JSONObject workerStats = workers.get(worker);
+         if (workerStats == null) {
+            workerStats = new JSONObject();
+            workerStats.put("batches", 0L);
+            workerStats.put("files", 0L);
+            workerStats.put("steals", 0L);
+            workerStats.put("elapsedMillis", 0L);
+            workers.put(worker, workerStats);
+         }
+         add(workerStats, "batches", 1L);
+         add(workerStats, "files", batchFiles);
+         add(workerStats, "steals", stolen ? 1L : 0L);
+         add(workerStats, "elapsedMillis", getLong(outcome, "elapsedMillis"));
+         Object error = outcome.get("error");
+         if (error != null) {
+            JSONObject batchError = new JSONObject();
+            batchError.put("batch", batch);
+            batchError.put("worker", worker);
+            batchError.put("error", error.toString());
+            errors.add(batchError);
+         }
+         for (Object key : outcome.keySet()) {
+            String field = (String) key;
+            Object value = outcome.get(field);
+            if ("failed".equals(field) && value instanceof JSONArray) {
+               failed.addAll((JSONArray) value);
+            } else if (value instanceof Number && isOutcomeField(field) == false) {
+               totals.put(field, sum(totals.get(field), (Number) value));
+            }
+         }
+      }
+      JSONObject report = new JSONObject();
+      report.put("batches", _batches.size());
+      report.put("files", files);
+      report.put("steals", steals);
+      report.put("totals", totals);
+      report.put("failed", failed);
+      report.put("errors", errors);
+      if (_batches.isEmpty() == false) {
+         report.put("started", started);
+         report.put("ended", ended);
+         report.put("elapsedMillis", ended - started);
+      }
+      JSONObject workerReport = new JSONObject();
+      for (Map.Entry<String, JSONObject> entry : workers.entrySet()) {
+         workerReport.put(entry.getKey(), entry.getValue());
+      }
+      report.put("workers", workerReport);
+      // each worker finishing last writes the same report
+      writeAtomically(_dir.resolve(REPORT_FILE), report);
+      return report;
+   }
+
+   Path getDonePath(int batch) {
+      return _doneDir.resolve(getBatchName(batch) + ".json");
+   }
+
+   Path getLeasePath(int batch) {
+      return _leasesDir.resolve(getBatchName(batch) + ".lease");
+   }
+
+   synchronized ScheduledExecutorService getHeartbeat() {
+      if (_heartbeat == null) {
+         _heartbeat = Executors
+            .newSingleThreadScheduledExecutor(new ThreadFactory() {
+               @Override
+               public Thread newThread(Runnable r) {
+                  Thread thread = new Thread(r, "MDfromHTML-lease");
+                  thread.setDaemon(true);
+                  return thread;
+               }
+            });
+      }
+      return _heartbeat;
+   }
+
+   boolean isDone(int batch) {
+      return Files.exists(getDonePath(batch));
+   }
+
+   /**
+    * Write a JSON file by renaming a fully written temporary file into place
+    * so readers never see a partial file
+    */
+   void writeAtomically(Path target, JSONObject content) throws IOException {
+      Path temp = MDfromHTMLUtils.getTempPath(target);
+      try {
+         Files.write(temp,
+            content.serialize(true).getBytes(MDfromHTMLUtils.UTF8_CHARSET));
+         MDfromHTMLUtils.replaceAtomically(temp, target);
+      } finally {
+         Files.deleteIfExists(temp);
+      }
+   }
+
+   /**
+    * Write a JSON file by linking a fully written temporary file into place
+    * unless the file already exists, so a file read by another worker is
+    * never replaced
+    *
+    * @return true if the file was written, false if it already existed
+    */
+   boolean writeOnce(Path target, JSONObject content) throws IOException {
+      Path temp = MDfromHTMLUtils.getTempPath(target);
+      try {
+         Files.write(temp,
+            content.serialize(true).getBytes(MDfromHTMLUtils.UTF8_CHARSET));
+         try {
+            Files.createLink(target, temp);
+         } catch (FileAlreadyExistsException e) {
+            throw e;
+         } catch (UnsupportedOperationException | FileSystemException e) {
+            // without hard links a move that does not replace the target
+            // fails if another worker published first
+            Files.move(temp, target);
+         }
+         return true;
+      } catch (FileAlreadyExistsException e) {
+         return false;
+      } finally {
+         Files.deleteIfExists(temp);
+      }
+   }
+
+   /**
+    * @return the JSON object in the file, an empty object if the file is not
+    *         (yet) valid JSON, or null if the file does not exist
+    */
+   static JSONObject readJSON(Path file) throws IOException {
+      byte[] content;
+      try {
+         content = Files.readAllBytes(file);
+      } catch (NoSuchFileException e) {
+         return null;
+      }
+      try {
+         return JSONObject
+            .parse(new String(content, MDfromHTMLUtils.UTF8_CHARSET));
+      } catch (IOException e) {
+         return new JSONObject();
+      }
+   }
+
+   /**
+    * @return the names of the batches, e.g., batch_00012
+    */
+   static String getBatchName(int batch) {
+      return "batch_" + MDfromHTMLUtils.padLeftZero(batch, 5);
+   }
+
+   static long getLong(JSONObject object, String field) {
+      Object value = object.get(field);
+      return value instanceof Number ? ((Number) value).longValue() : 0L;
+   }
+
+   static String getString(JSONObject object, String field) {
+      Object value = object.get(field);
+      return value == null ? "" : value.toString();
+   }
+
+   static boolean isOutcomeField(String field) {
+      for (String outcomeField : OUTCOME_FIELDS) {
+         if (outcomeField.equals(field)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   static void add(JSONObject object, String field, long amount) {
+      object.put(field, getLong(object, field) + amount);
+   }
+
+   static Number sum(Object total, Number value) {
+      if (total instanceof Number == false) {
+         return value;
+      }
+      Number number = (Number) total;
+      if (number instanceof Double || number instanceof Float
+         || value instanceof Double || value instanceof Float) {
+         return number.doubleValue() + value.doubleValue();
+      }
+      return number.longValue() + value.longValue();
+   }
+}
@@ -22,15 +22,146 @@
 
 package com.mdfromhtml.core;
 
+import java.util.regex.Pattern;
+
 /**
- * Bean for filters for getMessages
+ * Bean for filters for getMessages. The regular expressions are compiled once
+ * when constructed, and those that are plain text (optionally followed by
+ * ".*") are matched by comparing strings rather than by the regex engine.
  *
+ * @see MDfromHTMLIPCSubscriptions
  */
 
 public class SessionTopicTypeRegexSearch {
+
+	/**
+	 * A precompiled topic or type regular expression
+	 */
+	static final class Criterion {
+		/** matches any value */
+		static final int ANY = 0;
+		/** matches only the literal */
+		static final int EXACT = 1;
+		/** matches values starting with the literal */
+		static final int PREFIX = 2;
+		/** requires the regex engine */
+		static final int PATTERN = 3;
+
+		static final Criterion ANY_VALUE = new Criterion(ANY, null, null);
+
+		final int _kind;
+		final String _literal;
+		final Pattern _pattern;
+
+		Criterion(int kind, String literal, Pattern pattern) {
+			_kind = kind;
+			_literal = literal;
+			_pattern = pattern;
+		}
+
+		/**
+		 * @param regex
+		 *            the regular expression, or an undefined value to match any
+		 *            value
+		 * @return the criterion matching the same values as
+		 *         {@link String#matches(String)} would for the regex
+		 * @throws java.util.regex.PatternSyntaxException
+		 *             if the regex is not valid
+		 */
+		static Criterion compile(String regex) {
+			if (MDfromHTMLUtils.isUndefined(regex)) {
+				return ANY_VALUE;
+			}
+			// matches() anchors the whole value, so explicit anchors are redundant
+			String body = regex;
+			if (body.startsWith("^")) {
+				body = body.substring(1);
+			}
+			if (body.endsWith("$") && unescape(body.substring(0, body.length() - 1)) != null) {
+				body = body.substring(0, body.length() - 1);
+			}
+			String literal = unescape(body);
+			if (literal != null) {
+				return new Criterion(EXACT, literal, null);
+			}
+			if (body.endsWith(".*")) {
+				literal = unescape(body.substring(0, body.length() - 2));
+				if (literal != null) {
+					return new Criterion(PREFIX, literal, null);
+				}
+			}
+			return new Criterion(PATTERN, null, Pattern.compile(regex));
+		}
+
+		/**
+		 * @param regex
+		 *            regular expression text
+		 * @return the text matched by the regex if it contains no
+		 *         metacharacters other than escaped punctuation, otherwise null
+		 */
+		static String unescape(String regex) {
+			StringBuilder sb = null;
+			for (int i = 0; i < regex.length(); i++) {
+				char c = regex.charAt(i);
+				if (c == '\\') {
+					if (i + 1 == regex.length() || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+						// dangling, or a character class, back reference, \Q etc.
+						return null;
+					}
+					if (sb == null) {
+						sb = new StringBuilder(regex.substring(0, i));
+					}
+					sb.append(regex.charAt(++i));
+					continue;
+				}
+				if (".[]{}()*+?^$|".indexOf(c) >= 0) {
+					return null;
+				}
+				if (sb != null) {
+					sb.append(c);
+				}
+			}
+			return sb == null ? regex : sb.toString();
+		}
+
+		/**
+		 * @param value
+		 *            topic or type to be tested
+		 * @return true if the value matches
+		 */
+		boolean matches(String value) {
+			switch (_kind) {
+				case EXACT: {
+					return _literal.equals(value);
+				}
+				case PREFIX: {
+					if (value.startsWith(_literal) == false) {
+						return false;
+					}
+					// without DOTALL, . does not match line terminators
+					for (int i = _literal.length(); i < value.length(); i++) {
+						char c = value.charAt(i);
+						if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+							return false;
+						}
+					}
+					return true;
+				}
+				case PATTERN: {
+					return _pattern.matcher(value).matches();
+				}
+				default: {
+					return true;
+				}
+			}
+		}
+	}
+
 	MDfromHTMLID _sessionID = MDfromHTMLID.UNDEFINED_ID;
 	String _topicRegex = MDfromHTMLConstants.UNDEFINED_String;
+	Criterion _topicCriterion = Criterion.ANY_VALUE;
 	String _typeRegex = MDfromHTMLConstants.UNDEFINED_String;
+	Criterion _typeCriterion = Criterion.ANY_VALUE;
 
 	/**
 	 * Constructor
@@ -48,6 +179,8 @@ public class SessionTopicTypeRegexSearch {
 	 *                   find a match, or a null or
 	 *                   {@link MDfromHTMLConstants#UNDEFINED_String} to allow any
 	 *                   match
+	 * @throws java.util.regex.PatternSyntaxException
+	 *                   if either regular expression is not valid
 	 */
 	public SessionTopicTypeRegexSearch(MDfromHTMLID sessionID, String topicRegex, String typeRegex) {
 		if (MDfromHTMLID.isUndefined(sessionID) == false) {
@@ -55,9 +188,11 @@ public class SessionTopicTypeRegexSearch {
 		}
 		if (MDfromHTMLUtils.isUndefined(topicRegex) == false) {
 			_topicRegex = topicRegex;
+			_topicCriterion = Criterion.compile(topicRegex);
 		}
 		if (MDfromHTMLUtils.isUndefined(typeRegex) == false) {
 			_typeRegex = typeRegex;
+			_typeCriterion = Criterion.compile(typeRegex);
 		}
 	}
 
@@ -94,9 +229,9 @@ public class SessionTopicTypeRegexSearch {
 	 *         supplied matches what is in the message
 	 */
 	public boolean isMessageWanted(IMDfromHTMLIPCMessage msg) {
-		if (MDfromHTMLUtils.isUndefined(_sessionID) || msg.getSessionID().equals(_sessionID)) {
-			if (MDfromHTMLUtils.isUndefined(_topicRegex) || msg.getTopic().matches(_topicRegex)) {
-				if (MDfromHTMLUtils.isUndefined(_typeRegex) || msg.getType().matches(_typeRegex)) {
+		if (MDfromHTMLID.isUndefined(_sessionID) || msg.getSessionID().equals(_sessionID)) {
+			if (_topicCriterion.matches(msg.getTopic())) {
+				if (_typeCriterion.matches(msg.getType())) {
 					return true;
 				}
 			}
@@ -0,0 +1,55 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.core;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to virtual threads for {@link MDfromHTMLExecution}. This is the
+ * Java 21 version packaged in META-INF/versions/21 of the multi-release jar.
+ *
+ * @author Nathaniel Mills
+ */
+final class MDfromHTMLVirtualThreads {
+
+   private MDfromHTMLVirtualThreads() {
+   }
+
+   /**
+    * @return true as this JVM supports virtual threads
+    */
+   static boolean isSupported() {
+      return true;
+   }
+
+   /**
+    * @param namePrefix
+    *           prefix used to name the threads created
+    * @return an executor starting a new virtual thread for each task
+    */
+   static ExecutorService newExecutor(String namePrefix) {
+      return Executors.newThreadPerTaskExecutor(
+         Thread.ofVirtual().name(namePrefix, 1).factory());
+   }
+}
@@ -0,0 +1,59 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.services;
+
+import com.api.json.JSONObject;
+import com.mdfromhtml.core.MDfromHTMLMetrics;
+
+/**
+ * Service returning the conversion phase latencies and counters collected by
+ * {@link MDfromHTMLMetrics}
+ *
+ * @author Nathaniel Mills
+ */
+public class MDfromHTMLMetricsService {
+
+   /**
+    * @return response containing the current metrics
+    */
+   public static JSONObject getMetrics() {
+      JSONObject response = new JSONObject();
+      response.put("metrics", MDfromHTMLMetrics.getInstance().toJSON());
+      return response;
+   }
+
+   /**
+    * @param request
+    *           optionally containing "reset":true to discard the metrics once
+    *           they have been reported
+    * @return response containing the current metrics
+    */
+   public static JSONObject getMetrics(JSONObject request) {
+      JSONObject response = getMetrics();
+      Object reset = request == null ? null : request.get("reset");
+      if (reset instanceof Boolean && (Boolean) reset) {
+         MDfromHTMLMetrics.getInstance().reset();
+      }
+      return response;
+   }
+}
@@ -0,0 +1,651 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.services;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.api.json.JSONArray;
+import com.api.json.JSONObject;
+import com.mdfromhtml.core.MDfromHTMLCBORCodec;
+import com.mdfromhtml.core.MDfromHTMLExecution;
+import com.mdfromhtml.core.MDfromHTMLMetrics;
+import com.mdfromhtml.core.MDfromHTMLUtils;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Standalone launcher hosting the same
+ * protocol://hostname:port/MDfromHTMLWebServices/v1/... routes as the
+ * Liberty deployed WAR using the JDK's built in HTTP server. Requests are
+ * dispatched through the {@link ServicesManager} schema
+ * (properties/MDfromHTML_RESTServicesSchema.json read relative to the
+ * working directory) exactly as {@link MDfromHTMLWebServices} does, and
+ * responses carry the same JSON content and CORS headers, so existing
+ * clients (e.g., TestWebServicesMD, LoadTestMD) work unchanged.
+ * <p>
+ * Requests are processed on a bounded pool of worker threads. Once the queue
+ * of waiting requests is full, the thread accepting connections processes
+ * the request itself, slowing acceptance of new connections rather than
+ * rejecting them. On Java 21 (unless mdfromhtml.virtualThreads is false)
+ * each request is instead handled on its own virtual thread, and only the
+ * service actions are run on the bounded pool of worker threads (see
+ * {@link MDfromHTMLExecution}).
+ * <p>
+ * Request content sent with Content-Encoding: gzip is decompressed, and
+ * responses of at least {@link #COMPRESS_MIN_BYTES} bytes are compressed for
+ * clients accepting gzip (e.g., MDfromHTMLServiceClient).
+ * <p>
+ * Settings may be supplied as system properties:
+ * <ul>
+ * <li>mdfromhtml.server.host: interface to listen on (default * for all)</li>
+ * <li>mdfromhtml.server.port: port to listen on (default 9081)</li>
+ * <li>mdfromhtml.server.threads: worker threads (default 2 per
+ * processor)</li>
+ * <li>mdfromhtml.server.queue: requests allowed to wait for a worker
+ * (default 1024)</li>
+ * <li>mdfromhtml.server.servletname: first path segment (default
+ * MDfromHTMLWebServices)</li>
+ * </ul>
+ *
+ * @author Nathaniel Mills
+ */
+public class MDfromHTMLServer implements HttpHandler {
+
+   static public final String DEFAULT_HOST = "*";
+   static public final int COMPRESS_MIN_BYTES = 1024;
+   static public final int DEFAULT_PORT = 9081;
+   static public final int DEFAULT_QUEUE = 1024;
+   static public final String DEFAULT_SERVLET_NAME = "MDfromHTMLWebServices";
+   static public final int DEFAULT_THREADS = 2
+      * Runtime.getRuntime().availableProcessors();
+   static public final String HOST_PROPERTY = "mdfromhtml.server.host";
+   static public final String PORT_PROPERTY = "mdfromhtml.server.port";
+   static public final String QUEUE_PROPERTY = "mdfromhtml.server.queue";
+   static public final String SERVLET_NAME_PROPERTY = "mdfromhtml.server.servletname";
+   static public final int STOP_DELAY_SECONDS = 2;
+   static public final String THREADS_PROPERTY = "mdfromhtml.server.threads";
+   static public final String VERSION = "v1";
+
+   static final byte[] EMPTY = new byte[0];
+   static final String JSON_MEDIA_TYPE = "application/json";
+
+   String _context;
+   MDfromHTMLExecution _execution = null;
+   ThreadPoolExecutor _executor = null;
+   String _host;
+   int _port;
+   int _queue;
+   HttpServer _server = null;
+   int _threads;
+
+   /**
+    * Constructor
+    *
+    * @param host
+    *           the interface to listen on (* for all interfaces)
+    * @param port
+    *           the port to listen on (0 to have one assigned)
+    * @param servletName
+    *           the first segment of the request paths (e.g.,
+    *           MDfromHTMLWebServices)
+    * @param threads
+    *           number of worker threads processing requests
+    * @param queue
+    *           number of requests allowed to wait for a worker thread
+    */
+   public MDfromHTMLServer(String host, int port, String servletName,
+      int threads, int queue) {
+      _host = host;
+      _port = port;
+      _context = "/" + servletName + "/" + VERSION + "/";
+      _threads = Math.max(1, threads);
+      _queue = Math.max(1, queue);
+   }
+
+   /**
+    * Launch the server, returning once it is accepting requests. The server
+    * is stopped when the JVM shuts down.
+    *
+    * @param args
+    *           optional port followed by optional number of worker threads,
+    *           overriding the mdfromhtml.server.port and
+    *           mdfromhtml.server.threads system properties
+    */
+   public static void main(String[] args) {
+      int port = Integer.getInteger(PORT_PROPERTY, DEFAULT_PORT);
+      int threads = Integer.getInteger(THREADS_PROPERTY, DEFAULT_THREADS);
+      try {
+         if (args.length > 0) {
+            port = Integer.parseInt(args[0].trim());
+         }
+         if (args.length > 1) {
+            threads = Integer.parseInt(args[1].trim());
+         }
+      } catch (NumberFormatException e) {
+         System.out.println(
+            "Usage: MDfromHTMLServer [port [threads]] where port and threads are integers.");
+         System.exit(-1);
+      }
+      final MDfromHTMLServer server = new MDfromHTMLServer(
+         System.getProperty(HOST_PROPERTY, DEFAULT_HOST), port,
+         System.getProperty(SERVLET_NAME_PROPERTY, DEFAULT_SERVLET_NAME),
+         threads, Integer.getInteger(QUEUE_PROPERTY, DEFAULT_QUEUE));
+      try {
+         server.start();
+      } catch (Throwable t) {
+         System.out.println("Can not start the server: "
+            + t.getLocalizedMessage());
+         t.printStackTrace();
+         System.exit(-1);
+      }
+      Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+         @Override
+         public void run() {
+            server.stop();
+         }
+      }, "MDfromHTMLServer-shutdown"));
+      MDfromHTMLMetrics.registerMBean();
+      System.out.println("MDfromHTMLServer listening on http://"
+         + server.getHost() + ":" + server.getPort() + server.getContext()
+         + " with " + server._threads + " worker threads"
+         + (server._execution != null ? " and virtual request threads" : "")
+         + ", started in "
+         + ManagementFactory.getRuntimeMXBean().getUptime()
+         + " ms since JVM launch");
+   }
+
+   /**
+    * @return the path prefix served (e.g., /MDfromHTMLWebServices/v1/)
+    */
+   public String getContext() {
+      return _context;
+   }
+
+   /**
+    * @return the interface the server listens on
+    */
+   public String getHost() {
+      return _host;
+   }
+
+   /**
+    * @return the port the server listens on (assigned once started when
+    *         constructed with port 0)
+    */
+   public int getPort() {
+      return _port;
+   }
+
+   /**
+    * Load the services schema, then bind the listener and begin accepting
+    * requests.
+    *
+    * @throws IOException
+    *            if the listener can not be bound
+    */
+   public synchronized void start() throws IOException {
+      if (_server != null) {
+         return;
+      }
+      // fail now rather than on the first request if the schema is missing
+      try {
+         Class.forName(ServicesManager.class.getName());
+      } catch (ClassNotFoundException e) {
+         throw new IOException(e);
+      }
+      InetSocketAddress address = DEFAULT_HOST.equals(_host)
+         ? new InetSocketAddress(_port)
+         : new InetSocketAddress(_host, _port);
+      _server = HttpServer.create(address, 0);
+      _server.createContext(_context, this);
+      if (MDfromHTMLExecution.supportsVirtualThreads()
+         && Boolean.parseBoolean(System.getProperty(
+            MDfromHTMLExecution.VIRTUAL_THREADS_PROPERTY, "true"))) {
+         _execution = new MDfromHTMLExecution(_threads, _queue, true);
+         _server.setExecutor(_execution.getIOExecutor());
+         _server.start();
+         _port = _server.getAddress().getPort();
+         return;
+      }
+      final AtomicInteger threadCount = new AtomicInteger();
+      _executor = new ThreadPoolExecutor(_threads, _threads, 60L,
+         TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(_queue),
+         new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+               return new Thread(r,
+                  "MDfromHTMLServer-" + threadCount.incrementAndGet());
+            }
+         }, new ThreadPoolExecutor.CallerRunsPolicy());
+      _executor.allowCoreThreadTimeOut(true);
+      _server.setExecutor(_executor);
+      _server.start();
+      _port = _server.getAddress().getPort();
+   }
+
+   /**
+    * Stop accepting requests, allowing those in progress a brief time to
+    * complete
+    */
+   public synchronized void stop() {
+      if (_server == null) {
+         return;
+      }
+      _server.stop(STOP_DELAY_SECONDS);
+      _server = null;
+      if (_execution != null) {
+         _execution.close();
+         _execution = null;
+         return;
+      }
+      ExecutorService executor = _executor;
+      _executor = null;
+      executor.shutdown();
+      try {
+         executor.awaitTermination(STOP_DELAY_SECONDS, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   @Override
+   public void handle(HttpExchange exchange) throws IOException {
+      try {
+         String verb = exchange.getRequestMethod().toUpperCase();
+         String path = exchange.getRequestURI().getPath();
+         if ("OPTIONS".equals(verb)) {
+            send(exchange, 200, EMPTY);
+            return;
+         }
+         String[] segments = path.substring(_context.length()).split("/",
+            3);
+         if (segments[0].length() == 0) {
+            sendError(exchange,
+               "No service identified for path \"" + path + "\"",
+               MDfromHTMLResponseCodes.MDfromHTML_SERVICE_NOT_FOUND);
+            return;
+         }
+         if ("GET".equals(verb)) {
+            doGet(exchange, path, segments);
+            return;
+         }
+         JSONObject requests = null;
+         String verbName = null;
+         switch (verb) {
+            case "DELETE": {
+               requests = ServicesManager.deleteRequests;
+               verbName = MDfromHTMLWebServices.DELETE;
+               break;
+            }
+            case "PATCH": {
+               requests = ServicesManager.putRequests;
+               verbName = MDfromHTMLWebServices.PATCH;
+               break;
+            }
+            case "POST": {
+               requests = ServicesManager.postRequests;
+               verbName = MDfromHTMLWebServices.POST;
+               break;
+            }
+            case "PUT": {
+               requests = ServicesManager.putRequests;
+               verbName = MDfromHTMLWebServices.PUT;
+               break;
+            }
+            default: {
+               sendError(exchange, "HTTP method " + verb
+                  + " is not supported for path \"" + path + "\"",
+                  MDfromHTMLResponseCodes.MDfromHTML_METHOD_NOT_FOUND);
+               return;
+            }
+         }
+         if (segments.length != 2) {
+            sendError(exchange,
+               "No " + verb + " service registered for path \"" + path
+                  + "\"",
+               MDfromHTMLResponseCodes.MDfromHTML_CLASS_NOT_FOUND);
+            return;
+         }
+         JSONObject request = null;
+         Headers requestHeaders = exchange.getRequestHeaders();
+         try (InputStream body = exchange.getRequestBody();
+            InputStream is = "gzip".equalsIgnoreCase(
+               requestHeaders.getFirst("Content-Encoding"))
+                  ? new GZIPInputStream(body, 8192)
+                  : body) {
+            long start = MDfromHTMLMetrics.start();
+            if (MDfromHTMLCBORCodec
+               .isCBOR(requestHeaders.getFirst("Content-Type"))) {
+               request = MDfromHTMLCBORCodec
+                  .decodeJSONObject(new BufferedInputStream(is));
+            } else {
+               request = JSONObject.parse(is);
+            }
+            MDfromHTMLMetrics.recordPhase(MDfromHTMLMetrics.PHASE_JSON_PARSE,
+               start);
+         } catch (IOException e) {
+            sendError(exchange, e,
+               MDfromHTMLResponseCodes.MDfromHTML_INVALID_JSON_GET_REQUEST);
+            return;
+         }
+         String requestType = segments[0];
+         if (MDfromHTMLUtils.isUndefined(segments[1]) == false) {
+            requestType += "/" + segments[1];
+         }
+         dispatch(exchange, path, verb, verbName, requests, requestType,
+            request, MDfromHTMLCBORCodec
+               .prefersCBOR(requestHeaders.getFirst("Accept")));
+      } catch (Throwable t) {
+         sendError(exchange, t,
+            MDfromHTMLResponseCodes.MDfromHTML_UNEXPECTED_ERROR);
+      } finally {
+         exchange.close();
+      }
+   }
+
+   /**
+    * Mirror the three GET forms: {topic}, {topic}/{jsonRequest} and
+    * {topic}/{type}/{jsonRequest}
+    *
+    * @param exchange
+    *           the request being processed
+    * @param path
+    *           the request's path
+    * @param segments
+    *           the path segments following the context
+    * @throws IOException
+    *            if the response can not be sent
+    */
+   void doGet(HttpExchange exchange, String path, String[] segments)
+      throws IOException {
+      JSONObject request = new JSONObject();
+      String requestType = segments[0];
+      String jsonRequest = null;
+      if (segments.length == 2) {
+         jsonRequest = segments[1];
+         if ((jsonRequest.startsWith("{")
+            && jsonRequest.endsWith("}")) == false) {
+            jsonRequest = null;
+         }
+      } else if (segments.length == 3) {
+         requestType += "/" + segments[1];
+         jsonRequest = segments[2];
+      }
+      if (jsonRequest != null) {
+         try {
+            request = JSONObject.parse(jsonRequest);
+         } catch (IOException e) {
+            sendError(exchange, e,
+               MDfromHTMLResponseCodes.MDfromHTML_INVALID_JSON_GET_REQUEST);
+            return;
+         }
+      }
+      dispatch(exchange, path, "GET", MDfromHTMLWebServices.GET,
+         ServicesManager.getRequests, requestType, request, false);
+   }
+
+   /**
+    * Perform the actions registered in the schema for the request type and
+    * send their combined responses
+    *
+    * @param exchange
+    *           the request being processed
+    * @param path
+    *           the request's path
+    * @param verb
+    *           the HTTP method (e.g., POST)
+    * @param verbName
+    *           the verb passed to the actions (e.g., post)
+    * @param requests
+    *           the schema's requests registered for the verb
+    * @param requestType
+    *           the topic, or topic/type, identifying the registered request
+    * @param request
+    *           the request content
+    * @param cbor
+    *           true to send the response as CBOR rather than JSON
+    * @throws IOException
+    *            if the response can not be sent
+    */
+   void dispatch(HttpExchange exchange, String path, String verb,
+      String verbName, JSONObject requests, String requestType,
+      JSONObject request, boolean cbor) throws IOException {
+      JSONObject serviceLogic = (JSONObject) requests.get(requestType);
+      if (serviceLogic == null) {
+         sendError(exchange,
+            "No " + verb + " service registered for \"" + requestType
+               + "\" for path \"" + path + "\"",
+            MDfromHTMLResponseCodes.MDfromHTML_CLASS_NOT_FOUND);
+         return;
+      }
+      final JSONObject actionResponses = new JSONObject();
+      try {
+         final JSONArray actions = (JSONArray) serviceLogic
+            .get(MDfromHTMLWebServices.ACTIONS);
+         if (_execution == null) {
+            performActions(verbName, request, actions, actionResponses);
+         } else {
+            final String actionVerb = verbName;
+            final JSONObject actionRequest = request;
+            // the conversion is CPU bound so limit it to the worker threads
+            _execution.callCPU(new Callable<Void>() {
+               @Override
+               public Void call() throws Exception {
+                  performActions(actionVerb, actionRequest, actions,
+                     actionResponses);
+                  return null;
+               }
+            });
+         }
+      } catch (Exception e) {
+         sendError(exchange, e,
+            MDfromHTMLResponseCodes.MDfromHTML_UNEXPECTED_ERROR);
+         return;
+      }
+      long start = MDfromHTMLMetrics.start();
+      byte[] entity = cbor ? MDfromHTMLCBORCodec.encode(actionResponses)
+         : actionResponses.toString().getBytes(MDfromHTMLUtils.UTF8_CHARSET);
+      MDfromHTMLMetrics.recordPhase(MDfromHTMLMetrics.PHASE_SERIALIZE, start);
+      send(exchange,
+         MDfromHTMLResponseCodes.MDfromHTML_OKAY.respCode().getStatusCode(),
+         entity, cbor ? MDfromHTMLCBORCodec.MEDIA_TYPE : JSON_MEDIA_TYPE);
+   }
+
+   /**
+    * Perform the service's actions
+    *
+    * @param verbName
+    *           the verb passed to the actions (e.g., post)
+    * @param request
+    *           the request content
+    * @param actions
+    *           the actions registered in the schema for the request
+    * @param actionResponses
+    *           collects the responses of the actions
+    * @throws Exception
+    *            if an action fails
+    */
+   static void performActions(String verbName, JSONObject request,
+      JSONArray actions, JSONObject actionResponses) throws Exception {
+      for (Iterator<?> it = actions.iterator(); it.hasNext();) {
+         JSONObject action = (JSONObject) it.next();
+         ServicesManager.performAction(verbName, request, action,
+            actionResponses);
+      }
+   }
+
+   /**
+    * Send the response with the same headers used by
+    * {@link MDfromHTMLServiceUtil#getResponse(JSONObject)}
+    *
+    * @param exchange
+    *           the request being answered
+    * @param status
+    *           the HTTP status code
+    * @param entity
+    *           the UTF-8 encoded JSON response content
+    * @throws IOException
+    *            if the response can not be sent
+    */
+   void send(HttpExchange exchange, int status, byte[] entity)
+      throws IOException {
+      send(exchange, status, entity, JSON_MEDIA_TYPE);
+   }
+
+   /**
+    * Send the response with the same headers used by
+    * {@link MDfromHTMLServiceUtil#getResponse(JSONObject, boolean)}
+    *
+    * @param exchange
+    *           the request being answered
+    * @param status
+    *           the HTTP status code
+    * @param entity
+    *           the encoded response content
+    * @param contentType
+    *           the media type of the content
+    * @throws IOException
+    *            if the response can not be sent
+    */
+   void send(HttpExchange exchange, int status, byte[] entity,
+      String contentType) throws IOException {
+      Headers headers = exchange.getResponseHeaders();
+      headers.set("Access-Control-Allow-Credentials", "true");
+      headers.set("Access-Control-Allow-Headers",
+         "origin, content-type, accept, authorization");
+      headers.set("Access-Control-Allow-Methods",
+         "GET, POST, PUT, DELETE, OPTIONS, HEAD");
+      headers.set("Access-Control-Allow-Origin", "*");
+      headers.set("Access_Control_Max_Age", "43200");
+      if (entity.length > 0) {
+         headers.set("Content-Type", contentType);
+      }
+      if (entity.length >= COMPRESS_MIN_BYTES) {
+         headers.set("Vary", "Accept-Encoding");
+         if (acceptsGzip(exchange.getRequestHeaders()
+            .getFirst("Accept-Encoding"))) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(
+               entity.length / 4 + 64);
+            try (GZIPOutputStream gzos = new GZIPOutputStream(baos, 8192)) {
+               gzos.write(entity);
+            }
+            entity = baos.toByteArray();
+            headers.set("Content-Encoding", "gzip");
+         }
+      }
+      exchange.sendResponseHeaders(status,
+         entity.length == 0 ? -1 : entity.length);
+      if (entity.length > 0) {
+         try (OutputStream os = exchange.getResponseBody()) {
+            os.write(entity);
+         }
+      }
+   }
+
+   /**
+    * @param acceptEncoding
+    *           the request's Accept-Encoding header (may be null)
+    * @return true if gzip is listed without a q value of 0
+    */
+   static boolean acceptsGzip(String acceptEncoding) {
+      if (acceptEncoding == null) {
+         return false;
+      }
+      for (String coding : acceptEncoding.split(",")) {
+         String[] parts = coding.split(";");
+         if ("gzip".equalsIgnoreCase(parts[0].trim()) == false) {
+            continue;
+         }
+         for (int i = 1; i < parts.length; i++) {
+            String param = parts[i].trim();
+            if (param.startsWith("q=")) {
+               try {
+                  return Double.parseDouble(param.substring(2).trim()) > 0.0d;
+               } catch (NumberFormatException e) {
+                  return false;
+               }
+            }
+         }
+         return true;
+      }
+      return false;
+   }
+
+   /**
+    * Send the error response built by
+    * {@link MDfromHTMLServiceUtil#getErrorJSON(String, MDfromHTMLResponseCodes)}
+    *
+    * @param exchange
+    *           the request being answered
+    * @param errorMessage
+    *           details describing the error
+    * @param responseCodes
+    *           identifies the error and its HTTP status
+    * @throws IOException
+    *            if the response can not be sent
+    */
+   void sendError(HttpExchange exchange, String errorMessage,
+      MDfromHTMLResponseCodes responseCodes) throws IOException {
+      send(exchange, responseCodes.respCode().getStatusCode(),
+         MDfromHTMLServiceUtil.getErrorJSON(errorMessage, responseCodes)
+            .toString().getBytes(MDfromHTMLUtils.UTF8_CHARSET));
+   }
+
+   /**
+    * Send the error response built by
+    * {@link MDfromHTMLServiceUtil#getErrorJSON(Throwable, MDfromHTMLResponseCodes)}
+    *
+    * @param exchange
+    *           the request being answered
+    * @param exception
+    *           the cause of the error
+    * @param responseCodes
+    *           identifies the error and its HTTP status
+    * @throws IOException
+    *            if the response can not be sent
+    */
+   void sendError(HttpExchange exchange, Throwable exception,
+      MDfromHTMLResponseCodes responseCodes) throws IOException {
+      send(exchange, responseCodes.respCode().getStatusCode(),
+         MDfromHTMLServiceUtil.getErrorJSON(exception, responseCodes)
+            .toString().getBytes(MDfromHTMLUtils.UTF8_CHARSET));
+   }
+}
@@ -22,9 +22,11 @@
 
 package com.mdfromhtml.services;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
@@ -37,6 +39,7 @@ import java.util.EmptyStackException;
 import java.util.List;
 import java.util.Stack;
 
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.NewCookie;
 import javax.ws.rs.core.Response;
@@ -44,6 +47,8 @@ import javax.ws.rs.core.Response;
 import com.api.json.JSONArray;
 import com.api.json.JSONObject;
 import com.mdfromhtml.core.MDfromHTMLBASE64Codec;
+import com.mdfromhtml.core.MDfromHTMLCBORCodec;
+import com.mdfromhtml.core.MDfromHTMLMetrics;
 import com.mdfromhtml.core.MDfromHTMLUtils;
 
 public class MDfromHTMLServiceUtil implements Serializable {
@@ -99,6 +104,35 @@ public class MDfromHTMLServiceUtil implements Serializable {
     * @return response
     */
    public static Response getErrorResponse(String errorMessage,
+      MDfromHTMLResponseCodes MDfromHTMLResponseCodes) {
+      if (MDfromHTMLResponseCodes == null) {
+         MDfromHTMLResponseCodes = com.mdfromhtml.services.MDfromHTMLResponseCodes.MDfromHTML_UNEXPECTED_ERROR;
+      }
+      JSONObject ildErrorObj = getErrorJSON(errorMessage,
+         MDfromHTMLResponseCodes);
+      Response resp = Response.status(MDfromHTMLResponseCodes.respCode())
+         .header("Access-Control-Allow-Credentials", "true")
+         .header("Access-Control-Allow-Headers",
+            "origin, content-type, accept, authorization")
+         .header("Access-Control-Allow-Methods",
+            "GET, POST, PUT, DELETE, OPTIONS, HEAD")
+         .header("Access-Control-Allow-Origin", "*")
+         .header("Access_Control_Max_Age", 43200).entity(ildErrorObj.toString())
+         .type(MediaType.APPLICATION_JSON).build();
+      return resp;
+
+   }
+
+   /**
+    * Creates the error object returned in responses for the passed
+    * responseCodes object, and the passed errorMessage (if one exists (e.g.,
+    * is not null)).
+    * 
+    * @param errorMessage
+    * @param MDfromHTMLResponseCodes
+    * @return the error object
+    */
+   public static JSONObject getErrorJSON(String errorMessage,
       MDfromHTMLResponseCodes MDfromHTMLResponseCodes) {
       if (MDfromHTMLResponseCodes == null) {
          MDfromHTMLResponseCodes = com.mdfromhtml.services.MDfromHTMLResponseCodes.MDfromHTML_UNEXPECTED_ERROR;
@@ -114,8 +148,25 @@ public class MDfromHTMLServiceUtil implements Serializable {
       }
       JSONObject errorObj = new JSONObject();
       errorObj.put("error", errorContentsObj);
-      JSONObject ildErrorObj = errorObj;
-      Response resp = Response.status(MDfromHTMLResponseCodes.respCode())
+      return errorObj;
+   }
+
+   /**
+    * Creates a response to contain an error identified by the passed
+    * responseCodes object, and the exception (if one exists (e.g., is not
+    * null)).
+    * 
+    * @param exception
+    * @param responseCodes
+    * @return response
+    */
+   public static Response getErrorResponse(Throwable exception,
+      MDfromHTMLResponseCodes responseCodes) {
+      if (responseCodes == null) {
+         responseCodes = MDfromHTMLResponseCodes.MDfromHTML_UNEXPECTED_ERROR;
+      }
+      JSONObject ildErrorObj = getErrorJSON(exception, responseCodes);
+      Response resp = Response.status(responseCodes.respCode())
          .header("Access-Control-Allow-Credentials", "true")
          .header("Access-Control-Allow-Headers",
             "origin, content-type, accept, authorization")
@@ -129,15 +180,15 @@ public class MDfromHTMLServiceUtil implements Serializable {
    }
 
    /**
-    * Creates a response to contain an error identified by the passed
-    * responseCodes object, and the exception (if one exists (e.g., is not
-    * null)).
+    * Creates the error object returned in responses for the error identified
+    * by the passed responseCodes object, and the exception (if one exists
+    * (e.g., is not null)) including its chained stack traces.
     * 
     * @param exception
     * @param responseCodes
-    * @return response
+    * @return the error object
     */
-   public static Response getErrorResponse(Throwable exception,
+   public static JSONObject getErrorJSON(Throwable exception,
       MDfromHTMLResponseCodes responseCodes) {
       if (responseCodes == null) {
          responseCodes = MDfromHTMLResponseCodes.MDfromHTML_UNEXPECTED_ERROR;
@@ -209,17 +260,34 @@ public class MDfromHTMLServiceUtil implements Serializable {
             e.printStackTrace();
          }
       }
-      Response resp = Response.status(responseCodes.respCode())
+      return ildErrorObj;
+   }
+
+   /**
+    * Create a response to the REST Request, encoded as CBOR when requested
+    * 
+    * @param jsonMessage
+    * @param cbor
+    *           true to encode the response as CBOR, false for JSON
+    * @return response
+    */
+   public static Response getResponse(JSONObject jsonMessage, boolean cbor) {
+      if (cbor == false) {
+         return getResponse(jsonMessage);
+      }
+      long start = MDfromHTMLMetrics.start();
+      byte[] entity = MDfromHTMLCBORCodec.encode(jsonMessage);
+      MDfromHTMLMetrics.recordPhase(MDfromHTMLMetrics.PHASE_SERIALIZE, start);
+      Response resp = Response.status(MDfromHTMLResponseCodes.MDfromHTML_OKAY.respCode())
          .header("Access-Control-Allow-Credentials", "true")
          .header("Access-Control-Allow-Headers",
             "origin, content-type, accept, authorization")
          .header("Access-Control-Allow-Methods",
             "GET, POST, PUT, DELETE, OPTIONS, HEAD")
          .header("Access-Control-Allow-Origin", "*")
-         .header("Access_Control_Max_Age", 43200).entity(ildErrorObj.toString())
-         .type(MediaType.APPLICATION_JSON).build();
+         .header("Access_Control_Max_Age", 43200).entity(entity)
+         .type(MDfromHTMLCBORCodec.MEDIA_TYPE).build();
       return resp;
-
    }
 
    /**
@@ -230,6 +298,9 @@ public class MDfromHTMLServiceUtil implements Serializable {
     */
    public static Response getResponse(JSONObject jsonMessage) {
       JSONObject respObj = jsonMessage;
+      long start = MDfromHTMLMetrics.start();
+      String entity = respObj.toString();
+      MDfromHTMLMetrics.recordPhase(MDfromHTMLMetrics.PHASE_SERIALIZE, start);
       Response resp = Response.status(MDfromHTMLResponseCodes.MDfromHTML_OKAY.respCode())
          .header("Access-Control-Allow-Credentials", "true")
          .header("Access-Control-Allow-Headers",
@@ -237,11 +308,45 @@ public class MDfromHTMLServiceUtil implements Serializable {
          .header("Access-Control-Allow-Methods",
             "GET, POST, PUT, DELETE, OPTIONS, HEAD")
          .header("Access-Control-Allow-Origin", "*")
-         .header("Access_Control_Max_Age", 43200).entity(respObj.toString())
+         .header("Access_Control_Max_Age", 43200).entity(entity)
          .type(MediaType.APPLICATION_JSON).build();
       return resp;
    }
 
+   /**
+    * Parse the request content as CBOR or JSON based on its Content-Type
+    * 
+    * @param headers
+    *           the request's headers
+    * @param content
+    *           the request's content
+    * @return the request
+    * @throws IOException
+    *            if the content is not a valid request
+    */
+   public static JSONObject parseRequest(HttpHeaders headers,
+      InputStream content) throws IOException {
+      JSONObject request = null;
+      if (MDfromHTMLCBORCodec
+         .isCBOR(headers.getHeaderString(HttpHeaders.CONTENT_TYPE))) {
+         request = MDfromHTMLCBORCodec
+            .decodeJSONObject(new BufferedInputStream(content));
+      } else {
+         request = JSONObject.parse(content);
+      }
+      return request;
+   }
+
+   /**
+    * @param headers
+    *           the request's headers
+    * @return true if the request's Accept header prefers CBOR responses
+    */
+   public static boolean prefersCBOR(HttpHeaders headers) {
+      return MDfromHTMLCBORCodec
+         .prefersCBOR(headers.getHeaderString(HttpHeaders.ACCEPT));
+   }
+
    /**
     * Create a a response to the REST Request
     * 
@@ -45,6 +45,8 @@ import javax.ws.rs.core.UriInfo;
 
 import com.api.json.JSONArray;
 import com.api.json.JSONObject;
+import com.mdfromhtml.core.MDfromHTMLCBORCodec;
+import com.mdfromhtml.core.MDfromHTMLMetrics;
 import com.mdfromhtml.core.MDfromHTMLUtils;
 import com.mdfromhtml.services.Patch.PATCH;
 
@@ -122,15 +124,16 @@ public class MDfromHTMLWebServices implements Serializable {
    public ServicesManager _servicesManager;
 
    @DELETE
-   @Consumes(MediaType.APPLICATION_JSON)
-   @Produces(MediaType.APPLICATION_JSON)
+   @Consumes({ MediaType.APPLICATION_JSON, MDfromHTMLCBORCodec.MEDIA_TYPE })
+   @Produces({ MediaType.APPLICATION_JSON, MDfromHTMLCBORCodec.MEDIA_TYPE })
    @Path("{topic}/{type}")
    public Response doDeleteV1(@Context HttpHeaders headers,
       @Context UriInfo uriInfo, @PathParam(TOPIC) String topic,
       @PathParam(TYPE) String type, InputStream jsonRequest) {
       JSONObject request = null;
       try {
-         request = JSONObject.parse(jsonRequest);
+         request = MDfromHTMLServiceUtil.parseRequest(headers,
+            jsonRequest);
       } catch (IOException e) {
          return MDfromHTMLServiceUtil.getErrorResponse(e,
             MDfromHTMLResponseCodes.MDfromHTML_INVALID_JSON_GET_REQUEST);
@@ -161,7 +164,8 @@ public class MDfromHTMLWebServices implements Serializable {
             ServicesManager.performAction(DELETE, request,
                action, actionResponses);
          }
-         return MDfromHTMLServiceUtil.getResponse(actionResponses);
+         return MDfromHTMLServiceUtil.getResponse(actionResponses,
+            MDfromHTMLServiceUtil.prefersCBOR(headers));
       } catch (Exception e) {
          return MDfromHTMLServiceUtil.getErrorResponse(e,
             MDfromHTMLResponseCodes.MDfromHTML_UNEXPECTED_ERROR);
@@ -296,15 +300,16 @@ public class MDfromHTMLWebServices implements Serializable {
    }
 
    @PATCH
-   @Consumes(MediaType.APPLICATION_JSON)
-   @Produces(MediaType.APPLICATION_JSON)
+   @Consumes({ MediaType.APPLICATION_JSON, MDfromHTMLCBORCodec.MEDIA_TYPE })
+   @Produces({ MediaType.APPLICATION_JSON, MDfromHTMLCBORCodec.MEDIA_TYPE })
    @Path("{topic}/{type}")
    public Response doPatchV1(@Context HttpHeaders headers,
       @Context UriInfo uriInfo, @PathParam(TOPIC) String topic,
       @PathParam(TYPE) String type, InputStream jsonRequest) {
       JSONObject request = null;
       try {
-         request = JSONObject.parse(jsonRequest);
+         request = MDfromHTMLServiceUtil.parseRequest(headers,
+            jsonRequest);
       } catch (IOException e) {
          return MDfromHTMLServiceUtil.getErrorResponse(e,
             MDfromHTMLResponseCodes.MDfromHTML_INVALID_JSON_GET_REQUEST);
@@ -335,7 +340,8 @@ public class MDfromHTMLWebServices implements Serializable {
             ServicesManager.performAction(PATCH, request,
                action, actionResponses);
          }
-         return MDfromHTMLServiceUtil.getResponse(actionResponses);
+         return MDfromHTMLServiceUtil.getResponse(actionResponses,
+            MDfromHTMLServiceUtil.prefersCBOR(headers));
       } catch (Exception e) {
          return MDfromHTMLServiceUtil.getErrorResponse(e,
             MDfromHTMLResponseCodes.MDfromHTML_UNEXPECTED_ERROR);
@@ -343,15 +349,19 @@ public class MDfromHTMLWebServices implements Serializable {
    }
 
    @POST
-   @Consumes(MediaType.APPLICATION_JSON)
-   @Produces(MediaType.APPLICATION_JSON)
+   @Consumes({ MediaType.APPLICATION_JSON, MDfromHTMLCBORCodec.MEDIA_TYPE })
+   @Produces({ MediaType.APPLICATION_JSON, MDfromHTMLCBORCodec.MEDIA_TYPE })
    @Path("{topic}/{type}")
    public Response doPostV1(@Context HttpHeaders headers,
       @Context UriInfo uriInfo, @PathParam(TOPIC) String topic,
       @PathParam(TYPE) String type, InputStream jsonRequest) {
       JSONObject request = null;
       try {
-         request = JSONObject.parse(jsonRequest);
+         long start = MDfromHTMLMetrics.start();
+         request = MDfromHTMLServiceUtil.parseRequest(headers,
+            jsonRequest);
+         MDfromHTMLMetrics.recordPhase(MDfromHTMLMetrics.PHASE_JSON_PARSE,
+            start);
       } catch (IOException e) {
          return MDfromHTMLServiceUtil.getErrorResponse(e,
             MDfromHTMLResponseCodes.MDfromHTML_INVALID_JSON_GET_REQUEST);
@@ -382,7 +392,8 @@ public class MDfromHTMLWebServices implements Serializable {
             ServicesManager.performAction(POST, request,
                action, actionResponses);
          }
-         return MDfromHTMLServiceUtil.getResponse(actionResponses);
+         return MDfromHTMLServiceUtil.getResponse(actionResponses,
+            MDfromHTMLServiceUtil.prefersCBOR(headers));
       } catch (Exception e) {
          if (debug) {
             e.printStackTrace(System.err);
@@ -393,15 +404,16 @@ public class MDfromHTMLWebServices implements Serializable {
    }
 
    @PUT
-   @Consumes(MediaType.APPLICATION_JSON)
-   @Produces(MediaType.APPLICATION_JSON)
+   @Consumes({ MediaType.APPLICATION_JSON, MDfromHTMLCBORCodec.MEDIA_TYPE })
+   @Produces({ MediaType.APPLICATION_JSON, MDfromHTMLCBORCodec.MEDIA_TYPE })
    @Path("{topic}/{type}")
    public Response doPutV1(@Context HttpHeaders headers,
       @Context UriInfo uriInfo, @PathParam(TOPIC) String topic,
       @PathParam(TYPE) String type, InputStream jsonRequest) {
       JSONObject request = null;
       try {
-         request = JSONObject.parse(jsonRequest);
+         request = MDfromHTMLServiceUtil.parseRequest(headers,
+            jsonRequest);
       } catch (IOException e) {
          return MDfromHTMLServiceUtil.getErrorResponse(e,
             MDfromHTMLResponseCodes.MDfromHTML_INVALID_JSON_GET_REQUEST);
@@ -432,7 +444,8 @@ public class MDfromHTMLWebServices implements Serializable {
             ServicesManager.performAction(PUT, request, action,
                actionResponses);
          }
-         return MDfromHTMLServiceUtil.getResponse(actionResponses);
+         return MDfromHTMLServiceUtil.getResponse(actionResponses,
+            MDfromHTMLServiceUtil.prefersCBOR(headers));
       } catch (Exception e) {
          return MDfromHTMLServiceUtil.getErrorResponse(e,
             MDfromHTMLResponseCodes.MDfromHTML_UNEXPECTED_ERROR);
@@ -29,6 +29,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.ManagedBean;
 import javax.annotation.PostConstruct;
@@ -59,7 +60,7 @@ public class ServicesManager implements Serializable {
 
    public static JSONObject putRequests = new JSONObject();
 
-   static protected int responseToken = 0;
+   static protected final AtomicInteger responseToken = new AtomicInteger();
 
    private static final long serialVersionUID = -2206805773040898651L;
 
@@ -164,8 +165,8 @@ public class ServicesManager implements Serializable {
       return retSet;
    }
 
-   static synchronized public int getResponseToken() {
-      return ++responseToken;
+   static public int getResponseToken() {
+      return responseToken.incrementAndGet();
    }
 
    static public void main(String... args) {
@@ -0,0 +1,221 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.markdown.output;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Wraps another sink so its writes are performed on a dedicated I/O thread,
+ * letting conversion of the next capture proceed while the previous one's
+ * artifacts are saved. The queue of pending artifacts is bounded so a slow
+ * file system applies back pressure rather than exhausting the heap.
+ * <p>
+ * A failure on the I/O thread is reported by the next call to
+ * {@link #write(OutputKind, String, String)} or {@link #close()}.
+ *
+ * @author Nathaniel Mills
+ */
+public class AsyncOutputSink implements OutputSink {
+
+   /**
+    * default number of artifacts that may be waiting to be written
+    */
+   static public final int DEFAULT_QUEUE_SIZE = 64;
+
+   /**
+    * An artifact waiting to be written, or an action to be run once the
+    * artifacts before it are written
+    */
+   static class PendingWrite {
+      Runnable _action = null;
+      String _baseName;
+      String _content;
+      OutputKind _kind;
+
+      PendingWrite(OutputKind kind, String baseName, String content) {
+         _kind = kind;
+         _baseName = baseName;
+         _content = content;
+      }
+
+      PendingWrite(Runnable action) {
+         this(null, null, null);
+         _action = action;
+      }
+   }
+
+   /**
+    * marks the end of the queue
+    */
+   static final PendingWrite END_OF_QUEUE = new PendingWrite(null, null,
+      null);
+
+   boolean _closed = false;
+   OutputSink _delegate;
+   volatile IOException _failure = null;
+   BlockingQueue<PendingWrite> _queue;
+   Thread _writer;
+
+   /**
+    * Constructor using the default queue size
+    *
+    * @param delegate
+    *           the sink performing the actual writes
+    */
+   public AsyncOutputSink(OutputSink delegate) {
+      this(delegate, DEFAULT_QUEUE_SIZE);
+   }
+
+   /**
+    * Constructor
+    *
+    * @param delegate
+    *           the sink performing the actual writes
+    * @param queueSize
+    *           the number of artifacts that may be waiting to be written
+    *           before callers are blocked
+    */
+   public AsyncOutputSink(OutputSink delegate, int queueSize) {
+      _delegate = delegate;
+      _queue = new ArrayBlockingQueue<PendingWrite>(queueSize);
+      _writer = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            drain();
+         }
+      }, "MDfromHTML-output");
+      _writer.setDaemon(true);
+      _writer.start();
+   }
+
+   @Override
+   public boolean accepts(OutputKind kind) {
+      return _delegate.accepts(kind);
+   }
+
+   @Override
+   public void write(OutputKind kind, String baseName, String content)
+      throws IOException {
+      if (_closed) {
+         throw new IOException("The output sink has been closed.");
+      }
+      checkFailure();
+      if (accepts(kind) == false) {
+         return;
+      }
+      enqueue(new PendingWrite(kind, baseName, content));
+   }
+
+   /**
+    * Queues the action to be run on the I/O thread once the artifacts queued
+    * before it are written. It is not run if an earlier write failed.
+    */
+   @Override
+   public void whenSaved(Runnable action) throws IOException {
+      if (_closed) {
+         throw new IOException("The output sink has been closed.");
+      }
+      checkFailure();
+      enqueue(new PendingWrite(action));
+   }
+
+   @Override
+   public void close() throws IOException {
+      if (_closed) {
+         return;
+      }
+      _closed = true;
+      try {
+         enqueue(END_OF_QUEUE);
+         try {
+            _writer.join();
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+               "Interrupted waiting for pending output to be written.");
+         }
+         checkFailure();
+      } finally {
+         _delegate.close();
+      }
+   }
+
+   /**
+    * Loop run by the I/O thread writing queued artifacts to the delegate until
+    * the end of the queue is reached. After a failure, remaining artifacts are
+    * discarded so producers are not blocked.
+    */
+   void drain() {
+      while (true) {
+         PendingWrite pending;
+         try {
+            pending = _queue.take();
+         } catch (InterruptedException e) {
+            _failure = new InterruptedIOException(
+               "Output thread was interrupted.");
+            return;
+         }
+         if (pending == END_OF_QUEUE) {
+            return;
+         }
+         if (_failure != null) {
+            continue;
+         }
+         if (pending._action != null) {
+            try {
+               pending._action.run();
+            } catch (RuntimeException e) {
+               _failure = new IOException(e.getLocalizedMessage(), e);
+            }
+            continue;
+         }
+         try {
+            _delegate.write(pending._kind, pending._baseName,
+               pending._content);
+         } catch (IOException e) {
+            _failure = e;
+         }
+      }
+   }
+
+   void enqueue(PendingWrite pending) throws IOException {
+      try {
+         _queue.put(pending);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException(
+            "Interrupted waiting to queue output.");
+      }
+   }
+
+   void checkFailure() throws IOException {
+      IOException failure = _failure;
+      if (failure != null) {
+         throw new IOException(
+            "Error writing output: " + failure.getLocalizedMessage(), failure);
+      }
+   }
+}
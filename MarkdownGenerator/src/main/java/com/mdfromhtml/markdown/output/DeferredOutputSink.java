@@ -0,0 +1,98 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.markdown.output;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds the artifacts written to it in memory until they are replayed, in the
+ * order written, to the sink it defers to. This lets captures be converted
+ * concurrently while their artifacts are saved in the same order as when
+ * converted serially. Whether an artifact is accepted is decided by the sink
+ * deferred to.
+ *
+ * @author Nathaniel Mills
+ */
+public class DeferredOutputSink implements OutputSink {
+
+   OutputSink _delegate;
+   List<AsyncOutputSink.PendingWrite> _pending = new ArrayList<AsyncOutputSink.PendingWrite>();
+
+   /**
+    * Constructor
+    *
+    * @param delegate
+    *           the sink that will receive the artifacts once replayed
+    */
+   public DeferredOutputSink(OutputSink delegate) {
+      _delegate = delegate;
+   }
+
+   @Override
+   public boolean accepts(OutputKind kind) {
+      return _delegate.accepts(kind);
+   }
+
+   @Override
+   public synchronized void write(OutputKind kind, String baseName,
+      String content) throws IOException {
+      if (accepts(kind)) {
+         _pending.add(
+            new AsyncOutputSink.PendingWrite(kind, baseName, content));
+      }
+   }
+
+   @Override
+   public synchronized void whenSaved(Runnable action) {
+      _pending.add(new AsyncOutputSink.PendingWrite(action));
+   }
+
+   /**
+    * Write the held artifacts to the sink deferred to, in the order they
+    * were written, and release them
+    *
+    * @throws IOException
+    *            if an artifact can not be saved
+    */
+   public synchronized void replay() throws IOException {
+      List<AsyncOutputSink.PendingWrite> pending = _pending;
+      _pending = new ArrayList<AsyncOutputSink.PendingWrite>();
+      for (AsyncOutputSink.PendingWrite write : pending) {
+         if (write._action != null) {
+            _delegate.whenSaved(write._action);
+         } else {
+            _delegate.write(write._kind, write._baseName, write._content);
+         }
+      }
+   }
+
+   /**
+    * Discard the held artifacts. The sink deferred to is not closed.
+    */
+   @Override
+   public synchronized void close() {
+      _pending.clear();
+   }
+}
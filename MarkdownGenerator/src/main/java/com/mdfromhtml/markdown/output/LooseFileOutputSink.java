@@ -0,0 +1,117 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.markdown.output;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.Set;
+
+import com.mdfromhtml.core.MDfromHTMLUtils;
+
+/**
+ * Saves each artifact as its own file in the output directory (e.g.,
+ * swg21122368_001.md). This is the traditional layout read by
+ * GetTextFromMarkdown and FindHTMLFromMarkdown.
+ *
+ * @author Nathaniel Mills
+ */
+public class LooseFileOutputSink implements OutputSink {
+
+   /**
+    * size of the buffer used when writing each file
+    */
+   static public final int BUFFER_SIZE = 64 * 1024;
+
+   Set<OutputKind> _kinds;
+   String _outputPath;
+
+   /**
+    * Constructor retaining all kinds of artifacts
+    *
+    * @param outputPath
+    *           the directory (ending with a file separator) where files are
+    *           written
+    */
+   public LooseFileOutputSink(String outputPath) {
+      this(outputPath, EnumSet.allOf(OutputKind.class));
+   }
+
+   /**
+    * Constructor
+    *
+    * @param outputPath
+    *           the directory (ending with a file separator) where files are
+    *           written
+    * @param kinds
+    *           the kinds of artifacts to be retained. Others are ignored.
+    */
+   public LooseFileOutputSink(String outputPath, Set<OutputKind> kinds) {
+      _outputPath = outputPath;
+      _kinds = EnumSet.copyOf(kinds);
+   }
+
+   @Override
+   public boolean accepts(OutputKind kind) {
+      return _kinds.contains(kind);
+   }
+
+   @Override
+   public void write(OutputKind kind, String baseName, String content)
+      throws IOException {
+      if (accepts(kind) == false) {
+         return;
+      }
+      File outputFile = new File(_outputPath + kind.getName(baseName));
+      // written aside then renamed so a crash never leaves a partial file
+      Path tempFile = MDfromHTMLUtils.getTempPath(outputFile.toPath());
+      try {
+         try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(tempFile.toFile()),
+            MDfromHTMLUtils.UTF8_CHARSET), BUFFER_SIZE)) {
+            bw.write(content);
+         }
+         MDfromHTMLUtils.replaceAtomically(tempFile, outputFile.toPath());
+      } catch (IOException e) {
+         throw new IOException(
+            "Can not write file \"" + outputFile.toString() + "\"", e);
+      } finally {
+         Files.deleteIfExists(tempFile);
+      }
+   }
+
+   @Override
+   public void whenSaved(Runnable action) {
+      action.run();
+   }
+
+   @Override
+   public void close() throws IOException {
+      // nothing held open between writes
+   }
+}
@@ -0,0 +1,72 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.markdown.output;
+
+/**
+ * The artifacts produced for each captured html page during markdown
+ * generation. The suffix is appended to the capture's base name (e.g.,
+ * swg21122368_001) to form the name of the artifact.
+ *
+ * @author Nathaniel Mills
+ */
+public enum OutputKind {
+   /**
+    * the unformatted html from the capture file
+    */
+   HTML(".html"),
+   /**
+    * the html formatted in a hierarchical dom format
+    */
+   FORMATTED_HTML("_formatted.html"),
+   /**
+    * the generated markdown
+    */
+   MARKDOWN(".md"),
+   /**
+    * the html to markdown provenance
+    */
+   PROVENANCE("_html2md.json");
+
+   String _suffix;
+
+   OutputKind(String suffix) {
+      _suffix = suffix;
+   }
+
+   /**
+    * @return the suffix appended to a capture's base name to name this
+    *         artifact
+    */
+   public String getSuffix() {
+      return _suffix;
+   }
+
+   /**
+    * @param baseName
+    *           the capture's base name (e.g., swg21122368_001)
+    * @return the name of this artifact for the supplied base name
+    */
+   public String getName(String baseName) {
+      return baseName + _suffix;
+   }
+}
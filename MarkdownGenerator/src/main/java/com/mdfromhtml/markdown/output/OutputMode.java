@@ -0,0 +1,108 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.markdown.output;
+
+import java.util.EnumSet;
+
+/**
+ * The output layouts selectable for batch markdown generation.
+ *
+ * @author Nathaniel Mills
+ */
+public enum OutputMode {
+   /**
+    * every artifact saved as its own file
+    */
+   FILES,
+   /**
+    * only the markdown saved, each as its own file
+    */
+   MARKDOWN,
+   /**
+    * every artifact saved in size rotated zip shards with an index
+    */
+   ZIP,
+   /**
+    * every artifact saved in size rotated gzip compressed newline delimited
+    * JSON shards with an index
+    */
+   NDJSON;
+
+   /**
+    * @param mode
+    *           name of the mode (case insensitive)
+    * @return the mode matching the supplied name
+    * @throws IllegalArgumentException
+    *            if the name does not match a mode
+    */
+   static public OutputMode fromString(String mode) {
+      return OutputMode.valueOf(mode.trim().toUpperCase());
+   }
+
+   /**
+    * Create the sink for this mode. Writes are performed asynchronously on a
+    * dedicated I/O thread.
+    *
+    * @param outputPath
+    *           the directory (ending with a file separator) where output is
+    *           written
+    * @param maxShardBytes
+    *           maximum uncompressed bytes per shard for the archive modes
+    * @param formattedHTML
+    *           true if the formatted html should be retained by modes other
+    *           than {@link #MARKDOWN}
+    * @return the sink for this mode
+    */
+   public OutputSink createSink(String outputPath, long maxShardBytes,
+      boolean formattedHTML) {
+      EnumSet<OutputKind> kinds = EnumSet.allOf(OutputKind.class);
+      if (formattedHTML == false) {
+         kinds.remove(OutputKind.FORMATTED_HTML);
+      }
+      OutputSink sink = null;
+      switch (this) {
+         case MARKDOWN: {
+            sink = new LooseFileOutputSink(outputPath,
+               EnumSet.of(OutputKind.MARKDOWN));
+            break;
+         }
+         case ZIP: {
+            sink = new ShardedArchiveOutputSink(outputPath,
+               ShardedArchiveOutputSink.DEFAULT_PREFIX,
+               ShardedArchiveOutputSink.Format.ZIP, maxShardBytes, kinds);
+            break;
+         }
+         case NDJSON: {
+            sink = new ShardedArchiveOutputSink(outputPath,
+               ShardedArchiveOutputSink.DEFAULT_PREFIX,
+               ShardedArchiveOutputSink.Format.NDJSON, maxShardBytes, kinds);
+            break;
+         }
+         default: {
+            sink = new LooseFileOutputSink(outputPath, kinds);
+            break;
+         }
+      }
+      return new AsyncOutputSink(sink);
+   }
+}
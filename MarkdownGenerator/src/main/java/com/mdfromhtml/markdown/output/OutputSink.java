@@ -0,0 +1,82 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.markdown.output;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination for the artifacts generated for each captured html page. Sinks
+ * decide which {@link OutputKind}s they retain so callers can skip producing
+ * artifacts nobody will read. Artifacts are always written UTF-8 encoded.
+ *
+ * @author Nathaniel Mills
+ */
+public interface OutputSink extends Closeable {
+
+   /**
+    * @param kind
+    *           the kind of artifact being considered
+    * @return true if this sink retains artifacts of the supplied kind
+    */
+   public boolean accepts(OutputKind kind);
+
+   /**
+    * Save the artifact. Artifacts of kinds not accepted by this sink are
+    * ignored.
+    *
+    * @param kind
+    *           the kind of artifact being saved
+    * @param baseName
+    *           the capture's base name (e.g., swg21122368_001) used to name
+    *           the artifact
+    * @param content
+    *           the content of the artifact
+    * @throws IOException
+    *            if the artifact can not be saved
+    */
+   public void write(OutputKind kind, String baseName, String content)
+      throws IOException;
+
+   /**
+    * Run the action once the artifacts written before it have been saved,
+    * e.g., to record them in a run manifest. The action is run on the thread
+    * saving the artifacts, or immediately if they are saved as written.
+    *
+    * @param action
+    *           the action to be run
+    * @throws IOException
+    *            if an earlier artifact could not be saved
+    */
+   public void whenSaved(Runnable action) throws IOException;
+
+   /**
+    * Flush any buffered artifacts and release the resources held by this sink.
+    * No further artifacts may be written once closed.
+    *
+    * @throws IOException
+    *            if buffered artifacts can not be saved
+    */
+   @Override
+   public void close() throws IOException;
+}
@@ -0,0 +1,85 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.markdown.output;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Passes artifacts to another sink while recording the names of those it
+ * accepts, e.g., to list the outputs of an input in a run manifest.
+ *
+ * @author Nathaniel Mills
+ */
+public class RecordingOutputSink implements OutputSink {
+
+   OutputSink _delegate;
+   List<String> _names = new ArrayList<String>();
+
+   /**
+    * Constructor
+    *
+    * @param delegate
+    *           the sink receiving the artifacts
+    */
+   public RecordingOutputSink(OutputSink delegate) {
+      _delegate = delegate;
+   }
+
+   @Override
+   public boolean accepts(OutputKind kind) {
+      return _delegate.accepts(kind);
+   }
+
+   /**
+    * @return the names (e.g., swg21122368_001.md) of the artifacts accepted
+    *         so far
+    */
+   public synchronized List<String> getNames() {
+      return new ArrayList<String>(_names);
+   }
+
+   @Override
+   public void write(OutputKind kind, String baseName, String content)
+      throws IOException {
+      if (accepts(kind)) {
+         synchronized (this) {
+            _names.add(kind.getName(baseName));
+         }
+      }
+      _delegate.write(kind, baseName, content);
+   }
+
+   @Override
+   public void whenSaved(Runnable action) throws IOException {
+      _delegate.whenSaved(action);
+   }
+
+   /**
+    * The sink receiving the artifacts is not closed.
+    */
+   @Override
+   public void close() {
+   }
+}
@@ -0,0 +1,272 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.markdown.output;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.mdfromhtml.core.MDfromHTMLUtils;
+
+/**
+ * Collects artifacts into a sequence of archive shards rather than individual
+ * files. A new shard is started once the uncompressed content written to the
+ * current shard would exceed the maximum shard size. Shards are named using
+ * the prefix and a 5 digit shard number (e.g., markdown_00001.zip).
+ * <p>
+ * An index (e.g., markdown_index.ndjson) is written alongside the shards with
+ * one JSON object per line identifying each artifact's name, kind, shard, its
+ * entry number within the shard, and its uncompressed size in bytes.
+ * <p>
+ * Shards are either zip files with one entry per artifact, or gzip compressed
+ * newline delimited JSON with one object per artifact containing its name,
+ * kind and content.
+ *
+ * @author Nathaniel Mills
+ */
+public class ShardedArchiveOutputSink implements OutputSink {
+
+   /**
+    * Archive formats supported for the shards
+    */
+   public enum Format {
+      /**
+       * zip file with one entry per artifact
+       */
+      ZIP(".zip"),
+      /**
+       * gzip compressed newline delimited JSON with one object per artifact
+       */
+      NDJSON(".ndjson.gz");
+
+      String _suffix;
+
+      Format(String suffix) {
+         _suffix = suffix;
+      }
+
+      /**
+       * @return the file suffix used for shards in this format
+       */
+      public String getSuffix() {
+         return _suffix;
+      }
+   }
+
+   /**
+    * size of the buffers used when writing the shards and the index
+    */
+   static public final int BUFFER_SIZE = 1024 * 1024;
+
+   /**
+    * default maximum uncompressed bytes written to a shard before rotating to
+    * the next shard
+    */
+   static public final long DEFAULT_MAX_SHARD_BYTES = 256L * 1024L * 1024L;
+
+   /**
+    * default prefix used to name the shards and index
+    */
+   static public final String DEFAULT_PREFIX = "markdown";
+
+   Format _format;
+   JsonFactory _jsonFactory = new JsonFactory();
+   JsonGenerator _indexGenerator = null;
+   Set<OutputKind> _kinds;
+   long _maxShardBytes;
+   String _outputPath;
+   String _prefix;
+   long _shardBytes = 0L;
+   int _shardEntries = 0;
+   JsonGenerator _shardGenerator = null;
+   String _shardName = null;
+   int _shardNumber = 0;
+   ZipOutputStream _shardZip = null;
+
+   /**
+    * Constructor retaining all kinds of artifacts using the default prefix and
+    * maximum shard size
+    *
+    * @param outputPath
+    *           the directory (ending with a file separator) where the shards
+    *           and index are written
+    * @param format
+    *           the archive format used for the shards
+    */
+   public ShardedArchiveOutputSink(String outputPath, Format format) {
+      this(outputPath, DEFAULT_PREFIX, format, DEFAULT_MAX_SHARD_BYTES,
+         EnumSet.allOf(OutputKind.class));
+   }
+
+   /**
+    * Constructor
+    *
+    * @param outputPath
+    *           the directory (ending with a file separator) where the shards
+    *           and index are written
+    * @param prefix
+    *           the prefix used to name the shards and the index
+    * @param format
+    *           the archive format used for the shards
+    * @param maxShardBytes
+    *           maximum uncompressed bytes written to a shard before rotating
+    *           to the next shard. A single artifact larger than this is
+    *           written to its own shard.
+    * @param kinds
+    *           the kinds of artifacts to be retained. Others are ignored.
+    */
+   public ShardedArchiveOutputSink(String outputPath, String prefix,
+      Format format, long maxShardBytes, Set<OutputKind> kinds) {
+      _outputPath = outputPath;
+      _prefix = prefix;
+      _format = format;
+      _maxShardBytes = maxShardBytes;
+      _kinds = EnumSet.copyOf(kinds);
+      _jsonFactory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+      _jsonFactory.setRootValueSeparator(null);
+   }
+
+   @Override
+   public boolean accepts(OutputKind kind) {
+      return _kinds.contains(kind);
+   }
+
+   @Override
+   public synchronized void write(OutputKind kind, String baseName,
+      String content) throws IOException {
+      if (accepts(kind) == false) {
+         return;
+      }
+      String name = kind.getName(baseName);
+      byte[] bytes = content.getBytes(MDfromHTMLUtils.UTF8_CHARSET);
+      if (_shardName == null || (_shardEntries > 0
+         && _shardBytes + bytes.length > _maxShardBytes)) {
+         rotate();
+      }
+      if (_format == Format.ZIP) {
+         _shardZip.putNextEntry(new ZipEntry(name));
+         _shardZip.write(bytes);
+         _shardZip.closeEntry();
+      } else {
+         _shardGenerator.writeStartObject();
+         _shardGenerator.writeStringField("name", name);
+         _shardGenerator.writeStringField("kind", kind.name());
+         _shardGenerator.writeStringField("content", content);
+         _shardGenerator.writeEndObject();
+         _shardGenerator.writeRaw('\n');
+      }
+      _indexGenerator.writeStartObject();
+      _indexGenerator.writeStringField("name", name);
+      _indexGenerator.writeStringField("kind", kind.name());
+      _indexGenerator.writeStringField("shard", _shardName);
+      _indexGenerator.writeNumberField("entry", _shardEntries);
+      _indexGenerator.writeNumberField("bytes", bytes.length);
+      _indexGenerator.writeEndObject();
+      _indexGenerator.writeRaw('\n');
+      _shardEntries++;
+      _shardBytes += bytes.length;
+   }
+
+   /**
+    * Runs the action immediately. Artifacts are complete once written to the
+    * current shard, although the shard is readable only once finished.
+    */
+   @Override
+   public synchronized void whenSaved(Runnable action) {
+      action.run();
+   }
+
+   @Override
+   public synchronized void close() throws IOException {
+      try {
+         closeShard();
+      } finally {
+         if (_indexGenerator != null) {
+            _indexGenerator.close();
+            _indexGenerator = null;
+         }
+      }
+   }
+
+   /**
+    * Finish the current shard (if any) and open the next one, opening the
+    * index on first use.
+    *
+    * @throws IOException
+    *            if the shard or index can not be opened
+    */
+   void rotate() throws IOException {
+      closeShard();
+      if (_indexGenerator == null) {
+         _indexGenerator = _jsonFactory.createGenerator(
+            new BufferedWriter(
+               new OutputStreamWriter(
+                  new FileOutputStream(
+                     _outputPath + _prefix + "_index.ndjson"),
+                  MDfromHTMLUtils.UTF8_CHARSET),
+               BUFFER_SIZE));
+         _indexGenerator.enable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+      }
+      _shardNumber++;
+      _shardName = _prefix + "_"
+         + MDfromHTMLUtils.padLeftZero(_shardNumber, 5) + _format.getSuffix();
+      OutputStream os = new BufferedOutputStream(
+         new FileOutputStream(_outputPath + _shardName), BUFFER_SIZE);
+      if (_format == Format.ZIP) {
+         _shardZip = new ZipOutputStream(os, MDfromHTMLUtils.UTF8_CHARSET);
+      } else {
+         _shardGenerator = _jsonFactory
+            .createGenerator(new GZIPOutputStream(os, BUFFER_SIZE));
+         _shardGenerator.enable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+      }
+      _shardBytes = 0L;
+      _shardEntries = 0;
+   }
+
+   /**
+    * Finish the current shard, if any
+    *
+    * @throws IOException
+    *            if the shard can not be completed
+    */
+   void closeShard() throws IOException {
+      if (_shardZip != null) {
+         _shardZip.close();
+         _shardZip = null;
+      }
+      if (_shardGenerator != null) {
+         _shardGenerator.close();
+         _shardGenerator = null;
+      }
+   }
+}
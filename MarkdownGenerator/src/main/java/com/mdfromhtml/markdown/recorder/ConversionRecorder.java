@@ -0,0 +1,419 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.markdown.recorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.api.json.JSONArray;
+import com.api.json.JSONObject;
+import com.mdfromhtml.core.MDfromHTMLMetrics;
+import com.mdfromhtml.core.MDfromHTMLUtils;
+import com.overzealous.remark.IgnoredHtmlElement;
+import com.overzealous.remark.Options;
+import com.overzealous.remark.util.PayloadStore;
+
+/**
+ * Opt-in flight recorder saving the inputs of conversions slower than a
+ * latency threshold, or allocating more than an allocation threshold, so they
+ * can be reproduced with {@link ReplayConversion}. Each case is saved as a
+ * JSON file (slow_&lt;timestamp&gt;_&lt;sequence&gt;.json) containing the
+ * html, url, effective HTMLFilters and Options, the phase timings, and the
+ * generated markdown. Only the most recent cases are kept in the directory.
+ * <p>
+ * The recorder is configured with system properties and is only enabled when
+ * mdfromhtml.recorder.dir names the directory to receive the cases:
+ * <ul>
+ * <li>mdfromhtml.recorder.dir -- directory receiving the cases</li>
+ * <li>mdfromhtml.recorder.latencyMillis -- record conversions taking at least
+ * this many milliseconds (default 2000, 0 to ignore latency)</li>
+ * <li>mdfromhtml.recorder.allocationMB -- record conversions allocating at
+ * least this many megabytes (default 0 to ignore allocations)</li>
+ * <li>mdfromhtml.recorder.maxCases -- number of most recent cases kept
+ * (default 50)</li>
+ * </ul>
+ * Phase timings are only available while {@link MDfromHTMLMetrics} is
+ * collecting.
+ *
+ * @author Nathaniel Mills
+ */
+public class ConversionRecorder {
+
+   /**
+    * Captures the starting point of a conversion being observed
+    */
+   static public class Recording {
+      long _allocated;
+      long _start;
+
+      Recording(long start, long allocated) {
+         _start = start;
+         _allocated = allocated;
+      }
+   }
+
+   /**
+    * system property naming the threshold in megabytes allocated by a
+    * conversion for it to be recorded
+    */
+   static public final String ALLOCATION_PROPERTY = "mdfromhtml.recorder.allocationMB";
+
+   /**
+    * prefix of the recorded case file names
+    */
+   static public final String CASE_PREFIX = "slow_";
+
+   /**
+    * suffix of the recorded case file names
+    */
+   static public final String CASE_SUFFIX = ".json";
+
+   /**
+    * default number of most recent cases kept
+    */
+   static public final int DEFAULT_MAX_CASES = 50;
+
+   /**
+    * default latency threshold in milliseconds
+    */
+   static public final long DEFAULT_LATENCY_MILLIS = 2000L;
+
+   /**
+    * system property naming the directory receiving the recorded cases
+    */
+   static public final String DIRECTORY_PROPERTY = "mdfromhtml.recorder.dir";
+
+   /**
+    * system property naming the threshold in milliseconds taken by a
+    * conversion for it to be recorded
+    */
+   static public final String LATENCY_PROPERTY = "mdfromhtml.recorder.latencyMillis";
+
+   /**
+    * system property naming the number of most recent cases kept
+    */
+   static public final String MAX_CASES_PROPERTY = "mdfromhtml.recorder.maxCases";
+
+   static ConversionRecorder s_instance = null;
+
+   static boolean s_initialized = false;
+
+   static ThreadMXBean s_threadMXBean = ManagementFactory.getThreadMXBean();
+
+   /**
+    * @return the recorder configured by the system properties, or null if
+    *         mdfromhtml.recorder.dir is not set
+    */
+   static synchronized public ConversionRecorder getInstance() {
+      if (s_initialized == false) {
+         s_initialized = true;
+         String directory = System.getProperty(DIRECTORY_PROPERTY);
+         if (MDfromHTMLUtils.isUndefined(directory) == false) {
+            try {
+               s_instance = new ConversionRecorder(directory,
+                  Long.parseLong(System.getProperty(LATENCY_PROPERTY,
+                     Long.toString(DEFAULT_LATENCY_MILLIS))),
+                  Long.parseLong(System.getProperty(ALLOCATION_PROPERTY, "0"))
+                     * 1024L * 1024L,
+                  Integer.parseInt(System.getProperty(MAX_CASES_PROPERTY,
+                     Integer.toString(DEFAULT_MAX_CASES))));
+            } catch (Exception e) {
+               System.out.println("Warning: Conversion recorder is disabled: "
+                  + e.getLocalizedMessage());
+            }
+         }
+      }
+      return s_instance;
+   }
+
+   /**
+    * @return bytes allocated so far by the current thread, or -1 if the JVM
+    *         does not report allocations
+    */
+   static long getAllocatedBytes() {
+      try {
+         if (s_threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) s_threadMXBean)
+               .getThreadAllocatedBytes(Thread.currentThread().getId());
+         }
+      } catch (Throwable t) {
+         // not supported by this JVM
+      }
+      return -1L;
+   }
+
+   /**
+    * @param options
+    *           the options to be serialized
+    * @return object containing the value of each of the option's public
+    *         fields
+    */
+   static public JSONObject optionsToJSON(Options options) {
+      JSONObject result = new JSONObject();
+      for (Field field : Options.class.getFields()) {
+         if (Modifier.isStatic(field.getModifiers())) {
+            continue;
+         }
+         try {
+            Object value = field.get(options);
+            if (value instanceof Enum) {
+               result.put(field.getName(), ((Enum<?>) value).name());
+            } else if (value instanceof PayloadStore) {
+               // only the references matter when replaying
+               result.put(field.getName(),
+                  ((PayloadStore) value).getReferencePrefix());
+            } else if (value instanceof Iterable) {
+               JSONArray elements = new JSONArray();
+               for (Object obj : (Iterable<?>) value) {
+                  IgnoredHtmlElement element = (IgnoredHtmlElement) obj;
+                  JSONObject elementObj = new JSONObject();
+                  elementObj.put("tagName", element.getTagName());
+                  JSONArray attributes = new JSONArray();
+                  attributes.addAll(element.getAttributes());
+                  elementObj.put("attributes", attributes);
+                  elements.add(elementObj);
+               }
+               result.put(field.getName(), elements);
+            } else {
+               result.put(field.getName(), value);
+            }
+         } catch (IllegalAccessException e) {
+            // only public fields are reviewed
+         }
+      }
+      return result;
+   }
+
+   /**
+    * @param optionsObj
+    *           object created by {@link #optionsToJSON(Options)}
+    * @return the options described by the supplied object
+    */
+   @SuppressWarnings({ "unchecked", "rawtypes" })
+   static public Options optionsFromJSON(JSONObject optionsObj) {
+      Options options = new Options();
+      for (Field field : Options.class.getFields()) {
+         Object value = optionsObj.get(field.getName());
+         if (value == null || Modifier.isStatic(field.getModifiers())) {
+            continue;
+         }
+         try {
+            Class<?> type = field.getType();
+            if (type == boolean.class) {
+               field.setBoolean(options, (Boolean) value);
+            } else if (type == int.class) {
+               field.setInt(options, ((Number) value).intValue());
+            } else if (type == PayloadStore.class) {
+               field.set(options, new PayloadStore((String) value) {
+                  @Override
+                  protected void write(String name, byte[] payload) {
+                     // replays only need the references
+                  }
+
+                  @Override
+                  public void close() {
+                  }
+               });
+            } else if (type.isEnum()) {
+               field.set(options,
+                  Enum.valueOf((Class<Enum>) type, value.toString()));
+            } else if (value instanceof JSONArray) {
+               for (Object obj : (JSONArray) value) {
+                  JSONObject elementObj = (JSONObject) obj;
+                  JSONArray attributes = (JSONArray) elementObj
+                     .get("attributes");
+                  options.ignoredHtmlElements
+                     .add(IgnoredHtmlElement.create(
+                        (String) elementObj.get("tagName"),
+                        attributes.toArray(new String[0])));
+               }
+            }
+         } catch (IllegalAccessException e) {
+            // only public fields are reviewed
+         }
+      }
+      return options;
+   }
+
+   long _allocationBytes;
+   File _directory;
+   long _latencyNanos;
+   int _maxCases;
+   AtomicLong _sequence = new AtomicLong();
+
+   /**
+    * Constructor
+    *
+    * @param directory
+    *           the directory receiving the recorded cases (created if needed)
+    * @param latencyMillis
+    *           record conversions taking at least this many milliseconds (0
+    *           to ignore latency)
+    * @param allocationBytes
+    *           record conversions allocating at least this many bytes (0 to
+    *           ignore allocations)
+    * @param maxCases
+    *           the number of most recent cases kept in the directory
+    * @throws IOException
+    *            if the directory can not be created
+    */
+   public ConversionRecorder(String directory, long latencyMillis,
+      long allocationBytes, int maxCases) throws IOException {
+      _directory = new File(directory);
+      if (_directory.isDirectory() == false && _directory.mkdirs() == false) {
+         throw new IOException(
+            "Can not create the recorder directory " + directory);
+      }
+      _latencyNanos = latencyMillis * 1000000L;
+      _allocationBytes = allocationBytes;
+      _maxCases = Math.max(1, maxCases);
+   }
+
+   /**
+    * Begin observing a conversion performed by the current thread
+    *
+    * @return the recording to be passed to {@link #end}
+    */
+   public Recording begin() {
+      MDfromHTMLMetrics.beginTrace();
+      return new Recording(System.nanoTime(),
+         _allocationBytes > 0L ? getAllocatedBytes() : -1L);
+   }
+
+   /**
+    * Finish observing a conversion, saving its inputs if it exceeded the
+    * latency or allocation threshold
+    *
+    * @param recording
+    *           the recording returned by {@link #begin()}
+    * @param source
+    *           where the conversion came from (e.g., the service or the
+    *           capture file and index)
+    * @param url
+    *           the url used to parse the html
+    * @param baseURI
+    *           the url passed to Remark to convert the parsed html
+    * @param html
+    *           the html converted
+    * @param HTMLFilters
+    *           the HTML filters used by the conversion
+    * @param options
+    *           the Options used by the conversion
+    * @param seekHeaders
+    *           whether the markdown was cleaned up to begin with a header
+    * @param provenance
+    *           whether provenance was generated
+    * @param markdown
+    *           the generated markdown (or null if the conversion failed)
+    * @return true if the conversion was recorded
+    */
+   public boolean end(Recording recording, String source, String url,
+      String baseURI, String html, JSONObject HTMLFilters, Options options,
+      boolean seekHeaders, boolean provenance, String markdown) {
+      long elapsed = System.nanoTime() - recording._start;
+      Map<String, Long> phases = MDfromHTMLMetrics.endTrace();
+      long allocated = -1L;
+      if (recording._allocated >= 0L) {
+         long current = getAllocatedBytes();
+         if (current >= 0L) {
+            allocated = current - recording._allocated;
+         }
+      }
+      boolean slow = _latencyNanos > 0L && elapsed >= _latencyNanos;
+      boolean heavy = _allocationBytes > 0L && allocated >= _allocationBytes;
+      if (slow == false && heavy == false) {
+         return false;
+      }
+      JSONObject caseObj = new JSONObject();
+      caseObj.put("recorded",
+         new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new Date()));
+      caseObj.put("source", source);
+      caseObj.put("elapsedMicros", elapsed / 1000L);
+      caseObj.put("allocatedBytes", allocated);
+      JSONObject phasesObj = new JSONObject();
+      for (Map.Entry<String, Long> phase : phases.entrySet()) {
+         phasesObj.put(phase.getKey(), phase.getValue() / 1000L);
+      }
+      caseObj.put("phasesMicros", phasesObj);
+      caseObj.put("url", url);
+      caseObj.put("baseURI", baseURI);
+      caseObj.put("seekHeaders", seekHeaders);
+      caseObj.put("provenance", provenance);
+      caseObj.put("options", optionsToJSON(options));
+      caseObj.put("HTMLFilters", HTMLFilters == null ? new JSONObject()
+         : HTMLFilters);
+      caseObj.put("html", html);
+      if (markdown != null) {
+         caseObj.put("markdown", markdown);
+      }
+      try {
+         save(caseObj);
+      } catch (IOException e) {
+         System.out.println("Warning: Can not record slow conversion of "
+            + url + " reason: " + e.getLocalizedMessage());
+         return false;
+      }
+      return true;
+   }
+
+   /**
+    * Save the case, then remove the oldest cases beyond the maximum kept
+    *
+    * @param caseObj
+    *           the case to be saved
+    * @throws IOException
+    *            if the case can not be saved
+    */
+   synchronized void save(JSONObject caseObj) throws IOException {
+      String name = CASE_PREFIX
+         + new SimpleDateFormat("yyyyMMddHHmmssSSS").format(new Date()) + "_"
+         + MDfromHTMLUtils.padLeftZero((int) (_sequence.incrementAndGet()
+            % 1000000L), 6)
+         + CASE_SUFFIX;
+      File caseFile = new File(_directory, name);
+      File tempFile = new File(_directory, name + ".tmp");
+      Files.write(tempFile.toPath(),
+         caseObj.serialize(true).getBytes(MDfromHTMLUtils.UTF8_CHARSET));
+      Files.move(tempFile.toPath(), caseFile.toPath(),
+         StandardCopyOption.REPLACE_EXISTING);
+      String[] cases = _directory.list((dir, fileName) -> fileName
+         .startsWith(CASE_PREFIX) && fileName.endsWith(CASE_SUFFIX));
+      if (cases != null && cases.length > _maxCases) {
+         Arrays.sort(cases);
+         for (int i = 0; i < cases.length - _maxCases; i++) {
+            new File(_directory, cases[i]).delete();
+         }
+      }
+   }
+}
@@ -0,0 +1,172 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.markdown.recorder;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Entities.EscapeMode;
+
+import com.api.json.JSONObject;
+import com.mdfromhtml.core.MDfromHTMLHistogram;
+import com.mdfromhtml.core.MDfromHTMLMetrics;
+import com.mdfromhtml.core.MDfromHTMLUtils;
+import com.mdfromhtml.markdown.transform.GetMarkdownFromHTML;
+import com.mdfromhtml.remark.utils.CleanupMarkdown;
+import com.overzealous.remark.Remark;
+import com.overzealous.remark.convert.ProvenanceWriter;
+
+/**
+ * Replays a case saved by the {@link ConversionRecorder} through Remark in a
+ * tight loop so it can be profiled, then reports the latency percentiles of
+ * the measured iterations and of each conversion phase, and whether the
+ * markdown matches the markdown originally recorded.
+ * <p>
+ * The loop performs no I/O, so a profiler (or JFR) attached during the
+ * measured iterations sees only the conversion. Setting pauseBeforeMeasuring
+ * waits for Enter after the warmup to allow a profiler to be attached.
+ *
+ * @author Nathaniel Mills
+ */
+public class ReplayConversion {
+
+   /**
+    * @param args
+    *           caseFile (a slow_*.json file saved by the recorder),
+    *           iterations (default 100), warmupIterations (default 10), and
+    *           pauseBeforeMeasuring (default false)
+    */
+   public static void main(String[] args) {
+      int exitVal = 0;
+      if (args.length < 1) {
+         System.out.println("Usage: ReplayConversion caseFile [iterations "
+            + "[warmupIterations [pauseBeforeMeasuring]]]");
+         System.exit(-1);
+      }
+      try {
+         int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+         int warmup = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+         boolean pause = args.length > 3 ? Boolean.parseBoolean(args[3])
+            : false;
+         ReplayConversion pgm = new ReplayConversion(
+            MDfromHTMLUtils.loadJSONFile(args[0]));
+         System.out.println("Replaying " + args[0] + " (" + pgm._url
+            + ") recorded taking " + pgm._caseObj.get("elapsedMicros")
+            + " microseconds from " + pgm._caseObj.get("source"));
+         for (int i = 0; i < warmup; i++) {
+            pgm.replay();
+         }
+         if (pause) {
+            MDfromHTMLUtils.prompt(
+               "Warmup complete. Press Enter to begin measuring...");
+         }
+         MDfromHTMLMetrics.getInstance().reset();
+         MDfromHTMLHistogram latencies = new MDfromHTMLHistogram();
+         String markdown = null;
+         for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            markdown = pgm.replay();
+            latencies.recordValue(System.nanoTime() - start);
+            pgm._blackhole += markdown.length();
+         }
+         JSONObject report = new JSONObject();
+         report.put("iterations", iterations);
+         report.put("latency", latencies.toJSON());
+         report.put("metrics", MDfromHTMLMetrics.getInstance().toJSON());
+         String recorded = (String) pgm._caseObj.get("markdown");
+         if (recorded != null && markdown != null) {
+            report.put("matchesRecordedMarkdown", recorded.equals(markdown));
+         }
+         System.out.println(report.serialize(true));
+      } catch (Exception e) {
+         System.out.println("Error: Can not replay " + args[0] + " reason: "
+            + e.getLocalizedMessage());
+         exitVal = -1;
+      }
+      System.exit(exitVal);
+   }
+
+   String _baseURI;
+   long _blackhole = 0L;
+   JSONObject _caseObj;
+   String _domain;
+   JSONObject _HTMLFilters;
+   String _html;
+   boolean _provenance;
+   Remark _remark;
+   boolean _seekHeaders;
+   String _url;
+
+   /**
+    * Constructor
+    *
+    * @param caseObj
+    *           a case saved by the {@link ConversionRecorder}
+    */
+   public ReplayConversion(JSONObject caseObj) {
+      _caseObj = caseObj;
+      _url = (String) caseObj.get("url");
+      _baseURI = (String) caseObj.get("baseURI");
+      _domain = Remark.getDomain(_baseURI);
+      _html = (String) caseObj.get("html");
+      _HTMLFilters = (JSONObject) caseObj.get("HTMLFilters");
+      _seekHeaders = Boolean.TRUE.equals(caseObj.get("seekHeaders"));
+      _provenance = Boolean.TRUE.equals(caseObj.get("provenance"));
+      _remark = new Remark(ConversionRecorder
+         .optionsFromJSON((JSONObject) caseObj.get("options")), _HTMLFilters);
+   }
+
+   /**
+    * Convert the recorded html the same way GetMarkdownFromHTML does
+    *
+    * @return the generated markdown
+    * @throws IOException
+    *            if the provenance can not be generated
+    */
+   public String replay() throws IOException {
+      long start = MDfromHTMLMetrics.start();
+      Document doc = Jsoup.parse(_html, _url);
+      MDfromHTMLMetrics.recordPhase(MDfromHTMLMetrics.PHASE_HTML_PARSE, start);
+      doc.outputSettings().escapeMode(EscapeMode.extended);
+      ProvenanceWriter provenanceWriter = null;
+      if (_provenance) {
+         provenanceWriter = new ProvenanceWriter("", "",
+            _remark.getHTMLFilters(), _baseURI, _domain, new StringWriter());
+      }
+      String markdown = _remark.convert(doc, provenanceWriter, _baseURI);
+      start = MDfromHTMLMetrics.start();
+      markdown = CleanupMarkdown.cleanAll(markdown, _seekHeaders);
+      markdown = GetMarkdownFromHTML.removeUnusedReferences(markdown);
+      MDfromHTMLMetrics.recordPhase(MDfromHTMLMetrics.PHASE_POST_PROCESS,
+         start);
+      if (provenanceWriter != null) {
+         start = MDfromHTMLMetrics.start();
+         provenanceWriter.close();
+         MDfromHTMLMetrics.recordPhase(MDfromHTMLMetrics.PHASE_PROVENANCE,
+            start);
+      }
+      return markdown;
+   }
+}
@@ -0,0 +1,264 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.markdown.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.mdfromhtml.core.MDfromHTMLExecution;
+import com.mdfromhtml.core.MDfromHTMLUtils;
+import com.mdfromhtml.markdown.transform.GetMarkdownFromHTML;
+
+/**
+ * Benchmark of I/O heavy batch runs comparing serial execution with
+ * {@link MDfromHTMLExecution} using platform I/O threads and, on Java 21,
+ * virtual I/O threads. The captureArray json files in the input directory
+ * are copied to form a larger corpus. Each file is read, its captures
+ * converted to markdown on the conversion threads, and the markdown written,
+ * with a simulated storage latency (e.g., a network file system or object
+ * store) added to each file read and write. The elapsed time and throughput
+ * of each mode are reported as JSON on the console and in the report file.
+ * <p>
+ * Run it from the MarkdownGenerator directory (so
+ * ./properties/HTML_Filters.json is found) using the packaged jar on Java 21
+ * to include virtual threads.
+ *
+ * @author Nathaniel Mills
+ */
+public class BatchExecutionBenchmark {
+
+   static ObjectMapper s_mapper = new ObjectMapper();
+
+   /**
+    * @param args
+    *           inputPath (directory of captureArray json files), copies of
+    *           each file in the corpus (default 25), ioDelayMillis added to
+    *           each read and write (default 10), threads for conversion
+    *           (default the number of processors), and reportFile (default
+    *           ./batch_benchmark.json)
+    */
+   public static void main(String[] args) {
+      if (args.length < 1) {
+         System.out.println(
+            "Usage: BatchExecutionBenchmark inputPath [copies [ioDelayMillis [threads [reportFile]]]]");
+         System.exit(-1);
+      }
+      int copies = 25;
+      long ioDelayMillis = 10L;
+      int threads = Runtime.getRuntime().availableProcessors();
+      String reportFile = "." + File.separator + "batch_benchmark.json";
+      try {
+         if (args.length > 1) {
+            copies = Integer.parseInt(args[1]);
+         }
+         if (args.length > 2) {
+            ioDelayMillis = Long.parseLong(args[2]);
+         }
+         if (args.length > 3) {
+            threads = Integer.parseInt(args[3]);
+         }
+      } catch (NumberFormatException e) {
+         System.out.println("Error: copies, ioDelayMillis and threads must be integers: "
+            + e.getLocalizedMessage());
+         System.exit(-1);
+      }
+      if (args.length > 4) {
+         reportFile = args[4];
+      }
+      Path corpus = null;
+      Path output = null;
+      try {
+         ObjectNode HTMLFilters = (ObjectNode) s_mapper.readTree(new File("."
+            + File.separator + "properties" + File.separator
+            + "HTML_Filters.json"));
+         List<Path> sources = MDfromHTMLUtils.listSourceFiles(
+            FileSystems.getDefault().getPath(args[0]), "json");
+         corpus = Files.createTempDirectory("mdfromhtml_corpus");
+         output = Files.createTempDirectory("mdfromhtml_output");
+         List<Path> files = new ArrayList<Path>();
+         for (int copy = 1; copy <= copies; copy++) {
+            for (Path source : sources) {
+               String name = source.getFileName().toString();
+               Path target = corpus.resolve(name.substring(0,
+                  name.length() - ".json".length()) + "_"
+                  + MDfromHTMLUtils.padLeftZero(copy, 4) + ".json");
+               Files.copy(source, target);
+               files.add(target);
+            }
+         }
+         ObjectNode report = JsonNodeFactory.instance.objectNode();
+         report.put("javaVersion", System.getProperty("java.version"));
+         report.put("processors", Runtime.getRuntime().availableProcessors());
+         report.put("virtualThreadsSupported",
+            MDfromHTMLExecution.supportsVirtualThreads());
+         report.put("files", files.size());
+         report.put("ioDelayMillis", ioDelayMillis);
+         report.put("threads", threads);
+         // warm up the conversion code before timing
+         run(new MDfromHTMLExecution(0, 1, false), sources, output,
+            HTMLFilters, 0L);
+         ArrayNode runs = report.putArray("runs");
+         runs.add(run("serial", new MDfromHTMLExecution(0, 1, false), files,
+            output, HTMLFilters, ioDelayMillis));
+         MDfromHTMLExecution platform = new MDfromHTMLExecution(threads,
+            Math.max(8, 4 * threads), false);
+         runs.add(run("platform", platform, files, output, HTMLFilters,
+            ioDelayMillis));
+         if (MDfromHTMLExecution.supportsVirtualThreads()) {
+            MDfromHTMLExecution virtual = new MDfromHTMLExecution(threads,
+               Math.max(8, 4 * threads), true);
+            runs.add(run("virtual", virtual, files, output, HTMLFilters,
+               ioDelayMillis));
+            virtual = new MDfromHTMLExecution(threads, 16 * threads, true);
+            runs.add(run("virtual-wide", virtual, files, output, HTMLFilters,
+               ioDelayMillis));
+         }
+         String json = s_mapper.writerWithDefaultPrettyPrinter()
+            .writeValueAsString(report);
+         System.out.println(json);
+         MDfromHTMLUtils.saveTextFile(reportFile, json);
+      } catch (Exception e) {
+         System.out.println("Error: Benchmark failed: " + e.getLocalizedMessage());
+         e.printStackTrace();
+         System.exit(-1);
+      } finally {
+         delete(corpus);
+         delete(output);
+      }
+   }
+
+   static void delete(Path dir) {
+      if (dir == null) {
+         return;
+      }
+      try (Stream<Path> paths = Files.walk(dir)) {
+         paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+            path.toFile().delete();
+         });
+      } catch (IOException e) {
+         System.out.println("Warning: Can not remove " + dir + ": "
+            + e.getLocalizedMessage());
+      }
+   }
+
+   static ObjectNode run(String mode, MDfromHTMLExecution execution,
+      List<Path> files, Path output, ObjectNode HTMLFilters,
+      long ioDelayMillis) throws Exception {
+      long start = System.nanoTime();
+      int captures = run(execution, files, output, HTMLFilters,
+         ioDelayMillis);
+      long elapsedNanos = System.nanoTime() - start;
+      ObjectNode result = JsonNodeFactory.instance.objectNode();
+      result.put("mode", mode);
+      result.put("execution", execution.describe());
+      result.put("captures", captures);
+      result.put("elapsedMillis", elapsedNanos / 1000000L);
+      result.put("filesPerSecond", files.size() * 1.0E9d / elapsedNanos);
+      System.out.println(mode + ": " + result.get("elapsedMillis")
+         + " ms, " + Math.round(result.get("filesPerSecond").asDouble())
+         + " files/s (" + execution.describe() + ")");
+      return result;
+   }
+
+   /**
+    * Convert the files, returning the number of captures converted
+    */
+   static int run(final MDfromHTMLExecution execution, List<Path> files,
+      final Path output, final ObjectNode HTMLFilters, final long ioDelayMillis)
+      throws Exception {
+      final int[] captures = new int[] { 0 };
+      try {
+         execution.forEachOrdered(files,
+            new MDfromHTMLExecution.Task<Path, Integer>() {
+               @Override
+               public Integer call(Path file) throws Exception {
+                  return convertFile(execution, file, output, HTMLFilters,
+                     ioDelayMillis);
+               }
+            }, new MDfromHTMLExecution.ResultHandler<Integer>() {
+               @Override
+               public boolean accept(Integer result) {
+                  captures[0] += result;
+                  return true;
+               }
+            });
+      } finally {
+         execution.close();
+      }
+      return captures[0];
+   }
+
+   static int convertFile(MDfromHTMLExecution execution, Path file,
+      Path output, ObjectNode HTMLFilters, long ioDelayMillis)
+      throws Exception {
+      if (ioDelayMillis > 0L) {
+         Thread.sleep(ioDelayMillis);
+      }
+      JsonNode captureFile = s_mapper.readTree(Files.readAllBytes(file));
+      JsonNode captureArray = captureFile.get("captureArray");
+      if (captureArray == null) {
+         return 0;
+      }
+      String name = file.getFileName().toString();
+      name = name.substring(0, name.length() - ".json".length());
+      StringBuilder markdown = new StringBuilder();
+      int captures = 0;
+      for (JsonNode capture : captureArray) {
+         final ObjectNode request = JsonNodeFactory.instance.objectNode();
+         request.set("html", capture.get("html"));
+         request.set("url", capture.get("url"));
+         request.set("HTMLFilters", HTMLFilters);
+         ObjectNode response = execution.callCPU(new Callable<ObjectNode>() {
+            @Override
+            public ObjectNode call() {
+               return GetMarkdownFromHTML.getMarkdownFromHTML(request);
+            }
+         });
+         JsonNode md = response.get("markdown");
+         if (md == null) {
+            throw new IOException("Can not convert " + file + ": " + response);
+         }
+         markdown.append(md.asText());
+         captures++;
+      }
+      if (ioDelayMillis > 0L) {
+         Thread.sleep(ioDelayMillis);
+      }
+      Files.write(output.resolve(name + ".md"),
+         markdown.toString().getBytes(MDfromHTMLUtils.UTF8_CHARSET));
+      return captures;
+   }
+}
@@ -0,0 +1,195 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.markdown.test;
+
+import java.io.File;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.mdfromhtml.core.MDfromHTMLUtils;
+import com.overzealous.remark.Options;
+import com.overzealous.remark.Remark;
+
+/**
+ * Benchmark converting synthetic documents nested to increasing depths, as
+ * produced by broken or machine generated pages. Each document is converted
+ * on a thread with a small stack to show the depth handled does not depend on
+ * the stack size. The elapsed time, or the error raised, of each shape and
+ * depth is reported as JSON on the console and in the report file.
+ * <p>
+ * Documents are converted without provenance, as the provenance of a level
+ * includes the html of the level, growing with the square of the depth.
+ *
+ * @author Nathaniel Mills
+ */
+public class DeepNestingBenchmark {
+
+   static ObjectMapper s_mapper = new ObjectMapper();
+
+   static final String URL = "http://www.example.com/deep.html";
+
+   /**
+    * Opening and closing tags nested by each shape. Shapes prefixing every
+    * line of their content (blockquotes and lists) write each line through
+    * the writers of the enclosing levels, so they are only run to the
+    * prefixed depth limit.
+    */
+   static final String[][] SHAPES = new String[][] {
+      { "div", "<div>", "</div>" }, { "span", "<span>", "</span>" },
+      { "emphasis", "<em>", "</em>", "<b>", "</b>" },
+      { "section", "<section><p>", "</p></section>" },
+      { "blockquote", "<blockquote>", "</blockquote>" },
+      { "list", "<ul><li>", "</li></ul>" } };
+
+   /**
+    * @param args
+    *           comma separated depths (default 500,1000,2000,4000), the
+    *           deepest blockquote and list documents converted (default
+    *           500), the stack size in KB of the converting thread (default
+    *           256), and reportFile (default ./deep_nesting_benchmark.json)
+    */
+   public static void main(String[] args) {
+      String depthList = "500,1000,2000,4000";
+      int maxPrefixedDepth = 500;
+      int stackKB = 256;
+      String reportFile = "." + File.separator
+         + "deep_nesting_benchmark.json";
+      if (args.length > 0) {
+         depthList = args[0];
+      }
+      int[] depths = null;
+      try {
+         String[] parts = depthList.split(",");
+         depths = new int[parts.length];
+         for (int i = 0; i < parts.length; i++) {
+            depths[i] = Integer.parseInt(parts[i].trim());
+         }
+         if (args.length > 1) {
+            maxPrefixedDepth = Integer.parseInt(args[1]);
+         }
+         if (args.length > 2) {
+            stackKB = Integer.parseInt(args[2]);
+         }
+      } catch (NumberFormatException e) {
+         System.out.println(
+            "Error: depths, maxPrefixedDepth and stackKB must be integers: "
+               + e.getLocalizedMessage());
+         System.out.println(
+            "Usage: DeepNestingBenchmark [depths [maxPrefixedDepth [stackKB [reportFile]]]]");
+         System.exit(-1);
+      }
+      if (args.length > 3) {
+         reportFile = args[3];
+      }
+      try {
+         ObjectNode report = JsonNodeFactory.instance.objectNode();
+         report.put("javaVersion", System.getProperty("java.version"));
+         report.put("stackKB", stackKB);
+         // warm up the conversion code before timing
+         for (String[] shape : SHAPES) {
+            run(shape, 50, stackKB);
+         }
+         ArrayNode runs = report.putArray("runs");
+         for (String[] shape : SHAPES) {
+            boolean prefixed = "blockquote".equals(shape[0])
+               || "list".equals(shape[0]);
+            for (int depth : depths) {
+               if (prefixed && depth > maxPrefixedDepth) {
+                  continue;
+               }
+               runs.add(run(shape, depth, stackKB));
+            }
+         }
+         String json = s_mapper.writerWithDefaultPrettyPrinter()
+            .writeValueAsString(report);
+         System.out.println(json);
+         MDfromHTMLUtils.saveTextFile(reportFile, json);
+      } catch (Exception e) {
+         System.out.println("Error: Benchmark failed: " + e.getLocalizedMessage());
+         e.printStackTrace();
+         System.exit(-1);
+      }
+   }
+
+   /**
+    * Builds a document nesting the tags of the shape (cycling through them)
+    * to the given depth, with text, a link and inline styling at the levels
+    */
+   static String nestedDocument(String[] shape, int depth) {
+      int pairs = (shape.length - 1) / 2;
+      StringBuilder sb = new StringBuilder("<html><body>");
+      for (int i = 0; i < depth; i++) {
+         sb.append(shape[1 + (i % pairs) * 2]).append("level ").append(i);
+         if (i % 7 == 0) {
+            sb.append(" <a href=\"http://www.example.com/l").append(i % 3)
+               .append("\">link ").append(i).append("</a>");
+         }
+         if (i % 5 == 0) {
+            sb.append(" <b>bold</b> <i>italic</i> <code>x*y</code>");
+         }
+         sb.append(' ');
+      }
+      for (int i = depth - 1; i >= 0; i--) {
+         sb.append(" after ").append(i).append(shape[2 + (i % pairs) * 2]);
+      }
+      return sb.append("</body></html>").toString();
+   }
+
+   static ObjectNode run(String[] shape, int depth, int stackKB)
+      throws InterruptedException {
+      final String html = nestedDocument(shape, depth);
+      final Object[] outcome = new Object[1];
+      Thread thread = new Thread(null, new Runnable() {
+         @Override
+         public void run() {
+            try {
+               outcome[0] = new Remark(Options.multiMarkdown()).convert(html,
+                  URL);
+            } catch (Throwable t) {
+               outcome[0] = t;
+            }
+         }
+      }, "deep-nesting", stackKB * 1024L);
+      long start = System.nanoTime();
+      thread.start();
+      thread.join();
+      long elapsedNanos = System.nanoTime() - start;
+      ObjectNode result = JsonNodeFactory.instance.objectNode();
+      result.put("shape", shape[0]);
+      result.put("depth", depth);
+      result.put("elapsedMillis", elapsedNanos / 1000000L);
+      String status = null;
+      if (outcome[0] instanceof Throwable) {
+         status = outcome[0].getClass().getSimpleName();
+      } else {
+         status = "converted";
+         result.put("markdownLength", ((String) outcome[0]).length());
+      }
+      result.put("status", status);
+      System.out.println(shape[0] + " " + depth + ": " + status + " in "
+         + result.get("elapsedMillis") + " ms");
+      return result;
+   }
+}
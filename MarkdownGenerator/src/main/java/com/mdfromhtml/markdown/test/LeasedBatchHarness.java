@@ -0,0 +1,246 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.markdown.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mdfromhtml.core.MDfromHTMLUtils;
+import com.mdfromhtml.core.MDfromHTMLWorkLeases;
+import com.mdfromhtml.markdown.transform.GetMarkdownFromHTML;
+
+/**
+ * Exercises coordinated batch runs by launching several GetMarkdownFromHTML
+ * worker processes against a temporary copy of the captureArray json files
+ * in the input directory. Before the workers start, the lease of the first
+ * batch is planted as if held by a worker that crashed, and optionally one
+ * worker is killed partway through the run, so the remaining workers must
+ * steal the expired leases. The markdown of the coordinated run is compared
+ * with that of a single process run, and the merged run report is checked to
+ * account for every file. PASS or FAIL is printed with the report.
+ * <p>
+ * Run it from the MarkdownGenerator directory (so
+ * ./properties/HTML_Filters.json is found). The workers are launched with
+ * this JVM's class path.
+ *
+ * @author Nathaniel Mills
+ */
+public class LeasedBatchHarness {
+
+   static ObjectMapper s_mapper = new ObjectMapper();
+
+   /**
+    * @param args
+    *           inputPath (directory of captureArray json files), copies of
+    *           each file in the corpus (default 10), workers (default 3),
+    *           leaseSeconds (default 1), filesPerBatch (default 2), and
+    *           killAfterMillis after which the last worker is killed (default
+    *           0 to let all workers finish)
+    */
+   public static void main(String[] args) {
+      if (args.length < 1) {
+         System.out.println(
+            "Usage: LeasedBatchHarness inputPath [copies [workers [leaseSeconds [filesPerBatch [killAfterMillis]]]]]");
+         System.exit(-1);
+      }
+      int copies = 10;
+      int workers = 3;
+      int leaseSeconds = 1;
+      int filesPerBatch = 2;
+      long killAfterMillis = 0L;
+      try {
+         if (args.length > 1) {
+            copies = Integer.parseInt(args[1]);
+         }
+         if (args.length > 2) {
+            workers = Integer.parseInt(args[2]);
+         }
+         if (args.length > 3) {
+            leaseSeconds = Integer.parseInt(args[3]);
+         }
+         if (args.length > 4) {
+            filesPerBatch = Integer.parseInt(args[4]);
+         }
+         if (args.length > 5) {
+            killAfterMillis = Long.parseLong(args[5]);
+         }
+      } catch (NumberFormatException e) {
+         System.out.println(
+            "Error: copies, workers, leaseSeconds, filesPerBatch and killAfterMillis must be integers: "
+               + e.getLocalizedMessage());
+         System.exit(-1);
+      }
+      Path work = null;
+      boolean passed = false;
+      try {
+         work = Files.createTempDirectory("mdfromhtml_leases");
+         Path corpus = Files.createDirectory(work.resolve("corpus"));
+         Path single = Files.createDirectory(work.resolve("single"));
+         Path shared = Files.createDirectory(work.resolve("shared"));
+         Path coordination = work.resolve("coordination");
+         List<Path> sources = MDfromHTMLUtils.listSourceFiles(
+            FileSystems.getDefault().getPath(args[0]), "json");
+         int files = 0;
+         for (int copy = 1; copy <= copies; copy++) {
+            for (Path source : sources) {
+               String name = source.getFileName().toString();
+               Files.copy(source, corpus.resolve(name.substring(0,
+                  name.length() - ".json".length()) + "_"
+                  + MDfromHTMLUtils.padLeftZero(copy, 4) + ".json"));
+               files++;
+            }
+         }
+         System.out.println("Converting " + files + " files in " + corpus);
+         long start = System.nanoTime();
+         int exitVal = launch(corpus, single, work.resolve("single.log"),
+            new ArrayList<String>()).waitFor();
+         System.out.println("Single process run: " + exitVal + " in "
+            + (System.nanoTime() - start) / 1000000L + " ms");
+
+         // a lease left behind by a crashed worker
+         Path leases = Files
+            .createDirectories(coordination.resolve(MDfromHTMLWorkLeases.LEASES_DIR));
+         Files.write(leases.resolve("batch_00000.lease"),
+            "{\"worker\":\"crashed\",\"token\":\"stale\"}"
+               .getBytes(MDfromHTMLUtils.UTF8_CHARSET));
+
+         start = System.nanoTime();
+         List<Process> processes = new ArrayList<Process>();
+         for (int worker = 1; worker <= workers; worker++) {
+            processes.add(launch(corpus, shared,
+               coordination.resolve("worker" + worker + ".log"),
+               Arrays.asList(
+                  "-D" + MDfromHTMLWorkLeases.COORDINATION_DIR_PROPERTY + "="
+                     + coordination,
+                  "-D" + MDfromHTMLWorkLeases.WORKER_ID_PROPERTY + "=worker"
+                     + worker,
+                  "-D" + MDfromHTMLWorkLeases.LEASE_SECONDS_PROPERTY + "="
+                     + leaseSeconds,
+                  "-D" + MDfromHTMLWorkLeases.LEASE_BATCH_FILES_PROPERTY + "="
+                     + filesPerBatch)));
+         }
+         if (killAfterMillis > 0L && workers > 1) {
+            Process victim = processes.get(processes.size() - 1);
+            if (victim.waitFor(killAfterMillis,
+               TimeUnit.MILLISECONDS) == false) {
+               victim.destroyForcibly();
+               System.out.println("Killed worker" + workers + " after "
+                  + killAfterMillis + " ms");
+            }
+         }
+         for (int worker = 1; worker <= workers; worker++) {
+            System.out.println("worker" + worker + " exited with "
+               + processes.get(worker - 1).waitFor());
+         }
+         System.out.println("Coordinated run of " + workers + " workers in "
+            + (System.nanoTime() - start) / 1000000L + " ms");
+
+         JsonNode report = s_mapper.readTree(
+            coordination.resolve(MDfromHTMLWorkLeases.REPORT_FILE).toFile());
+         System.out.println(s_mapper.writerWithDefaultPrettyPrinter()
+            .writeValueAsString(report));
+         List<String> problems = new ArrayList<String>();
+         if (report.path("files").asInt() != files) {
+            problems.add("report accounts for " + report.path("files").asInt()
+               + " of " + files + " files");
+         }
+         if (report.path("failed").size() != 0
+            || report.path("errors").size() != 0) {
+            problems.add("report lists failed files or batch errors");
+         }
+         if (report.path("steals").asInt() < 1) {
+            problems.add("the planted lease was not stolen");
+         }
+         int compared = 0;
+         for (File expected : single.toFile().listFiles()) {
+            if (expected.getName().endsWith(".md") == false) {
+               continue;
+            }
+            compared++;
+            Path actual = shared.resolve(expected.getName());
+            if (Files.exists(actual) == false) {
+               problems.add(expected.getName() + " is missing");
+            } else if (Arrays.equals(Files.readAllBytes(expected.toPath()),
+               Files.readAllBytes(actual)) == false) {
+               problems.add(expected.getName() + " differs");
+            }
+         }
+         if (compared == 0) {
+            problems.add("the single process run produced no markdown");
+         }
+         System.out.println("Compared " + compared + " markdown files");
+         for (String problem : problems) {
+            System.out.println("Problem: " + problem);
+         }
+         if (problems.isEmpty() == false) {
+            // the logs are removed with the temporary directory
+            for (int worker = 1; worker <= workers; worker++) {
+               System.out.println("worker" + worker + " log:\n"
+                  + new String(Files.readAllBytes(coordination
+                     .resolve("worker" + worker + ".log")),
+                     MDfromHTMLUtils.UTF8_CHARSET));
+            }
+         }
+         passed = problems.isEmpty();
+      } catch (Exception e) {
+         System.out.println("Error: Harness failed: " + e.getLocalizedMessage());
+         e.printStackTrace();
+      } finally {
+         BatchExecutionBenchmark.delete(work);
+      }
+      System.out.println(passed ? "PASS" : "FAIL");
+      System.exit(passed ? 0 : -1);
+   }
+
+   /**
+    * Launch GetMarkdownFromHTML in a new JVM using this JVM's class path and
+    * working directory
+    */
+   static Process launch(Path input, Path output, Path log,
+      List<String> properties) throws IOException {
+      List<String> command = new ArrayList<String>();
+      command.add(System.getProperty("java.home") + File.separator + "bin"
+         + File.separator + "java");
+      command.addAll(properties);
+      command.add("-cp");
+      command.add(System.getProperty("java.class.path"));
+      command.add(GetMarkdownFromHTML.class.getName());
+      command.add(input.toString());
+      command.add(output.toString());
+      command.add("true");
+      command.add("false");
+      ProcessBuilder builder = new ProcessBuilder(command);
+      builder.redirectErrorStream(true);
+      builder.redirectOutput(log.toFile());
+      return builder.start();
+   }
+}
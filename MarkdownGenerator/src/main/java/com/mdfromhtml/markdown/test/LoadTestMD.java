@@ -0,0 +1,529 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.markdown.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.api.json.JSON;
+import com.api.json.JSONObject;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.mdfromhtml.core.MDfromHTMLHistogram;
+import com.mdfromhtml.core.MDfromHTMLUtils;
+
+/**
+ * Load generator replaying the captures in captureArray json files against
+ * the mdfromhtml/getMarkdown service running on this machine, either at a
+ * fixed arrival rate (requests per second) or with a fixed number of
+ * concurrent clients. After an optional warmup, it reports the throughput,
+ * latency percentiles, error counts and rate, and the server's heap
+ * high-water mark and conversion phase metrics (from the MDfromHTMLMetrics
+ * services) as JSON written to the report file and the console.
+ * <p>
+ * Request bodies are serialized once before the run so the client adds as
+ * little overhead as possible. In rate mode, latency is measured from when
+ * each request was scheduled to be sent, so a server that falls behind is
+ * not hidden by requests waiting to be sent.
+ * 
+ * @author Nathaniel Mills
+ */
+public class LoadTestMD {
+
+   /**
+    * Ways the load is applied
+    */
+   public enum Mode {
+      /**
+       * requests are sent at a fixed number of requests per second
+       */
+      RATE,
+      /**
+       * a fixed number of clients each send their next request as soon as
+       * the prior response is received
+       */
+      CONCURRENCY
+   }
+
+   /**
+    * Counts and latencies gathered during a run (or warmup)
+    */
+   static class Results {
+      LongAdder _bytesReceived = new LongAdder();
+      LongAdder _bytesSent = new LongAdder();
+      LongAdder _exceptionErrors = new LongAdder();
+      LongAdder _httpErrors = new LongAdder();
+      MDfromHTMLHistogram _latencies = new MDfromHTMLHistogram();
+      LongAdder _serviceErrors = new LongAdder();
+      LongAdder _succeeded = new LongAdder();
+   }
+
+   /**
+    * size of the thread pool sending requests in rate mode
+    */
+   static public final int RATE_MODE_THREADS = 256;
+
+   /**
+    * @param args
+    *           inputPath (directory of captureArray json files), mode (rate
+    *           or concurrency), level (requests per second, or number of
+    *           concurrent clients), durationSeconds (default 60),
+    *           warmupSeconds (default 10), reportFile (default
+    *           ./loadtest_report.json), propertiesFile (default
+    *           ./properties/MDfromHTMLWebService.properties), and profile
+    *           (full or lean, default full)
+    */
+   public static void main(String[] args) {
+      int exitVal = 0;
+      if (args.length < 3) {
+         System.out.println("Usage: LoadTestMD inputPath rate|concurrency "
+            + "level [durationSeconds [warmupSeconds [reportFile "
+            + "[propertiesFile [profile]]]]]");
+         System.exit(-1);
+      }
+      try {
+         LoadTestMD pgm = new LoadTestMD(
+            args.length > 6 ? args[6]
+               : "." + File.separator + "properties" + File.separator
+                  + "MDfromHTMLWebService.properties",
+            Mode.valueOf(args[1].trim().toUpperCase()),
+            Integer.parseInt(args[2]));
+         int duration = args.length > 3 ? Integer.parseInt(args[3]) : 60;
+         int warmup = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+         String reportFile = args.length > 5 ? args[5]
+            : "." + File.separator + "loadtest_report.json";
+         String profile = args.length > 7 ? args[7] : null;
+         JSONObject HTMLFilters = MDfromHTMLUtils.loadJSONFile("."
+            + File.separator + "properties" + File.separator
+            + "HTML_Filters.json");
+         pgm.loadRequests(args[0], HTMLFilters, profile);
+         System.out.println("Loaded " + pgm._requests.size()
+            + " requests. Sending to " + pgm._serviceURL + " with "
+            + pgm._mode.name().toLowerCase() + " " + pgm._level + " for "
+            + warmup + " warmup and " + duration + " measured seconds.");
+         JSONObject report = pgm.run(duration, warmup);
+         report.put("input", args[0]);
+         report.put("profile", profile == null ? "full" : profile);
+         String reportString = report.serialize(true);
+         Files.write(new File(reportFile).toPath(),
+            reportString.getBytes(MDfromHTMLUtils.UTF8_CHARSET));
+         System.out.println(reportString);
+      } catch (Exception e) {
+         System.out.println("Error: Load test failed: "
+            + e.getLocalizedMessage());
+         exitVal = -1;
+      }
+      System.exit(exitVal);
+   }
+
+   String _authorization;
+   int _level;
+   String _metricsURL;
+   Mode _mode;
+   AtomicLong _nextRequest = new AtomicLong();
+   List<byte[]> _requests = new ArrayList<byte[]>();
+   String _resetMetricsURL;
+   ObjectMapper _mapper = new ObjectMapper();
+   long _sampledHeapMax = -1L;
+   String _serviceURL;
+   int _timeout;
+
+   /**
+    * Constructor
+    *
+    * @param propertiesFile
+    *           the web service properties file identifying the service
+    * @param mode
+    *           how the load is applied
+    * @param level
+    *           requests per second (rate mode) or concurrent clients
+    *           (concurrency mode)
+    * @throws Exception
+    *            if the properties can not be loaded, or they do not refer to
+    *            a service on this machine
+    */
+   public LoadTestMD(String propertiesFile, Mode mode, int level)
+      throws Exception {
+      Properties props = new Properties();
+      try (FileInputStream fis = new FileInputStream(propertiesFile)) {
+         props.load(fis);
+      }
+      String hostname = props.getProperty("hostname", "localhost");
+      if (InetAddress.getByName(hostname).isLoopbackAddress() == false) {
+         throw new Exception("The hostname \"" + hostname
+            + "\" is not this machine. Only local services may be tested.");
+      }
+      if (level < 1) {
+         throw new Exception("The level must be at least 1.");
+      }
+      String stem = props.getProperty("protocol", "http") + "://" + hostname
+         + ":" + props.getProperty("port", "9080") + "/"
+         + props.getProperty("servletname", "MDfromHTMLWebServices") + "/"
+         + props.getProperty("version", "v1") + "/";
+      _serviceURL = stem + "mdfromhtml/getMarkdown";
+      _metricsURL = stem + "MDfromHTMLMetrics";
+      _resetMetricsURL = stem + "mdfromhtml/getMetrics";
+      _authorization = "Basic " + Base64.getEncoder()
+         .encodeToString((props.getProperty("username", "mask") + ":"
+            + props.getProperty("password", "password"))
+               .getBytes(MDfromHTMLUtils.UTF8_CHARSET));
+      _timeout = Integer.parseInt(props.getProperty("apitimeout", "100000"));
+      _mode = mode;
+      _level = level;
+   }
+
+   /**
+    * Serialize a getMarkdown request for each capture in the json files
+    *
+    * @param inputPath
+    *           directory containing the captureArray json files
+    * @param HTMLFilters
+    *           the filters sent with each request
+    * @param profile
+    *           the response profile requested, or null for the default
+    * @throws Exception
+    *            if the files can not be read or contain no captures
+    */
+   void loadRequests(String inputPath, JSONObject HTMLFilters, String profile)
+      throws Exception {
+      JsonNode filters = _mapper.readTree(HTMLFilters.toString());
+      List<Path> files = MDfromHTMLUtils.listSourceFiles(
+         FileSystems.getDefault().getPath(inputPath), "json");
+      for (Path file : files) {
+         JsonNode captures = _mapper.readTree(file.toFile())
+            .get("captureArray");
+         if (captures == null || captures.isArray() == false) {
+            System.out.println("Skipping " + file
+               + " as it has no \"captureArray\".");
+            continue;
+         }
+         for (JsonNode capture : (ArrayNode) captures) {
+            if (capture.get("html") == null || capture.get("url") == null) {
+               continue;
+            }
+            ObjectNode request = JsonNodeFactory.instance.objectNode();
+            request.set("html", capture.get("html"));
+            request.set("url", capture.get("url"));
+            request.set("HTMLFilters", filters);
+            if (profile != null) {
+               request.put("profile", profile);
+            }
+            ObjectNode params = JsonNodeFactory.instance.objectNode();
+            params.set("request", request);
+            _requests.add(_mapper.writeValueAsBytes(params));
+         }
+      }
+      if (_requests.isEmpty()) {
+         throw new Exception("No captures were found in " + inputPath);
+      }
+   }
+
+   /**
+    * Apply the load for the warmup then measured periods
+    *
+    * @param durationSeconds
+    *           seconds the load is measured
+    * @param warmupSeconds
+    *           seconds the load is applied before being measured
+    * @return the report of the measured period
+    * @throws Exception
+    *            if the load can not be applied
+    */
+   JSONObject run(int durationSeconds, int warmupSeconds) throws Exception {
+      if (warmupSeconds > 0) {
+         apply(new Results(), warmupSeconds * 1000000000L);
+      }
+      // restart the server's metrics so they cover only the measured period
+      JSONObject resetParams = new JSONObject();
+      JSONObject resetRequest = new JSONObject();
+      resetRequest.put("reset", true);
+      resetParams.put("request", resetRequest);
+      sendMetricsRequest(_resetMetricsURL, resetParams);
+      Results results = new Results();
+      String started = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ")
+         .format(new Date());
+      Thread heapSampler = new Thread(() -> sampleServerHeap(),
+         "MDfromHTML-heap-sampler");
+      heapSampler.setDaemon(true);
+      heapSampler.start();
+      long elapsed = apply(results, durationSeconds * 1000000000L);
+      heapSampler.interrupt();
+      heapSampler.join();
+      JSONObject serverMetrics = sendMetricsRequest(_metricsURL, null);
+
+      JSONObject report = new JSONObject();
+      report.put("started", started);
+      report.put("service", _serviceURL);
+      report.put("mode", _mode.name().toLowerCase());
+      report.put("level", _level);
+      report.put("warmupSeconds", warmupSeconds);
+      report.put("durationSeconds", durationSeconds);
+      long succeeded = results._succeeded.sum();
+      long httpErrors = results._httpErrors.sum();
+      long serviceErrors = results._serviceErrors.sum();
+      long exceptionErrors = results._exceptionErrors.sum();
+      long completed = succeeded + httpErrors + serviceErrors
+         + exceptionErrors;
+      report.put("requests", completed);
+      report.put("succeeded", succeeded);
+      JSONObject errors = new JSONObject();
+      errors.put("http", httpErrors);
+      errors.put("service", serviceErrors);
+      errors.put("exception", exceptionErrors);
+      report.put("errors", errors);
+      report.put("errorRate", completed == 0L ? 0.0
+         : (double) (completed - succeeded) / (double) completed);
+      report.put("throughputPerSecond",
+         (double) completed * 1000000000.0 / (double) elapsed);
+      report.put("bytesSent", results._bytesSent.sum());
+      report.put("bytesReceived", results._bytesReceived.sum());
+      report.put("latency", results._latencies.toJSON());
+      JSONObject server = new JSONObject();
+      server.put("heapSampledMaxBytes", _sampledHeapMax);
+      JSONObject metrics = getMetrics(serverMetrics);
+      if (metrics != null) {
+         JSONObject heap = (JSONObject) metrics.get("heap");
+         if (heap != null) {
+            server.put("heapPeakUsedBytes", heap.get("peakUsedBytes"));
+            server.put("heapMaxBytes", heap.get("maxBytes"));
+         }
+         server.put("metrics", metrics);
+      }
+      report.put("server", server);
+      JSONObject client = new JSONObject();
+      client.put("javaVersion", System.getProperty("java.version"));
+      client.put("availableProcessors",
+         Runtime.getRuntime().availableProcessors());
+      report.put("client", client);
+      return report;
+   }
+
+   /**
+    * Apply the load for the supplied period
+    *
+    * @param results
+    *           receives the counts and latencies
+    * @param periodNanos
+    *           how long the load is applied
+    * @return the nanoseconds taken to apply the load and receive the
+    *         outstanding responses
+    * @throws InterruptedException
+    *            if interrupted waiting for responses
+    */
+   long apply(Results results, long periodNanos) throws InterruptedException {
+      long start = System.nanoTime();
+      long end = start + periodNanos;
+      ExecutorService pool = Executors.newFixedThreadPool(
+         _mode == Mode.RATE ? RATE_MODE_THREADS : _level);
+      if (_mode == Mode.RATE) {
+         long interval = 1000000000L / _level;
+         long intended = start;
+         while (intended < end) {
+            long wait = intended - System.nanoTime();
+            if (wait > 0L) {
+               LockSupport.parkNanos(wait);
+            }
+            final long scheduled = intended;
+            pool.execute(() -> send(results, scheduled));
+            intended += interval;
+         }
+      } else {
+         for (int i = 0; i < _level; i++) {
+            pool.execute(() -> {
+               while (System.nanoTime() < end) {
+                  send(results, System.nanoTime());
+               }
+            });
+         }
+      }
+      pool.shutdown();
+      pool.awaitTermination(_timeout + periodNanos / 1000000L,
+         TimeUnit.MILLISECONDS);
+      return System.nanoTime() - start;
+   }
+
+   /**
+    * Send the next request, recording its outcome and latency
+    *
+    * @param results
+    *           receives the outcome and latency
+    * @param scheduled
+    *           System.nanoTime() when the request was to be sent
+    */
+   void send(Results results, long scheduled) {
+      byte[] body = _requests.get(
+         (int) (_nextRequest.getAndIncrement() % _requests.size()));
+      try {
+         byte[] response = post(_serviceURL, body);
+         results._bytesSent.add(body.length);
+         if (response == null) {
+            results._httpErrors.increment();
+         } else {
+            results._bytesReceived.add(response.length);
+            JsonNode responseNode = _mapper.readTree(response);
+            JsonNode resultsNode = responseNode.get("results");
+            if (resultsNode == null || resultsNode.get("errorMsg") != null) {
+               results._serviceErrors.increment();
+            } else {
+               results._succeeded.increment();
+            }
+         }
+      } catch (Exception e) {
+         results._exceptionErrors.increment();
+      }
+      results._latencies.recordValue(System.nanoTime() - scheduled);
+   }
+
+   /**
+    * POST the body, reading the complete response so the connection can be
+    * reused
+    *
+    * @param url
+    *           where the request is sent
+    * @param body
+    *           the serialized JSON request
+    * @return the response body, or null if the response status was not
+    *         successful
+    * @throws IOException
+    *            if the request can not be sent or the response read
+    */
+   byte[] post(String url, byte[] body) throws IOException {
+      HttpURLConnection connection = (HttpURLConnection) new URL(url)
+         .openConnection();
+      connection.setRequestMethod(body == null ? "GET" : "POST");
+      connection.setRequestProperty("Authorization", _authorization);
+      connection.setRequestProperty("Content-Type", "application/json");
+      connection.setConnectTimeout(_timeout);
+      connection.setReadTimeout(_timeout);
+      if (body != null) {
+         connection.setDoOutput(true);
+         connection.setFixedLengthStreamingMode(body.length);
+         try (OutputStream os = connection.getOutputStream()) {
+            os.write(body);
+         }
+      }
+      int responseCode = connection.getResponseCode();
+      boolean success = responseCode >= 200 && responseCode < 300;
+      InputStream is = success ? connection.getInputStream()
+         : connection.getErrorStream();
+      ByteArrayOutputStream response = new ByteArrayOutputStream();
+      if (is != null) {
+         try {
+            byte[] buffer = new byte[16 * 1024];
+            int len;
+            while ((len = is.read(buffer)) != -1) {
+               response.write(buffer, 0, len);
+            }
+         } finally {
+            is.close();
+         }
+      }
+      return success ? response.toByteArray() : null;
+   }
+
+   /**
+    * @param url
+    *           the metrics service
+    * @param params
+    *           the request for a POST, or null for a GET
+    * @return the response, or null if the metrics are unavailable
+    */
+   JSONObject sendMetricsRequest(String url, JSONObject params) {
+      try {
+         byte[] response = post(url, params == null ? null
+            : params.toString().getBytes(MDfromHTMLUtils.UTF8_CHARSET));
+         if (response != null) {
+            return (JSONObject) JSON
+               .parse(new String(response, MDfromHTMLUtils.UTF8_CHARSET));
+         }
+      } catch (Exception e) {
+         // metrics are optional
+      }
+      return null;
+   }
+
+   /**
+    * @param response
+    *           response from the metrics service
+    * @return the metrics in the response, or null if none are present
+    */
+   JSONObject getMetrics(JSONObject response) {
+      if (response != null) {
+         Object responseObj = response.get("response");
+         if (responseObj instanceof JSONObject) {
+            Object metrics = ((JSONObject) responseObj).get("metrics");
+            if (metrics instanceof JSONObject) {
+               return (JSONObject) metrics;
+            }
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Sample the server's used heap each second until interrupted, keeping
+    * the largest value seen
+    */
+   void sampleServerHeap() {
+      while (Thread.currentThread().isInterrupted() == false) {
+         JSONObject metrics = getMetrics(sendMetricsRequest(_metricsURL, null));
+         if (metrics != null && metrics.get("heap") instanceof JSONObject) {
+            Object used = ((JSONObject) metrics.get("heap")).get("usedBytes");
+            if (used instanceof Number) {
+               _sampledHeapMax = Math.max(_sampledHeapMax,
+                  ((Number) used).longValue());
+            }
+         }
+         try {
+            Thread.sleep(1000L);
+         } catch (InterruptedException e) {
+            break;
+         }
+      }
+   }
+}
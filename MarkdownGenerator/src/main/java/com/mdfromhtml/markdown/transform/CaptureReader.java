@@ -0,0 +1,219 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.markdown.transform;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Reads the captures of a json file one at a time using the Jackson streaming
+ * API, so only the current capture (its html, url, etc.) is held in memory
+ * rather than the whole file. The captures are the objects in the file's
+ * "captureArray", or the single object of its "captureDict". Other fields of
+ * the file are skipped without being parsed into objects.
+ * <p>
+ * A capture that is not an object, or is missing its "html" or "url", is
+ * returned with an error describing the problem so callers can report it and
+ * continue with the captures that follow.
+ *
+ * @author Nathaniel Mills
+ */
+public class CaptureReader implements Closeable {
+
+   static public final String FIELD_CAPTURE_DICT = "captureDict";
+
+   /**
+    * A capture read from the file
+    */
+   static public class Capture {
+      String _error;
+      String _html = null;
+      int _number;
+      ObjectNode _object = null;
+      String _url = null;
+
+      Capture(int number, JsonNode node, String description) {
+         _number = number;
+         if (node == null || node.isObject() == false) {
+            _error = description + " is not an object.";
+            return;
+         }
+         _object = (ObjectNode) node;
+         JsonNode temp = _object.get("html");
+         if (temp == null) {
+            _error = description + " is missing the \"html\" key.";
+            return;
+         }
+         _html = temp.asText();
+         temp = _object.get("url");
+         if (temp == null) {
+            _error = description + " is missing the \"url\" key.";
+            return;
+         }
+         _url = temp.asText();
+      }
+
+      /**
+       * @return description of the problem with this capture, or null if it
+       *         has its html and url
+       */
+      public String getError() {
+         return _error;
+      }
+
+      /**
+       * @return the capture's html (null if missing)
+       */
+      public String getHTML() {
+         return _html;
+      }
+
+      /**
+       * @return the capture's 1-based position in the file
+       */
+      public int getNumber() {
+         return _number;
+      }
+
+      /**
+       * @return the capture's object (null if it is not an object)
+       */
+      public ObjectNode getObject() {
+         return _object;
+      }
+
+      /**
+       * @return the url the html was captured from (null if missing)
+       */
+      public String getURL() {
+         return _url;
+      }
+
+      /**
+       * @return true if the capture has its html and url
+       */
+      public boolean isValid() {
+         return _error == null;
+      }
+   }
+
+   static final ObjectMapper MAPPER = new ObjectMapper();
+
+   boolean _inArray = false;
+   boolean _done = false;
+   String _fileName;
+   boolean _foundCaptures = false;
+   int _number = 0;
+   JsonParser _parser;
+
+   /**
+    * Constructor
+    *
+    * @param file
+    *           the json file containing the captures
+    * @throws IOException
+    *            if the file can not be opened
+    */
+   public CaptureReader(File file) throws IOException {
+      _fileName = file.toString();
+      _parser = MAPPER.getFactory().createParser(file);
+   }
+
+   /**
+    * Read the next capture
+    *
+    * @return the next capture, or null once all have been read
+    * @throws IOException
+    *            if the file can not be read or is not valid json (captures
+    *            already returned are unaffected)
+    */
+   public Capture next() throws IOException {
+      if (_done) {
+         return null;
+      }
+      if (_inArray) {
+         JsonToken token = _parser.nextToken();
+         if (token == JsonToken.END_ARRAY) {
+            _inArray = false;
+         } else if (token == null) {
+            throw new IOException(
+               _fileName + " ended within the \"captureArray\".");
+         } else {
+            return readCapture("the [" + _number + "] element of the "
+               + GetMarkdownFromHTML.FIELD_CAPTURE_ARRAY);
+         }
+      }
+      if (_parser.getCurrentToken() == null) {
+         if (_parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException(_fileName + " does not contain an object.");
+         }
+      }
+      // find the next captureArray or captureDict among the top level fields
+      JsonToken token;
+      while ((token = _parser.nextToken()) == JsonToken.FIELD_NAME) {
+         String field = _parser.getCurrentName();
+         token = _parser.nextToken();
+         if (GetMarkdownFromHTML.FIELD_CAPTURE_ARRAY.equals(field)
+            && token == JsonToken.START_ARRAY) {
+            _foundCaptures = true;
+            _inArray = true;
+            return next();
+         }
+         if (FIELD_CAPTURE_DICT.equals(field)) {
+            _foundCaptures = true;
+            return readCapture("the " + FIELD_CAPTURE_DICT);
+         }
+         _parser.skipChildren();
+      }
+      if (token != JsonToken.END_OBJECT) {
+         throw new IOException(_fileName + " ended within its object.");
+      }
+      _done = true;
+      return null;
+   }
+
+   Capture readCapture(String description) throws IOException {
+      _number++;
+      JsonNode node = MAPPER.readTree(_parser);
+      return new Capture(_number, node, _fileName + " " + description);
+   }
+
+   /**
+    * @return true if a "captureArray" or "captureDict" has been found
+    */
+   public boolean foundCaptures() {
+      return _foundCaptures;
+   }
+
+   @Override
+   public void close() throws IOException {
+      _parser.close();
+   }
+}
@@ -28,14 +28,19 @@ import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 import com.api.json.JSON;
 import com.api.json.JSONArray;
 import com.api.json.JSONObject;
+import com.mdfromhtml.core.MDfromHTMLExecution;
 import com.mdfromhtml.core.MDfromHTMLUtils;
 
 /**
@@ -86,6 +91,10 @@ public class ExtractHTMLJSON {
             }
          }
          if (!pgm._interactive) {
+            pgm._execution = MDfromHTMLExecution.fromProperties();
+            if (pgm._thumbsucker) {
+               System.out.println("Using " + pgm._execution.describe());
+            }
             try {
                List<Path> files = MDfromHTMLUtils.listSourceFiles(
                   FileSystems.getDefault().getPath(pgm._inputPath.toString()),
@@ -96,12 +105,15 @@ public class ExtractHTMLJSON {
                      break;
                   }
                }
+               pgm.awaitSaves(0);
             } catch (Exception e) {
                System.out
                   .println("Error: Can not reference files with extension "
                      + pgm._ext + " in directory " + pgm._inputPath
                      + " reason: " + e.getLocalizedMessage());
                exitVal = -1;
+            } finally {
+               pgm._execution.close();
             }
          }
          if (pgm._thumbsucker) {
@@ -216,20 +228,64 @@ public class ExtractHTMLJSON {
                return;
       }
       try {
-         if (!filterContent(obj)) {
-            MDfromHTMLUtils.saveJSONFile(outputFileName, obj);
-            // System.out.println("Success: wrote file "+outputFileName);
-         } else {
-            MDfromHTMLUtils.saveJSONFile(outputFileName + ".rejected", obj);
-            // System.out.println("Failure: wrote file "+outputFileName);
-         }
-
+         // filtering must be done in file order to find duplicate urls, but
+         // the save can be done while the next object is read
+         final String saveFileName = filterContent(obj)
+            ? outputFileName + ".rejected"
+            : outputFileName;
+         final String reportFileName = outputFileName;
+         final JSONObject saveObj = obj;
+         saveLater(new Callable<Void>() {
+            @Override
+            public Void call() {
+               try {
+                  MDfromHTMLUtils.saveJSONFile(saveFileName, saveObj);
+               } catch (Exception e) {
+                  System.out.println("Can not save file " + reportFileName
+                     + "  Error: " + e.getLocalizedMessage());
+               }
+               return null;
+            }
+         });
       } catch (Exception e) {
          System.out.println("Can not save file " + outputFileName + "  Error: "
             + e.getLocalizedMessage());
       }
    }
 
+   /**
+    * Save on an I/O thread when an execution has been supplied, otherwise
+    * save on the calling thread. Waits for the oldest pending save once the
+    * execution's in flight limit is reached.
+    * 
+    * @param save
+    *           the work saving a file
+    * @throws Exception
+    *            if interrupted while waiting on a pending save
+    */
+   void saveLater(Callable<Void> save) throws Exception {
+      if (_execution == null) {
+         save.call();
+         return;
+      }
+      _pendingSaves.addLast(_execution.submitIO(save));
+      awaitSaves(_execution.getMaxInFlight());
+   }
+
+   /**
+    * Wait until no more than the specified number of saves are pending
+    * 
+    * @param maxPending
+    *           the number of saves allowed to remain pending
+    * @throws Exception
+    *            if interrupted while waiting on a pending save
+    */
+   void awaitSaves(int maxPending) throws Exception {
+      while (_pendingSaves.size() > maxPending) {
+         MDfromHTMLExecution.getResult(_pendingSaves.removeFirst());
+      }
+   }
+
    /**
     * Checks the html for filter strings and returns false of none are found. If
     * no html nor captureArray then returns true. If the capture array contains
@@ -467,5 +523,7 @@ public class ExtractHTMLJSON {
    int _fileCounter = 1;
    List<String> _filters = new ArrayList<String>();
    Set<String>_processedURLs = new HashSet<String>();
+   MDfromHTMLExecution _execution = null;
+   Deque<Future<Void>> _pendingSaves = new ArrayDeque<Future<Void>>();
 
 }
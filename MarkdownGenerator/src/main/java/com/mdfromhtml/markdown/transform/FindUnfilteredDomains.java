@@ -22,6 +22,7 @@
 
 package com.mdfromhtml.markdown.transform;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -74,7 +75,8 @@ public class FindUnfilteredDomains {
             System.out.println("Loading HTML_Filters.json");
          }
          JSONObject htmlfilters = MDfromHTMLUtils.loadJSONFile(htmlFiltersFilename);
-         List<String>files2urls = MDfromHTMLUtils.loadTextFile(fileToURLFilename);
+         // read the urls a line at a time rather than loading the file
+         BufferedReader files2urls = MDfromHTMLUtils.openTextFile(fileToURLFilename);
          String[] parts = new String[0];
          String url="";
          String domain="";
@@ -83,11 +85,15 @@ public class FindUnfilteredDomains {
          if (!quietMode) {
             System.out.println("Processing URLs (. == 50 urls processed)\n");
          }
-         for (String file_url : files2urls) {
+         String file_url = null;
+         while ((file_url = files2urls.readLine()) != null) {
             if (file_url.trim().startsWith("#")) {
                continue;
             }
             parts = file_url.split("\t");
+            if (parts.length < 2) {
+               continue;
+            }
             url = parts[1];
             domain = Remark.getDomain(url);
             if (htmlfilters.get(domain)==null) {
@@ -103,6 +109,7 @@ public class FindUnfilteredDomains {
             }
             urlCount++;
          }
+         MDfromHTMLUtils.closeTextFile(files2urls);
          if (!quietMode) {
             System.out.println("\n");
          }
@@ -25,18 +25,24 @@ package com.mdfromhtml.markdown.transform;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.nio.file.FileSystems;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
@@ -50,12 +56,28 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.mdfromhtml.core.MDfromHTMLExecution;
+import com.mdfromhtml.core.MDfromHTMLMetrics;
+import com.mdfromhtml.core.MDfromHTMLRunManifest;
 import com.mdfromhtml.core.MDfromHTMLUtils;
+import com.mdfromhtml.core.MDfromHTMLWorkLeases;
+import com.mdfromhtml.markdown.output.DeferredOutputSink;
+import com.mdfromhtml.markdown.output.LooseFileOutputSink;
+import com.mdfromhtml.markdown.recorder.ConversionRecorder;
+import com.mdfromhtml.markdown.output.OutputKind;
+import com.mdfromhtml.markdown.output.OutputMode;
+import com.mdfromhtml.markdown.output.OutputSink;
+import com.mdfromhtml.markdown.output.RecordingOutputSink;
+import com.mdfromhtml.markdown.output.ShardedArchiveOutputSink;
 import com.mdfromhtml.remark.utils.CleanupMarkdown;
+import com.mdfromhtml.remark.utils.HTMLFormatter;
 import com.overzealous.remark.Options;
 import com.overzealous.remark.Remark;
 import com.overzealous.remark.convert.DocumentConverter;
 import com.overzealous.remark.convert.ProvenanceWriter;
+import com.overzealous.remark.util.ArchivePayloadStore;
+import com.overzealous.remark.util.DirectoryPayloadStore;
+import com.overzealous.remark.util.PayloadStore;
 
 /**
  * Given an input directory containing json files with an array of objects, each
@@ -95,13 +117,138 @@ public class GetMarkdownFromHTML {
       return result;
    }
 
+   /**
+    * response field holding the captured html, its text content and url
+    */
+   static public final String FIELD_CAPTURE_ARRAY = "captureArray";
+   /**
+    * response field holding the formatted html
+    */
+   static public final String FIELD_FORMATTED_HTML = "formattedHTML";
+   /**
+    * response field holding the HTML filters used for the conversion
+    */
+   static public final String FIELD_HTML_FILTERS = "HTMLFilters";
+   /**
+    * response field holding the generated markdown
+    */
+   static public final String FIELD_MARKDOWN = "markdown";
+   /**
+    * response field holding the html to markdown provenance
+    */
+   static public final String FIELD_PROVENANCE = "provenance";
+   /**
+    * response field echoing whether provenance was returned
+    */
+   static public final String FIELD_RETURN_PROVENANCE = "returnProvenance";
+   /**
+    * response field holding the url used to resolve relative links
+    */
+   static public final String FIELD_URL = "url";
+
+   /**
+    * fields returned by the full profile (the default)
+    */
+   static public final Set<String> FULL_PROFILE_FIELDS = Collections
+      .unmodifiableSet(new HashSet<String>(Arrays.asList(FIELD_CAPTURE_ARRAY,
+         FIELD_HTML_FILTERS, FIELD_MARKDOWN, FIELD_PROVENANCE,
+         FIELD_RETURN_PROVENANCE, FIELD_URL)));
+
+   /**
+    * fields returned by the lean profile
+    */
+   static public final Set<String> LEAN_PROFILE_FIELDS = Collections
+      .unmodifiableSet(
+         new HashSet<String>(Arrays.asList(FIELD_MARKDOWN, FIELD_URL)));
+
+   /**
+    * all fields that may be requested
+    */
+   static public final Set<String> RESPONSE_FIELDS = Collections
+      .unmodifiableSet(new HashSet<String>(Arrays.asList(FIELD_CAPTURE_ARRAY,
+         FIELD_FORMATTED_HTML, FIELD_HTML_FILTERS, FIELD_MARKDOWN,
+         FIELD_PROVENANCE, FIELD_RETURN_PROVENANCE, FIELD_URL)));
+
+   /**
+    * Determine which fields of the response are to be computed and returned.
+    * The request may name a "profile" of "full" (the default, returning
+    * everything except the formatted html) or "lean" (returning only the
+    * markdown and url), or list the wanted fields in a "fields" array. The
+    * "returnProvenance" and "returnFormattedHTML" booleans, when present,
+    * add or remove the provenance and formatted html respectively.
+    * 
+    * @param htmlObject
+    *           the request
+    * @return the names of the fields to be returned
+    * @throws IllegalArgumentException
+    *            if the profile or a field name is not recognized
+    */
+   static Set<String> getResponseFields(ObjectNode htmlObject) {
+      Set<String> fields = new HashSet<String>(FULL_PROFILE_FIELDS);
+      JsonNode test = htmlObject.get("profile");
+      if (test != null && test.isNull() == false) {
+         String profile = test.asText().trim().toLowerCase();
+         if ("lean".equals(profile)) {
+            fields = new HashSet<String>(LEAN_PROFILE_FIELDS);
+         } else if ("full".equals(profile) == false) {
+            throw new IllegalArgumentException("The request profile \""
+               + test.asText() + "\" must be either \"full\" or \"lean\".");
+         }
+      }
+      test = htmlObject.get("fields");
+      if (test != null && test.isArray()) {
+         fields = new HashSet<String>();
+         for (JsonNode field : test) {
+            String fieldName = field.asText();
+            if (RESPONSE_FIELDS.contains(fieldName) == false) {
+               throw new IllegalArgumentException("The request field \""
+                  + fieldName + "\" is not one of " + RESPONSE_FIELDS);
+            }
+            fields.add(fieldName);
+         }
+      }
+      test = htmlObject.get("returnProvenance");
+      if (test != null && test.isBoolean()) {
+         if (test.asBoolean()) {
+            fields.add(FIELD_PROVENANCE);
+         } else {
+            fields.remove(FIELD_PROVENANCE);
+         }
+      }
+      test = htmlObject.get("returnFormattedHTML");
+      if (test != null && test.isBoolean()) {
+         if (test.asBoolean()) {
+            fields.add(FIELD_FORMATTED_HTML);
+         } else {
+            fields.remove(FIELD_FORMATTED_HTML);
+         }
+      }
+      return fields;
+   }
+
+   /**
+    * Generate markdown from the html in the request. The request contains the
+    * "html" (or a "captureArray" whose first entry contains the html) and the
+    * "url" from which it was captured, and optionally the "HTMLFilters" to be
+    * applied (otherwise they are read from the HTML_Filters.json file). Only
+    * the response fields selected by {@link #getResponseFields(ObjectNode)}
+    * are computed.
+    * 
+    * @param htmlObject
+    *           the request
+    * @return the response containing the requested fields, or an errorMsg
+    */
    public static ObjectNode getMarkdownFromHTML(ObjectNode htmlObject) {
       ObjectNode result = JsonNodeFactory.instance.objectNode();
-      boolean returnProvenance = true;
-      JsonNode testProv = htmlObject.get("returnProvenance");
-      if (testProv != null && testProv.isBoolean()) {
-         returnProvenance = testProv.asBoolean();
+      Set<String> fields = null;
+      try {
+         fields = getResponseFields(htmlObject);
+      } catch (IllegalArgumentException iae) {
+         result.put("errorMsg", iae.getLocalizedMessage());
+         return result;
       }
+      boolean returnProvenance = fields.contains(FIELD_PROVENANCE);
+      boolean returnFormattedHTML = fields.contains(FIELD_FORMATTED_HTML);
 
       // initialize environment for this call
       ObjectNode HTMLFiltersObj = (ObjectNode) htmlObject.get("HTMLFilters");
@@ -158,11 +305,17 @@ public class GetMarkdownFromHTML {
       }
 
       String baseURI = temp.asText();
+      String url = baseURI;
+      ConversionRecorder recorder = ConversionRecorder.getInstance();
+      ConversionRecorder.Recording recording = recorder == null ? null
+         : recorder.begin();
 
       // testing for hidden tags
       // html = html.replaceAll("&lt;", "<");
       // html = html.replaceAll("&gt;", ">");
+      long start = MDfromHTMLMetrics.start();
       Document doc = Jsoup.parse(html, baseURI);
+      MDfromHTMLMetrics.recordPhase(MDfromHTMLMetrics.PHASE_HTML_PARSE, start);
       doc.outputSettings().escapeMode(EscapeMode.extended);
 
       // determine if we should skip markdown until first header is encountered
@@ -206,8 +359,11 @@ public class GetMarkdownFromHTML {
       String markdown = pgm.generateMarkdownFromHTML(doc, provWriter, baseURI,
          seekHeaders);
 
-      result.set("HTMLFilters", HTMLFiltersObj);
+      if (fields.contains(FIELD_HTML_FILTERS)) {
+         result.set(FIELD_HTML_FILTERS, HTMLFiltersObj);
+      }
       if (returnProvenance != false && provWriter != null) {
+         start = MDfromHTMLMetrics.start();
          // note: close finished the JSON object in sw
          try {
             provWriter.close();
@@ -223,25 +379,48 @@ public class GetMarkdownFromHTML {
             e.printStackTrace();
          }
 
-         result.set("provenance", provObj);
+         result.set(FIELD_PROVENANCE, provObj);
          // override the HTMLFilters with the one reported by provenance.
          ObjectNode testHTMLFilters = (ObjectNode) provObj.get("HTMLFilters");
-         if (testHTMLFilters != null) {
-            result.set("HTMLFilters", testHTMLFilters);
-         }
-      }
-
-      // add in the html used for generation in a captureArray
-      ArrayNode captureArray = JsonNodeFactory.instance.arrayNode();
-      ObjectNode htmlInfo = JsonNodeFactory.instance.objectNode();
-      htmlInfo.put("content", doc.text());
-      htmlInfo.put("html", html);
-      htmlInfo.put("url", baseURI);
-      captureArray.add(htmlInfo);
-      result.set("captureArray", captureArray);
-      result.set("markdown", JsonNodeFactory.instance.textNode(markdown));
-      result.put("returnProvenance", returnProvenance);
-      result.put("url", baseURI);
+         if (testHTMLFilters != null && fields.contains(FIELD_HTML_FILTERS)) {
+            result.set(FIELD_HTML_FILTERS, testHTMLFilters);
+         }
+         MDfromHTMLMetrics.recordPhase(MDfromHTMLMetrics.PHASE_PROVENANCE,
+            start);
+      }
+
+      if (fields.contains(FIELD_CAPTURE_ARRAY)) {
+         // add in the html used for generation in a captureArray
+         ArrayNode captureArray = JsonNodeFactory.instance.arrayNode();
+         ObjectNode htmlInfo = JsonNodeFactory.instance.objectNode();
+         htmlInfo.put("content", doc.text());
+         htmlInfo.put("html", html);
+         htmlInfo.put("url", baseURI);
+         captureArray.add(htmlInfo);
+         result.set(FIELD_CAPTURE_ARRAY, captureArray);
+      }
+      if (fields.contains(FIELD_MARKDOWN)) {
+         result.set(FIELD_MARKDOWN,
+            JsonNodeFactory.instance.textNode(markdown));
+      }
+      if (fields.contains(FIELD_RETURN_PROVENANCE)) {
+         result.put(FIELD_RETURN_PROVENANCE, returnProvenance);
+      }
+      if (fields.contains(FIELD_URL)) {
+         result.put(FIELD_URL, baseURI);
+      }
+      if (returnFormattedHTML) {
+         try {
+            result.put(FIELD_FORMATTED_HTML,
+               getFormattedHTML(doc, html.length()));
+         } catch (IOException e) {
+            e.printStackTrace();
+         }
+      }
+      if (recording != null) {
+         recorder.end(recording, "mdfromhtml/getMarkdown", url, baseURI, html,
+            HTMLFilters, options, seekHeaders, returnProvenance, markdown);
+      }
       return result;
    }
 
@@ -249,11 +428,16 @@ public class GetMarkdownFromHTML {
     * Main entry point to read a specified input directory to find json files
     * containing an array of objects with the html and url from the HTML capture
     * utility () and transform the markdown and structured html files saved in
-    * *.md and *_formatted.html files in the specified output directory.
+    * *.md (and optionally *_formatted.html) files in the specified output
+    * directory.
     * 
     * @param args
     *           inputPath, outputPath, showAnnotationsFlag (if not supplied, the
-    *           program prompts for their values)
+    *           program prompts for their values), keepProvenanceLinks,
+    *           outputMode (files, markdown, zip, or ndjson -- default is
+    *           files), maxShardMB for the zip and ndjson output modes, and
+    *           formattedHTML (true to also save the *_formatted.html files --
+    *           default is false)
     */
    public static void main(String[] args) {
       int exitVal = 0;
@@ -295,26 +479,132 @@ public class GetMarkdownFromHTML {
             }
          }
          if (!pgm._interactive) {
+            MDfromHTMLMetrics.registerMBean();
+            MDfromHTMLWorkLeases leases = null;
+            try {
+               leases = MDfromHTMLWorkLeases.fromProperties();
+            } catch (IOException e) {
+               System.out.println("Error: Can not create the coordination directory "
+                  + System.getProperty(
+                     MDfromHTMLWorkLeases.COORDINATION_DIR_PROPERTY)
+                  + " reason: " + e.getLocalizedMessage());
+               System.exit(-1);
+            }
+            String payloads = System.getProperty(PAYLOADS_PROPERTY);
+            if (leases != null) {
+               // batches converted by other workers (or again after a lost
+               // lease) must land in their own files
+               if (pgm._outputMode == OutputMode.ZIP
+                  || pgm._outputMode == OutputMode.NDJSON
+                  || (payloads != null
+                     && payloads.trim().equalsIgnoreCase("archive"))) {
+                  System.out.println(
+                     "Error: Coordinated workers require the files or markdown output mode and a directory payload store.");
+                  System.exit(-1);
+               }
+            } else {
+               pgm._outputSink = pgm._outputMode.createSink(pgm._outputPath,
+                  pgm._maxShardBytes, pgm._formattedHTML);
+            }
+            try {
+               pgm._manifest = MDfromHTMLRunManifest.fromProperties(
+                  pgm._outputPath, pgm.getManifestVersion(HTMLFilters));
+            } catch (IOException e) {
+               System.out.println("Error: Can not read the manifest in "
+                  + pgm._outputPath + " reason: " + e.getLocalizedMessage());
+               System.exit(-1);
+            }
+            if (pgm._manifest != null && (leases != null
+               || pgm._outputMode == OutputMode.ZIP
+               || pgm._outputMode == OutputMode.NDJSON
+               || (payloads != null
+                  && payloads.trim().equalsIgnoreCase("archive")))) {
+               // the manifest checks each output file, and coordinated
+               // workers checkpoint their batches instead. The archive is
+               // rewritten by each run, losing the payloads of the inputs a
+               // resumed run skips
+               System.out.println(
+                  "Error: The manifest requires the files or markdown output mode and a directory payload store, and is not used by coordinated workers.");
+               System.exit(-1);
+            }
+            try {
+               // set before the conversion threads copy the options
+               options.payloadStore = createPayloadStore(pgm._outputPath,
+                  payloads);
+            } catch (IOException e) {
+               System.out.println("Error: Can not create the payload store in "
+                  + pgm._outputPath + " reason: " + e.getLocalizedMessage());
+               System.exit(-1);
+            }
+            final MDfromHTMLExecution execution = MDfromHTMLExecution
+               .fromProperties();
+            if (pgm._thumbsucker) {
+               System.out.println("Using " + execution.describe());
+               if (leases != null) {
+                  System.out.println("Using " + leases.describe());
+               }
+            }
             try {
                List<Path> files = MDfromHTMLUtils.listSourceFiles(
                   FileSystems.getDefault().getPath(pgm._inputPath.toString()),
                   pgm._ext);
-               for (Path file : files) {
+               if (leases == null) {
+                  exitVal = pgm.convertFiles(files, HTMLFilters,
+                     pgm._outputSink, execution, null);
+               } else {
+                  exitVal = pgm.convertLeased(leases, files, HTMLFilters,
+                     execution);
+               }
+            } catch (Exception e) {
+               if (leases == null) {
+                  System.out
+                     .println("Error: Can not reference files with extension "
+                        + pgm._ext + " in directory " + pgm._inputPath
+                        + " reason: " + e.getLocalizedMessage());
+               } else {
+                  System.out.println("Error: Can not coordinate the conversion of "
+                     + pgm._inputPath + " reason: " + e.getLocalizedMessage());
+               }
+               exitVal = -1;
+            } finally {
+               execution.close();
+               if (leases != null) {
+                  leases.close();
+               }
+               if (pgm._outputSink != null) {
                   try {
-                     exitVal = pgm.doWork(file, HTMLFilters);
-                     if (exitVal != 0) {
-                        break;
+                     pgm._outputSink.close();
+                  } catch (IOException e) {
+                     System.out.println("Error: Can not save output to "
+                        + pgm._outputPath + " reason: "
+                        + e.getLocalizedMessage());
+                     exitVal = -1;
+                  }
+               }
+               if (pgm._manifest != null) {
+                  // after the output is closed so every input is recorded
+                  try {
+                     pgm._manifest.close();
+                     if (pgm._thumbsucker) {
+                        System.out.println("Updated " + pgm._manifest.describe());
                      }
-                  } catch (Exception e) {
-                     e.printStackTrace();
+                  } catch (IOException e) {
+                     System.out.println("Error: Can not save the manifest in "
+                        + pgm._outputPath + " reason: "
+                        + e.getLocalizedMessage());
+                     exitVal = -1;
+                  }
+               }
+               if (options.payloadStore != null) {
+                  try {
+                     options.payloadStore.close();
+                  } catch (IOException e) {
+                     System.out.println("Error: Can not save payloads to "
+                        + pgm._outputPath + " reason: "
+                        + e.getLocalizedMessage());
+                     exitVal = -1;
                   }
                }
-            } catch (Exception e) {
-               System.out
-                  .println("Error: Can not reference files with extension "
-                     + pgm._ext + " in directory " + pgm._inputPath
-                     + " reason: " + e.getLocalizedMessage());
-               exitVal = -1;
             }
          }
          if (pgm._thumbsucker) {
@@ -329,13 +619,317 @@ public class GetMarkdownFromHTML {
       System.exit(exitVal);
    }
 
+   /**
+    * Convert the files, saving their artifacts in file order
+    * 
+    * @param files
+    *           the capture files to be converted
+    * @param HTMLFilters
+    *           object containing global and domain specific filter rules to
+    *           control markdown generation
+    * @param sink
+    *           destination for the artifacts generated
+    * @param execution
+    *           schedules the conversion of the files
+    * @param failed
+    *           receives the files that could not be converted, with the
+    *           remaining files still converted (null to stop at the first
+    *           file that can not be converted)
+    * @return exit value (0 indicates success, otherwise -1 for failure)
+    * @throws Exception
+    *            if the files can not be converted
+    */
+   int convertFiles(List<Path> files, final JSONObject HTMLFilters,
+      final OutputSink sink, final MDfromHTMLExecution execution,
+      final List<Path> failed) throws Exception {
+      final int[] fileExitVal = new int[] { 0 };
+      // files are converted concurrently but saved in file order
+      execution.forEachOrdered(files,
+         new MDfromHTMLExecution.Task<Path, ConvertedFile>() {
+            @Override
+            public ConvertedFile call(final Path file) throws Exception {
+               List<Path> sources = Collections.singletonList(file);
+               JSONArray fingerprint = null;
+               if (_manifest != null) {
+                  try {
+                     if (_manifest.isCurrent(sources)) {
+                        if (_thumbsucker) {
+                           System.out.println("Skipping current: " + file);
+                        }
+                        return new ConvertedFile(file, 0, null);
+                     }
+                     fingerprint = _manifest.fingerprint(sources);
+                  } catch (IOException e) {
+                     // left to the conversion to report
+                  }
+               }
+               DeferredOutputSink fileSink = null;
+               if (execution.isConcurrent()) {
+                  fileSink = new DeferredOutputSink(sink);
+               }
+               OutputSink fileTarget = fileSink == null ? sink : fileSink;
+               RecordingOutputSink recordingSink = null;
+               if (fingerprint != null) {
+                  recordingSink = new RecordingOutputSink(fileTarget);
+               }
+               int exitVal = doWork(file, HTMLFilters,
+                  recordingSink == null ? fileTarget : recordingSink,
+                  execution);
+               if (recordingSink != null) {
+                  // recorded once the file's artifacts are saved
+                  fileTarget.whenSaved(new ManifestEntry(file, fingerprint,
+                     recordingSink.getNames(), exitVal == 0));
+               }
+               return new ConvertedFile(file, exitVal, fileSink);
+            }
+         }, new MDfromHTMLExecution.ResultHandler<ConvertedFile>() {
+            @Override
+            public boolean accept(ConvertedFile converted) {
+               if (converted._sink != null) {
+                  try {
+                     converted._sink.replay();
+                  } catch (IOException e) {
+                     System.out.println("Error: Can not save output to "
+                        + _outputPath + " reason: " + e.getLocalizedMessage());
+                     fileExitVal[0] = -1;
+                     return false;
+                  }
+               }
+               if (converted._exitVal != 0 && failed != null) {
+                  failed.add(converted._file);
+                  return true;
+               }
+               fileExitVal[0] = converted._exitVal;
+               return fileExitVal[0] == 0;
+            }
+         });
+      return fileExitVal[0];
+   }
+
+   /**
+    * Records a converted file in the manifest once its artifacts are saved
+    */
+   class ManifestEntry implements Runnable {
+      boolean _complete;
+      Path _file;
+      JSONArray _fingerprint;
+      List<String> _outputs;
+
+      ManifestEntry(Path file, JSONArray fingerprint, List<String> outputs,
+         boolean complete) {
+         _file = file;
+         _fingerprint = fingerprint;
+         _outputs = outputs;
+         _complete = complete;
+      }
+
+      @Override
+      public void run() {
+         try {
+            _manifest.record(_fingerprint, _outputs, _complete);
+         } catch (IOException e) {
+            // the file is converted again by the next run
+            System.out.println("Error: Can not record " + _file
+               + " in the manifest reason: " + e.getLocalizedMessage());
+         }
+      }
+   }
+
+   /**
+    * @param HTMLFilters
+    *           the HTML filters used for the conversion
+    * @return the version of the settings affecting the generated artifacts
+    *         recorded in the manifest
+    */
+   String getManifestVersion(JSONObject HTMLFilters) {
+      return MDfromHTMLRunManifest.getVersion(
+         GetMarkdownFromHTML.class.getName(), HTMLFilters.toString(),
+         "keepProvenanceLinks=" + _keepProvenanceLinks,
+         // the provenance links name the input files
+         "inputPath=" + (_keepProvenanceLinks
+            ? _inputPath.toAbsolutePath().toString() : ""),
+         "outputMode=" + _outputMode, "formattedHTML=" + _formattedHTML,
+         "payloads=" + System.getProperty(PAYLOADS_PROPERTY),
+         "tableStreamingRows=" + _remark.getOptions().tableStreamingRows);
+   }
+
+   /**
+    * Convert the files together with the other workers sharing the
+    * coordination directory, each converting the batches of files it leases
+    * 
+    * @param leases
+    *           coordinates the workers
+    * @param files
+    *           the capture files to be converted
+    * @param HTMLFilters
+    *           object containing global and domain specific filter rules to
+    *           control markdown generation
+    * @param execution
+    *           schedules the conversion of the files in each batch
+    * @return exit value (0 if every file of the run was converted, otherwise
+    *         -1)
+    * @throws Exception
+    *            if the coordination files can not be accessed
+    */
+   int convertLeased(MDfromHTMLWorkLeases leases, List<Path> files,
+      final JSONObject HTMLFilters, final MDfromHTMLExecution execution)
+      throws Exception {
+      List<String> names = new ArrayList<String>();
+      for (Path file : files) {
+         names.add(file.getFileName().toString());
+      }
+      List<List<String>> batches = leases.plan(names);
+      if (_thumbsucker) {
+         System.out.println("Sharing " + batches.size() + " batches of "
+            + _inputPath + " as " + leases.getWorkerId());
+      }
+      JSONObject report = leases.run(new MDfromHTMLWorkLeases.BatchWorker() {
+         @Override
+         public JSONObject process(int batch, List<String> items)
+            throws Exception {
+            if (_thumbsucker) {
+               System.out.println("Leased batch " + batch + " of "
+                  + items.size() + " files");
+            }
+            return convertBatch(items, HTMLFilters, execution);
+         }
+      });
+      if (_thumbsucker) {
+         System.out.println("Run report: " + report.serialize(true));
+      }
+      return ((JSONArray) report.get("failed")).isEmpty()
+         && ((JSONArray) report.get("errors")).isEmpty() ? 0 : -1;
+   }
+
+   /**
+    * Convert a leased batch of files. The batch's artifacts are saved before
+    * returning so a batch recorded as done is complete even if this worker
+    * fails later.
+    * 
+    * @param names
+    *           the names of the files in the input directory
+    * @param HTMLFilters
+    *           object containing global and domain specific filter rules to
+    *           control markdown generation
+    * @param execution
+    *           schedules the conversion of the files
+    * @return the outcome of the batch: the number of files converted and
+    *         failed, and the names of those that failed
+    * @throws Exception
+    *            if the artifacts can not be saved
+    */
+   JSONObject convertBatch(List<String> names, JSONObject HTMLFilters,
+      MDfromHTMLExecution execution) throws Exception {
+      List<Path> files = new ArrayList<Path>();
+      for (String name : names) {
+         files.add(_inputPath.resolve(name));
+      }
+      List<Path> failed = new ArrayList<Path>();
+      OutputSink sink = _outputMode.createSink(_outputPath, _maxShardBytes,
+         _formattedHTML);
+      int exitVal;
+      try {
+         exitVal = convertFiles(files, HTMLFilters, sink, execution, failed);
+      } finally {
+         sink.close();
+      }
+      if (exitVal != 0) {
+         throw new IOException("Can not save output to " + _outputPath);
+      }
+      JSONArray failedNames = new JSONArray();
+      for (Path file : failed) {
+         failedNames.add(file.getFileName().toString());
+      }
+      JSONObject outcome = new JSONObject();
+      outcome.put("converted", files.size() - failed.size());
+      outcome.put("failedFiles", failed.size());
+      outcome.put("failed", failedNames);
+      return outcome;
+   }
+
+   /**
+    * Create the store receiving the payloads (data: URIs and inline svg) of
+    * the converted pages, referenced from the markdown and provenance as
+    * payloads/ followed by the content hash of the payload
+    * 
+    * @param outputPath
+    *           the output directory (ending with a separator)
+    * @param storeType
+    *           directory to save the payloads in the payloads directory,
+    *           archive to save them in payloads.zip, or null (or none) to
+    *           leave them in the markdown
+    * @return the payload store, or null if payloads are left in the markdown
+    * @throws IOException
+    *            if the store can not be created
+    */
+   static PayloadStore createPayloadStore(String outputPath, String storeType)
+      throws IOException {
+      if (storeType == null || storeType.trim().length() == 0
+         || storeType.trim().equalsIgnoreCase("none")) {
+         return null;
+      }
+      storeType = storeType.trim().toLowerCase();
+      if (storeType.equals("directory")) {
+         return new DirectoryPayloadStore(
+            FileSystems.getDefault().getPath(outputPath + PAYLOADS_NAME),
+            PAYLOADS_NAME + "/");
+      }
+      if (storeType.equals("archive")) {
+         return new ArchivePayloadStore(
+            FileSystems.getDefault().getPath(outputPath + PAYLOADS_NAME + ".zip"),
+            PAYLOADS_NAME + "/");
+      }
+      throw new IOException("Unknown " + PAYLOADS_PROPERTY + " value \""
+         + storeType + "\" (expected directory, archive or none)");
+   }
+
+   /**
+    * The outcome of converting a file's captures
+    */
+   static class ConvertedFile {
+      int _exitVal;
+      Path _file;
+      DeferredOutputSink _sink;
+
+      /**
+       * @param file
+       *           the file converted
+       * @param exitVal
+       *           0 if the file was converted, otherwise -1
+       * @param sink
+       *           holds the file's artifacts until they are saved in file
+       *           order (null if they were saved as converted)
+       */
+      ConvertedFile(Path file, int exitVal, DeferredOutputSink sink) {
+         _file = file;
+         _exitVal = exitVal;
+         _sink = sink;
+      }
+   }
+
    String _ext = "json";
    Path _inputPath = null;
    boolean _interactive = false;
+   MDfromHTMLRunManifest _manifest = null;
+   /**
+    * system property naming the type of payload store (directory or archive)
+    */
+   static public final String PAYLOADS_PROPERTY = "mdfromhtml.payloads";
+   /**
+    * name of the payload directory (or archive with a .zip extension) in the
+    * output directory
+    */
+   static public final String PAYLOADS_NAME = "payloads";
+
    String _outputPath = ".";
    Remark _remark = new Remark(Options.multiMarkdown());
+   ThreadLocal<Remark> _remarks;
    boolean _thumbsucker = false;
+   boolean _formattedHTML = false;
    boolean _keepProvenanceLinks = true;
+   long _maxShardBytes = ShardedArchiveOutputSink.DEFAULT_MAX_SHARD_BYTES;
+   OutputMode _outputMode = OutputMode.FILES;
+   OutputSink _outputSink = null;
 
    // public GetMarkdownFromHTML() {
    // this(Options.multiMarkdown());
@@ -345,8 +939,15 @@ public class GetMarkdownFromHTML {
    // this(options, (JSONObject) null);
    // }
 
-   public GetMarkdownFromHTML(Options options, JSONObject HTMLFilters) {
+   public GetMarkdownFromHTML(final Options options,
+      final JSONObject HTMLFilters) {
       _remark = new Remark(options, HTMLFilters);
+      _remarks = new ThreadLocal<Remark>() {
+         @Override
+         protected Remark initialValue() {
+            return new Remark(options, HTMLFilters);
+         }
+      };
    }
 
    /**
@@ -361,198 +962,367 @@ public class GetMarkdownFromHTML {
     * @return exit value (0 indicates success, otherwise -1 for failure)
     */
    int doWork(Path file, JSONObject HTMLFilters) {
+      return doWork(file, HTMLFilters, getOutputSink(), null);
+   }
+
+   /**
+    * Process the specified file to transform its captures into markdown saved
+    * to the supplied sink. The captures are read from the file one at a time
+    * so only those being converted are held in memory. When the execution is
+    * concurrent the captures are converted on its conversion threads, with at
+    * most its maximum in flight outstanding, and their artifacts are saved in
+    * capture order. A capture missing its html or url is reported and skipped
+    * so the remaining captures are still converted.
+    * 
+    * @param file
+    *           the file containing the annotation json from ICCC
+    * @param HTMLFilters
+    *           object containing global and domain specific filter rules to
+    *           control markdown generation
+    * @param sink
+    *           destination for the artifacts generated
+    * @param execution
+    *           schedules the conversion of the captures (null to convert
+    *           them serially on the calling thread)
+    * @return exit value (0 indicates success, otherwise -1 for failure)
+    */
+   int doWork(final Path file, final JSONObject HTMLFilters,
+      final OutputSink sink, MDfromHTMLExecution execution) {
       int exitVal = 0;
-      ProvenanceWriter provenanceWriter = null;
-      String provenanceOutputFileName = "unknown";
       try {
-         String fqFileName = file.toString();
+         final String fqFileName = file.toString();
          if (_thumbsucker) {
             System.out.println("Processing: " + fqFileName);
          }
-         ObjectMapper mapper = new ObjectMapper();
-         File jsonTestFile = new File(file.toString());
-         JsonNode tempJSON = mapper.readTree(jsonTestFile);
-         String shortFileName = fqFileName
+         final String shortFileName = fqFileName
             .substring(fqFileName.lastIndexOf(File.separator) + 1);
-         int index = shortFileName.lastIndexOf("." + _ext);
+         final int index = shortFileName.lastIndexOf("." + _ext);
          if (index < 1) {
             System.out.println(shortFileName + "doesn't end with ." + _ext);
-            exitVal = -1;
-         } else {
-            ObjectNode inputJson = (ObjectNode) tempJSON;
-            int htmlCounter = 0;
-            ArrayNode htmlList = (ArrayNode) inputJson.get("captureArray");
-            if (htmlList == null) {
-               JsonNode htmlObj = (JsonNode) inputJson.get("captureDict");
-               if (htmlObj == null) {
-                  System.err.println(fqFileName
-                     + " is missing the \"captureArray\" and the \"captureDict\" tag. Please fix and retry.");
-                  System.exit(-1);
+            return -1;
+         }
+         final ConversionRecorder recorder = ConversionRecorder.getInstance();
+         boolean concurrent = execution != null && execution.isConcurrent();
+         int maxPending = concurrent ? Math.max(1, execution.getMaxInFlight())
+            : 0;
+         LinkedList<Future<Integer>> conversions = new LinkedList<Future<Integer>>();
+         LinkedList<DeferredOutputSink> captureSinks = new LinkedList<DeferredOutputSink>();
+         int failed = 0;
+         CaptureReader reader = new CaptureReader(new File(fqFileName));
+         try {
+            while (true) {
+               // only the capture being read is held, the remainder of the
+               // file is parsed as the captures are needed
+               long start = MDfromHTMLMetrics.start();
+               final CaptureReader.Capture capture = reader.next();
+               MDfromHTMLMetrics.recordPhase(
+                  MDfromHTMLMetrics.PHASE_JSON_PARSE, start);
+               if (capture == null) {
+                  break;
                }
-               htmlList = JsonNodeFactory.instance.arrayNode();
-               htmlList.add(htmlObj);
-            }
-            String baseURI = null;
-            String html = null;
-            JsonNode temp = null;
-            for (Object obj : htmlList) {
-               boolean seekHeaders = true; // default is true so only special
-                                           // sites need override this
-               JSONObject globalFilters = (JSONObject) HTMLFilters.get("*");
-               if (globalFilters != null) {
-                  Boolean test = (Boolean) globalFilters
-                     .get(DocumentConverter.SEEK_HEADERS);
-                  if (test != null) {
-                     seekHeaders = test;
-                  }
+               if (capture.isValid() == false) {
+                  System.err.println(capture.getError() + " Skipping it.");
+                  failed++;
+                  continue;
                }
-
-               try {
-                  htmlCounter++;
-                  ObjectNode htmlObj = (ObjectNode) obj;
-                  temp = htmlObj.get("html");
-                  if (temp == null) {
-                     System.err.println(fqFileName
-                        + " is missing the \"html\" key in the ["
-                        + (htmlCounter - 1) + "] element of the captureArray.");
-                     System.exit(-1);
+               if (concurrent == false) {
+                  if (convertCapture(file, fqFileName, shortFileName, index,
+                     capture, HTMLFilters, recorder, getRemark(),
+                     sink) != 0) {
+                     failed++;
                   }
-                  html = temp.asText();
-                  temp = htmlObj.get("url");
-                  if (temp == null) {
-                     System.err.println(fqFileName
-                        + " is missing the \"utl\" key in the ["
-                        + (htmlCounter - 1) + "] element of the captureArray.");
-                     System.exit(-1);
+                  continue;
+               }
+               // bound the captures awaiting conversion (and their deferred
+               // artifacts) by saving the oldest before reading more
+               while (conversions.size() >= maxPending) {
+                  if (MDfromHTMLExecution
+                     .getResult(conversions.removeFirst()) != 0) {
+                     failed++;
                   }
-                  baseURI = temp.asText();
-                  String htmlOutputFileName = _outputPath
-                     + shortFileName.substring(0, index) + "_"
-                     + MDfromHTMLUtils.padLeftZero(htmlCounter, 3) + ".html";
-                  MDfromHTMLUtils.saveTextFile(htmlOutputFileName, html);
-                  // testing for hidden tags
-                  // html = html.replaceAll("&lt;", "<");
-                  // html = html.replaceAll("&gt;", ">");
-                  Document doc = Jsoup.parse(html, baseURI);
-                  doc.outputSettings().escapeMode(EscapeMode.extended);
-
-                  // TODO: process iframe elements in a loop making below a
-                  // routine passing an Element
-                  // Elements elements = document.select("iframe");
-                  // Document iframeDoc = Jsoup.parse(elements.get(0).data());
-                  // String iframeSrc = iframeDoc.attr("src");
-                  /**
-                   * <iframe scrolling="no" allowtransparency="true" border="0"
-                   * frameborder="0" style=
-                   * "z-index:99999!important;display:block!important;background-color:transparent!important;border:none!important;overflow:hidden!important;visibility:visible!important;margin:0!important;padding:0!important;-webkit-tap-highlight-color:transparent!important;width:100%!important;height:932px!important;min-height:932px!important;"
-                   * src=
-                   * "https://upland.zendesk.com/auth/v2/login/signin?return_to=https%3A%2F%2Fcommunity.uplandsoftware.com%2Fhc%2Fen-us&amp;theme=hc&amp;locale=en-us&amp;brand_id=256119&amp;auth_origin=256119%2Ctrue%2Ctrue">
-                   * </iframe>
-                   */
-
-                  String formattedHTML = doc.toString();
-                  formattedHTML = formattedHTML.replaceAll("&amp;", "&");
-                  // formattedHTML = formattedHTML.replaceAll("&lt;", "<");
-                  // formattedHTML = formattedHTML.replaceAll("&gt;", ">");
-                  formattedHTML = formattedHTML.replaceAll("&quot;", "\"");
-
-                  String formattedHTMLOutputFileName = _outputPath
-                     + shortFileName.substring(0, index) + "_"
-                     + MDfromHTMLUtils.padLeftZero(htmlCounter, 3)
-                     + "_formatted.html";
-                  MDfromHTMLUtils.saveTextFile(formattedHTMLOutputFileName,
-                     formattedHTML);
-
-                  String domain = Remark.getDomain(baseURI);
-                  int testindex = baseURI.indexOf(domain);
-                  // need to find actual domain for proper filters
-                  String workingURI = baseURI
-                     .substring(testindex + domain.length());
-                  testindex = workingURI.toLowerCase().indexOf("http");
-                  if (testindex >= 0) {
-                     workingURI = workingURI.substring(testindex);
-                     domain = Remark.getDomain(workingURI);
-                     baseURI = workingURI;
+                  captureSinks.removeFirst().replay();
+               }
+               final DeferredOutputSink captureSink = new DeferredOutputSink(
+                  sink);
+               captureSinks.add(captureSink);
+               conversions.add(execution.submitCPU(new Callable<Integer>() {
+                  @Override
+                  public Integer call() {
+                     return convertCapture(file, fqFileName, shortFileName,
+                        index, capture, HTMLFilters, recorder, getRemark(),
+                        captureSink);
                   }
+               }));
+            }
+            if (reader.foundCaptures() == false) {
+               System.err.println(fqFileName
+                  + " is missing the \"captureArray\" and the \"captureDict\" tag. Please fix and retry.");
+               exitVal = -1;
+            }
+         } finally {
+            // save what was converted before any error reading the file
+            while (conversions.isEmpty() == false) {
+               if (MDfromHTMLExecution
+                  .getResult(conversions.removeFirst()) != 0) {
+                  failed++;
+               }
+               captureSinks.removeFirst().replay();
+            }
+            reader.close();
+         }
+         if (failed != 0) {
+            System.err.println(fqFileName + " had " + failed
+               + " capture(s) that could not be converted.");
+            exitVal = -1;
+         }
+      } catch (Exception e) {
+         e.printStackTrace();
+         exitVal = -1;
+      }
+      return exitVal;
+   }
+
+   /**
+    * Transform a capture's html into markdown, saving the html, markdown and
+    * provenance artifacts to the supplied sink.
+    * 
+    * @param file
+    *           the file containing the capture
+    * @param fqFileName
+    *           the file's fully qualified name
+    * @param shortFileName
+    *           the file's name without its path
+    * @param index
+    *           the offset of the file's extension in its short name
+    * @param capture
+    *           the capture read from the file
+    * @param HTMLFilters
+    *           object containing global and domain specific filter rules to
+    *           control markdown generation
+    * @param recorder
+    *           records slow conversions (null if not recording)
+    * @param remark
+    *           the converter used by the calling thread
+    * @param sink
+    *           destination for the artifacts generated
+    * @return exit value (0 indicates success, otherwise -1 for failure)
+    */
+   int convertCapture(Path file, String fqFileName, String shortFileName,
+      int index, CaptureReader.Capture capture, JSONObject HTMLFilters,
+      ConversionRecorder recorder, Remark remark, OutputSink sink) {
+      int exitVal = 0;
+      ProvenanceWriter provenanceWriter = null;
+      StringWriter provenanceBuffer = null;
+      String provenanceBaseName = "unknown";
+      String baseURI = null;
+      String html = null;
+      String url = null;
+      int htmlCounter = capture.getNumber();
+      long start = 0L;
+      boolean seekHeaders = true; // default is true so only special
+                                  // sites need override this
 
-                  String markdownOutputFileName = _outputPath
-                     + shortFileName.substring(0, index) + "_"
-                     + MDfromHTMLUtils.padLeftZero(htmlCounter, 3) + ".md";
+      ConversionRecorder.Recording recording = null;
+      String markdown = null;
+      try {
+         html = capture.getHTML();
+         baseURI = capture.getURL();
+         url = baseURI;
+         if (recorder != null) {
+            recording = recorder.begin();
+         }
+         String baseName = shortFileName.substring(0, index) + "_"
+            + MDfromHTMLUtils.padLeftZero(htmlCounter, 3);
+         sink.write(OutputKind.HTML, baseName, html);
+         // testing for hidden tags
+         // html = html.replaceAll("&lt;", "<");
+         // html = html.replaceAll("&gt;", ">");
+         start = MDfromHTMLMetrics.start();
+         Document doc = Jsoup.parse(html, baseURI);
+         MDfromHTMLMetrics.recordPhase(
+            MDfromHTMLMetrics.PHASE_HTML_PARSE, start);
+         doc.outputSettings().escapeMode(EscapeMode.extended);
 
-                  provenanceOutputFileName = _outputPath
-                     + shortFileName.substring(0, index) + "_"
-                     + MDfromHTMLUtils.padLeftZero(htmlCounter, 3)
-                     + "_html2md.json";
+         // TODO: process iframe elements in a loop making below a
+         // routine passing an Element
+         // Elements elements = document.select("iframe");
+         // Document iframeDoc = Jsoup.parse(elements.get(0).data());
+         // String iframeSrc = iframeDoc.attr("src");
+         /**
+          * <iframe scrolling="no" allowtransparency="true" border="0"
+          * frameborder="0" style=
+          * "z-index:99999!important;display:block!important;background-color:transparent!important;border:none!important;overflow:hidden!important;visibility:visible!important;margin:0!important;padding:0!important;-webkit-tap-highlight-color:transparent!important;width:100%!important;height:932px!important;min-height:932px!important;"
+          * src=
+          * "https://upland.zendesk.com/auth/v2/login/signin?return_to=https%3A%2F%2Fcommunity.uplandsoftware.com%2Fhc%2Fen-us&amp;theme=hc&amp;locale=en-us&amp;brand_id=256119&amp;auth_origin=256119%2Ctrue%2Ctrue">
+          * </iframe>
+          */
 
-                  File provenanceOutputFile = new File(
-                     provenanceOutputFileName);
-                  if (provenanceOutputFile.exists()) {
-                     provenanceOutputFile.delete();
-                  }
-                  provenanceWriter = new ProvenanceWriter(
-                     formattedHTMLOutputFileName, markdownOutputFileName,
-                     _remark.getHTMLFilters(), baseURI, domain,
-                     new FileWriter(provenanceOutputFile, true));
-
-                  // determine if we should skip markdown until first header is
-                  // encountered
-                  JSONObject domainFilters = (JSONObject) HTMLFilters
-                     .get(domain);
-                  if (domainFilters != null) {
-                     Boolean test = (Boolean) domainFilters
-                        .get(DocumentConverter.SEEK_HEADERS);
-                     if (test != null) {
-                        seekHeaders = test;
-                     }
-                  }
+         // provenance refers to the formatted html when it is kept,
+         // otherwise to the original html
+         OutputKind provenanceHTMLKind = OutputKind.HTML;
+         if (sink.accepts(OutputKind.FORMATTED_HTML)) {
+            sink.write(OutputKind.FORMATTED_HTML, baseName,
+               getFormattedHTML(doc, html.length()));
+            provenanceHTMLKind = OutputKind.FORMATTED_HTML;
+         }
 
-                  String markdown = generateMarkdownFromHTML(doc,
-                     provenanceWriter, baseURI, seekHeaders);
-
-                  if (_keepProvenanceLinks) {
-                     markdown += "\n###### Doc2Dial Provenance ######\n\n"
-                        + " * [Doc2Dial Original URL][]\n"
-                        + " * [Doc2Dial File Processed][]\n\n[Doc2Dial Original URL]: "
-                        + baseURI.replaceAll(" ", "%20")
-                        // + .replaceAll("#", "%23").replaceAll("&", "%26")
-                        + "\n[Doc2Dial File Processed]: file://"
-                        + file.toAbsolutePath().toString();
-                  }
+         String domain = Remark.getDomain(baseURI);
+         int testindex = baseURI.indexOf(domain);
+         // need to find actual domain for proper filters
+         String workingURI = baseURI
+            .substring(testindex + domain.length());
+         testindex = workingURI.toLowerCase().indexOf("http");
+         if (testindex >= 0) {
+            workingURI = workingURI.substring(testindex);
+            domain = Remark.getDomain(workingURI);
+            baseURI = workingURI;
+         }
 
-                  MDfromHTMLUtils.saveTextFile(markdownOutputFileName,
-                     markdown);
-               } catch (Exception e) {
-                  e.printStackTrace();
-                  exitVal = -1;
-               } finally {
-                  if (provenanceWriter != null) {
-                     try {
-                        provenanceWriter.close();
-                        // Note: leave all provenance with seekHeaders explicit
-                        // in the HTMLFilters
-                        // if (seekHeaders) {
-                        // cleanUpAnnotations(provenanceOutputFileName);
-                        // }
-                     } catch (IOException e) {
-                        e.printStackTrace();
-                     }
-                     provenanceWriter = null;
-                  }
-               }
-            }
+         if (sink.accepts(OutputKind.PROVENANCE)) {
+            provenanceBaseName = baseName;
+            provenanceBuffer = new StringWriter();
+            provenanceWriter = new ProvenanceWriter(
+               _outputPath + provenanceHTMLKind.getName(baseName),
+               _outputPath + OutputKind.MARKDOWN.getName(baseName),
+               remark.getHTMLFilters(), baseURI, domain,
+               provenanceBuffer);
+         }
+
+         // determine if we should skip markdown until first header is
+         // encountered
+         seekHeaders = isSeekHeaders(HTMLFilters, domain);
+         markdown = generateMarkdownFromHTML(remark, doc,
+            provenanceWriter, baseURI, seekHeaders);
+
+         String savedMarkdown = markdown;
+         if (_keepProvenanceLinks) {
+            savedMarkdown += "\n###### Doc2Dial Provenance ######\n\n"
+               + " * [Doc2Dial Original URL][]\n"
+               + " * [Doc2Dial File Processed][]\n\n[Doc2Dial Original URL]: "
+               + baseURI.replaceAll(" ", "%20")
+               // + .replaceAll("#", "%23").replaceAll("&", "%26")
+               + "\n[Doc2Dial File Processed]: file://"
+               + file.toAbsolutePath().toString();
          }
+
+         sink.write(OutputKind.MARKDOWN, baseName, savedMarkdown);
       } catch (Exception e) {
          e.printStackTrace();
          exitVal = -1;
+      } finally {
+         if (provenanceWriter != null) {
+            start = MDfromHTMLMetrics.start();
+            try {
+               provenanceWriter.close();
+               // Note: leave all provenance with seekHeaders explicit
+               // in the HTMLFilters
+               // if (seekHeaders) {
+               // cleanUpAnnotations(provenanceOutputFileName);
+               // }
+               sink.write(OutputKind.PROVENANCE, provenanceBaseName,
+                  provenanceBuffer.toString());
+            } catch (IOException e) {
+               e.printStackTrace();
+            }
+            provenanceWriter = null;
+            provenanceBuffer = null;
+            MDfromHTMLMetrics.recordPhase(
+               MDfromHTMLMetrics.PHASE_PROVENANCE, start);
+         }
+         if (recording != null) {
+            recorder.end(recording,
+               fqFileName + "[" + (htmlCounter - 1) + "]", url,
+               baseURI, html, remark.getHTMLFilters(),
+               remark.getOptions(), seekHeaders,
+               sink.accepts(OutputKind.PROVENANCE), markdown);
+         }
       }
+
       return exitVal;
    }
 
+   /**
+    * @return the converter used by the calling thread. Remark serializes its
+    *         conversions, so each conversion thread is given its own.
+    */
+   Remark getRemark() {
+      return _remarks.get();
+   }
+
+   /**
+    * Serialize the document as the formatted html saved alongside the markdown
+    * 
+    * @param doc
+    *           the parsed html
+    * @param sizeHint
+    *           expected size of the formatted html (e.g., the size of the
+    *           original html)
+    * @return the formatted html
+    * @throws IOException
+    *            if the html can not be serialized
+    */
+   static String getFormattedHTML(Document doc, int sizeHint)
+      throws IOException {
+      StringWriter sw = new StringWriter(sizeHint + sizeHint / 8);
+      HTMLFormatter.writeFormattedHTML(doc, sw);
+      return sw.toString();
+   }
+
+   /**
+    * @return the sink receiving the generated artifacts, defaulting to
+    *         individual files in the output directory if none was configured
+    */
+   OutputSink getOutputSink() {
+      if (_outputSink == null) {
+         _outputSink = new LooseFileOutputSink(_outputPath,
+            _formattedHTML ? EnumSet.allOf(OutputKind.class)
+               : EnumSet.complementOf(EnumSet.of(OutputKind.FORMATTED_HTML)));
+      }
+      return _outputSink;
+   }
+
+   /**
+    * Determine if we should skip markdown until the first header is
+    * encountered. The domain's filters override the global filters, and the
+    * default is true so only special sites need override this.
+    * 
+    * @param HTMLFilters
+    *           object containing global and domain specific filter rules to
+    *           control markdown generation
+    * @param domain
+    *           the domain of the document
+    * @return true if content before the first header is skipped
+    */
+   static public boolean isSeekHeaders(JSONObject HTMLFilters, String domain) {
+      boolean seekHeaders = true;
+      for (String key : new String[] { "*", domain }) {
+         JSONObject filters = (JSONObject) HTMLFilters.get(key);
+         if (filters != null) {
+            Boolean test = (Boolean) filters
+               .get(DocumentConverter.SEEK_HEADERS);
+            if (test != null) {
+               seekHeaders = test;
+            }
+         }
+      }
+      return seekHeaders;
+   }
+
    String generateMarkdownFromHTML(Document doc,
       ProvenanceWriter provenanceWriter, String baseUri, boolean seekHeaders) {
-      String markdown = _remark.convert(doc, provenanceWriter, baseUri);
+      return generateMarkdownFromHTML(_remark, doc, provenanceWriter, baseUri,
+         seekHeaders);
+   }
+
+   String generateMarkdownFromHTML(Remark remark, Document doc,
+      ProvenanceWriter provenanceWriter, String baseUri, boolean seekHeaders) {
+      String markdown = remark.convert(doc, provenanceWriter, baseUri);
+      long start = MDfromHTMLMetrics.start();
       markdown = CleanupMarkdown.cleanAll(markdown, seekHeaders);
-      return removeUnusedReferences(markdown);
+      markdown = removeUnusedReferences(markdown);
+      MDfromHTMLMetrics.recordPhase(MDfromHTMLMetrics.PHASE_POST_PROCESS,
+         start);
+      return markdown;
    }
 
    void cleanUpAnnotations(String provenanceFileName) throws Exception {
@@ -578,7 +1348,8 @@ public class GetMarkdownFromHTML {
     * output directory, and whether to append annotation details to sentences
     * 
     * @param args
-    *           inputPath, outputPath, showAnnotationsFlag
+    *           inputPath, outputPath, showAnnotationsFlag, keepProvenanceLinks,
+    *           outputMode, maxShardMB, formattedHTML
     * @return true if we have sufficient parameters to execute the program
     */
    boolean getParams(String[] args) {
@@ -652,6 +1423,30 @@ public class GetMarkdownFromHTML {
          _keepProvenanceLinks = new Boolean(args[3]);
       }
 
+      if (args.length >= 5) {
+         try {
+            _outputMode = OutputMode.fromString(args[4]);
+         } catch (IllegalArgumentException iae) {
+            System.out.println("Error: The output mode \"" + args[4]
+               + "\" must be one of files, markdown, zip, or ndjson.");
+            return false;
+         }
+      }
+
+      if (args.length >= 6) {
+         try {
+            _maxShardBytes = Long.parseLong(args[5]) * 1024L * 1024L;
+         } catch (NumberFormatException nfe) {
+            System.out.println("Error: The maximum shard size \"" + args[5]
+               + "\" must be a number of megabytes.");
+            return false;
+         }
+      }
+
+      if (args.length >= 7) {
+         _formattedHTML = new Boolean(args[6]);
+      }
+
       return true;
    }
 
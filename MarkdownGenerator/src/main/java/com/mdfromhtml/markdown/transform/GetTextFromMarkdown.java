@@ -26,16 +26,28 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import com.api.json.JSONArray;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Entities.EscapeMode;
 import com.api.json.JSONObject;
+import com.mdfromhtml.core.MDfromHTMLExecution;
+import com.mdfromhtml.core.MDfromHTMLRunManifest;
 import com.mdfromhtml.core.MDfromHTMLUtils;
+import com.mdfromhtml.markdown.output.OutputKind;
 import com.overzealous.remark.Options;
 import com.overzealous.remark.Remark;
+import com.overzealous.remark.convert.DocumentModel;
 import com.overzealous.remark.convert.ProvenanceWriter;
 
 /**
@@ -59,8 +71,10 @@ public class GetTextFromMarkdown {
             "Warning: Using no HTML Filters -- can not find "+"."+File.separator+"properties"+File.separator+"HTML_Filters.json\": "
                + e1.getLocalizedMessage());
       }
-      GetTextFromMarkdown pgm = new GetTextFromMarkdown(Options.multiMarkdown(),
-         HTMLFilters);
+      // the options GetMarkdownFromHTML converts the HTML with
+      Options options = Options.multiMarkdown();
+      options.hardwraps = true;
+      GetTextFromMarkdown pgm = new GetTextFromMarkdown(options, HTMLFilters);
       if (pgm.getParams(args)) {
          if (pgm._thumbsucker) {
             System.out.println("\nFiles ending with ." + pgm._ext
@@ -77,26 +91,61 @@ public class GetTextFromMarkdown {
             }
          }
          if (!pgm._interactive) {
+            try {
+               pgm._manifest = MDfromHTMLRunManifest.fromProperties(
+                  pgm._outputPath, pgm.getManifestVersion());
+            } catch (IOException e) {
+               System.out.println("Error: Can not read the manifest in "
+                  + pgm._outputPath + " reason: " + e.getLocalizedMessage());
+               System.exit(-1);
+            }
+            final MDfromHTMLExecution execution = MDfromHTMLExecution
+               .fromProperties();
+            if (pgm._thumbsucker) {
+               System.out.println("Using " + execution.describe());
+            }
             try {
                List<Path> files = MDfromHTMLUtils.listSourceFiles(
                   FileSystems.getDefault().getPath(pgm._inputPath.toString()),
                   pgm._ext);
-               for (Path file : files) {
-                  try {
-                     exitVal = pgm.doWork(file);
-                     if (exitVal != 0) {
-                        break;
+               final GetTextFromMarkdown worker = pgm;
+               final int[] fileExitVal = new int[] { 0 };
+               execution.forEachOrdered(files,
+                  new MDfromHTMLExecution.Task<Path, Integer>() {
+                     @Override
+                     public Integer call(Path file) {
+                        return worker.doWork(file, execution,
+                           worker._manifest);
                      }
-                  } catch (Exception e) {
-                     e.printStackTrace();
-                  }
-               }
+                  }, new MDfromHTMLExecution.ResultHandler<Integer>() {
+                     @Override
+                     public boolean accept(Integer result) {
+                        fileExitVal[0] = result;
+                        return result == 0;
+                     }
+                  });
+               exitVal = fileExitVal[0];
             } catch (Exception e) {
                System.out
                   .println("Error: Can not reference files with extension "
                      + pgm._ext + " in directory " + pgm._inputPath
                      + " reason: " + e.getLocalizedMessage());
                exitVal = -1;
+            } finally {
+               execution.close();
+               if (pgm._manifest != null) {
+                  try {
+                     pgm._manifest.close();
+                     if (pgm._thumbsucker) {
+                        System.out.println("Updated " + pgm._manifest.describe());
+                     }
+                  } catch (IOException e) {
+                     System.out.println("Error: Can not save the manifest in "
+                        + pgm._outputPath + " reason: "
+                        + e.getLocalizedMessage());
+                     exitVal = -1;
+                  }
+               }
             }
          }
          if (pgm._thumbsucker) {
@@ -114,11 +163,16 @@ public class GetTextFromMarkdown {
    JSONObject _HTMLFilters = new JSONObject();
    Path _inputPath = null;
    boolean _interactive = false;
+   MDfromHTMLRunManifest _manifest = null;
    Options _options = Options.multiMarkdown();
    String _outputPath = ".";
+   // converters modeling the HTML the markdown was generated from, by thread
+   ThreadLocal<Remark> _remarks = new ThreadLocal<Remark>();
    boolean _thumbsucker = false;
    String _txtext = "txt";
    static boolean _includeLinks = false;
+   static public final String PROVENANCE_HEADER = //
+      "###### Doc2Dial Provenance ######";
 
    /**
     * Constructor
@@ -140,6 +194,98 @@ public class GetTextFromMarkdown {
     * @return exit value (0 indicates success, otherwise -1 for failure)
     */
    int doWork(Path file) {
+      return doWork(file, null);
+   }
+
+   /**
+    * Process the specified file to transform its content into formatted text
+    * and save it to a txt file in the specified output directory. The text is
+    * generated on the execution's conversion threads while the files are read
+    * and written on the calling thread.
+    * 
+    * @param file
+    *           the file containing the annotation json from ICCC
+    * @param execution
+    *           schedules the text generation (null to generate it on the
+    *           calling thread)
+    * @return exit value (0 indicates success, otherwise -1 for failure)
+    */
+   int doWork(Path file, MDfromHTMLExecution execution) {
+      return doWork(file, execution, null);
+   }
+
+   /**
+    * Process the specified file as above unless the manifest shows its text
+    * and provenance are current, recording the outcome in the manifest. The
+    * file's text depends on both the markdown and its _html2md.json
+    * provenance.
+    * 
+    * @param file
+    *           the markdown file
+    * @param execution
+    *           schedules the text generation (null to generate it on the
+    *           calling thread)
+    * @param manifest
+    *           records the files converted (null to convert every file)
+    * @return exit value (0 indicates success, otherwise -1 for failure)
+    */
+   int doWork(Path file, MDfromHTMLExecution execution,
+      MDfromHTMLRunManifest manifest) {
+      if (manifest == null) {
+         return convert(file, execution);
+      }
+      String shortFileName = file.getFileName().toString();
+      int index = shortFileName.lastIndexOf("." + _ext);
+      if (index < 1) {
+         return convert(file, execution);
+      }
+      String baseName = shortFileName.substring(0, index);
+      List<Path> sources = Arrays.asList(file,
+         _inputPath.resolve(baseName + "_html2md.json"));
+      JSONArray fingerprint = null;
+      try {
+         if (manifest.isCurrent(sources)) {
+            if (_thumbsucker) {
+               System.out.println("Skipping current: " + file);
+            }
+            return 0;
+         }
+         fingerprint = manifest.fingerprint(sources);
+      } catch (IOException e) {
+         // left to the conversion to report
+      }
+      int exitVal = convert(file, execution);
+      if (fingerprint != null) {
+         try {
+            manifest.record(fingerprint,
+               Arrays.asList(baseName + "." + _txtext,
+                  baseName + "_md2txt.json"),
+               exitVal == 0);
+         } catch (IOException e) {
+            // the file is converted again by the next run
+            System.out.println("Error: Can not record " + file
+               + " in the manifest reason: " + e.getLocalizedMessage());
+         }
+      }
+      return exitVal;
+   }
+
+   /**
+    * @return the version of the settings affecting the generated text
+    *         recorded in the manifest
+    */
+   String getManifestVersion() {
+      return MDfromHTMLRunManifest.getVersion(
+         GetTextFromMarkdown.class.getName(), "includeLinks=" + _includeLinks,
+         "txtext=" + _txtext);
+   }
+
+   /**
+    * Transform the markdown file into text and its provenance. Both are
+    * written to temporary files renamed once complete, so a crash never
+    * leaves partial output.
+    */
+   int convert(Path file, MDfromHTMLExecution execution) {
       int exitVal = 0;
       ProvenanceWriter provenanceWriter = null;
       String html2mdProvenanceFileName = "unknown";
@@ -165,40 +311,51 @@ public class GetTextFromMarkdown {
             provenanceOutputFileName = _outputPath
                + shortFileName.substring(0, index) + "_md2txt.json";
             provenance = MDfromHTMLUtils.loadJSONFile(html2mdProvenanceFileName);
-            _HTMLFilters = (JSONObject) provenance.get("htmlFilters");
+            JSONObject HTMLFilters = (JSONObject) provenance.get("htmlFilters");
             String baseURI = (String) provenance.get("baseURI");
             textOutputFileName = _outputPath + shortFileName.substring(0, index)
                + "." + _txtext;
 
             String domain = Remark.getDomain(baseURI);
             
-            File provenanceOutputFile = new File(provenanceOutputFileName);
-            if (provenanceOutputFile.exists()) {
-               provenanceOutputFile.delete();
-            }
+            Path provenanceOutputFile = FileSystems.getDefault()
+               .getPath(provenanceOutputFileName);
+            Path provenanceTempFile = MDfromHTMLUtils
+               .getTempPath(provenanceOutputFile);
+            Path textOutputFile = FileSystems.getDefault()
+               .getPath(textOutputFileName);
+            Path textTempFile = MDfromHTMLUtils.getTempPath(textOutputFile);
             provenanceWriter = new ProvenanceWriter(fqFileName,
-               textOutputFileName, _HTMLFilters, baseURI, domain,
-               new FileWriter(provenanceOutputFile, true));
+               textOutputFileName, HTMLFilters, baseURI, domain,
+               new FileWriter(provenanceTempFile.toFile()));
             try {
                StringBuffer sb = new StringBuffer();
-               int lineNum = 0;
-               Map<String, String> refURLs = findRefURLs(markdownList);
-               for (String mdLine : markdownList) {
-                  lineNum++;
-                  // truncate at provenance so it isn't included 
-                  if (mdLine.equals("###### Doc2Dial Provenance ######")) {
-                     break;
-                  }
-                  String testLine = generateTextFromMarkdown(mdLine, refURLs);
-                  if (testLine != null) {
-                     provenanceWriter.saveMD2Text("" + lineNum, mdLine,
-                        testLine);
-                     sb.append(testLine);
-                     sb.append("\n");
-                  }
+               List<String[]> textLines = null;
+               final Path htmlFile = _inputPath.resolve(OutputKind.HTML
+                  .getName(shortFileName.substring(0, index)));
+               if (execution == null) {
+                  textLines = generateTextLines(markdownList, htmlFile,
+                     provenance);
+               } else {
+                  final List<String> mdLines = markdownList;
+                  final JSONObject html2mdProvenance = provenance;
+                  textLines = execution.callCPU(new Callable<List<String[]>>() {
+                     @Override
+                     public List<String[]> call() throws IOException {
+                        return generateTextLines(mdLines, htmlFile,
+                           html2mdProvenance);
+                     }
+                  });
+               }
+               for (String[] textLine : textLines) {
+                  provenanceWriter.saveMD2Text(textLine[0], textLine[1],
+                     textLine[2]);
+                  sb.append(textLine[2]);
+                  sb.append("\n");
                }
 
-               MDfromHTMLUtils.saveTextFile(textOutputFileName, sb.toString());
+               MDfromHTMLUtils.saveTextFile(textTempFile.toString(),
+                  sb.toString());
             } catch (Exception e) {
                e.printStackTrace();
                exitVal = -1;
@@ -208,8 +365,20 @@ public class GetTextFromMarkdown {
                      provenanceWriter.close();
                   } catch (IOException e) {
                      e.printStackTrace();
+                     exitVal = -1;
                   }
                }
+               try {
+                  if (exitVal == 0) {
+                     MDfromHTMLUtils.replaceAtomically(textTempFile,
+                        textOutputFile);
+                     MDfromHTMLUtils.replaceAtomically(provenanceTempFile,
+                        provenanceOutputFile);
+                  }
+               } finally {
+                  Files.deleteIfExists(textTempFile);
+                  Files.deleteIfExists(provenanceTempFile);
+               }
             }
          }
       } catch (Exception e) {
@@ -219,6 +388,97 @@ public class GetTextFromMarkdown {
       return exitVal;
    }
 
+   /**
+    * Generate the text for the markdown lines from the model of the HTML they
+    * were generated from, rendered by a {@link TextRenderer} in a single walk
+    * of the HTML rather than reparsing the markdown. The markdown lines are
+    * reparsed instead when the HTML was not kept, or its model renders other
+    * markdown (e.g., the HTML filters or options have since changed).
+    * 
+    * @param markdownList
+    *           the lines of markdown
+    * @param htmlFile
+    *           the HTML saved by GetMarkdownFromHTML for the markdown
+    * @param provenance
+    *           the _html2md.json provenance of the markdown
+    * @return the line number, markdown and generated text for each line
+    *         producing text
+    * @throws IOException
+    *            if the HTML can not be read
+    */
+   List<String[]> generateTextLines(List<String> markdownList, Path htmlFile,
+      JSONObject provenance) throws IOException {
+      JSONObject HTMLFilters = (JSONObject) provenance.get("HTMLFilters");
+      String baseURI = (String) provenance.get("baseURI");
+      if (HTMLFilters != null && baseURI != null && Files.exists(htmlFile)) {
+         Document doc = Jsoup.parse(new String(Files.readAllBytes(htmlFile),
+            MDfromHTMLUtils.UTF8_CHARSET), baseURI);
+         doc.outputSettings().escapeMode(EscapeMode.extended);
+         Remark remark = _remarks.get();
+         if (remark == null
+            || HTMLFilters.equals(remark.getHTMLFilters()) == false) {
+            remark = new Remark(_options, HTMLFilters);
+            _remarks.set(remark);
+         }
+         DocumentModel model = remark.convertToModel(doc, baseURI);
+         Map<String, String> refURLs = findRefURLs(markdownList);
+         TextRenderer renderer = new TextRenderer(
+            GetMarkdownFromHTML.isSeekHeaders(HTMLFilters,
+               Remark.getDomain(baseURI)),
+            refURLs);
+         model.render(renderer);
+         List<String> modelLines = renderer.getMarkdownLines();
+         List<String[]> textLines = renderer.getTextLines();
+         int size = markdownList.indexOf(PROVENANCE_HEADER);
+         if (size < 0) {
+            size = markdownList.size();
+         } else if (size == modelLines.size() + 1
+            && markdownList.get(size - 1).length() == 0) {
+            // the blank line introducing the provenance section
+            String text = generateTextFromMarkdown("", refURLs);
+            if (text != null) {
+               textLines.add(new String[] { "" + size, "", text });
+            }
+            size--;
+         }
+         if (modelLines.equals(markdownList.subList(0, size))) {
+            return textLines;
+         }
+      }
+      if (_thumbsucker) {
+         System.out.println("Reparsing the markdown as " + htmlFile
+            + " is missing or renders other markdown");
+      }
+      return generateTextLines(markdownList);
+   }
+
+   /**
+    * Generate the text for the markdown lines preceding the Doc2Dial
+    * provenance section
+    * 
+    * @param markdownList
+    *           the lines of markdown
+    * @return the line number, markdown and generated text for each line
+    *         producing text
+    */
+   static List<String[]> generateTextLines(List<String> markdownList) {
+      List<String[]> textLines = new ArrayList<String[]>();
+      int lineNum = 0;
+      Map<String, String> refURLs = findRefURLs(markdownList);
+      for (String mdLine : markdownList) {
+         lineNum++;
+         // truncate at provenance so it isn't included 
+         if (mdLine.equals(PROVENANCE_HEADER)) {
+            break;
+         }
+         String testLine = generateTextFromMarkdown(mdLine, refURLs);
+         if (testLine != null) {
+            textLines.add(new String[] { "" + lineNum, mdLine, testLine });
+         }
+      }
+      return textLines;
+   }
+
    static public Map<String, String> findRefURLs(List<String> mdLines) {
       Map<String, String> refURLs = new HashMap<String, String>();
       int offset = 0;
@@ -0,0 +1,728 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.markdown.transform;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Attribute;
+import org.jsoup.nodes.Comment;
+import org.jsoup.nodes.DataNode;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeFilter;
+import org.jsoup.select.NodeTraversor;
+
+import com.api.json.JSON;
+import com.api.json.JSONArray;
+import com.api.json.JSONObject;
+import com.mdfromhtml.core.MDfromHTMLExecution;
+import com.mdfromhtml.core.MDfromHTMLUtils;
+import com.overzealous.remark.Options;
+import com.overzealous.remark.Remark;
+import com.overzealous.remark.convert.DocumentConverter;
+
+/**
+ * Profiles the cost and coverage of the HTML filter rules over a corpus of
+ * capture files so rules can be tuned against real pages rather than only
+ * checking which domains lack rules (see {@link FindUnfilteredDomains}).
+ * <p>
+ * Each capture's html is parsed and cleaned as for conversion, then its body
+ * is walked applying
+ * {@link DocumentConverter#checkHTMLFilters(JSONObject, String, Element, com.overzealous.remark.convert.ProvenanceWriter, String, String, String)}
+ * to each element, skipping the subtrees filtered as the conversion does. A
+ * {@link DocumentConverter.FilterRuleListener} records for each rule (e.g.,
+ * *~:all~class) the number of evaluations and the time spent evaluating it,
+ * and for each rule and filter value the number of nodes filtered along with
+ * the nodes and characters of html in their subtrees (the conversion work
+ * they remove). Rules whose filters are never matched are listed so costly
+ * rules doing no work can be dropped.
+ * <p>
+ * For each domain, the largest subtrees left unfiltered are reported by their
+ * tag and first class (or id), with the pages they occur on and the nodes
+ * and characters of html they contain, as candidates for new domain rules.
+ * Subtrees holding more than half the page (e.g., the main content) and
+ * those nested within a subtree having the same signature are not counted.
+ * <p>
+ * The files are read on the I/O threads and their captures profiled on the
+ * conversion threads of {@link MDfromHTMLExecution#fromProperties()}. The
+ * report is printed as JSON and saved to the report file.
+ *
+ * @author Nathaniel Mills
+ */
+public class ProfileHTMLFilters {
+
+   static public final int DEFAULT_TOP_SUBTREES = 10;
+
+   // subtrees holding more than this share of the page are not candidates
+   static final double MAX_SUBTREE_SHARE = 0.5d;
+
+   /**
+    * Totals for a rule (e.g., *~:all~class) or one of its filter values
+    */
+   static class RuleStats {
+      long _evaluations = 0L;
+      long _hits = 0L;
+      long _nanos = 0L;
+      long _nodes = 0L;
+      long _bytes = 0L;
+      TreeMap<String, RuleStats> _filters = new TreeMap<String, RuleStats>();
+
+      void merge(RuleStats other) {
+         _evaluations += other._evaluations;
+         _hits += other._hits;
+         _nanos += other._nanos;
+         _nodes += other._nodes;
+         _bytes += other._bytes;
+         for (Map.Entry<String, RuleStats> entry : other._filters
+            .entrySet()) {
+            RuleStats stats = _filters.get(entry.getKey());
+            if (stats == null) {
+               stats = new RuleStats();
+               _filters.put(entry.getKey(), stats);
+            }
+            stats.merge(entry.getValue());
+         }
+      }
+   }
+
+   /**
+    * Totals for the unfiltered subtrees of a domain having the same signature
+    */
+   static class Subtree {
+      String _tag;
+      String _attribute;
+      String _value;
+      long _pages = 0L;
+      long _occurrences = 0L;
+      long _nodes = 0L;
+      long _bytes = 0L;
+
+      Subtree(String tag, String attribute, String value) {
+         _tag = tag;
+         _attribute = attribute;
+         _value = value;
+      }
+
+      void merge(Subtree other) {
+         _pages += other._pages;
+         _occurrences += other._occurrences;
+         _nodes += other._nodes;
+         _bytes += other._bytes;
+      }
+   }
+
+   /**
+    * Totals for the pages of a domain
+    */
+   static class DomainStats {
+      long _pages = 0L;
+      long _nodes = 0L;
+      long _bytes = 0L;
+      long _filteredNodes = 0L;
+      long _filteredBytes = 0L;
+      Map<String, Subtree> _subtrees = new HashMap<String, Subtree>();
+
+      void merge(DomainStats other) {
+         _pages += other._pages;
+         _nodes += other._nodes;
+         _bytes += other._bytes;
+         _filteredNodes += other._filteredNodes;
+         _filteredBytes += other._filteredBytes;
+         for (Map.Entry<String, Subtree> entry : other._subtrees.entrySet()) {
+            Subtree subtree = _subtrees.get(entry.getKey());
+            if (subtree == null) {
+               Subtree source = entry.getValue();
+               subtree = new Subtree(source._tag, source._attribute,
+                  source._value);
+               _subtrees.put(entry.getKey(), subtree);
+            }
+            subtree.merge(entry.getValue());
+         }
+      }
+   }
+
+   /**
+    * An element being walked, accumulating its unfiltered subtree
+    */
+   static class Frame {
+      Element _element;
+      String _signature;
+      boolean _counted;
+      long _nodes = 1L;
+      long _bytes;
+
+      Frame(Element element, String signature, boolean counted) {
+         _element = element;
+         _signature = signature;
+         _counted = counted;
+         _bytes = getBytes(element);
+      }
+   }
+
+   /**
+    * The profile of the captures of one or more files. It receives the filter
+    * rule evaluations of the thread profiling a capture.
+    */
+   static class Profile implements DocumentConverter.FilterRuleListener {
+      long _captures = 0L;
+      long _failed = 0L;
+      long _filterNanos = 0L;
+      TreeMap<String, RuleStats> _rules = new TreeMap<String, RuleStats>();
+      TreeMap<String, DomainStats> _domains = new TreeMap<String, DomainStats>();
+
+      // the rule last evaluated and the filter it matched (if any)
+      String _rule = null;
+      RuleStats _matched = null;
+
+      @Override
+      public void evaluated(String rule, long nanos) {
+         RuleStats stats = _rules.get(rule);
+         if (stats == null) {
+            stats = new RuleStats();
+            _rules.put(rule, stats);
+         }
+         stats._evaluations++;
+         stats._nanos += nanos;
+         _rule = rule;
+      }
+
+      @Override
+      public void matched(String rule, Element node) {
+         RuleStats stats = _rules.get(_rule);
+         if (stats == null || rule.startsWith(_rule + "~") == false) {
+            return;
+         }
+         stats._hits++;
+         String filter = rule.substring(_rule.length() + 1);
+         RuleStats filterStats = stats._filters.get(filter);
+         if (filterStats == null) {
+            filterStats = new RuleStats();
+            stats._filters.put(filter, filterStats);
+         }
+         filterStats._hits++;
+         _matched = filterStats;
+      }
+
+      void merge(Profile other) {
+         _captures += other._captures;
+         _failed += other._failed;
+         _filterNanos += other._filterNanos;
+         for (Map.Entry<String, RuleStats> entry : other._rules.entrySet()) {
+            RuleStats stats = _rules.get(entry.getKey());
+            if (stats == null) {
+               stats = new RuleStats();
+               _rules.put(entry.getKey(), stats);
+            }
+            stats.merge(entry.getValue());
+         }
+         for (Map.Entry<String, DomainStats> entry : other._domains
+            .entrySet()) {
+            DomainStats stats = _domains.get(entry.getKey());
+            if (stats == null) {
+               stats = new DomainStats();
+               _domains.put(entry.getKey(), stats);
+            }
+            stats.merge(entry.getValue());
+         }
+      }
+
+      /**
+       * Walk the cleaned body of the capture's html applying the filters,
+       * recording the work removed by each rule and the unfiltered subtrees
+       * of the page. The caller must have registered this profile as the
+       * thread's {@link DocumentConverter.FilterRuleListener}.
+       */
+      void profile(String html, String url, final JSONObject HTMLFilters,
+         Options options) {
+         // the same base URI and domain as a conversion filters with
+         String[] uriAndDomain = Remark.resolveBaseURI(url);
+         String baseURI = uriAndDomain[0];
+         String domain = uriAndDomain[1];
+         Document doc = Jsoup.parse(html, baseURI);
+         doc = Remark.updateCleaner(domain, options, HTMLFilters).clean(doc);
+         final Element body = doc.body();
+         if (body == null) {
+            return;
+         }
+         _captures++;
+         DomainStats domainStats = _domains.get(domain);
+         if (domainStats == null) {
+            domainStats = new DomainStats();
+            _domains.put(domain, domainStats);
+         }
+         final DomainStats page = domainStats;
+         final String filterDomain = domain;
+         final String filterURI = baseURI;
+         final ArrayList<Frame> frames = new ArrayList<Frame>();
+         final HashMap<String, Integer> active = new HashMap<String, Integer>();
+         final HashMap<String, Subtree> subtrees = new HashMap<String, Subtree>();
+         final long[] filtered = new long[] { 0L, 0L };
+         NodeTraversor.filter(new NodeFilter() {
+            @Override
+            public FilterResult head(Node node, int depth) {
+               if (node instanceof Element == false) {
+                  if (frames.isEmpty() == false) {
+                     Frame parent = frames.get(frames.size() - 1);
+                     parent._nodes++;
+                     parent._bytes += getBytes(node);
+                  }
+                  return FilterResult.CONTINUE;
+               }
+               Element element = (Element) node;
+               if (element != body) {
+                  _rule = null;
+                  _matched = null;
+                  long start = System.nanoTime();
+                  boolean skip = DocumentConverter.checkHTMLFilters(
+                     HTMLFilters, element.tagName(), element, null, filterURI,
+                     filterDomain, "");
+                  _filterNanos += System.nanoTime() - start;
+                  if (skip) {
+                     long[] size = getSize(element);
+                     filtered[0] += size[0];
+                     filtered[1] += size[1];
+                     if (_matched != null) {
+                        _matched._nodes += size[0];
+                        _matched._bytes += size[1];
+                        RuleStats rule = _rules.get(_rule);
+                        rule._nodes += size[0];
+                        rule._bytes += size[1];
+                     }
+                     return FilterResult.SKIP_ENTIRELY;
+                  }
+               }
+               String signature = getSignature(element);
+               boolean counted = false;
+               if (signature != null) {
+                  Integer nesting = active.get(signature);
+                  counted = nesting == null;
+                  active.put(signature, nesting == null ? 1 : nesting + 1);
+               }
+               frames.add(new Frame(element, signature, counted));
+               return FilterResult.CONTINUE;
+            }
+
+            @Override
+            public FilterResult tail(Node node, int depth) {
+               if (frames.isEmpty()
+                  || frames.get(frames.size() - 1)._element != node) {
+                  return FilterResult.CONTINUE;
+               }
+               Frame frame = frames.remove(frames.size() - 1);
+               if (frames.isEmpty() == false) {
+                  Frame parent = frames.get(frames.size() - 1);
+                  parent._nodes += frame._nodes;
+                  parent._bytes += frame._bytes;
+               }
+               if (frame._signature != null) {
+                  int nesting = active.get(frame._signature);
+                  if (nesting == 1) {
+                     active.remove(frame._signature);
+                  } else {
+                     active.put(frame._signature, nesting - 1);
+                  }
+                  if (frame._counted) {
+                     Subtree subtree = subtrees.get(frame._signature);
+                     if (subtree == null) {
+                        subtree = newSubtree(frame._element);
+                        subtree._pages = 1L;
+                        subtrees.put(frame._signature, subtree);
+                     }
+                     subtree._occurrences++;
+                     subtree._nodes += frame._nodes;
+                     subtree._bytes += frame._bytes;
+                  }
+               } else if (frame._element == body) {
+                  page._nodes += frame._nodes;
+                  page._bytes += frame._bytes;
+                  page._pages++;
+                  // the main content is not a candidate for filtering
+                  long maxBytes = (long) (frame._bytes * MAX_SUBTREE_SHARE);
+                  for (Map.Entry<String, Subtree> entry : subtrees
+                     .entrySet()) {
+                     if (entry.getValue()._bytes > maxBytes) {
+                        continue;
+                     }
+                     Subtree subtree = page._subtrees.get(entry.getKey());
+                     if (subtree == null) {
+                        page._subtrees.put(entry.getKey(), entry.getValue());
+                     } else {
+                        subtree.merge(entry.getValue());
+                     }
+                  }
+               }
+               return FilterResult.CONTINUE;
+            }
+         }, body);
+         page._filteredNodes += filtered[0];
+         page._filteredBytes += filtered[1];
+      }
+
+      /**
+       * @return the report of the profile
+       */
+      JSONObject toJSON(JSONObject HTMLFilters, int topSubtrees) {
+         JSONObject report = new JSONObject();
+         report.put("captures", _captures);
+         report.put("failed", _failed);
+         report.put("filterMillis", _filterNanos / 1000000L);
+         long ruleNanos = 0L;
+         JSONArray rules = new JSONArray();
+         for (Map.Entry<String, RuleStats> entry : getByCost()) {
+            RuleStats stats = entry.getValue();
+            ruleNanos += stats._nanos;
+            JSONObject rule = new JSONObject();
+            rule.put("rule", entry.getKey());
+            rule.put("evaluations", stats._evaluations);
+            rule.put("nanos", stats._nanos);
+            rule.put("hits", stats._hits);
+            rule.put("nodesRemoved", stats._nodes);
+            rule.put("bytesRemoved", stats._bytes);
+            JSONArray filters = new JSONArray();
+            for (Map.Entry<String, RuleStats> filterEntry : stats._filters
+               .entrySet()) {
+               RuleStats filterStats = filterEntry.getValue();
+               JSONObject filter = new JSONObject();
+               filter.put("filter", filterEntry.getKey());
+               filter.put("hits", filterStats._hits);
+               filter.put("nodesRemoved", filterStats._nodes);
+               filter.put("bytesRemoved", filterStats._bytes);
+               filters.add(filter);
+            }
+            rule.put("filters", filters);
+            JSONArray unused = new JSONArray();
+            for (String filter : getFilters(HTMLFilters, entry.getKey())) {
+               if (stats._filters.containsKey(filter) == false) {
+                  unused.add(filter);
+               }
+            }
+            rule.put("unusedFilters", unused);
+            rules.add(rule);
+         }
+         report.put("ruleMillis", ruleNanos / 1000000L);
+         report.put("rules", rules);
+         JSONArray domains = new JSONArray();
+         for (Map.Entry<String, DomainStats> entry : _domains.entrySet()) {
+            DomainStats stats = entry.getValue();
+            JSONObject domain = new JSONObject();
+            domain.put("domain", entry.getKey());
+            domain.put("hasFilters", HTMLFilters.get(entry.getKey()) != null);
+            domain.put("pages", stats._pages);
+            domain.put("nodes", stats._nodes);
+            domain.put("bytes", stats._bytes);
+            domain.put("nodesFiltered", stats._filteredNodes);
+            domain.put("bytesFiltered", stats._filteredBytes);
+            List<Subtree> subtrees = new ArrayList<Subtree>(
+               stats._subtrees.values());
+            Collections.sort(subtrees, new Comparator<Subtree>() {
+               @Override
+               public int compare(Subtree o1, Subtree o2) {
+                  return Long.compare(o2._bytes, o1._bytes);
+               }
+            });
+            JSONArray hottest = new JSONArray();
+            for (int i = 0; i < subtrees.size() && i < topSubtrees; i++) {
+               Subtree subtree = subtrees.get(i);
+               JSONObject candidate = new JSONObject();
+               candidate.put("tag", subtree._tag);
+               candidate.put("attribute", subtree._attribute);
+               candidate.put("value", subtree._value);
+               candidate.put("pages", subtree._pages);
+               candidate.put("occurrences", subtree._occurrences);
+               candidate.put("nodes", subtree._nodes);
+               candidate.put("bytes", subtree._bytes);
+               hottest.add(candidate);
+            }
+            domain.put("unfilteredSubtrees", hottest);
+            domains.add(domain);
+         }
+         report.put("domains", domains);
+         return report;
+      }
+
+      /**
+       * @return the rules ordered by the time spent evaluating them
+       */
+      List<Map.Entry<String, RuleStats>> getByCost() {
+         List<Map.Entry<String, RuleStats>> rules = new ArrayList<Map.Entry<String, RuleStats>>(
+            _rules.entrySet());
+         Collections.sort(rules,
+            new Comparator<Map.Entry<String, RuleStats>>() {
+               @Override
+               public int compare(Map.Entry<String, RuleStats> o1,
+                  Map.Entry<String, RuleStats> o2) {
+                  return Long.compare(o2.getValue()._nanos,
+                     o1.getValue()._nanos);
+               }
+            });
+         return rules;
+      }
+   }
+
+   /**
+    * @param args
+    *           inputPath (directory of capture json files), filtersFile
+    *           (default ./properties/HTML_Filters.json), reportFile (default
+    *           ./filter_profile.json) and the number of unfiltered subtrees
+    *           reported per domain (default 10)
+    */
+   public static void main(String[] args) {
+      if (args.length < 1) {
+         System.out.println(
+            "Usage: ProfileHTMLFilters inputPath [filtersFile [reportFile [topSubtrees]]]");
+         System.exit(-1);
+      }
+      String filtersFile = "." + File.separator + "properties" + File.separator
+         + "HTML_Filters.json";
+      String reportFile = "." + File.separator + "filter_profile.json";
+      int topSubtrees = DEFAULT_TOP_SUBTREES;
+      if (args.length > 1) {
+         filtersFile = args[1];
+      }
+      if (args.length > 2) {
+         reportFile = args[2];
+      }
+      if (args.length > 3) {
+         try {
+            topSubtrees = Integer.parseInt(args[3]);
+         } catch (NumberFormatException e) {
+            System.out.println("Error: topSubtrees must be an integer: "
+               + e.getLocalizedMessage());
+            System.exit(-1);
+         }
+      }
+      MDfromHTMLExecution execution = MDfromHTMLExecution.fromProperties();
+      try {
+         JSONObject HTMLFilters = MDfromHTMLUtils.loadJSONFile(filtersFile);
+         // fold to lowercase as for conversion
+         HTMLFilters = (JSONObject) JSON
+            .parse(HTMLFilters.toString().toLowerCase());
+         List<Path> files = MDfromHTMLUtils.listSourceFiles(
+            FileSystems.getDefault().getPath(args[0]), "json");
+         Profile profile = profile(files, HTMLFilters, execution);
+         JSONObject report = profile.toJSON(HTMLFilters, topSubtrees);
+         report.put("filters", filtersFile);
+         report.put("files", files.size());
+         report.put("execution", execution.describe());
+         System.out.println(report.serialize(true));
+         MDfromHTMLUtils.saveJSONFile(reportFile, report);
+      } catch (Exception e) {
+         System.out.println("Error: Profiling failed: " + e.getLocalizedMessage());
+         e.printStackTrace();
+         System.exit(-1);
+      } finally {
+         execution.close();
+      }
+   }
+
+   /**
+    * Profile the filters over the captures of the files, reading the files
+    * on the execution's I/O threads and profiling their captures on its
+    * conversion threads
+    * 
+    * @param files
+    *           the capture files
+    * @param HTMLFilters
+    *           object containing global and domain specific filter rules
+    * @param execution
+    *           schedules the work
+    * @return the profile merged from all files
+    * @throws Exception
+    *            if the work can not be scheduled
+    */
+   static Profile profile(List<Path> files, final JSONObject HTMLFilters,
+      final MDfromHTMLExecution execution) throws Exception {
+      final Options options = Options.multiMarkdown();
+      options.hardwraps = true;
+      final Profile total = new Profile();
+      execution.forEachOrdered(files,
+         new MDfromHTMLExecution.Task<Path, Profile>() {
+            @Override
+            public Profile call(Path file) throws Exception {
+               Profile profile = new Profile();
+               CaptureReader reader = new CaptureReader(file.toFile());
+               try {
+                  while (true) {
+                     final CaptureReader.Capture capture = reader.next();
+                     if (capture == null) {
+                        break;
+                     }
+                     if (capture.isValid() == false) {
+                        System.err.println(capture.getError() + " Skipping it.");
+                        profile._failed++;
+                        continue;
+                     }
+                     final Profile fileProfile = profile;
+                     execution.callCPU(new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                           DocumentConverter.setFilterRuleListener(fileProfile);
+                           try {
+                              fileProfile.profile(capture.getHTML(),
+                                 capture.getURL(), HTMLFilters, options);
+                           } catch (Exception e) {
+                              System.err.println("Can not profile "
+                                 + capture.getURL() + ": "
+                                 + e.getLocalizedMessage());
+                              fileProfile._failed++;
+                           } finally {
+                              DocumentConverter.setFilterRuleListener(null);
+                           }
+                           return null;
+                        }
+                     });
+                  }
+               } catch (Exception e) {
+                  System.err.println("Can not read " + file + ": "
+                     + e.getLocalizedMessage());
+                  profile._failed++;
+               } finally {
+                  reader.close();
+               }
+               return profile;
+            }
+         }, new MDfromHTMLExecution.ResultHandler<Profile>() {
+            @Override
+            public boolean accept(Profile result) {
+               total.merge(result);
+               return true;
+            }
+         });
+      return total;
+   }
+
+   /**
+    * @return the filter values configured for the rule (e.g., the class
+    *         values of *~:all~class or the tag names of *~:tagnames)
+    */
+   static List<String> getFilters(JSONObject HTMLFilters, String rule) {
+      List<String> result = new ArrayList<String>();
+      String[] parts = rule.split("~", 3);
+      Object scope = HTMLFilters.get(parts[0]);
+      Object filters = null;
+      if (scope instanceof JSONObject) {
+         filters = ((JSONObject) scope).get(parts[1]);
+         if (parts.length > 2) {
+            filters = filters instanceof JSONObject
+               ? ((JSONObject) filters).get(parts[2])
+               : null;
+         }
+      }
+      if (filters instanceof JSONArray) {
+         for (Object filter : (JSONArray) filters) {
+            result.add(filter.toString());
+         }
+      }
+      return result;
+   }
+
+   /**
+    * @return the signature of the element's subtree: its tag with its first
+    *         class or else its id (null if it has neither)
+    */
+   static String getSignature(Element element) {
+      Subtree subtree = newSubtree(element);
+      if (subtree == null) {
+         return null;
+      }
+      return subtree._tag + "~" + subtree._attribute + "~" + subtree._value;
+   }
+
+   /**
+    * @return the subtree described by the element's tag with its first class
+    *         or else its id (null if it has neither)
+    */
+   static Subtree newSubtree(Element element) {
+      String value = element.attr("class").trim().toLowerCase();
+      if (value.length() > 0) {
+         int index = value.indexOf(' ');
+         return new Subtree(element.tagName(), "class",
+            index < 0 ? value : value.substring(0, index));
+      }
+      value = element.attr("id").trim().toLowerCase();
+      if (value.length() > 0) {
+         return new Subtree(element.tagName(), "id", value);
+      }
+      return null;
+   }
+
+   /**
+    * @return the approximate characters of html for the node itself (its
+    *         tags and attributes, or its text), excluding its children
+    */
+   static long getBytes(Node node) {
+      if (node instanceof TextNode) {
+         return ((TextNode) node).getWholeText().length();
+      }
+      if (node instanceof DataNode) {
+         return ((DataNode) node).getWholeData().length();
+      }
+      if (node instanceof Comment) {
+         return ((Comment) node).getData().length() + 7;
+      }
+      if (node instanceof Element) {
+         long bytes = 2L * ((Element) node).tagName().length() + 5L;
+         for (Attribute attribute : node.attributes()) {
+            bytes += attribute.getKey().length()
+               + attribute.getValue().length() + 4L;
+         }
+         return bytes;
+      }
+      return 0L;
+   }
+
+   /**
+    * @return the number of nodes and the approximate characters of html in
+    *         the node's subtree
+    */
+   static long[] getSize(Node node) {
+      final long[] size = new long[] { 0L, 0L };
+      NodeTraversor.filter(new NodeFilter() {
+         @Override
+         public FilterResult head(Node child, int depth) {
+            size[0]++;
+            size[1] += getBytes(child);
+            return FilterResult.CONTINUE;
+         }
+
+         @Override
+         public FilterResult tail(Node child, int depth) {
+            return FilterResult.CONTINUE;
+         }
+      }, node);
+      return size;
+   }
+}
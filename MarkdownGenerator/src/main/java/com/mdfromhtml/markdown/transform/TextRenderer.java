@@ -0,0 +1,208 @@
+/**
+ * (c) Copyright 2019-2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.markdown.transform;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import com.mdfromhtml.remark.utils.CleanupMarkdown;
+import com.overzealous.remark.convert.DocumentModel;
+import com.overzealous.remark.convert.DocumentRenderer;
+import com.overzealous.remark.convert.MarkdownRenderer;
+
+/**
+ * Renders the text of a {@link DocumentModel} in a single pass over its
+ * blocks, producing the markdown lines GetMarkdownFromHTML saves for the
+ * document (skipping content before the first header when seeking headers,
+ * empty headers and list items, and unused references) and the text
+ * GetTextFromMarkdown generates for each of them.
+ * 
+ * @author Nathaniel Mills
+ */
+public class TextRenderer implements DocumentRenderer {
+
+   boolean _first = true;
+   List<String> _heldLines = new ArrayList<String>();
+   DocumentModel.BlockKind _kind = null;
+   StringBuilder _line = new StringBuilder();
+   int _lineNum = 0;
+   List<String> _markdownLines = new ArrayList<String>();
+   boolean _reachedHeader = false;
+   boolean _reachedProvenance = false;
+   Map<String, String> _refURLs;
+   Set<String> _refLinks = new HashSet<String>();
+   Set<String> _references = new HashSet<String>();
+   Set<String> _removedReferences = new HashSet<String>();
+   boolean _skipLF = false;
+   List<String[]> _textLines = new ArrayList<String[]>();
+
+   /**
+    * Constructor
+    * 
+    * @param seekHeaders
+    *           should we ignore content before the first header encountered
+    * @param refURLs
+    *           the URLs of the link references used when links are included
+    *           in the text (see {@link GetTextFromMarkdown#findRefURLs(List)})
+    */
+   public TextRenderer(boolean seekHeaders, Map<String, String> refURLs) {
+      _reachedHeader = !seekHeaders;
+      _refURLs = refURLs;
+   }
+
+   /**
+    * @return the lines of markdown rendered
+    */
+   public List<String> getMarkdownLines() {
+      return _markdownLines;
+   }
+
+   /**
+    * @return the line number, markdown and generated text for each markdown
+    *         line producing text, as returned by
+    *         GetTextFromMarkdown.generateTextLines for the markdown lines
+    */
+   public List<String[]> getTextLines() {
+      return _textLines;
+   }
+
+   @Override
+   public void beginBlock(DocumentModel.Block block) {
+      // the separator completes the last line of the prior block
+      if (_first) {
+         _first = false;
+      } else {
+         write("\n\n");
+      }
+      _kind = block.getKind();
+      write(MarkdownRenderer.getMarkdown(block));
+   }
+
+   @Override
+   public void inline(DocumentModel.Inline inline) {
+   }
+
+   @Override
+   public void endBlock(DocumentModel.Block block) {
+   }
+
+   @Override
+   public void endDocument() {
+      if (_line.length() > 0) {
+         readLine(_line.toString());
+         _line.setLength(0);
+      }
+      if (_reachedHeader == false) {
+         // no header so assume we can use everything
+         for (String line : _heldLines) {
+            keepLine(line);
+         }
+         _heldLines.clear();
+      }
+   }
+
+   /**
+    * Split the markdown into lines as BufferedReader.readLine does
+    */
+   void write(String markdown) {
+      for (int i = 0; i < markdown.length(); i++) {
+         char c = markdown.charAt(i);
+         if (_skipLF) {
+            _skipLF = false;
+            if (c == '\n') {
+               continue;
+            }
+         }
+         if (c == '\n' || c == '\r') {
+            readLine(_line.toString());
+            _line.setLength(0);
+            _skipLF = (c == '\r');
+         } else {
+            _line.append(c);
+         }
+      }
+   }
+
+   /**
+    * Apply the cleanup of CleanupMarkdown.cleanAll to the line
+    */
+   void readLine(String line) {
+      if (!_reachedHeader) {
+         _heldLines.add(line);
+         if (line.trim().startsWith("#") == false) {
+            return;
+         }
+         _reachedHeader = true;
+         _heldLines.clear();
+      }
+      if (CleanupMarkdown.isEmptyHeader(line)) {
+         return;
+      }
+      if (CleanupMarkdown.isEmptyListItem(line)) {
+         return;
+      }
+      keepLine(line);
+   }
+
+   /**
+    * Remove the line if it is a reference no prior line links to, as
+    * GetMarkdownFromHTML.removeUnusedReferences does, otherwise generate its
+    * text
+    */
+   void keepLine(String line) {
+      if (_kind == DocumentModel.BlockKind.REFERENCES) {
+         String test = line.trim();
+         if (test.startsWith("[")) {
+            int index = test.indexOf("]: ");
+            if (index != -1) {
+               String refStr = test.substring(0, index + 1);
+               if (_refLinks.contains(refStr) == false
+                  && _removedReferences.add(refStr)) {
+                  // filter this line as it contains an unreferenced reference
+                  return;
+               }
+            } else if (test.endsWith("]:")
+               && _removedReferences.isEmpty() == false) {
+               // this is an invalid reference "[blah]: "
+               return;
+            }
+         }
+      }
+      GetMarkdownFromHTML.getReferencesAndLinks(line, _refLinks, _references);
+      _markdownLines.add(line);
+      _lineNum++;
+      // truncate at provenance so it isn't included
+      if (_reachedProvenance
+         || line.equals(GetTextFromMarkdown.PROVENANCE_HEADER)) {
+         _reachedProvenance = true;
+         return;
+      }
+      String text = GetTextFromMarkdown.generateTextFromMarkdown(line,
+         _refURLs);
+      if (text != null) {
+         _textLines.add(new String[] { "" + _lineNum, line, text });
+      }
+   }
+}
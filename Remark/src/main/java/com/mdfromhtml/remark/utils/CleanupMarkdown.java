@@ -145,7 +145,7 @@ public class CleanupMarkdown {
     *           content to be examined
     * @return true if the supplied line contains an empty header
     */
-   static boolean isEmptyHeader(String line) {
+   static public boolean isEmptyHeader(String line) {
       boolean result = false;
       String test = line.trim();
       if (test.startsWith("#") && test.endsWith("#")) {
@@ -169,7 +169,7 @@ public class CleanupMarkdown {
     *           content to be examined
     * @return true if the supplied line contains an empty list item
     */
-   static boolean isEmptyListItem(String line) {
+   static public boolean isEmptyListItem(String line) {
       boolean result = false;
       String test = line.trim();
       if ("*".equals(test)) {
@@ -22,13 +22,23 @@
 
 package com.mdfromhtml.remark.utils;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import org.jsoup.nodes.Document;
+
 /**
- * General utilities for formatting html
+ * General utilities for formatting html. The formatters make a single pass
+ * over their input writing directly to the supplied Writer so large pages can
+ * be streamed to a file without building intermediate copies.
  * 
  * @author Nathaniel Mills
  */
 public class HTMLFormatter {
 
+   static final String BLANKS = "                                               ";
+
    /**
     * @param args
     */
@@ -62,92 +72,285 @@ public class HTMLFormatter {
     * @return the original HTML formatted with tags on separate lines.
     */
    public static String formatHTML(String html, int indentAmt) {
-      String blanks = "                                               ";
+      StringWriter sw = new StringWriter(html.length() + html.length() / 8);
+      try {
+         formatHTML(html, indentAmt, sw);
+      } catch (IOException e) {
+         // StringWriter does not throw IOExceptions
+      }
+      return sw.toString();
+   }
+
+   /**
+    * Writes a breakdown of the html into individual tagged content with the
+    * option to indent the content using the supplied indentAmt if > 0. The
+    * html is scanned once from start to end so the cost is linear in its
+    * length. Text following the last tag is not written.
+    * 
+    * @param html
+    *           the HTML content to be formatted
+    * @param indentAmt
+    *           the size of the incremental indent when navigating the dom (may
+    *           be 0 for no indentation)
+    * @param out
+    *           the writer receiving the original HTML formatted with tags on
+    *           separate lines.
+    * @throws IOException
+    *            if the formatted HTML can not be written
+    */
+   public static void formatHTML(String html, int indentAmt, Writer out)
+      throws IOException {
       int maxIndent = indentAmt <= 0 ? 0
-         : (blanks.length() / indentAmt) * indentAmt;
+         : (BLANKS.length() / indentAmt) * indentAmt;
       int currentIndent = 0;
-      int openIndex = -1; // location of next <
+      int indent = 0; // number of blanks in the current indenter
+      int length = html.length();
+      int pos = 0; // start of the html yet to be processed
+      int openIndex = html.indexOf('<'); // location of next <
       int closeIndex = -1; // location of next >
-      StringBuffer sb = new StringBuffer();
-      openIndex = html.indexOf("<");
-      String indenter = "";
-      String testTagType = "";
       while (openIndex >= 0) {
-         if (openIndex > 0) {
-            if (openIndex == 1 && "\n".equals(html.substring(0, 1))) {
+         if (openIndex > pos) {
+            if (openIndex == pos + 1 && html.charAt(pos) == '\n') {
                // ignore newlines embedded between tags
-               html = html.substring(1);
-               openIndex = 0;
+               pos = openIndex;
                continue;
             }
-            // keep same indent level
-            // sb.append(indenter);
             // elected to left justify to preserve actual spacing
 
             // process content between closing tag and opening tag
-            sb.append(html.substring(0, openIndex));
-            html = html.substring(openIndex);
-            sb.append("\n");
-            openIndex = 0;
+            out.write(html, pos, openIndex - pos);
+            out.write('\n');
+            pos = openIndex;
             continue;
          }
+         if (pos + 1 >= length) {
+            // a trailing < does not begin a tag
+            break;
+         }
          // otherwise, we have several cases depending on next char
-         testTagType = html.substring(1, 2);
-         switch (testTagType) {
-            case "!": {
-               // comment
+         switch (html.charAt(pos + 1)) {
+            case '!': {
+               // comment or declaration
                // keep same indent level
-               sb.append(indenter);
-               closeIndex = html.indexOf("-->");
-               sb.append(html.substring(0, closeIndex + 3));
-               html = html.substring(closeIndex + 3);
-               sb.append("\n");
-               openIndex = html.indexOf("<");
+               out.write(BLANKS, 0, indent);
+               if (html.startsWith("<!--", pos)) {
+                  closeIndex = html.indexOf("-->", pos);
+                  if (closeIndex >= 0) {
+                     closeIndex += 2;
+                  }
+               } else {
+                  closeIndex = html.indexOf('>', pos);
+               }
                break;
             }
-            case "/": {
+            case '/': {
                // closing tag (unindent and print the tag
                currentIndent -= indentAmt;
                if (currentIndent < 0) {
                   currentIndent = 0;
                }
-               indenter = blanks.substring(0,
-                  Math.min(maxIndent, currentIndent));
-               sb.append(indenter);
-               closeIndex = html.indexOf(">");
-               sb.append(html.substring(0, closeIndex + 1));
-               html = html.substring(closeIndex + 1);
-               sb.append("\n");
-               openIndex = html.indexOf("<");
+               indent = Math.min(maxIndent, currentIndent);
+               out.write(BLANKS, 0, indent);
+               closeIndex = html.indexOf('>', pos);
                break;
             }
             default: {
                // opening tag (can be <...> or <.../>
-               closeIndex = html.indexOf(">");
-               testTagType = html.substring(closeIndex - 1, closeIndex);
-               if ("/".equals(testTagType)) {
-                  // <.../> so use same indent
-                  sb.append(indenter);
-                  sb.append(html.substring(0, closeIndex + 1));
-                  html = html.substring(closeIndex + 1);
-                  sb.append("\n");
-                  openIndex = html.indexOf("<");
-               } else {
+               out.write(BLANKS, 0, indent);
+               closeIndex = html.indexOf('>', pos);
+               if (closeIndex > 0 && html.charAt(closeIndex - 1) != '/') {
                   // <...> so add indent after printing tag
-                  sb.append(indenter);
-                  sb.append(html.substring(0, closeIndex + 1));
-                  html = html.substring(closeIndex + 1);
                   currentIndent += indentAmt;
-                  indenter = blanks.substring(0,
-                     Math.min(maxIndent, currentIndent));
-                  sb.append("\n");
-                  openIndex = html.indexOf("<");
                }
                break;
             }
          } // end switch on tagType
+         if (closeIndex < 0) {
+            // unterminated tag so keep the remainder as-is
+            out.write(html, pos, length - pos);
+            out.write('\n');
+            break;
+         }
+         out.write(html, pos, closeIndex + 1 - pos);
+         out.write('\n');
+         indent = Math.min(maxIndent, currentIndent);
+         pos = closeIndex + 1;
+         openIndex = html.indexOf('<', pos);
       } // end while we have tags to process
-      return sb.toString();
    }
 
+   /**
+    * Writes the document's html as produced by its toString() with the
+    * &amp;amp; and &amp;quot; entities restored to their characters. This
+    * produces the same content as
+    * doc.toString().replaceAll("&amp;amp;","&amp;").replaceAll("&amp;quot;","\"")
+    * without materializing the serialized document or rescanning it.
+    * 
+    * @param doc
+    *           the document to be written
+    * @param out
+    *           the writer receiving the formatted html
+    * @throws IOException
+    *            if the formatted html can not be written
+    */
+   public static void writeFormattedHTML(Document doc, Writer out)
+      throws IOException {
+      UnescapingWriter writer = new UnescapingWriter(out,
+         doc.outputSettings().prettyPrint());
+      doc.html(writer);
+      writer.finish();
+   }
+
+   /**
+    * Writer restoring &amp;amp; and &amp;quot; entities (including &amp;amp;quot;)
+    * while optionally trimming leading and trailing whitespace, buffering only
+    * as many characters as needed to recognize an entity spanning writes.
+    */
+   static class UnescapingWriter extends Writer {
+
+      static final String AMP = "&amp;";
+      static final String AMP_QUOT = "&amp;quot;";
+      static final String QUOT = "&quot;";
+
+      char[] _buffer = new char[8192];
+      int _count = 0;
+      boolean _leading;
+      Writer _out;
+      StringBuilder _pending = new StringBuilder(AMP_QUOT.length());
+      boolean _trim;
+      StringBuilder _whitespace = new StringBuilder();
+
+      UnescapingWriter(Writer out, boolean trim) {
+         _out = out;
+         _trim = trim;
+         _leading = trim;
+      }
+
+      @Override
+      public void write(char[] cbuf, int off, int len) throws IOException {
+         for (int i = off; i < off + len; i++) {
+            accept(cbuf[i]);
+         }
+      }
+
+      @Override
+      public void write(String str, int off, int len) throws IOException {
+         for (int i = off; i < off + len; i++) {
+            accept(str.charAt(i));
+         }
+      }
+
+      @Override
+      public void write(int c) throws IOException {
+         accept((char) c);
+      }
+
+      @Override
+      public void flush() throws IOException {
+         drain();
+         _out.flush();
+      }
+
+      @Override
+      public void close() throws IOException {
+         finish();
+      }
+
+      /**
+       * Resolve any partially matched entity and write the remaining content,
+       * omitting trailing whitespace when trimming. The underlying writer is
+       * not closed.
+       * 
+       * @throws IOException
+       *            if the content can not be written
+       */
+      void finish() throws IOException {
+         while (_pending.length() > 0) {
+            resolvePending();
+         }
+         drain();
+      }
+
+      void accept(char c) throws IOException {
+         if (_pending.length() == 0 && c != '&') {
+            emit(c);
+            return;
+         }
+         _pending.append(c);
+         if (_pending.length() == QUOT.length()
+            && QUOT.contentEquals(_pending)) {
+            _pending.setLength(0);
+            emit('"');
+         } else if (_pending.length() == AMP_QUOT.length()
+            && AMP_QUOT.contentEquals(_pending)) {
+            _pending.setLength(0);
+            emit('"');
+         } else if (isPrefix(QUOT) == false && isPrefix(AMP_QUOT) == false) {
+            resolvePending();
+         }
+      }
+
+      boolean isPrefix(String entity) {
+         int length = _pending.length();
+         if (length > entity.length()) {
+            return false;
+         }
+         for (int i = 0; i < length; i++) {
+            if (entity.charAt(i) != _pending.charAt(i)) {
+               return false;
+            }
+         }
+         return true;
+      }
+
+      /**
+       * The pending characters can not complete an entity so write the
+       * leading &amp; (or the &amp; restored from &amp;amp;) and rescan the
+       * characters that followed it.
+       */
+      void resolvePending() throws IOException {
+         int skip = 1;
+         if (_pending.length() >= AMP.length()
+            && AMP.contentEquals(_pending.subSequence(0, AMP.length()))) {
+            skip = AMP.length();
+         }
+         String rest = _pending.substring(skip);
+         _pending.setLength(0);
+         emit('&');
+         for (int i = 0; i < rest.length(); i++) {
+            accept(rest.charAt(i));
+         }
+      }
+
+      void emit(char c) throws IOException {
+         if (_trim && c <= ' ') {
+            if (_leading == false) {
+               _whitespace.append(c);
+            }
+            return;
+         }
+         _leading = false;
+         if (_whitespace.length() > 0) {
+            for (int i = 0; i < _whitespace.length(); i++) {
+               put(_whitespace.charAt(i));
+            }
+            _whitespace.setLength(0);
+         }
+         put(c);
+      }
+
+      void put(char c) throws IOException {
+         if (_count == _buffer.length) {
+            drain();
+         }
+         _buffer[_count++] = c;
+      }
+
+      void drain() throws IOException {
+         if (_count > 0) {
+            _out.write(_buffer, 0, _count);
+            _count = 0;
+         }
+      }
+   }
 }
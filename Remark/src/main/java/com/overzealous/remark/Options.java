@@ -41,6 +41,8 @@ package com.overzealous.remark;
 import java.util.HashSet;
 import java.util.Set;
 
+import com.overzealous.remark.util.PayloadStore;
+
 /**
  * This class is used to configure the Remark engine.
  *
@@ -560,6 +562,49 @@ public class Options implements Cloneable {
     */
    public boolean fixPegdownStrongEmphasisInLinks = false;
 
+   /**
+    * If greater than zero, documents whose body has at least this many nodes
+    * have their top level blocks converted concurrently on the common
+    * fork-join pool and merged in order, producing the same markdown and
+    * provenance as a serial conversion. (Defaults to the
+    * mdfromhtml.parallelBlockNodes system property, or 0 to always convert
+    * serially.)
+    */
+   public int parallelBlockNodes = Integer
+      .getInteger("mdfromhtml.parallelBlockNodes", 0);
+
+   /**
+    * If zero or more, Markdown tables are streamed rather than fully buffered:
+    * the column widths and alignments are fixed from the header rows and this
+    * many body rows, and later rows are written as they are converted, so
+    * cells wider than the fixed widths are not padded. (Defaults to the
+    * mdfromhtml.tableStreamingRows system property, or -1 to buffer whole
+    * tables.)
+    */
+   public int tableStreamingRows = Integer
+      .getInteger("mdfromhtml.tableStreamingRows", -1);
+
+   /**
+    * If not null, the data: URIs of image sources and style attributes, and
+    * inline svg elements, are saved once each in this store and replaced by
+    * references to it, so the markdown and provenance refer to the payloads
+    * rather than repeat them (see
+    * {@link com.overzealous.remark.convert.PayloadExternalizer}). The document
+    * being converted is changed in place. (Defaults to null, keeping the
+    * payloads in the document.)
+    */
+   public PayloadStore payloadStore = null;
+
+   /**
+    * The smallest payload, in bytes of decoded data: URI content or of svg
+    * xml, saved to the {@link #payloadStore}. Smaller payloads (e.g.,
+    * decorative icons) are left in the document, where the cleaner drops
+    * them as it did before. (Defaults to the mdfromhtml.payloadMinBytes
+    * system property, or 4096.)
+    */
+   public int payloadMinBytes = Integer.getInteger("mdfromhtml.payloadMinBytes",
+      4096);
+
    /**
     * Configures a default set of options. The default set is configured to be
     * most compatible with the original Markdown syntax.
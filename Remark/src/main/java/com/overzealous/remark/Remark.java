@@ -51,8 +51,11 @@ import org.jsoup.safety.Cleaner;
 import org.jsoup.safety.Whitelist;
 import com.api.json.JSON;
 import com.api.json.JSONObject;
+import com.mdfromhtml.core.MDfromHTMLMetrics;
 import com.mdfromhtml.core.MDfromHTMLUtils;
 import com.overzealous.remark.convert.DocumentConverter;
+import com.overzealous.remark.convert.DocumentModel;
+import com.overzealous.remark.convert.PayloadExternalizer;
 import com.overzealous.remark.convert.ProvenanceWriter;
 
 /**
@@ -307,6 +310,16 @@ public class Remark {
       return _converter;
    }
 
+   /**
+    * Provides access to the Options used for conversions (be careful if you
+    * change what you got back as it could affect this objects behavior)
+    *
+    * @return the configured Options.
+    */
+   public Options getOptions() {
+      return _options;
+   }
+
    /**
     * Returns true if the cleaned HTML document is echoed to {@code System.out}.
     * 
@@ -888,6 +901,66 @@ public class Remark {
     */
    private String processConvert(Document doc, Writer writer, OutputStream os,
       ProvenanceWriter aw, String baseURI) {
+      String[] uriAndDomain = resolveBaseURI(baseURI);
+      baseURI = uriAndDomain[0];
+      String domain = uriAndDomain[1];
+      externalizePayloads(doc);
+      doc = cleanDocument(doc, domain);
+      String result = null;
+      _converterLock.lock();
+      try {
+         if (writer != null) {
+            _converter.convert(doc, writer, aw, baseURI, domain);
+         } else if (os != null) {
+            _converter.convert(doc, os, aw, baseURI, domain);
+         } else {
+            result = _converter.convert(doc, aw, baseURI, domain);
+         }
+      } finally {
+         _converterLock.unlock();
+         resetCleaner();
+      }
+      return result;
+   }
+
+   /**
+    * Converts an already-loaded JSoup Document to the model of its markdown
+    * blocks and provenance used to merge partitions converted in parallel.
+    * Rendering the model with the renderers in the convert package reproduces
+    * the markdown returned by {@link #convert(Document, String)} and its
+    * provenance.
+    *
+    * @param doc
+    *           Document to be processed
+    * @param baseURI
+    *           The baseUri from which the domain is captured for additional
+    *           filtering
+    * @return the model of the document
+    */
+   public DocumentModel convertToModel(Document doc, String baseURI) {
+      String[] uriAndDomain = resolveBaseURI(baseURI);
+      baseURI = uriAndDomain[0];
+      String domain = uriAndDomain[1];
+      externalizePayloads(doc);
+      doc = cleanDocument(doc, domain);
+      _converterLock.lock();
+      try {
+         return _converter.buildModel(doc, baseURI, domain);
+      } finally {
+         _converterLock.unlock();
+         resetCleaner();
+      }
+   }
+
+   /**
+    * Determine the base URI and domain used for filtering. When the base URI
+    * embeds another (e.g., an archived page) that of the embedded URI is used.
+    * 
+    * @param baseURI
+    *           URI from which we get the domain
+    * @return the base URI and its domain
+    */
+   static public String[] resolveBaseURI(String baseURI) {
       String domain = getDomain(baseURI);
       int testindex = baseURI.indexOf(domain);
       // need to find actual domain for proper filters
@@ -898,27 +971,43 @@ public class Remark {
          domain = Remark.getDomain(workingURI);
          baseURI = workingURI;
       }
+      return new String[] { baseURI, domain };
+   }
+
+   /**
+    * Replace the payloads of the document with references to the payload
+    * store, if one is configured. This is done before cleaning, which would
+    * strip the content of inline svg elements.
+    * 
+    * @param doc
+    *           document to change
+    */
+   private void externalizePayloads(Document doc) {
+      if (_options.payloadStore != null) {
+         new PayloadExternalizer(_options.payloadStore,
+            _options.payloadMinBytes).externalize(doc);
+      }
+   }
+
+   /**
+    * Clean the document using the whitelist for the domain
+    * 
+    * @param doc
+    *           document to clean
+    * @param domain
+    *           domain whose filters update the cleaner
+    * @return the cleaned document
+    */
+   private Document cleanDocument(Document doc, String domain) {
+      long start = MDfromHTMLMetrics.start();
       _cleaner = updateCleaner(domain, _options, _HTMLFilters);
       doc = _cleaner.clean(doc);
+      MDfromHTMLMetrics.recordPhase(MDfromHTMLMetrics.PHASE_CLEAN, start);
       if (_cleanedHtmlEchoed) {
          System.out.println("Cleaned and processed HTML document:");
          System.out.println(doc.toString());
          System.out.println();
       }
-      String result = null;
-      _converterLock.lock();
-      try {
-         if (writer != null) {
-            _converter.convert(doc, writer, aw, baseURI, domain);
-         } else if (os != null) {
-            _converter.convert(doc, os, aw, baseURI, domain);
-         } else {
-            result = _converter.convert(doc, aw, baseURI, domain);
-         }
-      } finally {
-         _converterLock.unlock();
-         resetCleaner();
-      }
-      return result;
+      return doc;
    }
 }
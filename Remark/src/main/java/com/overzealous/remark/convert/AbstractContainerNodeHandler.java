@@ -0,0 +1,78 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.overzealous.remark.convert;
+
+import java.util.Map;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import com.overzealous.remark.util.BlockWriter;
+
+/**
+ * Implements handleNode for a {@link ContainerNodeHandler} by walking the
+ * element with its enterNode and exitNode callbacks.
+ * 
+ * @author Nathaniel Mills
+ */
+public abstract class AbstractContainerNodeHandler extends AbstractNodeHandler
+   implements ContainerNodeHandler {
+
+   public Node handleNode(NodeHandler parent, Element node,
+      DocumentConverter converter, ProvenanceWriter pw, String baseUri,
+      String domain, String level, String searchLevel) {
+      return converter.walkNode(this, parent, node, pw, baseUri, domain, level,
+         searchLevel);
+   }
+
+   public void exitNode(NodeHandler parent, Element node,
+      DocumentConverter converter, WalkFrame frame, ProvenanceWriter pw,
+      String baseUri, String domain, String level) {
+   }
+
+   /**
+    * Walks the children of the node, prepending the given string to each line
+    * they output, as
+    * {@link #prependAndRecurse(String, Element, DocumentConverter, Map, ProvenanceWriter, String, String, String, String)}
+    * does. The converter's output is restored before exitNode is called.
+    * 
+    * @param prepend
+    *           String to prepend
+    * @param node
+    *           Starting Node
+    * @param converter
+    *           Parent document converter
+    * @param nodes
+    *           Map of valid nodes
+    * @param frame
+    *           The frame walking the children
+    * @param level
+    *           The dotted tree notation for the location of the node within
+    *           the dom
+    */
+   protected void prependAndWalk(String prepend, Element node,
+      DocumentConverter converter, Map<String, NodeHandler> nodes,
+      WalkFrame frame, String level) {
+      converter.output = new BlockWriter(converter.output);
+      converter.output.setPrependNewlineString(prepend);
+      frame.walk(node, nodes, this, level);
+   }
+}
@@ -41,7 +41,6 @@ package com.overzealous.remark.convert;
 import org.jsoup.nodes.Attribute;
 import org.jsoup.nodes.Attributes;
 import org.jsoup.nodes.Element;
-import org.jsoup.nodes.Node;
 import org.jsoup.select.Elements;
 import com.overzealous.remark.util.BlockWriter;
 
@@ -51,7 +50,7 @@ import com.overzealous.remark.util.BlockWriter;
  * @author Phil DeJarnett
  * @author Nathaniel Mills modifications for provenance and level tracking
  */
-public class Article extends AbstractNodeHandler {
+public class Article extends AbstractContainerNodeHandler {
 
    /**
     * Creates a standard text block, then stores the node content in an html comment
@@ -63,6 +62,8 @@ public class Article extends AbstractNodeHandler {
     *           Node to handle
     * @param converter
     *           Parent converter for this object.
+    * @param frame
+    *           The frame walking the children of the node
     * @param pw
     *           Annotation Writer to receive annotations mapping generated
     *           markdown to document element(s)
@@ -72,12 +73,10 @@ public class Article extends AbstractNodeHandler {
     *           the domain from the baseUri used to find domain specific
     *           filtering rules
     * @param level
-    * @param searchLevel
-    * @return the Node where level matches searchLevel, otherwise, returns null
     */
-   public Node handleNode(NodeHandler parent, Element node,
-      DocumentConverter converter, ProvenanceWriter pw, String baseUri, String domain,
-      String level, String searchLevel) {
+   public void enterNode(NodeHandler parent, Element node,
+      DocumentConverter converter, WalkFrame frame, ProvenanceWriter pw,
+      String baseUri, String domain, String level) {
       Elements elts = node.getElementsByTag("article");
       String strAttributes = "";
       // elts[0] is the article tag (others are children)
@@ -89,10 +88,16 @@ public class Article extends AbstractNodeHandler {
       out.startBlock();
       String md = "<!-- <article "+strAttributes+"> -->\n";
       out.print(md);
-      Node result = converter.walkNodes(this, node, pw,
-         baseUri, domain, level, searchLevel);
-      saveAnnotation(pw, level, node, md);
-      out.endBlock();
-      return result;
+      // annotated once the article's content has been walked
+      frame.setState(md);
+      frame.walk(node, converter.lastNodeset, this, level);
+   }
+
+   @Override
+   public void exitNode(NodeHandler parent, Element node,
+      DocumentConverter converter, WalkFrame frame, ProvenanceWriter pw,
+      String baseUri, String domain, String level) {
+      saveAnnotation(pw, level, node, (String) frame.getState());
+      converter.output.endBlock();
    }
 }
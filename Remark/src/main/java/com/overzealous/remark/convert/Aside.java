@@ -23,14 +23,13 @@
 package com.overzealous.remark.convert;
 
 import org.jsoup.nodes.Element;
-import org.jsoup.nodes.Node;
 
 /**
  * Handles article tags.
  * 
  * @author Nathaniel Mills modifications for provenance and level tracking
  */
-public class Aside extends AbstractNodeHandler {
+public class Aside extends AbstractContainerNodeHandler {
 
    /**
     * Processed aside children
@@ -42,6 +41,8 @@ public class Aside extends AbstractNodeHandler {
     *           Node to handle
     * @param converter
     *           Parent converter for this object.
+    * @param frame
+    *           The frame walking the children of the node
     * @param pw
     *           Annotation Writer to receive annotations mapping generated
     *           markdown to document element(s)
@@ -51,14 +52,10 @@ public class Aside extends AbstractNodeHandler {
     *           the domain from the baseUri used to find domain specific
     *           filtering rules
     * @param level
-    * @param searchLevel
-    * @return the Node where level matches searchLevel, otherwise, returns null
     */
-   public Node handleNode(NodeHandler parent, Element node,
-      DocumentConverter converter, ProvenanceWriter pw, String baseUri, String domain,
-      String level, String searchLevel) {
-      Node result = converter.walkNodes(this, node, pw,
-         baseUri, domain, level, searchLevel);
-      return result;
+   public void enterNode(NodeHandler parent, Element node,
+      DocumentConverter converter, WalkFrame frame, ProvenanceWriter pw,
+      String baseUri, String domain, String level) {
+      frame.walk(node, converter.lastNodeset, this, level);
    }
 }
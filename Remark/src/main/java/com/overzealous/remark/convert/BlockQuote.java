@@ -39,7 +39,6 @@
 package com.overzealous.remark.convert;
 
 import org.jsoup.nodes.Element;
-import org.jsoup.nodes.Node;
 
 /**
  * Handles blockquote tags
@@ -47,7 +46,7 @@ import org.jsoup.nodes.Node;
  * @author Phil DeJarnett
  * @author Nathaniel Mills modifications for provenance and level tracking
  */
-public class BlockQuote extends AbstractNodeHandler {
+public class BlockQuote extends AbstractContainerNodeHandler {
 
    /**
     * Processes a quoted section.
@@ -59,6 +58,8 @@ public class BlockQuote extends AbstractNodeHandler {
     *           Node to handle
     * @param converter
     *           Parent converter for this object.
+    * @param frame
+    *           The frame walking the children of the node
     * @param pw
     *           Provenance Writer to receive provenance annotations mapping
     *           generated markdown to document element(s)
@@ -68,17 +69,19 @@ public class BlockQuote extends AbstractNodeHandler {
     *           the domain from the baseUri used to find domain specific
     *           filtering rules
     * @param level
-    * @param searchLevel
-    * @return the Node where level matches searchLevel, otherwise, returns null
     */
-   public Node handleNode(NodeHandler parent, Element node,
-      DocumentConverter converter, ProvenanceWriter pw, String baseUri, String domain,
-      String level, String searchLevel) {
+   public void enterNode(NodeHandler parent, Element node,
+      DocumentConverter converter, WalkFrame frame, ProvenanceWriter pw,
+      String baseUri, String domain, String level) {
       // handle block quotes
       converter.output.startBlock();
-      Node result = prependAndRecurse("> ", node, converter,
-         converter.blockNodes, pw, baseUri, domain, level, searchLevel);
+      prependAndWalk("> ", node, converter, converter.blockNodes, frame, level);
+   }
+
+   @Override
+   public void exitNode(NodeHandler parent, Element node,
+      DocumentConverter converter, WalkFrame frame, ProvenanceWriter pw,
+      String baseUri, String domain, String level) {
       converter.output.endBlock();
-      return result;
    }
 }
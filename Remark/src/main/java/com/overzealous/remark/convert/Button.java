@@ -23,14 +23,13 @@
 package com.overzealous.remark.convert;
 
 import org.jsoup.nodes.Element;
-import org.jsoup.nodes.Node;
 
 /**
  * Handles button tags.
  * 
  * @author Nathaniel Mills
  */
-public class Button extends AbstractNodeHandler {
+public class Button extends AbstractContainerNodeHandler {
 
    /**
     * Allows button tags to be processed, allowing their title or value to become Markdown text.
@@ -42,6 +41,8 @@ public class Button extends AbstractNodeHandler {
     *           Node to handle
     * @param converter
     *           Parent converter for this object.
+    * @param frame
+    *           The frame walking the children of the node
     * @param pw
     *           Annotation Writer to receive annotations mapping generated
     *           markdown to document element(s)
@@ -51,16 +52,18 @@ public class Button extends AbstractNodeHandler {
     *           the domain from the baseUri used to find domain specific
     *           filtering rules
     * @param level
-    * @param searchLevel
-    * @return the Node where level matches searchLevel, otherwise, returns null
     */
-   public Node handleNode(NodeHandler parent, Element node,
-      DocumentConverter converter, ProvenanceWriter pw, String baseUri, String domain,
-      String level, String searchLevel) {
+   public void enterNode(NodeHandler parent, Element node,
+      DocumentConverter converter, WalkFrame frame, ProvenanceWriter pw,
+      String baseUri, String domain, String level) {
       converter.output.startBlock();
-      Node result = converter.walkNodes(this, node, converter.inlineNodes, pw,
-         baseUri, domain, level, searchLevel);
+      frame.walk(node, converter.inlineNodes, this, level);
+   }
+
+   @Override
+   public void exitNode(NodeHandler parent, Element node,
+      DocumentConverter converter, WalkFrame frame, ProvenanceWriter pw,
+      String baseUri, String domain, String level) {
       converter.output.endBlock();
-      return result;
    }
 }
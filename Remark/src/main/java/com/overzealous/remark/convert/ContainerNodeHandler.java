@@ -0,0 +1,110 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.overzealous.remark.convert;
+
+import org.jsoup.nodes.Element;
+
+/**
+ * A NodeHandler whose handling of an element surrounds walking the children of
+ * the element (or of elements within it). Rather than the handler recursing
+ * into {@link DocumentConverter#walkNodes}, the DocumentConverter calls
+ * {@link #enterNode} when the walk reaches the element, walks the children
+ * the handler asked for with {@link WalkFrame#walk} on its own explicit stack,
+ * and then calls {@link #exitNode}. Nesting of these handlers therefore does
+ * not deepen the call stack.
+ * <p>
+ * Handlers are shared by every element they handle, so state needed from
+ * entering an element until exiting it is kept with
+ * {@link WalkFrame#setState(Object)}.
+ * </p>
+ * 
+ * @author Nathaniel Mills
+ */
+public interface ContainerNodeHandler extends NodeHandler {
+
+   /**
+    * Called when the walk reaches the element, before any of its children are
+    * walked. Calling {@link WalkFrame#walk} (last) asks for the children of an
+    * element to be walked, after which {@link #exitNode} is called.
+    * 
+    * @param parent
+    *           The handler of the text and ignored elements of the walk
+    *           reaching this element
+    * @param node
+    *           Element to handle
+    * @param converter
+    *           Parent converter for this object.
+    * @param frame
+    *           The frame walking the children of the element for this handler
+    * @param pw
+    *           Provenance Writer to receive provenance annotations mapping
+    *           generated markdown to document element(s)
+    * @param baseUri
+    *           the base URI needed to flesh out partial (local) image or href
+    *           URL references
+    * @param domain
+    *           the domain from the baseUri used to find domain specific
+    *           filtering rules
+    * @param level
+    *           The dotted tree notation for the location of the element within
+    *           the dom (see {@link NodeHandler#handleNode})
+    */
+   public void enterNode(NodeHandler parent, Element node,
+      DocumentConverter converter, WalkFrame frame, ProvenanceWriter pw,
+      String baseUri, String domain, String level);
+
+   /**
+    * Called when the children walked for the element are complete, with the
+    * converter's output restored to the writer it was when
+    * {@link #enterNode} was called. Calling {@link WalkFrame#walk} again asks
+    * for more children to be walked, after which this is called again. It is
+    * also called (without walking further) when the walk stops because the
+    * searched for level was found, in which case
+    * {@link WalkFrame#getResult()} is not null.
+    * 
+    * @param parent
+    *           The handler of the text and ignored elements of the walk
+    *           reaching this element
+    * @param node
+    *           Element to handle
+    * @param converter
+    *           Parent converter for this object.
+    * @param frame
+    *           The frame walking the children of the element for this handler
+    * @param pw
+    *           Provenance Writer to receive provenance annotations mapping
+    *           generated markdown to document element(s)
+    * @param baseUri
+    *           the base URI needed to flesh out partial (local) image or href
+    *           URL references
+    * @param domain
+    *           the domain from the baseUri used to find domain specific
+    *           filtering rules
+    * @param level
+    *           The dotted tree notation for the location of the element within
+    *           the dom (see {@link NodeHandler#handleNode})
+    */
+   public void exitNode(NodeHandler parent, Element node,
+      DocumentConverter converter, WalkFrame frame, ProvenanceWriter pw,
+      String baseUri, String domain, String level);
+}
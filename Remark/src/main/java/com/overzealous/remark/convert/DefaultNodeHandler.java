@@ -39,7 +39,6 @@
 package com.overzealous.remark.convert;
 
 import org.jsoup.nodes.Element;
-import org.jsoup.nodes.Node;
 
 /**
  * Default handler for unknown top-level nodes.
@@ -47,7 +46,7 @@ import org.jsoup.nodes.Node;
  * @author Phil DeJarnett
  * @author Nathaniel Mills modifications for provenance and level tracking
  */
-public class DefaultNodeHandler extends AbstractNodeHandler {
+public class DefaultNodeHandler extends AbstractContainerNodeHandler {
 
    private static DefaultNodeHandler instance;
 
@@ -73,6 +72,8 @@ public class DefaultNodeHandler extends AbstractNodeHandler {
     *           Node to handle
     * @param converter
     *           Parent converter for this object.
+    * @param frame
+    *           The frame walking the children of the node
     * @param pw
     *           Provenance Writer to receive provenance annotations mapping
     *           generated markdown to document element(s)
@@ -82,12 +83,10 @@ public class DefaultNodeHandler extends AbstractNodeHandler {
     *           the domain from the baseUri used to find domain specific
     *           filtering rules
     * @param level
-    * @param searchLevel
     */
-   public Node handleNode(NodeHandler parent, Element node,
-      DocumentConverter converter, ProvenanceWriter pw, String baseUri, String domain,
-      String level, String searchLevel) {
-      return converter.walkNodes(this, node, converter.blockNodes, pw, baseUri, domain,
-         level, searchLevel);
+   public void enterNode(NodeHandler parent, Element node,
+      DocumentConverter converter, WalkFrame frame, ProvenanceWriter pw,
+      String baseUri, String domain, String level) {
+      frame.walk(node, converter.blockNodes, this, level);
    }
 }
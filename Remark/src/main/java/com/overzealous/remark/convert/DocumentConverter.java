@@ -41,21 +41,29 @@ package com.overzealous.remark.convert;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.nodes.Node;
 import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
 import com.api.json.JSONArray;
 import com.api.json.JSONArtifact;
 import com.api.json.JSONObject;
+import com.mdfromhtml.core.MDfromHTMLMetrics;
 import com.overzealous.remark.IgnoredHtmlElement;
 import com.overzealous.remark.Options;
 import com.overzealous.remark.util.BlockWriter;
@@ -97,6 +105,59 @@ public class DocumentConverter {
 
    protected Map<String, NodeHandler> lastNodeset;
 
+   // receives nested inline content (created when first needed)
+   private InlineBuffer inlineBuffer = null;
+
+   // receives the walk when building a model (otherwise null)
+   DocumentModel.Builder modelBuilder = null;
+
+   // the links found while converting a partition of the body concurrently
+   // (otherwise null), numbered when the partition is merged
+   ArrayList<PendingLink> partitionLinks = null;
+   // depth of tables being converted within a partition, and whether links
+   // were found within them (so the partition must be converted serially)
+   int partitionTableDepth = 0;
+   boolean partitionTableLinks = false;
+
+   // partitions per fork-join thread when converting the body concurrently
+   static final int PARTITIONS_PER_THREAD = 4;
+   // bracket the index of a partition's link until the link is numbered
+   static final char LINK_MARK_START = '\uFDD0';
+   static final char LINK_MARK_END = '\uFDD1';
+   // largest output buffer allocated up front from the estimated length
+   static final int MAX_INITIAL_LENGTH = 1 << 20;
+
+   /**
+    * Receives the evaluation of the HTML filter rules by
+    * {@link DocumentConverter#checkHTMLFilters(JSONObject, String, Element, ProvenanceWriter, String, String, String)}
+    * on the calling thread, e.g., to profile the cost and coverage of the
+    * rules. Rules are named as in the provenance and metrics: the domain (or
+    * * for all domains), the tag (or :all) and the attribute, e.g.,
+    * *~:all~class, with the matching filter appended when a node is
+    * filtered.
+    */
+   public interface FilterRuleListener {
+      /**
+       * @param rule
+       *           the rule evaluated (e.g., *~:tagnames or *~div~class)
+       * @param nanos
+       *           the time spent evaluating the rule
+       */
+      public void evaluated(String rule, long nanos);
+
+      /**
+       * @param rule
+       *           the rule and filter filtering the node (e.g.,
+       *           *~:tagnames~script or *~div~class~sidebar)
+       * @param node
+       *           the node filtered
+       */
+      public void matched(String rule, Element node);
+   }
+
+   // receives the filter rule evaluations of the calling thread (if any)
+   static final ThreadLocal<FilterRuleListener> FILTER_RULE_LISTENER = new ThreadLocal<FilterRuleListener>();
+
    private static final Pattern COMMA = Pattern.compile(",");
    private static final Pattern LINK_MULTIPLE_SPACES = Pattern.compile(" {2,}",
       Pattern.DOTALL);
@@ -144,6 +205,37 @@ public class DocumentConverter {
       configureNodes();
    }
 
+   /**
+    * Creates a converter for a partition of the body being converted
+    * concurrently by the supplied converter. It shares the parent's options,
+    * cleaner and filters, and its node handlers other than InlineStyle, which
+    * keeps state while walking. Links are recorded for the parent to number
+    * when the partition is merged.
+    * 
+    * @param parent
+    *           the converter converting the document
+    */
+   DocumentConverter(DocumentConverter parent) {
+      options = parent.options;
+      cleaner = parent.cleaner;
+      ignoredHtmlTags = parent.ignoredHtmlTags;
+      HTMLFilters = parent.HTMLFilters;
+      blockNodes = new HashMap<String, NodeHandler>(parent.blockNodes);
+      inlineNodes = new HashMap<String, NodeHandler>(parent.inlineNodes);
+      InlineStyle inlineStyle = new InlineStyle();
+      for (Map<String, NodeHandler> nodes : Arrays.asList(blockNodes,
+         inlineNodes)) {
+         for (Map.Entry<String, NodeHandler> entry : nodes.entrySet()) {
+            if (entry.getValue().getClass() == InlineStyle.class) {
+               entry.setValue(inlineStyle);
+            }
+         }
+      }
+      partitionLinks = new ArrayList<PendingLink>();
+      abbreviations = new LinkedHashMap<String, String>();
+      lastNodeset = blockNodes;
+   }
+
    private void configureNodes() {
       addInlineNode(new InlineStyle(), "i,em,b,strong,font,span");
       addInlineNode(new InlineCode(), "code,tt");
@@ -337,26 +429,78 @@ public class DocumentConverter {
     */
    public String convert(Document doc, ProvenanceWriter pw, String baseUri, String domain) {
       // estimate the size necessary to handle the final output
-      BlockWriter bw = BlockWriter
-         .create(DocumentConverter.calculateLength(doc, 0));
+      BlockWriter bw = BlockWriter.create(initialLength(doc));
       this.output = bw;
       this.convertImpl(doc, pw, baseUri, domain);
       String str = bw.toString();
       return str.replace("&tl;!--", "<!--").replace("--&gt;","-->");
    }
 
+   /**
+    * Convert a document into a model of the markdown blocks generated and the
+    * annotations linking them to the document's nodes. The document is walked
+    * once, and the model replays as the markdown (identical to that returned
+    * by {@link #convert(Document, ProvenanceWriter, String, String)}) and
+    * provenance of the conversion.
+    *
+    * @param doc
+    *           Document to convert
+    * @param baseUri
+    *           the base URI needed to flesh out partial (local) image or href URL references
+    * @param domain
+    *           The domain culled from the baseUri to help with HTML filtering
+    * @return the model of the document
+    * @see MarkdownRenderer
+    * @see ProvenanceRenderer
+    */
+   public DocumentModel buildModel(Document doc, String baseUri,
+      String domain) {
+      DocumentModel.Builder builder = new DocumentModel.Builder(
+         initialLength(doc));
+      this.output = new BlockWriter(builder, true).setBlockListener(builder);
+      builder._writer = this.output;
+      this.modelBuilder = builder;
+      try {
+         this.convertImpl(doc, builder.getRecorder(), baseUri, domain);
+      } finally {
+         this.modelBuilder = null;
+      }
+      return builder.finish();
+   }
+
+   // the estimate grows with the square of the nesting depth, so it is only
+   // trusted up to a point and the buffer grows past it as needed
+   private static int initialLength(Document doc) {
+      int length = DocumentConverter.calculateLength(doc, 0);
+      if (length < 0 || length > MAX_INITIAL_LENGTH) {
+         length = MAX_INITIAL_LENGTH;
+      }
+      return length;
+   }
+
    // Utility method to quickly walk the DOM tree and estimate the size of the
    // buffer necessary to hold the result.
-   public static int calculateLength(Element el, int depth) {
-      int result = 0;
-      for (final Node n : el.childNodes()) {
-         if (n instanceof Element) {
-            result += (4 * depth) + calculateLength((Element) n, depth + 1);
-         } else if (n instanceof TextNode) {
-            result += ((TextNode) n).text().length();
+   public static int calculateLength(Element el, final int depth) {
+      final int[] result = new int[1];
+      // traversed without recursing, so deeply nested documents are measured
+      NodeTraversor.traverse(new NodeVisitor() {
+         @Override
+         public void head(Node n, int traversed) {
+            if (traversed == 0) {
+               return;
+            }
+            if (n instanceof Element) {
+               result[0] += 4 * (depth + traversed - 1);
+            } else if (n instanceof TextNode) {
+               result[0] += ((TextNode) n).text().length();
+            }
          }
-      }
-      return result;
+
+         @Override
+         public void tail(Node n, int traversed) {
+         }
+      }, el);
+      return result[0];
    }
 
    // implementation of the convert method. Basically handles setting up the
@@ -376,6 +520,10 @@ public class DocumentConverter {
       genericLinkUrlCounter = 0;
       // linked, to keep abbreviations in the order they were added
       abbreviations = new LinkedHashMap<String, String>();
+      if (inlineBuffer != null) {
+         // discard anything left by a conversion that failed
+         inlineBuffer.reset();
+      }
 
       lastNodeset = blockNodes;
 
@@ -389,9 +537,19 @@ public class DocumentConverter {
       } catch (IOException e) {
          e.printStackTrace();
       }
-      walkNodes(DefaultNodeHandler.getInstance(), body, blockNodes, pw, baseUri, domain,
-         level, null);
+      long start = MDfromHTMLMetrics.start();
+      ArrayList<BodyPartition> partitions = partitionBody(body);
+      if (partitions == null) {
+         walkNodes(DefaultNodeHandler.getInstance(), body, blockNodes, pw,
+            baseUri, domain, level, null);
+      } else {
+         convertPartitions(partitions, body, pw, baseUri, domain, level);
+      }
+      MDfromHTMLMetrics.recordPhase(MDfromHTMLMetrics.PHASE_WALK_NODES, start);
 
+      if (modelBuilder != null) {
+         modelBuilder.startReferences();
+      }
       if (!linkIds.isEmpty()) {
          // Add links
          output.startBlock();
@@ -418,6 +576,258 @@ public class DocumentConverter {
 //      output = null;
    }
 
+   /**
+    * Split the children of the body into partitions of roughly equal numbers
+    * of nodes, each after the first starting with a block element, so they
+    * can be converted concurrently.
+    * 
+    * @param body
+    *           the body of the document being converted
+    * @return the partitions, or null if the body should be converted serially
+    */
+   ArrayList<BodyPartition> partitionBody(Element body) {
+      // ignored elements are written by briefly changing the document's
+      // output settings, and models are built from the walk as it happens
+      if (options.parallelBlockNodes <= 0 || modelBuilder != null
+         || ignoredHtmlTags.isEmpty() == false || body.childNodeSize() < 2) {
+         return null;
+      }
+      java.util.List<Node> children = body.childNodes();
+      int[] weights = new int[children.size()];
+      int total = 0;
+      for (int index = 0; index < weights.length; index++) {
+         weights[index] = countNodes(children.get(index));
+         total += weights[index];
+      }
+      if (total < options.parallelBlockNodes) {
+         return null;
+      }
+      int target = total / (PARTITIONS_PER_THREAD
+         * Math.max(2, ForkJoinPool.getCommonPoolParallelism()));
+      ArrayList<BodyPartition> partitions = new ArrayList<BodyPartition>();
+      BodyPartition partition = new BodyPartition(this, body, 0, 0, 0);
+      int weight = 0;
+      int depthLevel = 0;
+      int textLevel = 0;
+      for (int index = 0; index < weights.length; index++) {
+         Node n = children.get(index);
+         if (weight >= target && index > partition._from
+            && n instanceof Element && ((Element) n).isBlock()) {
+            partition._to = index;
+            partitions.add(partition);
+            partition = new BodyPartition(this, body, index, depthLevel,
+               textLevel);
+            weight = 0;
+         }
+         weight += weights[index];
+         // count the levels as walkNodes does
+         if (n instanceof TextNode) {
+            if (" ".equals(n.toString()) == false) {
+               textLevel++;
+            }
+         } else {
+            depthLevel++;
+         }
+      }
+      partition._to = weights.length;
+      partitions.add(partition);
+      return partitions.size() < 2 ? null : partitions;
+   }
+
+   // counts the nodes in the subtree rooted at the supplied node
+   static int countNodes(Node node) {
+      final int[] count = new int[1];
+      NodeTraversor.traverse(new NodeVisitor() {
+         @Override
+         public void head(Node n, int depth) {
+            count[0]++;
+         }
+
+         @Override
+         public void tail(Node n, int depth) {
+         }
+      }, node);
+      return count[0];
+   }
+
+   /**
+    * Convert the partitions of the body concurrently on the common fork-join
+    * pool, then merge them in order into the output. A partition whose output
+    * can not be merged unchanged (it started from a different block state than
+    * the partitions before it left, or has a table whose layout depends on the
+    * link ids within it) or that failed is converted again serially, so the
+    * result is always that of walking the body serially.
+    */
+   private void convertPartitions(ArrayList<BodyPartition> partitions,
+      Element body, ProvenanceWriter pw, String baseUri, String domain,
+      String level) {
+      for (BodyPartition partition : partitions) {
+         partition._record = pw != null;
+         partition._baseUri = baseUri;
+         partition._domain = domain;
+         partition._level = level;
+         partition.fork();
+      }
+      try {
+         for (BodyPartition partition : partitions) {
+            boolean merged = false;
+            try {
+               partition.join();
+               merged = mergePartition(partition, pw);
+            } catch (RuntimeException e) {
+               // converted serially below
+            }
+            if (merged == false) {
+               walkNodes(DefaultNodeHandler.getInstance(), body, blockNodes,
+                  pw, baseUri, domain, level, null, partition._from,
+                  partition._to, partition._depthLevel, partition._textLevel);
+            }
+         }
+      } finally {
+         for (BodyPartition partition : partitions) {
+            partition.cancel(false);
+         }
+      }
+   }
+
+   /**
+    * Merge a converted partition into the output, numbering its links as a
+    * serial conversion would have and replaying its annotations to pw
+    * 
+    * @return false if the partition must be converted serially instead
+    */
+   private boolean mergePartition(BodyPartition partition,
+      ProvenanceWriter pw) {
+      DocumentConverter converter = partition._converter;
+      if (converter.partitionTableLinks
+         || output.hasBlockState(0, -1, false, partition._from == 0) == false) {
+         return false;
+      }
+      // the link ids are numbered in the order the links were found, and the
+      // markdown written for each was "[label][id]" or "[label][]" when the
+      // label matched the id (likewise for images)
+      String[] replacements = new String[converter.partitionLinks.size()];
+      for (int index = 0; index < replacements.length; index++) {
+         PendingLink link = converter.partitionLinks.get(index);
+         String name = resolveLinks(link._name, replacements);
+         String linkId = addLink(link._url, name, link._image);
+         replacements[index] = name.equals(linkId) ? "" : linkId;
+      }
+      DocumentModel model = partition._builder.finish();
+      DocumentModel.Block block = model.getBlocks().get(0);
+      output.writeContinuation(resolveLinks(block.getMarkdown(), replacements),
+         partition._writer);
+      if (pw != null) {
+         try {
+            for (DocumentModel.Inline inline : block.getInlines()) {
+               if (inline.isFiltered()) {
+                  pw.saveFilteredHTML(inline.getLevel(), inline.getNode(),
+                     inline.getFilterReason());
+               } else {
+                  pw.saveHTML2MD(inline.getLevel(), inline.getNode(),
+                     resolveLinks(inline.getMarkdown(), replacements));
+               }
+            }
+         } catch (IOException e) {
+            e.printStackTrace();
+         }
+      }
+      for (Map.Entry<String, String> abbr : converter.abbreviations
+         .entrySet()) {
+         addAbbreviation(abbr.getKey(), abbr.getValue());
+      }
+      return true;
+   }
+
+   // replaces the marked indices of a partition's links with their
+   // replacements
+   static String resolveLinks(String markdown, String[] replacements) {
+      int start = markdown.indexOf(LINK_MARK_START);
+      if (start == -1) {
+         return markdown;
+      }
+      StringBuilder sb = new StringBuilder(markdown.length());
+      int copied = 0;
+      while (start != -1) {
+         int end = markdown.indexOf(LINK_MARK_END, start);
+         if (end == -1) {
+            break;
+         }
+         int index;
+         try {
+            index = Integer.parseInt(markdown.substring(start + 1, end));
+         } catch (NumberFormatException e) {
+            index = -1;
+         }
+         if (index >= 0 && index < replacements.length
+            && replacements[index] != null) {
+            sb.append(markdown, copied, start).append(replacements[index]);
+            copied = end + 1;
+         }
+         start = markdown.indexOf(LINK_MARK_START, start + 1);
+      }
+      return sb.append(markdown, copied, markdown.length()).toString();
+   }
+
+   /**
+    * A link found while converting a partition, added when it is merged
+    */
+   static final class PendingLink {
+      final String _url;
+      final String _name;
+      final boolean _image;
+
+      PendingLink(String url, String name, boolean image) {
+         _url = url;
+         _name = name;
+         _image = image;
+      }
+   }
+
+   /**
+    * Converts a range of the body's children with its own converter, into its
+    * own buffer, as though the children before them had already been
+    * converted into an output left between blocks
+    */
+   static final class BodyPartition extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+
+      final Element _body;
+      final DocumentConverter _converter;
+      final int _from;
+      int _to;
+      final int _depthLevel;
+      final int _textLevel;
+      boolean _record;
+      String _baseUri;
+      String _domain;
+      String _level;
+      DocumentModel.Builder _builder;
+      BlockWriter _writer;
+
+      BodyPartition(DocumentConverter parent, Element body, int from,
+         int depthLevel, int textLevel) {
+         _converter = new DocumentConverter(parent);
+         _body = body;
+         _from = from;
+         _depthLevel = depthLevel;
+         _textLevel = textLevel;
+      }
+
+      @Override
+      protected void compute() {
+         _builder = new DocumentModel.Builder(0);
+         _writer = new BlockWriter(_builder).setBlockState(0, -1, false,
+            _from == 0);
+         _converter.output = _writer;
+         _converter.walkNodes(DefaultNodeHandler.getInstance(), _body,
+            _converter.blockNodes, _record ? _builder.getRecorder() : null,
+            _baseUri, _domain, _level, null, _from, _to, _depthLevel,
+            _textLevel);
+         _writer.flush();
+      }
+   }
+
    /**
     * Loops over the children of an HTML Element, handling TextNode and child
     * Elements.
@@ -495,33 +905,133 @@ public class DocumentConverter {
    public Node walkNodes(NodeHandler currentNodeHandler, Element el,
       Map<String, NodeHandler> nodeList, ProvenanceWriter pw, String baseUri, String domain,
       String level, String searchLevel) {
-      Node result = null;
-      Map<String, NodeHandler> backupLastNodeset = lastNodeset;
-      lastNodeset = nodeList;
-      int depthLevel = 0;
-      int textLevel = 0;
-      String nextLevel = "";
-      for (final Node n : el.childNodes()) {
+      return walkNodes(currentNodeHandler, el, nodeList, pw, baseUri, domain,
+         level, searchLevel, 0, el.childNodeSize(), 0, 0);
+   }
+
+   // walks the children of el from index from (inclusive) to index to
+   // (exclusive), given the depth and text levels of the children preceding
+   // them
+   private Node walkNodes(NodeHandler currentNodeHandler, Element el,
+      Map<String, NodeHandler> nodeList, ProvenanceWriter pw, String baseUri,
+      String domain, String level, String searchLevel, int from, int to,
+      int depthLevel, int textLevel) {
+      WalkFrame frame = new WalkFrame(this, searchLevel);
+      frame.walk(el, nodeList, currentNodeHandler, level, from, to, depthLevel,
+         textLevel);
+      return walk(frame, pw, baseUri, domain);
+   }
+
+   /**
+    * Handles an element with a ContainerNodeHandler, walking the children it
+    * asks for without recursing.
+    * 
+    * @param handler
+    *           The handler of the element
+    * @param parent
+    *           The handler of the text and ignored elements of the walk
+    *           reaching the element
+    * @param node
+    *           The element to handle
+    * @param pw
+    *           Annotation Writer to receive annotations mapping generated
+    *           markdown to document element(s)
+    * @param baseUri
+    *           the base URI needed to flesh out partial (local) image or href URL references
+    * @param domain
+    *           The domain culled from the baseUri to help with HTML filtering
+    * @param level
+    *           The dotted tree notation for the location of the element
+    *           within the dom
+    * @param searchLevel
+    *           signals to stop dom walking if we have reached the search
+    *           level, and return the node we are on. If null, no interuption
+    *           occurs.
+    * @return the Node where level matches searchLevel, otherwise returns null
+    */
+   public Node walkNode(ContainerNodeHandler handler, NodeHandler parent,
+      Element node, ProvenanceWriter pw, String baseUri, String domain,
+      String level, String searchLevel) {
+      WalkFrame frame = new WalkFrame(this, searchLevel);
+      if (enterNode(frame, handler, parent, node, pw, baseUri, domain, level)) {
+         return frame._result;
+      }
+      return walk(frame, pw, baseUri, domain);
+   }
+
+   // enters a container's element, returning true if the element was found
+   // (ending the walk before it starts)
+   private boolean enterNode(WalkFrame frame, ContainerNodeHandler handler,
+      NodeHandler parent, Element node, ProvenanceWriter pw, String baseUri,
+      String domain, String level) {
+      frame._container = handler;
+      frame._parent = parent;
+      frame._node = node;
+      frame._nodeLevel = level;
+      frame._output = output;
+      handler.enterNode(parent, node, this, frame, pw, baseUri, domain, level);
+      return frame._result != null;
+   }
+
+   /**
+    * Walks the document from the supplied frame using an explicit stack of
+    * frames rather than recursion, so the depth of nesting handled is limited
+    * only by the heap. Handlers that are not ContainerNodeHandlers are called
+    * as they always were, and may still recurse.
+    */
+   private Node walk(WalkFrame root, ProvenanceWriter pw, String baseUri,
+      String domain) {
+      String searchLevel = root._searchLevel;
+      ArrayDeque<WalkFrame> stack = new ArrayDeque<WalkFrame>();
+      stack.push(root);
+      while (stack.isEmpty() == false) {
+         WalkFrame frame = stack.peek();
+         if (frame._walking == false || frame._index == frame._to) {
+            if (frame._walking) {
+               frame._walking = false;
+               lastNodeset = frame._savedNodes;
+            }
+            if (frame._container == null) {
+               if (frame._endBlock) {
+                  output.endBlock();
+               }
+               stack.pop();
+               exitModelElement(frame);
+               continue;
+            }
+            output = frame._output;
+            frame._container.exitNode(frame._parent, frame._node, this, frame,
+               pw, baseUri, domain, frame._nodeLevel);
+            if (frame._walking == false || frame._result != null) {
+               stack.pop();
+               exitModelElement(frame);
+               if (frame._result != null) {
+                  return unwind(stack, frame._result, pw, baseUri, domain);
+               }
+            }
+            continue;
+         }
+         final Node n = frame._children.get(frame._index++);
          // we aren't taking newlines (that become spaces) into account
          if (n instanceof TextNode && " ".equals(n.toString()) == true) {
             continue;
          }
          if (n instanceof TextNode) {
-            textLevel++;
+            frame._textLevel++;
             // It's just text!
             if (searchLevel != null
-               && searchLevel.equals(level + "^" + textLevel)) {
-               return n;
+               && searchLevel.equals(frame._level + "^" + frame._textLevel)) {
+               return unwind(stack, n, pw, baseUri, domain);
             }
-            currentNodeHandler.handleTextNode((TextNode) n, this, pw, baseUri, domain,
-               level + "^" + textLevel);
+            frame._handler.handleTextNode((TextNode) n, this, pw, baseUri,
+               domain, frame._level + "^" + frame._textLevel);
             continue;
          }
-         
-         depthLevel++;
-         nextLevel = level + "." + depthLevel;
+
+         frame._depthLevel++;
+         String nextLevel = frame._level + "." + frame._depthLevel;
          if (searchLevel != null && searchLevel.equals(nextLevel)) {
-            return n;
+            return unwind(stack, n, pw, baseUri, domain);
          }
 
          if (n instanceof Element) {
@@ -536,12 +1046,40 @@ public class DocumentConverter {
                continue;
             }
 // Note: below causes the <h2 to be ignored because we are processing inlineNodes
-            if (nodeList.containsKey(tagName)) {
+            NodeHandler nodeHandler = frame._nodes.get(tagName);
+            if (nodeHandler instanceof ContainerNodeHandler) {
+               MDfromHTMLMetrics.increment(
+                  MDfromHTMLMetrics.COUNTER_NODE_HANDLERS,
+                  nodeHandler.getClass());
+               WalkFrame child = new WalkFrame(this, searchLevel);
+               child._modelElement = enterModelElement(node);
+               if (enterNode(child, (ContainerNodeHandler) nodeHandler,
+                  frame._handler, node, pw, baseUri, domain, nextLevel)) {
+                  exitModelElement(child);
+                  return unwind(stack, child._result, pw, baseUri, domain);
+               }
+               stack.push(child);
+            } else if (nodeHandler != null) {
                // OK, we know how to handle this node
-               result = nodeList.get(tagName).handleNode(currentNodeHandler,
-                  node, this, pw, baseUri, domain, nextLevel, searchLevel);
+               MDfromHTMLMetrics.increment(
+                  MDfromHTMLMetrics.COUNTER_NODE_HANDLERS,
+                  nodeHandler.getClass());
+               boolean table = partitionLinks != null
+                  && nodeHandler instanceof Table;
+               if (table) {
+                  partitionTableDepth++;
+               }
+               boolean modelElement = enterModelElement(node);
+               Node result = nodeHandler.handleNode(frame._handler, node, this,
+                  pw, baseUri, domain, nextLevel, searchLevel);
+               if (modelElement) {
+                  modelBuilder.exitElement();
+               }
+               if (table) {
+                  partitionTableDepth--;
+               }
                if (result != null) {
-                  return result;
+                  return unwind(stack, result, pw, baseUri, domain);
                }
 // Note: below was a attempt to handle anchor tag with header as label
 // <a ... ><h2>something<h2></a> but this results in [##something##][something]
@@ -561,7 +1099,7 @@ public class DocumentConverter {
 //                }
             } else if (ignoredHtmlTags.contains(tagName)) {
                   // User wants to leave this tag in the output. Naughty user.
-                  currentNodeHandler.handleIgnoredHTMLElement(node, this, pw,
+                  frame._handler.handleIgnoredHTMLElement(node, this, pw,
                      baseUri, domain, nextLevel);
 
             } else {
@@ -582,14 +1120,11 @@ public class DocumentConverter {
                } catch (IOException e) {
                   e.printStackTrace();
                }
-               result = walkNodes(currentNodeHandler, node, nodeList, pw,
-                  baseUri, domain, nextLevel, searchLevel);
-               if (result != null) {
-                  return result;
-               }
-               if (node.isBlock()) {
-                  output.endBlock();
-               }
+               WalkFrame child = new WalkFrame(this, searchLevel);
+               child._endBlock = node.isBlock();
+               child._modelElement = enterModelElement(node);
+               child.walk(node, frame._nodes, frame._handler, nextLevel);
+               stack.push(child);
             }
          } else {
             // not a node we care about (e.g.: comment nodes)
@@ -603,10 +1138,59 @@ public class DocumentConverter {
 
          }
       }
-      lastNodeset = backupLastNodeset;
+      return null;
+   }
+
+   // ends the walk when the level searched for is found, exiting the
+   // containers being walked as returning through their handlers would have
+   private Node unwind(ArrayDeque<WalkFrame> stack, Node result,
+      ProvenanceWriter pw, String baseUri, String domain) {
+      while (stack.isEmpty() == false) {
+         WalkFrame frame = stack.pop();
+         exitModelElement(frame);
+         if (frame._container != null) {
+            frame._walking = false;
+            frame._result = result;
+            output = frame._output;
+            frame._container.exitNode(frame._parent, frame._node, this, frame,
+               pw, baseUri, domain, frame._nodeLevel);
+         }
+      }
       return result;
    }
 
+   // when building a model, tracks the element being handled while writing
+   // directly into the model's blocks, returning true if it was entered
+   private boolean enterModelElement(Element node) {
+      if (modelBuilder == null || output != modelBuilder._writer) {
+         return false;
+      }
+      modelBuilder.enterElement(node);
+      return true;
+   }
+
+   private void exitModelElement(WalkFrame frame) {
+      if (frame._modelElement) {
+         frame._modelElement = false;
+         modelBuilder.exitElement();
+      }
+   }
+
+   /**
+    * Set the listener receiving the filter rule evaluations made by the
+    * calling thread
+    * 
+    * @param listener
+    *           the listener, or null to stop reporting evaluations
+    */
+   public static void setFilterRuleListener(FilterRuleListener listener) {
+      if (listener == null) {
+         FILTER_RULE_LISTENER.remove();
+      } else {
+         FILTER_RULE_LISTENER.set(listener);
+      }
+   }
+
    /**
     * Given the nodeTagName check the node's attributes and their values to
     * determine if the node should be filtered. The filtering is based on rules
@@ -652,6 +1236,7 @@ public class DocumentConverter {
       JSONArray overrideTagNames = new JSONArray();
       JSONObject noOverrides =  new JSONObject(); // for domain specific filters
       JSONArtifact artifact = null;
+      FilterRuleListener listener = FILTER_RULE_LISTENER.get();
       if (domain != null) {
          domainRules = (JSONObject) HTMLFilters.get(domain);
          if (domainRules != null) {
@@ -672,7 +1257,17 @@ public class DocumentConverter {
          // first check the tagName
          JSONArray tagNames = (JSONArray) generalRules.get(TAG_NAMES);
          if (tagNames != null) {
-            if (overrideTagNames.contains(node.tagName()) == false && tagNames.contains(node.tagName())) {
+            long start = listener == null ? 0L : System.nanoTime();
+            boolean filtered = overrideTagNames.contains(node.tagName()) == false && tagNames.contains(node.tagName());
+            if (listener != null) {
+               listener.evaluated(DEFAULT_DOMAIN + "~" + TAG_NAMES,
+                  System.nanoTime() - start);
+            }
+            if (filtered) {
+               if (listener != null) {
+                  listener.matched(DEFAULT_DOMAIN + "~" + TAG_NAMES + "~"
+                     + node.tagName(), node);
+               }
                try {
                   if (pw != null) {
                      pw.saveFilteredHTML(level, node, "tag: \""+node.tagName()+"\" is contained in \""+DEFAULT_DOMAIN+"~"+TAG_NAMES+"\"");
@@ -680,20 +1275,25 @@ public class DocumentConverter {
                } catch (IOException e) {
                   e.printStackTrace();
                }
+               if (MDfromHTMLMetrics.isEnabled()) {
+                  MDfromHTMLMetrics.increment(
+                     MDfromHTMLMetrics.COUNTER_FILTER_RULES, DEFAULT_DOMAIN
+                        + "~" + TAG_NAMES + "~" + node.tagName());
+               }
                return true;
             }
          }
          // next do all tag's attributes
          JSONObject allTagRules = (JSONObject) generalRules.get(ALL_TAGS);
          if (allTagRules != null) {
-            if (checkTagAttributeFilters(allTagRules, node, (JSONObject)overrideRules.get(ALL_TAGS), DEFAULT_DOMAIN+"~"+ALL_TAGS, pw, level)) {
+            if (checkTagAttributeFilters(allTagRules, node, (JSONObject)overrideRules.get(ALL_TAGS), DEFAULT_DOMAIN+"~"+ALL_TAGS, pw, level, listener)) {
                return true;
             }
          }
          // next check for tag specific attribute rules
          JSONObject nodeTagRules = (JSONObject) generalRules.get(nodeTagName);
          if (nodeTagRules != null) {
-            if (checkTagAttributeFilters(nodeTagRules, node, (JSONObject)overrideRules.get(nodeTagName), DEFAULT_DOMAIN+"~"+nodeTagName, pw, level)) {
+            if (checkTagAttributeFilters(nodeTagRules, node, (JSONObject)overrideRules.get(nodeTagName), DEFAULT_DOMAIN+"~"+nodeTagName, pw, level, listener)) {
                return true;
             }
          }
@@ -703,7 +1303,17 @@ public class DocumentConverter {
          // first check the tagName
          JSONArray tagNames = (JSONArray) domainRules.get(TAG_NAMES);
          if (tagNames != null) {
-            if (tagNames.contains(node.tagName())) {
+            long start = listener == null ? 0L : System.nanoTime();
+            boolean filtered = tagNames.contains(node.tagName());
+            if (listener != null) {
+               listener.evaluated(domain + "~" + TAG_NAMES,
+                  System.nanoTime() - start);
+            }
+            if (filtered) {
+               if (listener != null) {
+                  listener.matched(domain + "~" + TAG_NAMES + "~"
+                     + node.tagName(), node);
+               }
                try {
                   if (pw != null) {
                      pw.saveFilteredHTML(level, node, "tag: \""+node.tagName()+"\" is contained in \""+domain+"~"+TAG_NAMES+"\"");
@@ -711,6 +1321,11 @@ public class DocumentConverter {
                } catch (IOException e) {
                   e.printStackTrace();
                }
+               if (MDfromHTMLMetrics.isEnabled()) {
+                  MDfromHTMLMetrics.increment(
+                     MDfromHTMLMetrics.COUNTER_FILTER_RULES,
+                     domain + "~" + TAG_NAMES + "~" + node.tagName());
+               }
                return true;
             }
          }
@@ -718,7 +1333,7 @@ public class DocumentConverter {
          JSONObject allDomainTagRules = (JSONObject) domainRules
             .get(ALL_TAGS);
          if (allDomainTagRules != null) {
-            if (checkTagAttributeFilters(allDomainTagRules, node, noOverrides, domain+"~"+ALL_TAGS, pw, level)) {
+            if (checkTagAttributeFilters(allDomainTagRules, node, noOverrides, domain+"~"+ALL_TAGS, pw, level, listener)) {
                return true;
             }
          }
@@ -726,7 +1341,7 @@ public class DocumentConverter {
          JSONObject domainNodeTagRules = (JSONObject) domainRules
             .get(nodeTagName);
          if (domainNodeTagRules != null) {
-            if (checkTagAttributeFilters(domainNodeTagRules, node, noOverrides, domain+"~"+nodeTagName, pw, level)) {
+            if (checkTagAttributeFilters(domainNodeTagRules, node, noOverrides, domain+"~"+nodeTagName, pw, level, listener)) {
                return true;
             }
          }
@@ -753,6 +1368,33 @@ public class DocumentConverter {
     */
    public static boolean checkTagAttributeFilters(
       JSONObject tagAttributeFilters, Element node, JSONObject overrides, String filterType, ProvenanceWriter pw, String level) {
+      return checkTagAttributeFilters(tagAttributeFilters, node, overrides,
+         filterType, pw, level, null);
+   }
+
+   /**
+    * Check whether the node's attribute's value contains a reference to any of
+    * the the tagAttributeFilters keys (attributes) values, reporting the
+    * evaluation of each attribute's filters to the listener
+    * 
+    * @param tagAttributeFilters
+    *           Object from HTMLFilter for the node under review
+    * @param node
+    *           HTML node whose attributes will be tested
+    * @param overrides
+    *           Rules overriding the tagAttributeFilters
+    * @param filterType
+    *           The kind of filter being tested (e.g., :all or domain)
+    * @param pw
+    *           Annotation Writer to receive annotations mapping generated
+    *           markdown to document element(s)
+    * @param listener
+    *           receives the evaluation of the rules (null if none)
+    * @return true if this node should be filtered
+    */
+   static boolean checkTagAttributeFilters(JSONObject tagAttributeFilters,
+      Element node, JSONObject overrides, String filterType,
+      ProvenanceWriter pw, String level, FilterRuleListener listener) {
       String testValue = "";
       String filter = "";
       Set<String> overrideFilterValues = new HashSet<String>();
@@ -765,6 +1407,7 @@ public class DocumentConverter {
          if (attribute.equals(SEEK_HEADERS)) {
             continue;
          }
+         long start = listener == null ? 0L : System.nanoTime();
          JSONArray overrideFilters = (JSONArray) overrides.get(attribute);
          if (overrideFilters == null) {
             overrideFilters = new JSONArray();
@@ -780,6 +1423,10 @@ public class DocumentConverter {
              */
             testValue = node.attr(attribute).toLowerCase();
             if (testValue.length() == 0) {
+               if (listener != null) {
+                  listener.evaluated(filterType + "~" + attribute,
+                     System.nanoTime() - start);
+               }
                continue;
             }
             for (Object filterObj : filters) {
@@ -794,6 +1441,12 @@ public class DocumentConverter {
                      }
                   }
                   if (!allowOverride) {
+                     if (listener != null) {
+                        listener.evaluated(filterType + "~" + attribute,
+                           System.nanoTime() - start);
+                        listener.matched(
+                           filterType + "~" + attribute + "~" + filter, node);
+                     }
                      try {
                         if (pw != null) {
                            pw.saveFilteredHTML(level, node, "attribute: \""+attribute +"\" value: \""+ testValue+"\" contains filter: \""+filterType+"~"+attribute+"~"+filter+"\"");
@@ -801,11 +1454,20 @@ public class DocumentConverter {
                      } catch (IOException e) {
                         e.printStackTrace();
                      }
+                     if (MDfromHTMLMetrics.isEnabled()) {
+                        MDfromHTMLMetrics.increment(
+                           MDfromHTMLMetrics.COUNTER_FILTER_RULES,
+                           filterType + "~" + attribute + "~" + filter);
+                     }
                      return true;
                   }
                }
             }
          }
+         if (listener != null) {
+            listener.evaluated(filterType + "~" + attribute,
+               System.nanoTime() - start);
+         }
       }
       return false;
    }
@@ -899,23 +1561,34 @@ public class DocumentConverter {
       boolean undoLeadingEscapes, ProvenanceWriter pw, String baseUri, String domain,
       String level, String searchLevel, Set<Node> foundNodes) {
       BlockWriter oldOutput = output;
-      output = BlockWriter.create(1000);
-      Node result = walkNodes(currentNode, el, inlineNodes, pw, baseUri, domain, level,
-         searchLevel);
+      InlineBuffer buffer = getInlineBuffer();
+      // the content is rendered into the shared inline buffer, escaping the
+      // angle brackets as it is written
+      InlineBuffer.Range range = buffer.begin();
+      output = buffer.getWriter();
+      Node result = walkNodes(currentNode, el, inlineNodes, pw, baseUri,
+         domain, level, searchLevel);
       if (result != null) {
          foundNodes.add(result);
       }
-      String ret = output.toString();
+      String ret = buffer.detach(range, null, null);
       output = oldOutput;
       if (undoLeadingEscapes) {
          ret = cleaner.unescapeLeadingCharacters(ret);
       }
-      
-      ret = ret.replace("<", "&lt;");
-      ret = ret.replace(">", "&gt;");
       return ret;
    }
 
+   /**
+    * @return the buffer receiving nested inline content
+    */
+   InlineBuffer getInlineBuffer() {
+      if (inlineBuffer == null) {
+         inlineBuffer = new InlineBuffer();
+      }
+      return inlineBuffer;
+   }
+
    /**
     * Adds a link to the link set, and returns the actual ID for the link.
     *
@@ -929,6 +1602,15 @@ public class DocumentConverter {
     * @return The actual link ID for this URL.
     */
    public String addLink(String url, String recommendedName, boolean image) {
+      if (partitionLinks != null) {
+         // a table's layout depends on the length of the link ids within it
+         if (partitionTableDepth > 0) {
+            partitionTableLinks = true;
+         }
+         partitionLinks.add(new PendingLink(url, recommendedName, image));
+         return LINK_MARK_START + String.valueOf(partitionLinks.size() - 1)
+            + LINK_MARK_END;
+      }
       String linkId;
       // remove embedded newline
       int nlIndex = url.indexOf("\n");
@@ -0,0 +1,455 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.overzealous.remark.convert;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import com.overzealous.remark.util.BlockWriter;
+
+/**
+ * The tree of blocks and inlines built by walking a document once, from which
+ * renderers produce the markdown, the provenance and (in the batch tools) the
+ * text of the document, each in a single pass. It is also the structure the
+ * DocumentConverter uses to merge the output of block partitions converted
+ * in parallel back into the document in order.
+ * <p>
+ * Each block is the markdown generated for one block of the document, along
+ * with its kind and the block element it was generated from. Blocks are
+ * delimited exactly as the BlockWriter separates them, so the markdown
+ * rendered from the model is identical to that returned by
+ * {@link DocumentConverter#convert(org.jsoup.nodes.Document, ProvenanceWriter, String, String)}.
+ * The inlines of a block are the annotations linking its markdown to the
+ * document's nodes, in the order they were recorded, so the provenance
+ * rendered is identical to that written during conversion. As the blocks
+ * and inlines refer to the document's nodes, a model should only be kept as
+ * long as the document it was built from.
+ * 
+ * @author Nathaniel Mills
+ */
+public class DocumentModel {
+
+   /**
+    * The kinds of blocks in the model
+    */
+   public enum BlockKind {
+      /**
+       * markdown generated from content outside the block elements below
+       * (e.g., text directly within a div)
+       */
+      CONTENT,
+      /**
+       * a heading (h1 through h6)
+       */
+      HEADING,
+      /**
+       * a paragraph
+       */
+      PARAGRAPH,
+      /**
+       * an ordered, unordered or definition list
+       */
+      LIST,
+      /**
+       * a block quote
+       */
+      QUOTE,
+      /**
+       * preformatted text or code
+       */
+      CODE,
+      /**
+       * a table
+       */
+      TABLE,
+      /**
+       * a horizontal rule
+       */
+      RULE,
+      /**
+       * the link and abbreviation references appended to the document
+       */
+      REFERENCES;
+
+      /**
+       * @param element
+       *           a block element
+       * @return the kind of block generated from the element
+       */
+      static public BlockKind fromElement(Element element) {
+         String tagName = element.tagName();
+         if (tagName.length() == 2 && tagName.charAt(0) == 'h'
+            && tagName.charAt(1) >= '1' && tagName.charAt(1) <= '6') {
+            return HEADING;
+         }
+         switch (tagName) {
+            case "p":
+               return PARAGRAPH;
+            case "ul":
+            case "ol":
+            case "li":
+            case "dl":
+            case "dt":
+            case "dd":
+               return LIST;
+            case "blockquote":
+               return QUOTE;
+            case "pre":
+               return CODE;
+            case "table":
+               return TABLE;
+            case "hr":
+               return RULE;
+            default:
+               return CONTENT;
+         }
+      }
+   }
+
+   /**
+    * A block of markdown and the annotations recorded while generating it
+    */
+   static public class Block {
+      Element _element = null;
+      List<Inline> _inlines = new ArrayList<Inline>();
+      BlockKind _kind;
+      String _markdown = "";
+
+      Block(BlockKind kind) {
+         _kind = kind;
+      }
+
+      /**
+       * @return the innermost block element being walked when the block's
+       *         markdown was first written, or null if there was none (e.g.,
+       *         for the references)
+       */
+      public Element getElement() {
+         return _element;
+      }
+
+      /**
+       * @return the annotations recorded while generating this block, in the
+       *         order they were recorded
+       */
+      public List<Inline> getInlines() {
+         return Collections.unmodifiableList(_inlines);
+      }
+
+      /**
+       * @return the kind of block
+       */
+      public BlockKind getKind() {
+         return _kind;
+      }
+
+      /**
+       * @return the markdown of this block (without the blank line separating
+       *         it from the preceding block)
+       */
+      public String getMarkdown() {
+         return _markdown;
+      }
+   }
+
+   /**
+    * An annotation linking a markdown snippet (or the reason it was filtered)
+    * to the node it was generated from
+    */
+   static public class Inline {
+      String _filterReason;
+      String _level;
+      String _markdown;
+      Node _node;
+
+      Inline(String level, Node node, String markdown, String filterReason) {
+         _level = level;
+         _node = node;
+         _markdown = markdown;
+         _filterReason = filterReason;
+      }
+
+      /**
+       * @return the reason the node was filtered, or null if it generated
+       *         markdown
+       */
+      public String getFilterReason() {
+         return _filterReason;
+      }
+
+      /**
+       * @return the dotted tree notation for the node's location in the
+       *         document
+       */
+      public String getLevel() {
+         return _level;
+      }
+
+      /**
+       * @return the markdown generated for the node (may be empty)
+       */
+      public String getMarkdown() {
+         return _markdown;
+      }
+
+      /**
+       * @return the node the markdown was generated from
+       */
+      public Node getNode() {
+         return _node;
+      }
+
+      /**
+       * @return true if this inline records a filtered node
+       */
+      public boolean isFiltered() {
+         return _filterReason != null;
+      }
+   }
+
+   /**
+    * Builds the model while the DocumentConverter walks the document. It
+    * receives the root BlockWriter's output, starting a new block where the
+    * writer separates blocks, and records the annotations through the
+    * ProvenanceWriter returned by {@link #getRecorder()}.
+    * <p>
+    * The DocumentConverter enters the elements it walks while writing
+    * directly into the model's blocks, and a block takes its kind from the
+    * innermost block element entered when its markdown is first written.
+    * <p>
+    * An annotation belongs to the block receiving the markdown written before
+    * it. Annotations recorded without markdown having been written since the
+    * previous one (e.g., text gathered as inline content, table cells, or
+    * filtered nodes) are held until markdown is next written, and then belong
+    * to the block receiving it.
+    */
+   static class Builder extends Writer implements BlockWriter.BlockListener {
+      StringBuilder _buffer;
+      Block _current = new Block(BlockKind.CONTENT);
+      List<Element> _elements = new ArrayList<Element>();
+      DocumentModel _model = new DocumentModel();
+      BlockKind _nextKind = BlockKind.CONTENT;
+      List<Inline> _pending = new ArrayList<Inline>();
+      Recorder _recorder = new Recorder(this);
+      int _separatorNewlines = 0;
+      // the writer whose output builds the model (null for partitions)
+      BlockWriter _writer = null;
+      boolean _written = false;
+
+      Builder(int sizeHint) {
+         _buffer = new StringBuilder(Math.max(16, sizeHint));
+         _model._blocks.add(_current);
+      }
+
+      void annotate(String level, Node node, String markdown,
+         String filterReason) {
+         Inline inline = new Inline(level, node, markdown, filterReason);
+         if (_written) {
+            _current._inlines.add(inline);
+            _written = false;
+         } else {
+            _pending.add(inline);
+         }
+      }
+
+      @Override
+      public void blockSeparated() {
+         endBlock();
+         _current = new Block(_nextKind);
+         _model._blocks.add(_current);
+         // the writer follows with the two newlines separating the blocks
+         _separatorNewlines = 2;
+      }
+
+      @Override
+      public void close() {
+      }
+
+      void enterElement(Element element) {
+         _elements.add(element);
+      }
+
+      void exitElement() {
+         _elements.remove(_elements.size() - 1);
+      }
+
+      void endBlock() {
+         _current._markdown = _buffer.toString();
+         _buffer.setLength(0);
+      }
+
+      DocumentModel finish() {
+         _current._inlines.addAll(_pending);
+         _pending.clear();
+         endBlock();
+         return _model;
+      }
+
+      @Override
+      public void flush() {
+      }
+
+      /**
+       * @return the ProvenanceWriter recording annotations into the model
+       */
+      ProvenanceWriter getRecorder() {
+         return _recorder;
+      }
+
+      /**
+       * Signals the blocks that follow hold the link and abbreviation
+       * references
+       */
+      void startReferences() {
+         _nextKind = BlockKind.REFERENCES;
+         if (_model._blocks.size() == 1 && _buffer.length() == 0) {
+            _current._kind = BlockKind.REFERENCES;
+         }
+      }
+
+      @Override
+      public void write(char[] cbuf, int off, int len) {
+         int end = off + len;
+         while (_separatorNewlines > 0 && off < end && cbuf[off] == '\n') {
+            _separatorNewlines--;
+            off++;
+         }
+         if (off < end) {
+            written();
+            _buffer.append(cbuf, off, end - off);
+         }
+      }
+
+      @Override
+      public void write(int c) {
+         if (_separatorNewlines > 0 && c == '\n') {
+            _separatorNewlines--;
+            return;
+         }
+         written();
+         _buffer.append((char) c);
+      }
+
+      @Override
+      public void write(String str, int off, int len) {
+         int end = off + len;
+         while (_separatorNewlines > 0 && off < end
+            && str.charAt(off) == '\n') {
+            _separatorNewlines--;
+            off++;
+         }
+         if (off < end) {
+            written();
+            _buffer.append(str, off, end);
+         }
+      }
+
+      void written() {
+         if (_buffer.length() == 0 && _current._element == null
+            && _current._kind == BlockKind.CONTENT) {
+            for (int index = _elements.size() - 1; index >= 0; index--) {
+               Element element = _elements.get(index);
+               if (element.isBlock()) {
+                  _current._element = element;
+                  _current._kind = BlockKind.fromElement(element);
+                  break;
+               }
+            }
+         }
+         _separatorNewlines = 0;
+         _written = true;
+         if (_pending.isEmpty() == false) {
+            _current._inlines.addAll(_pending);
+            _pending.clear();
+         }
+      }
+   }
+
+   /**
+    * Receives the annotations made while walking the document on behalf of
+    * the Builder
+    */
+   static class Recorder extends ProvenanceWriter {
+      Builder _builder;
+
+      Recorder(Builder builder) {
+         super(builder);
+         _builder = builder;
+      }
+
+      @Override
+      public void close() {
+      }
+
+      @Override
+      public void saveFilteredHTML(String level, Node node,
+         String filterReason) {
+         // as the ProvenanceWriter does, ignore filtering without a reason
+         if (filterReason == null || filterReason.trim().length() == 0) {
+            return;
+         }
+         _builder.annotate(level, node, "", filterReason);
+      }
+
+      @Override
+      public void saveHTML2MD(String level, Node node, String markdown) {
+         _builder.annotate(level, node, markdown == null ? "" : markdown,
+            null);
+      }
+   }
+
+   List<Block> _blocks = new ArrayList<Block>();
+
+   DocumentModel() {
+   }
+
+   /**
+    * @return the blocks of the document in the order they were generated
+    */
+   public List<Block> getBlocks() {
+      return Collections.unmodifiableList(_blocks);
+   }
+
+   /**
+    * Render the model in a single pass over its blocks and their inlines
+    * 
+    * @param renderer
+    *           the renderer producing the output
+    * @throws IOException
+    *            if the renderer can not write its output
+    */
+   public void render(DocumentRenderer renderer) throws IOException {
+      for (Block block : _blocks) {
+         renderer.beginBlock(block);
+         for (Inline inline : block._inlines) {
+            renderer.inline(inline);
+         }
+         renderer.endBlock(block);
+      }
+      renderer.endDocument();
+   }
+}
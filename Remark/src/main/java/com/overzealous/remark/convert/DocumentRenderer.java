@@ -0,0 +1,73 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.overzealous.remark.convert;
+
+import java.io.IOException;
+
+/**
+ * Produces an output from a {@link DocumentModel} in a single pass over its
+ * blocks and their inlines. See {@link DocumentModel#render(DocumentRenderer)}
+ * 
+ * @author Nathaniel Mills
+ */
+public interface DocumentRenderer {
+
+   /**
+    * Called at the start of each block, before its inlines
+    * 
+    * @param block
+    *           the block being rendered
+    * @throws IOException
+    *            if the output can not be written
+    */
+   public void beginBlock(DocumentModel.Block block) throws IOException;
+
+   /**
+    * Called for each of the inlines of the block being rendered, in the order
+    * they were recorded
+    * 
+    * @param inline
+    *           the inline being rendered
+    * @throws IOException
+    *            if the output can not be written
+    */
+   public void inline(DocumentModel.Inline inline) throws IOException;
+
+   /**
+    * Called at the end of each block, after its inlines
+    * 
+    * @param block
+    *           the block being rendered
+    * @throws IOException
+    *            if the output can not be written
+    */
+   public void endBlock(DocumentModel.Block block) throws IOException;
+
+   /**
+    * Called once all blocks have been rendered
+    * 
+    * @throws IOException
+    *            if the output can not be written
+    */
+   public void endDocument() throws IOException;
+}
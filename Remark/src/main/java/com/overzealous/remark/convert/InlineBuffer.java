@@ -0,0 +1,420 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.overzealous.remark.convert;
+
+import java.io.Writer;
+import java.util.ArrayList;
+import com.overzealous.remark.util.BlockWriter;
+
+/**
+ * Receives the inline content rendered for styled elements and by
+ * {@link DocumentConverter#getInlineContent}. Rather than rendering each
+ * element into its own buffer and copying the result into its parent's, the
+ * content of nested elements is written once into a shared buffer, each
+ * element marking the range it covers. Styling markers are added around the
+ * non-whitespace content of a range as it is written, and angle brackets are
+ * escaped as they are written, so deeply nested inline markup costs time and
+ * memory linear in its length.
+ * <p>
+ * Each range is written with the block state of a new {@link BlockWriter},
+ * the state of the writer being saved when the range begins and restored
+ * when it ends, so the output is the same as rendering each range into its
+ * own writer.
+ * </p>
+ * 
+ * @author Nathaniel Mills
+ */
+final class InlineBuffer extends Writer {
+
+   // largest buffer retained between documents
+   static final int MAX_RETAINED_LENGTH = DocumentConverter.MAX_INITIAL_LENGTH;
+
+   /**
+    * The part of the buffer written for an element
+    */
+   static final class Range {
+      // where the content of the range begins
+      int _start;
+      // true when the content is written in place within the range enclosing
+      // it, rather than being returned when the range ends
+      final boolean _inPlace;
+      // the outermost of the ranges written in place within each other that
+      // this range belongs to (its own index if it is not written in place)
+      int _chainStart = 0;
+      // ranges waiting for content in the enclosing chain
+      int _outerWaiting = 0;
+      // the state of the writer when the range began
+      final BlockWriter.BlockState _saved;
+      // the state of the writer once the content of an in place range is
+      // written to it
+      BlockWriter.BlockState _written = null;
+      // the blocks must be separated before the content of the range
+      boolean _separate = false;
+      boolean _hasContent = false;
+      // markers written before the first non-whitespace content, with and
+      // without leading whitespace (null if none are written)
+      final String _open;
+      final String _openAlone;
+      boolean _opened = false;
+      // the markers of enclosing ranges written within this range when it
+      // was opened, which are not its content
+      int _cutStart = 0;
+      int _cutEnd = 0;
+
+      Range(int start, boolean inPlace, BlockWriter.BlockState saved,
+         String open, String openAlone) {
+         _start = start;
+         _inPlace = inPlace;
+         _saved = saved;
+         _open = open;
+         _openAlone = openAlone;
+      }
+
+      // true while content remains to be seen by the range
+      boolean isWaiting() {
+         return (_separate && _hasContent == false)
+            || (_open != null && _opened == false);
+      }
+
+      /**
+       * @return true if the content is written in place within the range
+       *         enclosing it
+       */
+      boolean isInPlace() {
+         return _inPlace;
+      }
+
+      /**
+       * @return true if any content was written to the range
+       */
+      boolean hasContent() {
+         return _hasContent;
+      }
+   }
+
+   private StringBuilder _text = new StringBuilder(1000);
+   private final ArrayList<Range> _ranges = new ArrayList<Range>();
+   // ranges of the innermost chain waiting for content (see Range.isWaiting)
+   private int _waiting = 0;
+   private final BlockWriter _writer = new BlockWriter(this);
+
+   /**
+    * @return the writer ranges are written with
+    */
+   BlockWriter getWriter() {
+      return _writer;
+   }
+
+   /**
+    * Begins a range for content that is returned when the range ends
+    * 
+    * @return the range begun
+    */
+   Range begin() {
+      return begin(null, null, null);
+   }
+
+   /**
+    * Begins a range for the content of a styled element
+    * 
+    * @param parent
+    *           The writer the content of the element is written to. If this is
+    *           the writer of this buffer, the content is written in place.
+    * @param open
+    *           Markers written before the first non-whitespace content when
+    *           whitespace precedes it, or null if none are written
+    * @param openAlone
+    *           Markers written before the first non-whitespace content when no
+    *           whitespace precedes it
+    * @return the range begun
+    */
+   Range begin(BlockWriter parent, String open, String openAlone) {
+      BlockWriter.BlockState saved = _writer.getBlockState();
+      Range range = new Range(_text.length(), parent == _writer, saved, open,
+         openAlone);
+      if (range._inPlace) {
+         // the content is written to the parent as a whole, so it is the
+         // first write that decides if the parent starts a new block
+         range._separate = _writer.advanceBlock();
+         range._written = _writer.getBlockState();
+      }
+      _writer.setBlockState(BlockWriter.INITIAL_STATE);
+      if (range._inPlace && _ranges.isEmpty() == false) {
+         range._chainStart = _ranges.get(_ranges.size() - 1)._chainStart;
+      } else {
+         // content written to this range does not reach those enclosing it
+         range._chainStart = _ranges.size();
+         range._outerWaiting = _waiting;
+         _waiting = 0;
+      }
+      _ranges.add(range);
+      if (range.isWaiting()) {
+         _waiting++;
+      }
+      return range;
+   }
+
+   /**
+    * Ends the innermost range, which must be written in place, writing the
+    * closing markers before any trailing whitespace
+    * 
+    * @param range
+    *           The range ending
+    * @param close
+    *           Markers written after the last non-whitespace content when
+    *           whitespace follows it
+    * @param closeAlone
+    *           Markers written after the last non-whitespace content when no
+    *           whitespace follows it
+    */
+   void end(Range range, String close, String closeAlone) {
+      pop(range);
+      close(range, close, closeAlone);
+      if (range._hasContent) {
+         _writer.setBlockState(range._written,
+            _text.charAt(_text.length() - 1) == '\n');
+      } else {
+         _writer.setBlockState(range._saved);
+      }
+   }
+
+   /**
+    * Ends the innermost range, removing its content from the buffer
+    * 
+    * @param range
+    *           The range ending
+    * @param close
+    *           Markers written after the last non-whitespace content when
+    *           whitespace follows it (or null)
+    * @param closeAlone
+    *           Markers written after the last non-whitespace content when no
+    *           whitespace follows it
+    * @return the content of the range
+    */
+   String detach(Range range, String close, String closeAlone) {
+      pop(range);
+      close(range, close, closeAlone);
+      String content = _text.substring(range._start);
+      truncate(range);
+      return content;
+   }
+
+   /**
+    * Ends the innermost range, discarding its content (e.g., when a search
+    * has found its node)
+    * 
+    * @param range
+    *           The range ending
+    */
+   void discard(Range range) {
+      pop(range);
+      truncate(range);
+   }
+
+   /**
+    * @param range
+    *           A range that has ended in place, with nothing written since
+    * @return the content of the range
+    */
+   String getContent(Range range) {
+      if (range._cutStart == range._cutEnd) {
+         return _text.substring(range._start);
+      }
+      return new StringBuilder(_text.length() - range._start)
+         .append(_text, range._start, range._cutStart)
+         .append(_text, range._cutEnd, _text.length()).toString();
+   }
+
+   /**
+    * Discards all ranges and content
+    */
+   void reset() {
+      _ranges.clear();
+      _waiting = 0;
+      _text.setLength(0);
+      _writer.setBlockState(BlockWriter.INITIAL_STATE);
+   }
+
+   private void pop(Range range) {
+      if (_ranges.isEmpty() || _ranges.get(_ranges.size() - 1) != range) {
+         throw new IllegalStateException(
+            "Inline content ranges must end in the order they began");
+      }
+      _ranges.remove(_ranges.size() - 1);
+      if (range._chainStart == _ranges.size()) {
+         _waiting = range._outerWaiting;
+      } else if (range.isWaiting()) {
+         _waiting--;
+      }
+   }
+
+   private void close(Range range, String close, String closeAlone) {
+      if (range._opened) {
+         int end = _text.length();
+         while (isSpace(_text.charAt(end - 1))) {
+            end--;
+         }
+         _text.insert(end, end == _text.length() ? closeAlone : close);
+      }
+   }
+
+   private void truncate(Range range) {
+      _text.setLength(range._start);
+      _writer.setBlockState(range._saved);
+      if (_ranges.isEmpty() && _text.capacity() > MAX_RETAINED_LENGTH) {
+         _text = new StringBuilder(1000);
+      }
+   }
+
+   // the whitespace around styled content (as \s matches)
+   private static boolean isSpace(char c) {
+      return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f'
+         || c == '\r';
+   }
+
+   // the whitespace leading the string
+   private static int leadingSpaces(String s) {
+      int leading = 0;
+      while (leading < s.length() && isSpace(s.charAt(leading))) {
+         leading++;
+      }
+      return leading;
+   }
+
+   // the character, escaped if it is an angle bracket
+   private void appendEscaped(char c) {
+      if (c == '<') {
+         _text.append("&lt;");
+      } else if (c == '>') {
+         _text.append("&gt;");
+      } else {
+         _text.append(c);
+      }
+   }
+
+   /**
+    * Lets the ranges waiting for content see the next character written,
+    * before it is appended
+    */
+   private void content(char c) {
+      // the character is content of the innermost range, and of the ranges
+      // enclosing it until one whose content is not written in place
+      int outer = _ranges.get(_ranges.size() - 1)._chainStart;
+      for (int index = outer; index < _ranges.size(); index++) {
+         Range range = _ranges.get(index);
+         if (range._hasContent == false) {
+            boolean waiting = range.isWaiting();
+            if (range._separate) {
+               // the first content of this range (and of any begun within it)
+               // follows the empty line separating it from the parent's block
+               _text.append("\n\n");
+               for (int inner = index; inner < _ranges.size(); inner++) {
+                  _ranges.get(inner)._start = _text.length();
+               }
+            }
+            range._hasContent = true;
+            if (waiting && range.isWaiting() == false) {
+               _waiting--;
+            }
+         }
+      }
+      if (isSpace(c)) {
+         return;
+      }
+      // open the ranges not yet opened from the innermost, each placing its
+      // markers after the whitespace leading its content (including the
+      // whitespace leading the markers of the ranges within it)
+      String markers = "";
+      int innermost = _ranges.size() - 1;
+      int outermost = innermost + 1;
+      for (int index = innermost; index >= outer; index--) {
+         Range range = _ranges.get(index);
+         if (range._open == null) {
+            continue;
+         }
+         if (range._opened) {
+            break;
+         }
+         int leading = leadingSpaces(markers);
+         boolean alone = leading == 0 && _text.length() == range._start;
+         markers = markers.substring(0, leading)
+            + (alone ? range._openAlone : range._open)
+            + markers.substring(leading);
+         range._opened = true;
+         _waiting--;
+         // the markers of the enclosing ranges are written after those
+         // leading the content of this range
+         range._cutStart = leadingSpaces(markers);
+         range._cutEnd = markers.length();
+         outermost = index;
+      }
+      int at = _text.length();
+      for (int index = innermost; index >= outermost; index--) {
+         Range range = _ranges.get(index);
+         if (range._opened && range._cutEnd > 0) {
+            int cutLength = markers.length() - range._cutEnd;
+            range._cutStart += at;
+            range._cutEnd = range._cutStart + cutLength;
+         }
+      }
+      _text.append(markers);
+   }
+
+   @Override
+   public void write(int c) {
+      if (_waiting > 0) {
+         content((char) c);
+      }
+      appendEscaped((char) c);
+   }
+
+   @Override
+   public void write(char[] cbuf, int off, int len) {
+      int end = off + len;
+      for (int i = off; i < end; i++) {
+         if (_waiting > 0) {
+            content(cbuf[i]);
+         }
+         appendEscaped(cbuf[i]);
+      }
+   }
+
+   @Override
+   public void write(String str, int off, int len) {
+      int end = off + len;
+      for (int i = off; i < end; i++) {
+         if (_waiting > 0) {
+            content(str.charAt(i));
+         }
+         appendEscaped(str.charAt(i));
+      }
+   }
+
+   @Override
+   public void flush() {
+   }
+
+   @Override
+   public void close() {
+   }
+}
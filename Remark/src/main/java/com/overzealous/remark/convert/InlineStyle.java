@@ -38,13 +38,12 @@
 
 package com.overzealous.remark.convert;
 
-import java.util.HashSet;
-import java.util.Set;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.jsoup.nodes.Element;
 import org.jsoup.nodes.Node;
 import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeFilter;
+import org.jsoup.select.NodeTraversor;
 import com.overzealous.remark.Options;
 
 /**
@@ -54,7 +53,7 @@ import com.overzealous.remark.Options;
  * @author Phil DeJarnett
  * @author Nathaniel Mills modifications for provenance and level tracking
  */
-public class InlineStyle extends AbstractNodeHandler {
+public class InlineStyle extends AbstractContainerNodeHandler {
 
    private static final char ITALICS_WRAPPER = '*';
    private static final String BOLD_WRAPPER = "**";
@@ -66,8 +65,6 @@ public class InlineStyle extends AbstractNodeHandler {
 
    private static final Pattern INWORD_CHARACTER = Pattern.compile("\\w");
 
-   private static final Pattern SPACE_CONTENT_SPACE = Pattern
-      .compile("^(\\s*+)(.*?)(\\s*)$", Pattern.DOTALL);
 
    private int italicDepth = 0;
    private int boldDepth = 0;
@@ -95,6 +92,8 @@ public class InlineStyle extends AbstractNodeHandler {
     *           Node to handle
     * @param converter
     *           Parent converter for this object.
+    * @param frame
+    *           The frame walking the content of the node
     * @param pw
     *           Provenance Writer to receive provenance annotations mapping
     *           generated markdown to document element(s)
@@ -104,13 +103,10 @@ public class InlineStyle extends AbstractNodeHandler {
     *           the domain from the baseUri used to find domain specific
     *           filtering rules
     * @param level
-    * @param searchLevel
-    * @return the Node where level matches searchLevel, otherwise, returns null
     */
-   public Node handleNode(NodeHandler parent, Element node,
-      DocumentConverter converter, ProvenanceWriter pw, String baseUri, String domain,
-      String level, String searchLevel) {
-      Node result = null;
+   public void enterNode(NodeHandler parent, Element node,
+      DocumentConverter converter, WalkFrame frame, ProvenanceWriter pw,
+      String baseUri, String domain, String level) {
       // special handling for inline span
       String tag = node.tagName();
       if ("span".equals(tag)) {
@@ -129,32 +125,42 @@ public class InlineStyle extends AbstractNodeHandler {
       if (checkInnerBlock(node, pw, level)) {
          // not valid to have an inline node around block nodes, so we have to
          // simply ignore them.
-         // just recurse like it's not here.
-         result = converter.walkNodes(parent, node, pw, baseUri, domain, level,
-            searchLevel);
+         // just walk it like it's not here.
+         frame.walk(node, converter.lastNodeset, parent, level);
       } else {
          Rules rules = checkInword(node, converter, pw, level);
          if (rules.emphasisPreserved) {
             checkTag(node, rules, pw, level);
 
             if (rules.bold || rules.italics) {
-               result = handleStyled(parent, node, converter, rules, pw, baseUri, domain,
-                  level, searchLevel);
+               startStyled(node, converter, rules, frame, pw, level);
             } else {
-               result = converter.walkNodes(this, node, converter.inlineNodes,
-                  pw, baseUri, domain, level, searchLevel);
+               frame.walk(node, converter.inlineNodes, this, level);
             }
          } else { // emphasis has been disabled for this section
             // mark as if emphasis was already processed
             italicDepth++;
             boldDepth++;
-            result = converter.walkNodes(this, node, converter.inlineNodes, pw,
-               baseUri, domain, level, searchLevel);
-            italicDepth--;
-            boldDepth--;
+            frame.setState(rules);
+            frame.walk(node, converter.inlineNodes, this, level);
          }
       }
-      return result;
+   }
+
+   @Override
+   public void exitNode(NodeHandler parent, Element node,
+      DocumentConverter converter, WalkFrame frame, ProvenanceWriter pw,
+      String baseUri, String domain, String level) {
+      Rules rules = (Rules) frame.getState();
+      if (rules == null) {
+         return;
+      }
+      if (rules.emphasisPreserved == false) {
+         italicDepth--;
+         boldDepth--;
+      } else {
+         endStyled(node, converter, rules, frame, pw, level);
+      }
    }
 
    @Override
@@ -177,41 +183,40 @@ public class InlineStyle extends AbstractNodeHandler {
       boolean addSpacing = false;
       boolean italics = false;
       boolean bold = false;
+      // the part of the inline buffer holding the styled content
+      InlineBuffer.Range range = null;
    }
 
    /**
     * Handles dealing with a styled node (one that has markers on either side).
+    * Its content is walked into a range of the converter's inline buffer,
+    * which places the markers around the content (see {@link #endStyled}).
     * 
     * <p>
     * It's unique because we have to deal with leading and trailing spaces,
     * among other issues.
     * </p>
     * 
-    * @param parent
-    *           The previous node walker, in case we just want to remove an
-    *           element.
     * @param node
     *           Node to handle
     * @param converter
     *           Parent converter for this object.
     * @param rules
     *           The styling rules that are active
+    * @param frame
+    *           The frame walking the content of the node
     * @param pw
     *           Provenance Writer to receive provenance annotations mapping
     *           generated markdown to document element(s)
-    * @param baseUri
-    *           the base URI needed to flesh out partial (local) image or href URL references
-    * @param domain
-    *           the domain from the baseUri used to find domain specific
-    *           filtering rules
     * @param level
-    * @param searchLevel
-    * @return the Node where level matches searchLevel, otherwise, returns null
     */
-   private Node handleStyled(NodeHandler parent, Element node,
-      DocumentConverter converter, Rules rules, ProvenanceWriter pw,
-      String baseUri, String domain, String level, String searchLevel) {
-      Node result = null;
+   private void startStyled(Element node, DocumentConverter converter,
+      Rules rules, WalkFrame frame, ProvenanceWriter pw, String level) {
+      InlineBuffer buffer = converter.getInlineBuffer();
+      // the markers depend on the styling outside this node
+      rules.range = buffer.begin(converter.output,
+         start(rules, " ", converter, pw, level),
+         start(rules, "", converter, pw, level));
       // prevent double styling
       if (rules.bold) {
          boldDepth++;
@@ -219,12 +224,37 @@ public class InlineStyle extends AbstractNodeHandler {
       if (rules.italics) {
          italicDepth++;
       }
-      Set<Node> nodeSet = new HashSet<Node>();
-      String content = converter.getInlineContent(this, node, true, pw, baseUri, domain,
-         level, searchLevel, nodeSet);
-      if (nodeSet.size() > 0) {
-         result = nodeSet.iterator().next();
-         return result;
+      converter.output = buffer.getWriter();
+      frame.setState(rules);
+      frame.walk(node, converter.inlineNodes, this, level);
+   }
+
+   /**
+    * Ends the range holding the content of a styled node once it has been
+    * walked, placing the markers after any leading spaces and before any
+    * trailing spaces. Styled content nested in other inline content is left in
+    * place within the range of its parent, otherwise it is written to the
+    * converter's output.
+    * 
+    * @param node
+    *           Node to handle
+    * @param converter
+    *           Parent converter for this object.
+    * @param rules
+    *           The styling rules that are active
+    * @param frame
+    *           The frame that walked the content of the node
+    * @param pw
+    *           Provenance Writer to receive provenance annotations mapping
+    *           generated markdown to document element(s)
+    * @param level
+    */
+   private void endStyled(Element node, DocumentConverter converter,
+      Rules rules, WalkFrame frame, ProvenanceWriter pw, String level) {
+      InlineBuffer buffer = converter.getInlineBuffer();
+      if (frame.getResult() != null) {
+         buffer.discard(rules.range);
+         return;
       }
       if (rules.bold) {
          boldDepth--;
@@ -232,37 +262,22 @@ public class InlineStyle extends AbstractNodeHandler {
       if (rules.italics) {
          italicDepth--;
       }
-
-      // only proceed if we have content
-      if (content.length() > 0) {
-
-         Matcher parts = SPACE_CONTENT_SPACE.matcher(content);
-         if (parts.find()) {
-            String md = (parts.group(1));
-            // write any leading space
-            // converter.output.write(parts.group(1));
-
-            // don't write the markers if the content ends up empty
-            if (parts.group(2).length() > 0) {
-               // write leading style marker
-               md += start(rules, parts.group(1), converter, pw, level);
-
-               // write content
-               md += parts.group(2);
-               // converter.output.write(parts.group(2));
-
-               // write trailing marker
-               md += end(rules, parts.group(3), converter, pw, level);
-            }
-
-            // write any trailing space
-            md += parts.group(3);
-            // converter.output.write(parts.group(3));
+      String close = end(rules, " ", converter, pw, level);
+      String closeAlone = end(rules, "", converter, pw, level);
+      if (rules.range.isInPlace()) {
+         buffer.end(rules.range, close, closeAlone);
+         // only annotate if we have content
+         if (pw != null && rules.range.hasContent()) {
+            saveAnnotation(pw, level, node, buffer.getContent(rules.range));
+         }
+      } else {
+         String md = buffer.detach(rules.range, close, closeAlone);
+         // only proceed if we have content
+         if (md.length() > 0) {
             converter.output.write(md);
             saveAnnotation(pw, level, node, md);
-         } // else, something weird happened, like (1 == 0)
+         }
       }
-      return result;
    }
 
    /**
@@ -277,16 +292,26 @@ public class InlineStyle extends AbstractNodeHandler {
     * @return True is there is a block inside this node (which would be invalid
     *         HTML)
     */
-   private boolean checkInnerBlock(Element node, ProvenanceWriter aw,
+   private boolean checkInnerBlock(final Element node, ProvenanceWriter aw,
       String level) {
-      boolean blockExists = false;
-      for (final Element child : node.children()) {
-         blockExists = child.isBlock() || checkInnerBlock(child, aw, level) || child.equals(node);
-         if (blockExists) {
-            break;
+      final boolean[] blockExists = new boolean[1];
+      // traversed without recursing, so deeply nested nodes can be checked
+      NodeTraversor.filter(new NodeFilter() {
+         @Override
+         public FilterResult head(Node n, int depth) {
+            if (n != node && n instanceof Element && ((Element) n).isBlock()) {
+               blockExists[0] = true;
+               return FilterResult.STOP;
+            }
+            return FilterResult.CONTINUE;
          }
-      }
-      return blockExists;
+
+         @Override
+         public FilterResult tail(Node n, int depth) {
+            return FilterResult.CONTINUE;
+         }
+      }, node);
+      return blockExists[0];
    }
 
    /**
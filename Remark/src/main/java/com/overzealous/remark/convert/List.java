@@ -39,7 +39,6 @@
 package com.overzealous.remark.convert;
 
 import org.jsoup.nodes.Element;
-import org.jsoup.nodes.Node;
 import com.overzealous.remark.util.BlockWriter;
 
 /**
@@ -48,75 +47,109 @@ import com.overzealous.remark.util.BlockWriter;
  * @author Phil DeJarnett
  * @author Nathaniel Mills modifications for provenance and level tracking
  */
-public class List extends AbstractNodeHandler {
+public class List extends AbstractContainerNodeHandler {
 
-	public Node handleNode(NodeHandler parent, Element node, DocumentConverter converter, ProvenanceWriter pw,
-			String baseUri, String domain, String level, String searchLevel) {
-		Node result = null;
+	/**
+	 * The progress through the items of a list, kept while the items are
+	 * walked
+	 */
+	private static class Items {
+		// we need to store this, because we're going to replace it for each li
+		// below (for padding).
+		BlockWriter parentWriter;
+		java.util.List<Element> children;
+		int depthLevel = 0;
 		// the first node doesn't get a linebreak
 		boolean first = true;
-		// if this is an ol, it's numbered.
-		boolean numericList = node.tagName().equals("ol");
 		// keep track of where we are in the list.
 		int listCounter = 1;
+		String nextLevel;
+		// if this is an ol, it's numbered.
+		boolean numericList;
+		// set once the last item has been walked
+		boolean done = false;
+	}
 
-		// we need to store this, because we're going to replace it for each li
-		// below (for padding).
-		BlockWriter parentWriter = converter.output;
-		parentWriter.startBlock();
-		int depthLevel = 0;
-		String nextLevel = level + ".";
-		for (final Element child : node.children()) {
-			depthLevel++;
-			if (searchLevel != null && searchLevel.equals(nextLevel + depthLevel)) {
-				return child;
-			}
-			String md = "";
-			// handle linebreaks between li's
-			if (first) {
-				first = false;
-			} else {
-				parentWriter.println();
-				// md += "\n";
+	public void enterNode(NodeHandler parent, Element node, DocumentConverter converter, WalkFrame frame,
+			ProvenanceWriter pw, String baseUri, String domain, String level) {
+		Items items = new Items();
+		items.numericList = node.tagName().equals("ol");
+		items.parentWriter = converter.output;
+		items.parentWriter.startBlock();
+		items.children = node.children();
+		items.nextLevel = level + ".";
+		frame.setState(items);
+		nextItem(node, converter, frame, pw, level, items);
+	}
+
+	@Override
+	public void exitNode(NodeHandler parent, Element node, DocumentConverter converter, WalkFrame frame,
+			ProvenanceWriter pw, String baseUri, String domain, String level) {
+		Items items = (Items) frame.getState();
+		if (frame.getResult() != null || items.done) {
+			return;
+		}
+		Element child = items.children.get(items.depthLevel - 1);
+		if (child.tag() != null && child.tagName().equals("br")) {
+			; // do nothing
+		} else {
+			items.listCounter++;
+		}
+		nextItem(node, converter, frame, pw, level, items);
+	}
+
+	/**
+	 * Starts walking the next item of the list, or ends the list if there are
+	 * no more items.
+	 */
+	private void nextItem(Element node, DocumentConverter converter, WalkFrame frame, ProvenanceWriter pw,
+			String level, Items items) {
+		if (items.depthLevel == items.children.size()) {
+			// cleanup
+			items.done = true;
+			items.parentWriter.endBlock();
+			converter.output = items.parentWriter;
+			return;
+		}
+		BlockWriter parentWriter = items.parentWriter;
+		Element child = items.children.get(items.depthLevel++);
+		String searchLevel = frame.getSearchLevel();
+		if (searchLevel != null && searchLevel.equals(items.nextLevel + items.depthLevel)) {
+			frame.setResult(child);
+			return;
+		}
+		String md = "";
+		// handle linebreaks between li's
+		if (items.first) {
+			items.first = false;
+		} else {
+			parentWriter.println();
+			// md += "\n";
+		}
+		if (child.tag() != null && child.tagName().equals("br")) {
+			if (converter.options.hardwraps) {
+				// do nothing (below breaks other tests so would need additional tests)
+				// parentWriter.print("\n");
 			}
-			if (child.tag() != null && child.tagName().equals("br")) {
-				if (converter.options.hardwraps) {
-					// do nothing (below breaks other tests so would need additional tests)
-					// parentWriter.print("\n");
-				}
-				
-			} else {
-				// handle starting character
-				if (numericList) {
-					md += listCounter + ". ";
-					if (listCounter < 10) {
-						md += " ";
-					}
-					parentWriter.print(md);
-					saveAnnotation(pw, level, node, md);
-				} else {
-					parentWriter.print(" *  ");
-					saveAnnotation(pw, level, node, " *  ");
+			
+		} else {
+			// handle starting character
+			if (items.numericList) {
+				md += items.listCounter + ". ";
+				if (items.listCounter < 10) {
+					md += " ";
 				}
-			}
-			// now, recurse downward, padding the beginning of each line so it
-			// looks nice.
-			converter.output = new BlockWriter(parentWriter);
-			converter.output.setPrependNewlineString("    ", true);
-			result = converter.walkNodes(this, child, converter.blockNodes, pw, baseUri, domain, nextLevel + depthLevel,
-					searchLevel);
-			if (result != null) {
-				return result;
-			}
-			if (child.tag() != null && child.tagName().equals("br")) {
-				; // do nothing
+				parentWriter.print(md);
+				saveAnnotation(pw, level, node, md);
 			} else {
-				listCounter++;
+				parentWriter.print(" *  ");
+				saveAnnotation(pw, level, node, " *  ");
 			}
 		}
-		// cleanup
-		parentWriter.endBlock();
-		converter.output = parentWriter;
-		return result;
+		// now, walk downward, padding the beginning of each line so it
+		// looks nice.
+		converter.output = new BlockWriter(parentWriter);
+		converter.output.setPrependNewlineString("    ", true);
+		frame.walk(child, converter.blockNodes, this, items.nextLevel + items.depthLevel);
 	}
 }
@@ -0,0 +1,107 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.overzealous.remark.convert;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+/**
+ * Renders the markdown of a {@link DocumentModel}, identical to that returned
+ * by
+ * {@link DocumentConverter#convert(org.jsoup.nodes.Document, ProvenanceWriter, String, String)}
+ * for the same document.
+ * 
+ * @author Nathaniel Mills
+ */
+public class MarkdownRenderer implements DocumentRenderer {
+
+   boolean _first = true;
+   Writer _out;
+
+   /**
+    * Constructor
+    * 
+    * @param out
+    *           receives the markdown (it is flushed but not closed)
+    */
+   public MarkdownRenderer(Writer out) {
+      _out = out;
+   }
+
+   /**
+    * Render the markdown of the model
+    * 
+    * @param model
+    *           the model of the document
+    * @return the markdown
+    */
+   static public String render(DocumentModel model) {
+      int size = 0;
+      for (DocumentModel.Block block : model._blocks) {
+         size += block._markdown.length() + 2;
+      }
+      StringWriter out = new StringWriter(size);
+      try {
+         model.render(new MarkdownRenderer(out));
+      } catch (IOException e) {
+         // not thrown by a StringWriter
+         throw new IllegalStateException(e);
+      }
+      return out.toString();
+   }
+
+   /**
+    * @param block
+    *           a block of the model
+    * @return the markdown of the block with its comments restored as
+    *         DocumentConverter.convert does
+    */
+   static public String getMarkdown(DocumentModel.Block block) {
+      return block._markdown.replace("&tl;!--", "<!--").replace("--&gt;",
+         "-->");
+   }
+
+   @Override
+   public void beginBlock(DocumentModel.Block block) throws IOException {
+      if (_first) {
+         _first = false;
+      } else {
+         _out.write("\n\n");
+      }
+      _out.write(getMarkdown(block));
+   }
+
+   @Override
+   public void inline(DocumentModel.Inline inline) {
+   }
+
+   @Override
+   public void endBlock(DocumentModel.Block block) {
+   }
+
+   @Override
+   public void endDocument() throws IOException {
+      _out.flush();
+   }
+}
@@ -0,0 +1,331 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.overzealous.remark.convert;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jsoup.nodes.Attribute;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.parser.Parser;
+
+import com.overzealous.remark.util.PayloadStore;
+
+/**
+ * Replaces the payloads embedded in a document with references to copies
+ * saved in a {@link PayloadStore}, so they are neither repeated in the
+ * markdown nor in the html recorded by provenance. The data: URIs of image
+ * sources and of url() values in style attributes are replaced by the
+ * reference to their decoded content, and each inline svg element is replaced
+ * by an image whose source is the reference to the svg. Payloads smaller than
+ * the minimum size are left in place.
+ *
+ * The document is changed in place, so this is done before it is cleaned
+ * (which would strip the content of the svg elements).
+ *
+ * @author Nathaniel Mills
+ */
+public class PayloadExternalizer {
+
+   static final Pattern STYLE_DATA_URL = Pattern.compile(
+      "url\\(\\s*(['\"]?)(data:[^'\")]*)\\1\\s*\\)", Pattern.CASE_INSENSITIVE);
+
+   static final String SVG_NAMESPACE = "http://www.w3.org/2000/svg";
+
+   /**
+    * mixed case svg tag and attribute names by their lowercase form
+    */
+   static final Map<String, String> SVG_NAMES = new HashMap<String, String>();
+   static {
+      for (String name : new String[] { "animateMotion", "animateTransform",
+         "clipPath", "feBlend", "feColorMatrix", "feComponentTransfer",
+         "feComposite", "feDropShadow", "feFlood", "feGaussianBlur", "feImage",
+         "feMerge", "feMergeNode", "feMorphology", "feOffset", "feTile",
+         "feTurbulence", "foreignObject", "linearGradient", "radialGradient",
+         "textPath", "attributeName", "baseFrequency", "calcMode",
+         "clipPathUnits", "filterUnits", "gradientTransform", "gradientUnits",
+         "keySplines", "keyTimes", "lengthAdjust", "markerHeight",
+         "markerUnits", "markerWidth", "maskContentUnits", "maskUnits",
+         "numOctaves", "pathLength", "patternContentUnits", "patternTransform",
+         "patternUnits", "preserveAspectRatio", "primitiveUnits", "refX",
+         "refY", "repeatCount", "spreadMethod", "startOffset", "stdDeviation",
+         "stitchTiles", "textLength", "viewBox" }) {
+         SVG_NAMES.put(name.toLowerCase(), name);
+      }
+   }
+
+   final int _minBytes;
+   final PayloadStore _store;
+
+   /**
+    * @param store
+    *           the store receiving the payloads (of any size)
+    */
+   public PayloadExternalizer(PayloadStore store) {
+      this(store, 0);
+   }
+
+   /**
+    * @param store
+    *           the store receiving the payloads
+    * @param minBytes
+    *           the smallest payload saved, smaller payloads are left in the
+    *           document
+    */
+   public PayloadExternalizer(PayloadStore store, int minBytes) {
+      _store = store;
+      _minBytes = minBytes;
+   }
+
+   /**
+    * Replace the payloads of the document with references to the store.
+    *
+    * @param doc
+    *           the document to be changed
+    * @return the number of payloads replaced
+    * @throws UncheckedIOException
+    *            if a payload can not be saved (rather than leave it in the
+    *            document)
+    */
+   public int externalize(Document doc) {
+      int count = 0;
+      // copy the selection as outer svg elements are replaced while iterating
+      for (Element svg : new ArrayList<Element>(doc.select("svg"))) {
+         // nested svg elements are saved with the outermost one
+         if (svg.ownerDocument() == doc) {
+            byte[] payload = getSVGFile(svg).getBytes(StandardCharsets.UTF_8);
+            if (payload.length < _minBytes) {
+               continue;
+            }
+            Element img = new Element("img");
+            img.attr("data-src", save("image/svg+xml", payload));
+            String alt = getSVGTitle(svg);
+            if (alt.length() != 0) {
+               img.attr("alt", alt);
+            }
+            svg.replaceWith(img);
+            count++;
+         }
+      }
+      for (Element element : doc.getAllElements()) {
+         if (element.tagName().equals("img")) {
+            String dataSrc = element.attr("data-src");
+            if (isDataURI(dataSrc)) {
+               String reference = saveDataURI(dataSrc);
+               if (reference != null) {
+                  element.attr("data-src", reference);
+                  count++;
+               }
+            }
+            String src = element.attr("src");
+            if (isDataURI(src)) {
+               String reference = saveDataURI(src);
+               if (reference != null) {
+                  // the cleaner only keeps http(s) sources, so the reference
+                  // is used as the data-src unless one is given
+                  element.removeAttr("src");
+                  if (element.attr("data-src").length() == 0) {
+                     element.attr("data-src", reference);
+                  }
+                  count++;
+               }
+            }
+         }
+         String style = element.attr("style");
+         if (style.length() != 0) {
+            Matcher m = STYLE_DATA_URL.matcher(style);
+            StringBuffer sb = new StringBuffer();
+            boolean replaced = false;
+            while (m.find()) {
+               String reference = saveDataURI(m.group(2));
+               if (reference != null) {
+                  m.appendReplacement(sb,
+                     Matcher.quoteReplacement("url(" + reference + ")"));
+                  replaced = true;
+                  count++;
+               }
+            }
+            if (replaced) {
+               m.appendTail(sb);
+               element.attr("style", sb.toString());
+            }
+         }
+      }
+      return count;
+   }
+
+   /**
+    * Serialize the svg element as a standalone svg file. The html parser folds
+    * tag and attribute names to lowercase, so the mixed case svg names are
+    * restored and the svg namespace is added if missing.
+    *
+    * @param svg
+    *           the svg element
+    * @return the xml of the svg
+    */
+   static String getSVGFile(Element svg) {
+      Document holder = Document.createShell("");
+      // names set on the copy keep their case under the xml parser settings
+      holder.parser(Parser.xmlParser());
+      holder.outputSettings().syntax(Document.OutputSettings.Syntax.xml)
+         .prettyPrint(false);
+      Element copy = svg.clone();
+      holder.body().appendChild(copy);
+      if (!copy.hasAttr("xmlns")) {
+         copy.attr("xmlns", SVG_NAMESPACE);
+      }
+      for (Element element : copy.getAllElements()) {
+         String tagName = SVG_NAMES.get(element.tagName());
+         if (tagName != null) {
+            element.tagName(tagName);
+         }
+         for (Attribute attribute : new ArrayList<Attribute>(
+            element.attributes().asList())) {
+            String key = SVG_NAMES.get(attribute.getKey());
+            if (key != null) {
+               element.removeAttr(attribute.getKey());
+               element.attr(key, attribute.getValue());
+            }
+         }
+      }
+      return copy.outerHtml();
+   }
+
+   /**
+    * @param svg
+    *           the svg element
+    * @return the aria-label of the svg, else the text of its title, else an
+    *         empty string
+    */
+   static String getSVGTitle(Element svg) {
+      String title = svg.attr("aria-label").trim();
+      if (title.length() == 0) {
+         for (Element child : svg.children()) {
+            if (child.tagName().equalsIgnoreCase("title")) {
+               title = child.text().trim();
+               break;
+            }
+         }
+      }
+      return title;
+   }
+
+   static boolean isDataURI(String value) {
+      return value.regionMatches(true, 0, "data:", 0, 5);
+   }
+
+   /**
+    * Save the content of a data: URI
+    *
+    * @param uri
+    *           the data: URI (data:[media type][;base64],data)
+    * @return the reference to the saved content, or null if the URI is
+    *         malformed or its content smaller than the minimum size (so it is
+    *         left as is)
+    */
+   String saveDataURI(String uri) {
+      // the decoded content is at most the size of the data
+      if (uri.length() < _minBytes) {
+         return null;
+      }
+      int comma = uri.indexOf(',');
+      if (comma == -1) {
+         return null;
+      }
+      String mediaType = "text/plain";
+      boolean base64 = false;
+      String[] params = uri.substring(5, comma).split(";");
+      for (int i = 0; i < params.length; i++) {
+         String param = params[i].trim();
+         if (i == 0 && param.indexOf('/') != -1) {
+            mediaType = param;
+         } else if (param.equalsIgnoreCase("base64")) {
+            base64 = true;
+         }
+      }
+      String data = uri.substring(comma + 1);
+      byte[] payload;
+      if (base64) {
+         try {
+            // whitespace (e.g., line breaks) is allowed within the data
+            payload = Base64.getDecoder().decode(removeWhitespace(data));
+         } catch (IllegalArgumentException e) {
+            return null;
+         }
+      } else {
+         payload = percentDecode(data);
+      }
+      if (payload.length < _minBytes) {
+         return null;
+      }
+      return save(mediaType, payload);
+   }
+
+   String save(String mediaType, byte[] payload) {
+      try {
+         return _store.save(mediaType, payload);
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   static String removeWhitespace(String data) {
+      StringBuilder sb = new StringBuilder(data.length());
+      for (int i = 0; i < data.length(); i++) {
+         char c = data.charAt(i);
+         if (!Character.isWhitespace(c)) {
+            sb.append(c);
+         }
+      }
+      return sb.toString();
+   }
+
+   /**
+    * Decode the %xx escapes of URI data (unlike URLDecoder, + is left as is)
+    */
+   static byte[] percentDecode(String data) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream(data.length());
+      byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+      for (int i = 0; i < bytes.length; i++) {
+         if (bytes[i] == '%' && i + 2 < bytes.length
+            && Character.digit(bytes[i + 1], 16) != -1
+            && Character.digit(bytes[i + 2], 16) != -1) {
+            out.write((Character.digit(bytes[i + 1], 16) << 4)
+               | Character.digit(bytes[i + 2], 16));
+            i += 2;
+         } else {
+            out.write(bytes[i]);
+         }
+      }
+      return out.toByteArray();
+   }
+}
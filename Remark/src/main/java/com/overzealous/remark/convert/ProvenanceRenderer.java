@@ -0,0 +1,72 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.overzealous.remark.convert;
+
+import java.io.IOException;
+
+/**
+ * Renders the html to markdown provenance of a {@link DocumentModel} to a
+ * ProvenanceWriter, identical to the provenance written when the
+ * ProvenanceWriter is supplied to the conversion of the same document.
+ * 
+ * @author Nathaniel Mills
+ */
+public class ProvenanceRenderer implements DocumentRenderer {
+
+   ProvenanceWriter _pw;
+
+   /**
+    * Constructor
+    * 
+    * @param pw
+    *           receives the provenance (it is flushed but not closed, so the
+    *           caller completes it by closing it)
+    */
+   public ProvenanceRenderer(ProvenanceWriter pw) {
+      _pw = pw;
+   }
+
+   @Override
+   public void beginBlock(DocumentModel.Block block) {
+   }
+
+   @Override
+   public void inline(DocumentModel.Inline inline) throws IOException {
+      if (inline.isFiltered()) {
+         _pw.saveFilteredHTML(inline.getLevel(), inline.getNode(),
+            inline.getFilterReason());
+      } else {
+         _pw.saveHTML2MD(inline.getLevel(), inline.getNode(),
+            inline.getMarkdown());
+      }
+   }
+
+   @Override
+   public void endBlock(DocumentModel.Block block) {
+   }
+
+   @Override
+   public void endDocument() throws IOException {
+      _pw.flush();
+   }
+}
@@ -61,6 +61,17 @@ public class ProvenanceWriter extends BufferedWriter {
       this(inputFileName, outputFileName, HTMLFilters, baseURI, domain, out, 4096);
    }
 
+   /**
+    * Constructor for subclasses that receive the annotations rather than
+    * writing them, so no header is written to the output.
+    * 
+    * @param out
+    *           the writer (unused by subclasses overriding the save methods)
+    */
+   protected ProvenanceWriter(Writer out) {
+      super(out, 1);
+   }
+
    /**
     * 
     * @param inputFileName
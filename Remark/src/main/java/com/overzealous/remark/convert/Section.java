@@ -23,14 +23,13 @@
 package com.overzealous.remark.convert;
 
 import org.jsoup.nodes.Element;
-import org.jsoup.nodes.Node;
 
 /**
  * Handles input (input) tags.
  * 
  * @author Nathaniel Mills
  */
-public class Section extends AbstractNodeHandler {
+public class Section extends AbstractContainerNodeHandler {
 
    /**
     * Allows for section tags to be filtered.
@@ -42,6 +41,8 @@ public class Section extends AbstractNodeHandler {
     *           Node to handle
     * @param converter
     *           Parent converter for this object.
+    * @param frame
+    *           The frame walking the children of the node
     * @param pw
     *           Annotation Writer to receive annotations mapping generated
     *           markdown to document element(s)
@@ -51,15 +52,11 @@ public class Section extends AbstractNodeHandler {
     *           the domain from the baseUri used to find domain specific
     *           filtering rules
     * @param level
-    * @param searchLevel
-    * @return the Node where level matches searchLevel, otherwise, returns null
     */
-   public Node handleNode(NodeHandler parent, Element node,
-      DocumentConverter converter, ProvenanceWriter pw, String baseUri, String domain,
-      String level, String searchLevel) {
+   public void enterNode(NodeHandler parent, Element node,
+      DocumentConverter converter, WalkFrame frame, ProvenanceWriter pw,
+      String baseUri, String domain, String level) {
       // TODO: fix so newline is used correctly
-      Node result = converter.walkNodes(parent, node, pw, baseUri, domain, level,
-         searchLevel);
-      return result;
+      frame.walk(node, converter.lastNodeset, parent, level);
    }
 }
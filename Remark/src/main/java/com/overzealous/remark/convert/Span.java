@@ -23,14 +23,13 @@
 package com.overzealous.remark.convert;
 
 import org.jsoup.nodes.Element;
-import org.jsoup.nodes.Node;
 
 /**
  * Handles article tags.
  * 
  * @author Nathaniel Mills modifications for provenance and level tracking
  */
-public class Span extends AbstractNodeHandler {
+public class Span extends AbstractContainerNodeHandler {
 
    /**
     * Processed span children
@@ -42,6 +41,8 @@ public class Span extends AbstractNodeHandler {
     *           Node to handle
     * @param converter
     *           Parent converter for this object.
+    * @param frame
+    *           The frame walking the children of the node
     * @param pw
     *           Annotation Writer to receive annotations mapping generated
     *           markdown to document element(s)
@@ -51,12 +52,10 @@ public class Span extends AbstractNodeHandler {
     *           the domain from the baseUri used to find domain specific
     *           filtering rules
     * @param level
-    * @param searchLevel
-    * @return the Node where level matches searchLevel, otherwise, returns null
     */
-   public Node handleNode(NodeHandler parent, Element node,
-      DocumentConverter converter, ProvenanceWriter pw, String baseUri, String domain,
-      String level, String searchLevel) {
+   public void enterNode(NodeHandler parent, Element node,
+      DocumentConverter converter, WalkFrame frame, ProvenanceWriter pw,
+      String baseUri, String domain, String level) {
       if (node.hasAttr("role") && node.attr("role").trim().length() > 0) {
          String nodeStr = node.toString().trim();
          int index = nodeStr.indexOf(">");
@@ -68,8 +67,6 @@ public class Span extends AbstractNodeHandler {
             converter.output.write(" ");
          }
       }
-      Node result = converter.walkNodes(this, node, pw,
-            baseUri, domain, level, searchLevel);
-      return result;
+      frame.walk(node, converter.lastNodeset, this, level);
    }
 }
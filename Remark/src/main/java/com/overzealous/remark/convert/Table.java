@@ -39,7 +39,6 @@
 package com.overzealous.remark.convert;
 
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -49,8 +48,6 @@ import org.jsoup.nodes.Node;
 
 import com.overzealous.remark.Options;
 import com.overzealous.remark.util.MarkdownTable;
-import com.overzealous.remark.util.MarkdownTableCell;
-import com.overzealous.remark.util.MarkdownTableHeaderCell;
 
 /**
  * @author Phil DeJarnett
@@ -66,6 +63,15 @@ public class Table extends AbstractNodeHandler {
       String level, String searchLevel) {
       Node result = null;
       MarkdownTable table = new MarkdownTable();
+      Options.Tables opts = converter.options.getTables();
+      // rows are only written as they are converted outside of searches
+      boolean streamed = searchLevel == null
+         && converter.options.tableStreamingRows >= 0;
+      if (streamed) {
+         converter.output.startBlock();
+         table.setStreaming(converter.output, opts.isColspanEnabled(),
+            opts.isRenderedAsCode(), converter.options.tableStreamingRows);
+      }
       int depthLevel = 0;
       String nextLevel = level+".";
       // loop over every direct child of the table node.
@@ -83,7 +89,7 @@ public class Table extends AbstractNodeHandler {
                if (searchLevel != null && searchLevel.equals(nextNextLevel+nextDepthLevel)) {
                   return headerRow;
                }
-               result = processHeaderRow(table.addHeaderRow(), headerRow, converter, pw,
+               result = processHeaderRow(table, headerRow, converter, pw,
                   baseUri, domain, nextNextLevel+nextDepthLevel, searchLevel);
                if (result != null) {
                   return result;
@@ -101,7 +107,7 @@ public class Table extends AbstractNodeHandler {
                if (searchLevel != null && searchLevel.equals(nextNextLevel+nextDepthLevel)) {
                   return bodyRow;
                }
-               result = processRow(table.addBodyRow(), bodyRow, converter, pw, baseUri, domain,
+               result = processRow(table, bodyRow, converter, pw, baseUri, domain,
                   nextNextLevel+nextDepthLevel, searchLevel);
                if (result != null) {
                   return result;
@@ -116,7 +122,7 @@ public class Table extends AbstractNodeHandler {
                   if (searchLevel != null && searchLevel.equals(nextLevel+depthLevel+"."+1)) {
                      return child;
                   }
-                  result = processHeaderRow(table.addHeaderRow(), child, converter, pw, baseUri, domain,
+                  result = processHeaderRow(table, child, converter, pw, baseUri, domain,
                      nextLevel+depthLevel+"."+1, searchLevel);
                   if (result != null) {
                      return result;
@@ -124,7 +130,7 @@ public class Table extends AbstractNodeHandler {
 
                } else {
                   // OK, must be a table row.
-                  result = processRow(table.addBodyRow(), child, converter, pw, baseUri, domain,
+                  result = processRow(table, child, converter, pw, baseUri, domain,
                      nextLevel+depthLevel, searchLevel);
                   if (result != null) {
                      return result;
@@ -135,18 +141,20 @@ public class Table extends AbstractNodeHandler {
       }
 
       // OK, now render this sucker
-      Options.Tables opts = converter.options.getTables();
-      converter.output.startBlock();
+      if (!streamed) {
+         converter.output.startBlock();
+      }
       table.renderTable(converter.output, opts.isColspanEnabled(),
          opts.isRenderedAsCode());
       converter.output.endBlock();
       return result;
    }
 
-   private Node processHeaderRow(List<MarkdownTableHeaderCell> row, Element tableRow,
+   private Node processHeaderRow(MarkdownTable table, Element tableRow,
          DocumentConverter converter, ProvenanceWriter pw, String baseUri, String domain,
          String level, String searchLevel) {
          Node result = null;
+         table.startHeaderRow();
          int depthLevel = 0;
          String nextLevel = level+"~";
          for (final Element cell : tableRow.children()) {
@@ -160,17 +168,17 @@ public class Table extends AbstractNodeHandler {
             if (nodeSet.size() != 0) {
                return nodeSet.iterator().next();
             }
-            row.add(new MarkdownTableHeaderCell(contents, getAlignment(cell),
-               getColspan(cell)));
+            table.addCell(contents, getAlignment(cell), getColspan(cell));
             saveAnnotation(pw, nextLevel+depthLevel, cell, contents.replaceAll("\n"," "));
          }
          return result;
       }
 
-   private Node processRow(List<MarkdownTableCell> row, Element tableRow,
+   private Node processRow(MarkdownTable table, Element tableRow,
       DocumentConverter converter, ProvenanceWriter pw, String baseUri, String domain,
       String level, String searchLevel) {
       Node result = null;
+      table.startBodyRow();
       int depthLevel = 0;
       String nextLevel = level+"~";
       for (final Element cell : tableRow.children()) {
@@ -184,8 +192,7 @@ public class Table extends AbstractNodeHandler {
          if (nodeSet.size() != 0) {
             return nodeSet.iterator().next();
          }
-         row.add(new MarkdownTableCell(contents, getAlignment(cell),
-            getColspan(cell)));
+         table.addCell(contents, getAlignment(cell), getColspan(cell));
          saveAnnotation(pw, nextLevel+depthLevel, cell, contents.replaceAll("\n"," "));
       }
       return result;
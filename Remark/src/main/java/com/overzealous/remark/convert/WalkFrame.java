@@ -0,0 +1,153 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.overzealous.remark.convert;
+
+import java.util.List;
+import java.util.Map;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import com.overzealous.remark.util.BlockWriter;
+
+/**
+ * An entry on the explicit stack used by the DocumentConverter to walk a
+ * document. A frame walks the children of an element as
+ * {@link DocumentConverter#walkNodes} would, on behalf of a
+ * {@link ContainerNodeHandler} (or of an element without a handler, or of the
+ * caller of walkNodes).
+ * 
+ * @author Nathaniel Mills
+ */
+public final class WalkFrame {
+
+   // the walk of the children of an element
+   List<Node> _children = null;
+   int _depthLevel = 0;
+   NodeHandler _handler = null;
+   int _index = 0;
+   String _level = null;
+   Map<String, NodeHandler> _nodes = null;
+   Map<String, NodeHandler> _savedNodes = null;
+   int _textLevel = 0;
+   int _to = 0;
+   boolean _walking = false;
+
+   // the element whose handling this frame performs
+   ContainerNodeHandler _container = null;
+   boolean _endBlock = false;
+   // whether the element was entered into the model being built
+   boolean _modelElement = false;
+   Element _node = null;
+   String _nodeLevel = null;
+   BlockWriter _output = null;
+   NodeHandler _parent = null;
+
+   final DocumentConverter _converter;
+   Node _result = null;
+   final String _searchLevel;
+   Object _state = null;
+
+   WalkFrame(DocumentConverter converter, String searchLevel) {
+      _converter = converter;
+      _searchLevel = searchLevel;
+   }
+
+   /**
+    * @return the node found at the level searched for, or null if not found
+    *         (yet)
+    */
+   public Node getResult() {
+      return _result;
+   }
+
+   /**
+    * @return the level being searched for, or null if not searching
+    */
+   public String getSearchLevel() {
+      return _searchLevel;
+   }
+
+   /**
+    * @return the state saved by the handler
+    */
+   public Object getState() {
+      return _state;
+   }
+
+   /**
+    * Ends the walk, returning the supplied node as the one found at the level
+    * searched for
+    * 
+    * @param result
+    *           the node found
+    */
+   public void setResult(Node result) {
+      _result = result;
+   }
+
+   /**
+    * Save state for the handler until the element is exited
+    * 
+    * @param state
+    *           the state to be saved
+    */
+   public void setState(Object state) {
+      _state = state;
+   }
+
+   /**
+    * Walk the children of an element once the handler returns, as
+    * {@link DocumentConverter#walkNodes(NodeHandler, Element, Map, ProvenanceWriter, String, String, String, String)}
+    * would. The converter's current node set is replaced until the walk is
+    * complete.
+    * 
+    * @param el
+    *           The element whose children are walked
+    * @param nodes
+    *           The nodes valid for the children (e.g., the converter's
+    *           blockNodes or inlineNodes)
+    * @param handler
+    *           The handler for the text and ignored elements among the
+    *           children
+    * @param level
+    *           The dotted tree notation for the location of el within the dom
+    */
+   public void walk(Element el, Map<String, NodeHandler> nodes,
+      NodeHandler handler, String level) {
+      walk(el, nodes, handler, level, 0, el.childNodeSize(), 0, 0);
+   }
+
+   void walk(Element el, Map<String, NodeHandler> nodes, NodeHandler handler,
+      String level, int from, int to, int depthLevel, int textLevel) {
+      _children = el.childNodes();
+      _nodes = nodes;
+      _handler = handler;
+      _level = level;
+      _index = from;
+      _to = to;
+      _depthLevel = depthLevel;
+      _textLevel = textLevel;
+      _savedNodes = _converter.lastNodeset;
+      _converter.lastNodeset = nodes;
+      _walking = true;
+   }
+}
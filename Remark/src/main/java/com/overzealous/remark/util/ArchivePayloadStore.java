@@ -0,0 +1,80 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.overzealous.remark.util;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Saves payloads as entries of a zip archive, each named by its content hash
+ * and written once. The archive is complete once the store is closed.
+ *
+ * @author Nathaniel Mills
+ */
+public class ArchivePayloadStore extends PayloadStore {
+
+   /**
+    * size of the buffer used when writing the archive
+    */
+   static public final int BUFFER_SIZE = 1024 * 1024;
+
+   final ZipOutputStream _zip;
+
+   /**
+    * @param archive
+    *           the zip file receiving the payloads (replaced if it exists)
+    * @param referencePrefix
+    *           prefix of the references returned for the saved payloads
+    *           (e.g., payloads/ for an archive extracted next to the
+    *           markdown)
+    * @throws IOException
+    *            if the archive can not be created
+    */
+   public ArchivePayloadStore(Path archive, String referencePrefix)
+      throws IOException {
+      super(referencePrefix);
+      Path parent = archive.toAbsolutePath().getParent();
+      if (parent != null) {
+         Files.createDirectories(parent);
+      }
+      _zip = new ZipOutputStream(new BufferedOutputStream(
+         Files.newOutputStream(archive), BUFFER_SIZE));
+   }
+
+   @Override
+   protected synchronized void write(String name, byte[] payload)
+      throws IOException {
+      _zip.putNextEntry(new ZipEntry(name));
+      _zip.write(payload);
+      _zip.closeEntry();
+   }
+
+   @Override
+   public synchronized void close() throws IOException {
+      _zip.close();
+   }
+}
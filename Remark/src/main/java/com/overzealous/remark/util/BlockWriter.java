@@ -54,6 +54,45 @@ import java.util.concurrent.locks.ReentrantLock;
  */
 public final class BlockWriter extends PrintWriter {
 
+	/**
+	 * Receives notice of the block boundaries written by a BlockWriter
+	 */
+	public interface BlockListener {
+		/**
+		 * Called when a block is about to be separated from the block preceding
+		 * it, before the two newlines separating them are written.
+		 */
+		public void blockSeparated();
+	}
+
+	/**
+	 * The block state and line position of a BlockWriter, saved so the writer
+	 * can be used for other output and later returned to where it was.
+	 */
+	public static final class BlockState {
+		private final int blockDepth;
+		private final int lastWrittenBlockDepth;
+		private final boolean autoStartedBlock;
+		private final boolean empty;
+		private final boolean atLineStart;
+
+		private BlockState(int blockDepth, int lastWrittenBlockDepth, boolean autoStartedBlock, boolean empty,
+				boolean atLineStart) {
+			this.blockDepth = blockDepth;
+			this.lastWrittenBlockDepth = lastWrittenBlockDepth;
+			this.autoStartedBlock = autoStartedBlock;
+			this.empty = empty;
+			this.atLineStart = atLineStart;
+		}
+	}
+
+	/**
+	 * The state of a newly created BlockWriter
+	 */
+	public static final BlockState INITIAL_STATE = new BlockState(0, -1, false, true, true);
+
+	private BlockListener blockListener = null;
+
 	private int blockDepth = 0;
 
 	private int lastWrittenBlockDepth = -1;
@@ -324,6 +363,26 @@ public final class BlockWriter extends PrintWriter {
 	 */
 	public void testNewBlock() {
 		testFirstPrepend();
+		if (advanceBlock()) {
+			// print two lines, so an empty line occurs between the blocks
+			if (blockListener != null) {
+				blockListener.blockSeparated();
+			}
+			println();
+			println();
+			atLineStart = true;
+		}
+	}
+
+	/**
+	 * Moves to the block the next write belongs to, as writing does, without
+	 * writing anything.
+	 *
+	 * @return true if the block must first be separated from the block written
+	 *         before it by an empty line
+	 */
+	public boolean advanceBlock() {
+		boolean separate = false;
 		if (blockDepth == 0) {
 			startBlock();
 			// keep track of automatically started blocks. See startBlock below.
@@ -336,14 +395,11 @@ public final class BlockWriter extends PrintWriter {
 				// anything.
 				empty = false;
 			} else {
-				// otherwise, print two lines, so an empty line occurs between the
-				// blocks
-				println();
-				println();
-				atLineStart = true;
+				separate = true;
 			}
 			lastWrittenBlockDepth = blockDepth;
 		}
+		return separate;
 	}
 
 	/**
@@ -469,6 +525,132 @@ public final class BlockWriter extends PrintWriter {
 		return buffer;
 	}
 
+	/**
+	 * Sets the block state, so this writer behaves as though it had already
+	 * written the output leading to that state (e.g., to write a part of a
+	 * document whose preceding output is written elsewhere).
+	 *
+	 * @param blockDepth
+	 *                              The current block depth
+	 * @param lastWrittenBlockDepth
+	 *                              The depth of the block last written, or -1
+	 *                              if that block has ended
+	 * @param autoStartedBlock
+	 *                              Whether the current block was started
+	 *                              automatically
+	 * @param empty
+	 *                              Whether nothing has been written yet
+	 * @return This for chaining (especially after creation)
+	 */
+	public BlockWriter setBlockState(int blockDepth, int lastWrittenBlockDepth,
+		boolean autoStartedBlock, boolean empty) {
+		this.blockDepth = blockDepth;
+		this.lastWrittenBlockDepth = lastWrittenBlockDepth;
+		this.autoStartedBlock = autoStartedBlock;
+		this.empty = empty;
+		return this;
+	}
+
+	/**
+	 * @return the block state and line position of this writer
+	 */
+	public BlockState getBlockState() {
+		return new BlockState(blockDepth, lastWrittenBlockDepth, autoStartedBlock, empty, atLineStart);
+	}
+
+	/**
+	 * Returns this writer to a block state and line position saved by
+	 * {@link #getBlockState()}.
+	 *
+	 * @param state
+	 *              The state to return to
+	 * @param atLineStart
+	 *              Whether the next write is at the start of a line, replacing
+	 *              that of the state
+	 */
+	public void setBlockState(BlockState state, boolean atLineStart) {
+		setBlockState(state.blockDepth, state.lastWrittenBlockDepth, state.autoStartedBlock, state.empty);
+		this.atLineStart = atLineStart;
+	}
+
+	/**
+	 * Returns this writer to a block state and line position saved by
+	 * {@link #getBlockState()}.
+	 *
+	 * @param state
+	 *              The state to return to
+	 */
+	public void setBlockState(BlockState state) {
+		setBlockState(state, state.atLineStart);
+	}
+
+	/**
+	 * Determine if this writer is in the given block state.
+	 *
+	 * @param blockDepth
+	 *                              The block depth expected
+	 * @param lastWrittenBlockDepth
+	 *                              The depth of the block last written expected
+	 * @param autoStartedBlock
+	 *                              Whether the current block is expected to
+	 *                              have been started automatically
+	 * @param empty
+	 *                              Whether nothing is expected to have been
+	 *                              written yet
+	 * @return true if this writer is in the given block state
+	 * @see #setBlockState(int, int, boolean, boolean)
+	 */
+	public boolean hasBlockState(int blockDepth, int lastWrittenBlockDepth,
+		boolean autoStartedBlock, boolean empty) {
+		return this.blockDepth == blockDepth
+			&& this.lastWrittenBlockDepth == lastWrittenBlockDepth
+			&& this.autoStartedBlock == autoStartedBlock && this.empty == empty;
+	}
+
+	/**
+	 * Writes output produced by another BlockWriter as is (it has already been
+	 * escaped and separated into blocks), then continues from the block state
+	 * that writer was left in. The producer should have been started from this
+	 * writer's state using {@link #setBlockState(int, int, boolean, boolean)}.
+	 *
+	 * @param output
+	 *                 The output written by the producer
+	 * @param producer
+	 *                 The writer that produced the output
+	 */
+	public void writeContinuation(String output, BlockWriter producer) {
+		if (output.length() != 0) {
+			super.write(output, 0, output.length());
+		}
+		blockDepth = producer.blockDepth;
+		lastWrittenBlockDepth = producer.lastWrittenBlockDepth;
+		autoStartedBlock = producer.autoStartedBlock;
+		empty = producer.empty;
+		atLineStart = producer.atLineStart;
+	}
+
+	/**
+	 * Returns the listener notified of block boundaries, if set.
+	 *
+	 * @return the listener, or null if not set.
+	 */
+	public BlockListener getBlockListener() {
+		return blockListener;
+	}
+
+	/**
+	 * Sets the listener notified when a block is separated from the block
+	 * preceding it.
+	 *
+	 * @param blockListener
+	 *                      The listener to notify, or null to stop notifying.
+	 * @return This for chaining (especially after creation)
+	 */
+	public BlockWriter setBlockListener(BlockListener blockListener) {
+		this.blockListener = blockListener;
+		return this;
+	}
+
 	/**
 	 * Returns the string being prepended to new lines, if set.
 	 * 
@@ -0,0 +1,86 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.overzealous.remark.util;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+
+/**
+ * Saves payloads as files in a directory. Each payload is written to a
+ * temporary file then moved to its name, so concurrent conversions (or
+ * processes) sharing the directory never see a partially written payload,
+ * and payloads already in the directory are not rewritten.
+ *
+ * @author Nathaniel Mills
+ */
+public class DirectoryPayloadStore extends PayloadStore {
+
+   final Path _directory;
+
+   /**
+    * @param directory
+    *           the directory receiving the payloads (created if needed)
+    * @param referencePrefix
+    *           prefix of the references returned for the saved payloads
+    *           (e.g., payloads/ for a directory next to the markdown)
+    * @throws IOException
+    *            if the directory can not be created
+    */
+   public DirectoryPayloadStore(Path directory, String referencePrefix)
+      throws IOException {
+      super(referencePrefix);
+      _directory = directory;
+      Files.createDirectories(directory);
+   }
+
+   @Override
+   protected void write(String name, byte[] payload) throws IOException {
+      Path target = _directory.resolve(name);
+      if (Files.exists(target)) {
+         return;
+      }
+      // a unique name in the directory (created with the default
+      // permissions, unlike Files.createTempFile)
+      Path temp = _directory
+         .resolve(name + "." + UUID.randomUUID().toString() + ".tmp");
+      try {
+         Files.write(temp, payload);
+         Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+      } catch (FileAlreadyExistsException e) {
+         // saved by another process
+      } finally {
+         Files.deleteIfExists(temp);
+      }
+   }
+
+   /**
+    * Nothing is buffered, so there is nothing to release.
+    */
+   @Override
+   public void close() throws IOException {
+   }
+}
@@ -41,6 +41,7 @@ package com.overzealous.remark.util;
 import static com.overzealous.remark.util.MarkdownTable.Alignment.LEFT;
 import static com.overzealous.remark.util.MarkdownTable.Alignment.RIGHT;
 
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -49,6 +50,11 @@ import java.util.List;
  * cleanly formatted as a plain text structure (either as Markdown or within a
  * Markdown code block).
  *
+ * Cells are kept in parallel arrays (contents, colspan and alignment) rather
+ * than as a list of cell objects per row. A table can also be streamed (see
+ * {@link #setStreaming(BlockWriter, boolean, boolean, int)}), fixing the
+ * column widths from the first rows and writing the rest as they are added.
+ *
  * @author Phil DeJarnett
  * @author Nathaniel Mills modifications for provenance and level tracking
  */
@@ -81,8 +87,119 @@ public class MarkdownTable {
       }
    }
 
-   private final List<List<MarkdownTableHeaderCell>> header;
-   private final List<List<MarkdownTableCell>> body;
+   private static final Alignment[] ALIGNMENTS = Alignment.values();
+
+   /**
+    * The rows of one section (header or body) of the table, with the cells of
+    * all rows stored one after the other in parallel arrays.
+    */
+   private static final class Cells {
+      String[] _contents = new String[16];
+      int[] _colspans = new int[16];
+      byte[] _alignments = new byte[16];
+      int _size = 0;
+      // index of the first cell of each row
+      int[] _rowStarts = new int[8];
+      int _rows = 0;
+      // rows handed out as lists by addHeaderRow and addBodyRow, by row
+      List<List<?>> _lists = null;
+
+      void startRow() {
+         if (_rows == _rowStarts.length) {
+            _rowStarts = Arrays.copyOf(_rowStarts, _rows * 2);
+         }
+         _rowStarts[_rows++] = _size;
+         if (_lists != null) {
+            _lists.add(null);
+         }
+      }
+
+      void add(String contents, Alignment alignment, int colspan) {
+         if (_size == _contents.length) {
+            int capacity = _size * 2;
+            _contents = Arrays.copyOf(_contents, capacity);
+            _colspans = Arrays.copyOf(_colspans, capacity);
+            _alignments = Arrays.copyOf(_alignments, capacity);
+         }
+         _contents[_size] = contents;
+         _colspans[_size] = colspan < 1 ? 1 : colspan;
+         _alignments[_size] = (byte) alignment.ordinal();
+         _size++;
+      }
+
+      void addList(List<?> row) {
+         if (_lists == null) {
+            _lists = new LinkedList<List<?>>();
+            for (int i = 0; i < _rows; i++) {
+               _lists.add(null);
+            }
+         }
+         startRow();
+         _lists.set(_rows - 1, row);
+      }
+
+      /**
+       * Copies the cells of any rows handed out as lists into the arrays, in
+       * the order the rows were added.
+       */
+      void settle() {
+         if (_lists == null) {
+            return;
+         }
+         String[] contents = _contents;
+         int[] colspans = _colspans;
+         byte[] alignments = _alignments;
+         int[] rowStarts = Arrays.copyOf(_rowStarts, _rows);
+         int size = _size;
+         int rows = _rows;
+         List<List<?>> lists = _lists;
+         _contents = new String[16];
+         _colspans = new int[16];
+         _alignments = new byte[16];
+         _size = 0;
+         _rows = 0;
+         _lists = null;
+         int row = 0;
+         for (List<?> list : lists) {
+            startRow();
+            if (list != null) {
+               for (Object cell : list) {
+                  if (cell instanceof MarkdownTableHeaderCell) {
+                     MarkdownTableHeaderCell header = (MarkdownTableHeaderCell) cell;
+                     add(header.getContents(), header.getAlignment(),
+                        header.getColspan());
+                  } else {
+                     MarkdownTableCell body = (MarkdownTableCell) cell;
+                     add(body.getContents(), body.getAlignment(),
+                        body.getColspan());
+                  }
+               }
+            } else {
+               int end = row + 1 < rows ? rowStarts[row + 1] : size;
+               for (int i = rowStarts[row]; i < end; i++) {
+                  add(contents[i], ALIGNMENTS[alignments[i]], colspans[i]);
+               }
+            }
+            row++;
+         }
+      }
+
+      int rowEnd(int row) {
+         return row + 1 < _rows ? _rowStarts[row + 1] : _size;
+      }
+
+      void clear() {
+         Arrays.fill(_contents, 0, _size, null);
+         _size = 0;
+         _rows = 0;
+         _lists = null;
+      }
+   }
+
+   private final Cells header = new Cells();
+   private final Cells body = new Cells();
+   // the section the last row was started in
+   private Cells current = null;
 
    private int cols;
    private int[] widths;
@@ -90,40 +207,145 @@ public class MarkdownTable {
 
    private boolean firstNewline = true;
 
+   // streaming settings, output is null unless the table is streamed
+   private BlockWriter streamOutput = null;
+   private boolean streamColspan = false;
+   private boolean streamAsCode = false;
+   private int streamSampleRows = 0;
+   // true once the column widths are fixed and the sampled rows written
+   private boolean streaming = false;
+
    /**
     * Creates a new, empty MarkdownTable
     */
    public MarkdownTable() {
-      this.header = new LinkedList<List<MarkdownTableHeaderCell>>();
-      this.body = new LinkedList<List<MarkdownTableCell>>();
    }
 
    /**
     * Creates a new header row, and returns it so it can have cells added to it.
+    * The cells in the list are copied into the table when it is rendered, so
+    * this is not supported for streamed tables.
     *
     * @return A list that can have columns added to it.
     */
    public List<MarkdownTableHeaderCell> addHeaderRow() {
       List<MarkdownTableHeaderCell> newRow = new LinkedList<MarkdownTableHeaderCell>();
-      this.header.add(newRow);
+      this.header.addList(newRow);
+      current = null;
       return newRow;
    }
 
    /**
     * Creates a new body row, and returns it so it can have cells added to it.
+    * The cells in the list are copied into the table when it is rendered, so
+    * this is not supported for streamed tables.
     *
     * @return A list that can have columns added to it.
     */
    public List<MarkdownTableCell> addBodyRow() {
       List<MarkdownTableCell> newRow = new LinkedList<MarkdownTableCell>();
-      this.body.add(newRow);
+      this.body.addList(newRow);
+      current = null;
       return newRow;
    }
 
+   /**
+    * Starts a new header row, to receive the cells passed to
+    * {@link #addCell(String, Alignment, int)}.
+    */
+   public void startHeaderRow() {
+      startRow(header);
+   }
+
+   /**
+    * Starts a new body row, to receive the cells passed to
+    * {@link #addCell(String, Alignment, int)}. For a streamed table, this
+    * writes the previous row, or the rows sampled so far once the sample is
+    * complete.
+    */
+   public void startBodyRow() {
+      startRow(body);
+   }
+
+   /**
+    * Adds a cell to the row last started by {@link #startHeaderRow()} or
+    * {@link #startBodyRow()}. As for {@link MarkdownTableHeaderCell}, line
+    * breaks in header cells are replaced by {@code <br>}.
+    *
+    * @param contents
+    *           The contents of the cell
+    * @param alignment
+    *           The alignment of the cell
+    * @param colspan
+    *           The number of columns the cell spans (at least 1)
+    */
+   public void addCell(String contents, Alignment alignment, int colspan) {
+      if (current == null) {
+         throw new IllegalStateException("No row has been started");
+      }
+      if (alignment == null) {
+         throw new IllegalArgumentException("Alignment cannot be null");
+      }
+      if (contents == null) {
+         contents = "";
+      } else if (current == header) {
+         contents = contents.replace("\n", "<br>");
+      }
+      current.add(contents, alignment, colspan);
+   }
+
+   /**
+    * Streams this table to the output rather than buffering all of its rows.
+    * The header rows and the first {@code sampleRows} body rows are buffered
+    * to fix the column widths and alignments, then written along with the
+    * header separator. Later rows are written as soon as the next row is
+    * started, padded to the fixed widths (wider content is written unpadded).
+    * Cells of a later row past the fixed columns are folded into its last
+    * column, as Markdown drops cells beyond those of the header.
+    * With 0 sample rows, only the header rows set the widths (or the first
+    * body row having cells if there are none). Header rows
+    * started after the sample are written where they occur.
+    *
+    * The caller starts the block before adding rows and calls
+    * {@link #renderTable(BlockWriter, boolean, boolean)} to write the rows
+    * that remain.
+    *
+    * @param output
+    *           The writer to receive the rows
+    * @param allowColspan
+    *           If true, cells that span multiple columns are preserved
+    * @param renderAsCode
+    *           If true, the output is rendered as a code block
+    * @param sampleRows
+    *           The number of body rows used to set the column widths
+    */
+   public void setStreaming(BlockWriter output, boolean allowColspan,
+      boolean renderAsCode, int sampleRows) {
+      streamOutput = output;
+      streamColspan = allowColspan;
+      streamAsCode = renderAsCode;
+      streamSampleRows = Math.max(0, sampleRows);
+   }
+
+   private void startRow(Cells section) {
+      if (streamOutput != null) {
+         if (streaming) {
+            writeStreamedRows();
+         } else if (section == body && body._rows >= streamSampleRows
+            && header._size + body._size > 0) {
+            // rows without cells are not enough to fix the columns
+            writeSample();
+         }
+      }
+      section.startRow();
+      current = section;
+   }
+
    /**
     * Renders out the final table. This process starts by calculating widths and
     * alignment for the columns. The final output should be nicely spaced,
-    * centered, and look very clean.
+    * centered, and look very clean. For a streamed table this writes the rows
+    * not yet written.
     *
     * @param output
     *           The writer to receive the final output.
@@ -136,6 +358,33 @@ public class MarkdownTable {
     */
    public void renderTable(BlockWriter output, boolean allowColspan,
       boolean renderAsCode) {
+      if (streaming) {
+         writeStreamedRows();
+         return;
+      }
+      firstNewline = true;
+      renderAll(output, allowColspan, renderAsCode);
+   }
+
+   private void writeSample() {
+      firstNewline = true;
+      renderAll(streamOutput, streamColspan, streamAsCode);
+      header.clear();
+      body.clear();
+      streaming = true;
+   }
+
+   private void writeStreamedRows() {
+      this.renderRows(streamOutput, header, streamColspan, streamAsCode, true);
+      this.renderRows(streamOutput, body, streamColspan, streamAsCode, false);
+      header.clear();
+      body.clear();
+   }
+
+   private void renderAll(BlockWriter output, boolean allowColspan,
+      boolean renderAsCode) {
+      header.settle();
+      body.settle();
       cols = this.getNumberOfColumns();
       widths = new int[cols];
       alignments = new Alignment[cols];
@@ -144,15 +393,13 @@ public class MarkdownTable {
          alignments[i] = LEFT;
       }
 
-      this.calculateHeaderColumnMetrics(this.header, allowColspan);
+      this.calculateColumnMetrics(this.header, allowColspan);
       this.calculateColumnMetrics(this.body, allowColspan);
 
-      firstNewline = true;
-
       // now we have our column widths, as well as the alignments
-      this.renderHeaderRows(output, this.header, allowColspan, renderAsCode);
+      this.renderRows(output, this.header, allowColspan, renderAsCode, true);
       this.renderHeaderSeparator(output, renderAsCode);
-      this.renderRows(output, this.body, allowColspan, renderAsCode);
+      this.renderRows(output, this.body, allowColspan, renderAsCode, false);
    }
 
    /**
@@ -169,37 +416,33 @@ public class MarkdownTable {
     * @param allowColspan
     *           If true, allow cells to span multiple columns.
     */
-   private void calculateHeaderColumnMetrics(List<List<MarkdownTableHeaderCell>> rows,
-      boolean allowColspan) {
-      for (List<MarkdownTableHeaderCell> row : rows) {
+   private void calculateColumnMetrics(Cells rows, boolean allowColspan) {
+      for (int row = 0; row < rows._rows; row++) {
          int col = 0;
-         for (final MarkdownTableHeaderCell cell : row) {
+         for (int cell = rows._rowStarts[row], end = rows.rowEnd(row); cell < end; cell++) {
+            int colspan = rows._colspans[cell];
+            Alignment alignment = ALIGNMENTS[rows._alignments[cell]];
 
-            if (cell.getAlignment() != LEFT) {
+            if (alignment != LEFT) {
                // if a non-standard alignment, set the column alignment
                // note: the last row gets the alignment preference.
                // since Markdown tables only support one shared alignment,
                // we can't do much about this.
-               alignments[col] = cell.getAlignment();
+               alignments[col] = alignment;
             }
 
-            if (!allowColspan || cell.getColspan() == 1) {
+            // width of the content plus a space on either side
+            int cellWidth = rows._contents[cell].length() + 2;
+            if (!allowColspan || colspan == 1) {
 
                // single column, just get the maximum width
-               widths[col] = Math.max(widths[col], cell.getWidth());
+               widths[col] = Math.max(widths[col], cellWidth);
 
             } else {
 
                // multiple columns.
                // need to adjust the width based on multiple columns
-               int totalWidth = 0;
-               for (int i = col; i < col + cell.getColspan(); i++) {
-                  totalWidth += widths[i];
-               }
-
-               // multi-column width is width of content plus two extra spaces
-               // for each extra column spanned.
-               int cellWidth = cell.getWidth();
+               int totalWidth = getWidth(col, colspan);
 
                // Only bother if this is wider than other rows combined
                if (cellWidth > totalWidth) {
@@ -207,9 +450,9 @@ public class MarkdownTable {
                   int diff = cellWidth - totalWidth;
                   // this distributes the extra width needed over the columns as
                   // evenly as we can
-                  int addToEveryColumn = diff / cell.getColspan();
-                  int columnsWithMore = diff % cell.getColspan();
-                  for (int i = 0; i < cell.getColspan(); i++) {
+                  int addToEveryColumn = diff / colspan;
+                  int columnsWithMore = diff % colspan;
+                  for (int i = 0; i < colspan; i++) {
                      int carryOver = 0;
                      if (i < columnsWithMore) {
                         carryOver = 1;
@@ -222,81 +465,22 @@ public class MarkdownTable {
 
             // increment our column counter.
             // due to column spanning, we can't rely on the size of the row.
-            col += cell.getColspan();
+            col += colspan;
          }
       }
    }
 
    /**
-    * Calculates the column metrics (column widths and alignment) by looping
-    * through all provided rows.
-    *
-    * For width, the largest width necessary to render all content is used.
-    *
-    * For alignment, the last non-LEFT alignment in each column is used.
-    * Otherwise, the default LEFT alignment is used.
-    *
-    * @param rows
-    *           The rows that should be processed.
-    * @param allowColspan
-    *           If true, allow cells to span multiple columns.
+    * Returns the combined width of the given columns. Columns beyond those
+    * measured (only possible in later rows of a streamed table) have no
+    * width.
     */
-   private void calculateColumnMetrics(List<List<MarkdownTableCell>> rows,
-      boolean allowColspan) {
-      for (List<MarkdownTableCell> row : rows) {
-         int col = 0;
-         for (final MarkdownTableCell cell : row) {
-
-            if (cell.getAlignment() != LEFT) {
-               // if a non-standard alignment, set the column alignment
-               // note: the last row gets the alignment preference.
-               // since Markdown tables only support one shared alignment,
-               // we can't do much about this.
-               alignments[col] = cell.getAlignment();
-            }
-
-            if (!allowColspan || cell.getColspan() == 1) {
-
-               // single column, just get the maximum width
-               widths[col] = Math.max(widths[col], cell.getWidth());
-
-            } else {
-
-               // multiple columns.
-               // need to adjust the width based on multiple columns
-               int totalWidth = 0;
-               for (int i = col; i < col + cell.getColspan(); i++) {
-                  totalWidth += widths[i];
-               }
-
-               // multi-column width is width of content plus two extra spaces
-               // for each extra column spanned.
-               int cellWidth = cell.getWidth();
-
-               // Only bother if this is wider than other rows combined
-               if (cellWidth > totalWidth) {
-                  // add some to each of the columns
-                  int diff = cellWidth - totalWidth;
-                  // this distributes the extra width needed over the columns as
-                  // evenly as we can
-                  int addToEveryColumn = diff / cell.getColspan();
-                  int columnsWithMore = diff % cell.getColspan();
-                  for (int i = 0; i < cell.getColspan(); i++) {
-                     int carryOver = 0;
-                     if (i < columnsWithMore) {
-                        carryOver = 1;
-                     }
-                     widths[i + col] += addToEveryColumn + carryOver;
-                  }
-               }
-
-            }
-
-            // increment our column counter.
-            // due to column spanning, we can't rely on the size of the row.
-            col += cell.getColspan();
-         }
+   private int getWidth(int col, int colspan) {
+      int totalWidth = 0;
+      for (int i = col; i < col + colspan && i < cols; i++) {
+         totalWidth += widths[i];
       }
+      return totalWidth;
    }
 
    /**
@@ -312,123 +496,113 @@ public class MarkdownTable {
     *           If true, allow cells to span multiple columns
     * @param renderAsCode
     *           If true, prepends each row with four spaces
+    * @param asIs
+    *           If true, the contents are written without escaping (header
+    *           rows)
     */
-   private void renderRows(BlockWriter output,
-      List<List<MarkdownTableCell>> rows, boolean allowColspan,
-      boolean renderAsCode) {
-      for (List<MarkdownTableCell> row : rows) {
+   private void renderRows(BlockWriter output, Cells rows,
+      boolean allowColspan, boolean renderAsCode, boolean asIs) {
+      for (int row = 0; row < rows._rows; row++) {
          println(output);
          if (renderAsCode) {
             output.write("    ");
          }
          output.write('|');
+         int start = rows._rowStarts[row];
+         int end = rows.rowEnd(row);
+         int last = getLastCell(rows, start, end);
          int col = 0;
-         for (final MarkdownTableCell cell : row) {
-            Alignment alignment = alignments[col];
-            if (!allowColspan || cell.getColspan() == 1) {
+         for (int cell = start; cell <= last; cell++) {
+            int colspan = rows._colspans[cell];
+            String contents = rows._contents[cell];
+            if (cell == last && last < end - 1) {
+               // a later row of a streamed table with more cells than the
+               // fixed columns has the cells past them folded into the last
+               // column rather than written where they would be dropped
+               StringBuilder sb = new StringBuilder(contents);
+               for (int extra = last + 1; extra < end; extra++) {
+                  if (rows._contents[extra].length() != 0) {
+                     if (sb.length() != 0) {
+                        sb.append(' ');
+                     }
+                     sb.append(rows._contents[extra]);
+                  }
+               }
+               contents = sb.toString();
+            }
+            if (cols > 0) {
+               colspan = Math.min(colspan, Math.max(1, cols - col));
+            }
+            Alignment alignment = col < cols ? alignments[col] : LEFT;
+            if (!allowColspan || colspan == 1) {
                // write the cell
-               // we pre-pad the string to ensure that left-and-right alignment
-               // look nice
-               String contents = String.format(" %s ", cell.getContents());
-               StringUtils.align(output, contents, widths[col],
-                  alignment.getDir());
+               writeCell(output, contents, asIs,
+                  getWidth(col, 1), alignment);
                output.write('|');
 
-               if (cell.getColspan() > 1) {
+               if (colspan > 1) {
                   // clean up colspans when we have them disabled
                   for (int emptyCol = col + 1; emptyCol < col
-                     + cell.getColspan(); emptyCol++) {
-                     StringUtils.multiply(output, ' ', widths[emptyCol]);
+                     + colspan; emptyCol++) {
+                     StringUtils.multiply(output, ' ', getWidth(emptyCol, 1));
                      output.write('|');
                   }
                }
 
             } else {
-               // initialize totalWidth to leave room for the extra | chars
-               int totalWidth = 0;
-               for (int i = col; i < col + cell.getColspan(); i++) {
-                  totalWidth += widths[i];
-               }
-               // we pre-pad the string to ensure that left-and-right alignment
-               // look nice
-               String contents = String.format(" %s ", cell.getContents());
-               StringUtils.align(output, contents, totalWidth,
-                  alignment.getDir());
+               writeCell(output, contents, asIs,
+                  getWidth(col, colspan), alignment);
                // render out a \ for each column spanned
-               StringUtils.multiply(output, '|', cell.getColspan());
+               StringUtils.multiply(output, '|', colspan);
             }
 
             // increment our column counter.
             // due to column spanning, we can't rely on the size of the row.
-            col += cell.getColspan();
+            col += colspan;
          }
       }
    }
 
    /**
-    * Render table rows.
-    *
-    * This renders each cell in the row, separated by a '|'
-    *
-    * @param output
-    *           The writer to send the result to
-    * @param rows
-    *           The rows to render
-    * @param allowColspan
-    *           If true, allow cells to span multiple columns
-    * @param renderAsCode
-    *           If true, prepends each row with four spaces
+    * Returns the last cell of the row starting within the columns, which is
+    * the row's last cell unless the row is wider than the columns fixed for a
+    * streamed table.
     */
-   private void renderHeaderRows(BlockWriter output,
-      List<List<MarkdownTableHeaderCell>> rows, boolean allowColspan,
-      boolean renderAsCode) {
-      for (List<MarkdownTableHeaderCell> row : rows) {
-         println(output);
-         if (renderAsCode) {
-            output.write("    ");
-         }
-         output.write('|');
-         int col = 0;
-         for (final MarkdownTableHeaderCell cell : row) {
-            Alignment alignment = alignments[col];
-            if (!allowColspan || cell.getColspan() == 1) {
-               // write the cell
-               // we pre-pad the string to ensure that left-and-right alignment
-               // look nice
-               String contents = String.format(" %s ", cell.getContents());
-               StringUtils.alignAsIs(output, contents, widths[col],
-                  alignment.getDir());
-               output.write('|');
-
-               if (cell.getColspan() > 1) {
-                  // clean up colspans when we have them disabled
-                  for (int emptyCol = col + 1; emptyCol < col
-                     + cell.getColspan(); emptyCol++) {
-                     StringUtils.multiply(output, ' ', widths[emptyCol]);
-                     output.write('|');
-                  }
-               }
-
-            } else {
-               // initialize totalWidth to leave room for the extra | chars
-               int totalWidth = 0;
-               for (int i = col; i < col + cell.getColspan(); i++) {
-                  totalWidth += widths[i];
-               }
-               // we pre-pad the string to ensure that left-and-right alignment
-               // look nice
-               String contents = String.format(" %s ", cell.getContents());
-               StringUtils.alignAsIs(output, contents, totalWidth,
-                  alignment.getDir());
-               // render out a \ for each column spanned
-               StringUtils.multiply(output, '|', cell.getColspan());
-            }
+   private int getLastCell(Cells rows, int start, int end) {
+      if (cols == 0) {
+         return end - 1;
+      }
+      int last = start - 1;
+      int col = 0;
+      for (int cell = start; cell < end && col < cols; cell++) {
+         last = cell;
+         col += rows._colspans[cell];
+      }
+      return last;
+   }
 
-            // increment our column counter.
-            // due to column spanning, we can't rely on the size of the row.
-            col += cell.getColspan();
+   /**
+    * Writes the contents of a cell with a space on either side, padded with
+    * spaces to the width according to the alignment.
+    */
+   private void writeCell(BlockWriter output, String contents, boolean asIs,
+      int width, Alignment alignment) {
+      int diff = width - (contents.length() + 2);
+      int left = 0;
+      if (diff > 0) {
+         if (alignment == Alignment.CENTER) {
+            left = diff / 2;
+         } else if (alignment == RIGHT) {
+            left = diff;
          }
       }
+      StringUtils.multiply(output, ' ', left + 1);
+      if (asIs) {
+         output.writeAsIs(contents);
+      } else {
+         output.write(contents);
+      }
+      StringUtils.multiply(output, ' ', (diff > 0 ? diff - left : 0) + 1);
    }
 
    private void renderHeaderSeparator(BlockWriter output,
@@ -480,33 +654,25 @@ public class MarkdownTable {
 
    /**
     * Returns the total number of columns in this table. This takes into account
-    * colspans
+    * colspans. For a streamed table, only the rows not yet written are counted.
     * 
     * @return The total number of columns in this table.
     */
    public int getNumberOfColumns() {
-      int columns = 0;
-      for (List<MarkdownTableHeaderCell> row : this.header) {
-         columns = Math.max(columns, getNumberOfColumnsInHeaderRow(row));
-      }
-      for (List<MarkdownTableCell> row : this.body) {
-         columns = Math.max(columns, getNumberOfColumnsInRow(row));
-      }
-      return columns;
+      header.settle();
+      body.settle();
+      return Math.max(getNumberOfColumns(header), getNumberOfColumns(body));
    }
 
-   private int getNumberOfColumnsInHeaderRow(List<MarkdownTableHeaderCell> row) {
-      int count = 0;
-      for (final MarkdownTableHeaderCell cell : row) {
-         count += cell.getColspan();
-      }
-      return count;
-   }
-   private int getNumberOfColumnsInRow(List<MarkdownTableCell> row) {
-      int count = 0;
-      for (final MarkdownTableCell cell : row) {
-         count += cell.getColspan();
+   private static int getNumberOfColumns(Cells rows) {
+      int columns = 0;
+      for (int row = 0; row < rows._rows; row++) {
+         int count = 0;
+         for (int cell = rows._rowStarts[row], end = rows.rowEnd(row); cell < end; cell++) {
+            count += rows._colspans[cell];
+         }
+         columns = Math.max(columns, count);
       }
-      return count;
+      return columns;
    }
 }
@@ -0,0 +1,178 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.overzealous.remark.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Saves payloads (e.g., the images of data: URIs or inline svg) once each,
+ * named by the SHA-256 hash of their content, so markdown and provenance can
+ * refer to them rather than repeat them. The reference returned for a payload
+ * is the reference prefix followed by its name (e.g.,
+ * payloads/9f86d08...a08.png). Stores may be shared by concurrent
+ * conversions.
+ *
+ * @author Nathaniel Mills
+ */
+public abstract class PayloadStore implements Closeable {
+
+   static final char[] HEX = "0123456789abcdef".toCharArray();
+
+   final String _referencePrefix;
+   final Set<String> _saved = ConcurrentHashMap.newKeySet();
+
+   /**
+    * @param referencePrefix
+    *           prefix of the references returned for the saved payloads
+    *           (e.g., payloads/ for a directory next to the markdown)
+    */
+   protected PayloadStore(String referencePrefix) {
+      _referencePrefix = referencePrefix == null ? "" : referencePrefix;
+   }
+
+   /**
+    * Save the payload unless one with the same content was saved before.
+    *
+    * @param mediaType
+    *           the media type of the payload (e.g., image/png), used to choose
+    *           the extension of its name
+    * @param payload
+    *           the content to be saved
+    * @return the reference to the saved payload
+    * @throws IOException
+    *            if the payload can not be saved
+    */
+   public String save(String mediaType, byte[] payload) throws IOException {
+      String name = getName(mediaType, payload);
+      if (_saved.add(name)) {
+         try {
+            write(name, payload);
+         } catch (IOException e) {
+            _saved.remove(name);
+            throw e;
+         }
+      }
+      return _referencePrefix + name;
+   }
+
+   /**
+    * Save the UTF-8 encoded text unless the same text was saved before.
+    *
+    * @param mediaType
+    *           the media type of the text (e.g., image/svg+xml)
+    * @param text
+    *           the text to be saved
+    * @return the reference to the saved payload
+    * @throws IOException
+    *            if the payload can not be saved
+    */
+   public String save(String mediaType, String text) throws IOException {
+      return save(mediaType, text.getBytes(StandardCharsets.UTF_8));
+   }
+
+   /**
+    * @return the prefix of the references returned for the saved payloads
+    */
+   public String getReferencePrefix() {
+      return _referencePrefix;
+   }
+
+   /**
+    * @return the number of distinct payloads saved by this store
+    */
+   public int getSavedCount() {
+      return _saved.size();
+   }
+
+   /**
+    * Write a payload not previously saved by this store.
+    *
+    * @param name
+    *           the content hash and extension naming the payload
+    * @param payload
+    *           the content to be written
+    * @throws IOException
+    *            if the payload can not be written
+    */
+   protected abstract void write(String name, byte[] payload)
+      throws IOException;
+
+   /**
+    * @param mediaType
+    *           the media type of the payload
+    * @param payload
+    *           the content of the payload
+    * @return the hex SHA-256 hash of the payload followed by the extension for
+    *         its media type
+    */
+   static String getName(String mediaType, byte[] payload) {
+      byte[] hash;
+      try {
+         hash = MessageDigest.getInstance("SHA-256").digest(payload);
+      } catch (NoSuchAlgorithmException e) {
+         // every Java platform is required to support SHA-256
+         throw new IllegalStateException(e);
+      }
+      StringBuilder sb = new StringBuilder(hash.length * 2 + 8);
+      for (byte b : hash) {
+         sb.append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+      }
+      return sb.append(getExtension(mediaType)).toString();
+   }
+
+   /**
+    * @param mediaType
+    *           the media type (e.g., image/png or image/svg+xml)
+    * @return the extension for the media type (e.g., .png, .svg or .jpg), or
+    *         .bin if none can be determined
+    */
+   static String getExtension(String mediaType) {
+      String subtype = "";
+      if (mediaType != null) {
+         int index = mediaType.indexOf('/');
+         subtype = mediaType.substring(index + 1).toLowerCase();
+         index = subtype.indexOf('+');
+         if (index != -1) {
+            // e.g., svg+xml
+            subtype = subtype.substring(0, index);
+         }
+      }
+      if (subtype.equals("jpeg")) {
+         subtype = "jpg";
+      }
+      StringBuilder sb = new StringBuilder(".");
+      for (int i = 0; i < subtype.length(); i++) {
+         char c = subtype.charAt(i);
+         if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-') {
+            sb.append(c);
+         }
+      }
+      return sb.length() == 1 ? ".bin" : sb.toString();
+   }
+}
@@ -40,6 +40,7 @@ package com.overzealous.remark.util;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.Arrays;
 
 /**
  * A small collection of utilities for manipulating strings.
@@ -56,6 +57,8 @@ public class StringUtils {
    /** Represents right alignment. */
    public static final int ALIGN_RIGHT = 1;
 
+   private static final int MULTIPLY_BLOCK = 256;
+
    /**
     * Pads out a left-, right-, or center-aligned string using spaces up to the
     * specified width.
@@ -271,8 +274,16 @@ public class StringUtils {
     *           Number of times to duplicate
     */
    public static void multiply(PrintWriter output, char c, int count) {
-      for (int i = 0; i < count; i++) {
-         output.write(c);
+      if (count < 1) {
+         return;
+      }
+      // written in blocks rather than a character at a time
+      char[] chars = new char[Math.min(count, MULTIPLY_BLOCK)];
+      Arrays.fill(chars, c);
+      while (count > 0) {
+         int len = Math.min(count, chars.length);
+         output.write(chars, 0, len);
+         count -= len;
       }
    }
 
@@ -0,0 +1,82 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.mdfromhtml.remark.utils;
+
+import java.io.StringWriter;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Entities.EscapeMode;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Nathaniel Mills
+ */
+public class HTMLFormatterTest {
+
+   @Test
+   public void testFormatHTML() throws Exception {
+      String html = "<div>\n<p class=\"a\">Some <b>bold</b> text</p><br/><!-- note --></div>";
+      Assert.assertEquals(
+         "<div>\n<p class=\"a\">\nSome \n<b>\nbold\n</b>\n text\n</p>\n<br/>\n<!-- note -->\n</div>\n",
+         HTMLFormatter.formatHTML(html));
+      Assert.assertEquals(
+         "<div>\n  <p class=\"a\">\nSome \n    <b>\nbold\n    </b>\n text\n  </p>\n  <br/>\n  <!-- note -->\n</div>\n",
+         HTMLFormatter.formatHTML(html, 2));
+   }
+
+   @Test
+   public void testFormatHTMLDeclarationAndUnterminatedTag() throws Exception {
+      Assert.assertEquals("<!DOCTYPE html>\n<p>\nx\n</p>\n<span\n",
+         HTMLFormatter.formatHTML("<!DOCTYPE html><p>x</p><span"));
+   }
+
+   @Test
+   public void testWriteFormattedHTML() throws Exception {
+      String html = "<html><head><title>A &amp; B</title></head><body>"
+         + "<p title=\"say &quot;hi&quot;\">&amp;quot; &amp;amp; &quot;q&quot; &lt;tag&gt;</p>"
+         + "<a href=\"/x?a=1&b=2\">link</a></body></html>";
+      Document doc = Jsoup.parse(html, "http://www.example.com");
+      doc.outputSettings().escapeMode(EscapeMode.extended);
+      String expected = doc.toString().replaceAll("&amp;", "&")
+         .replaceAll("&quot;", "\"");
+      StringWriter sw = new StringWriter();
+      HTMLFormatter.writeFormattedHTML(doc, sw);
+      Assert.assertEquals(expected, sw.toString());
+   }
+
+   @Test
+   public void testUnescapingWriterAcrossWrites() throws Exception {
+      String input = " &amp;quot;&amp;amp;&quot;&amp;&qu&amp &";
+      StringWriter sw = new StringWriter();
+      HTMLFormatter.UnescapingWriter writer = new HTMLFormatter.UnescapingWriter(
+         sw, true);
+      for (int i = 0; i < input.length(); i++) {
+         writer.write(input.charAt(i));
+      }
+      writer.finish();
+      Assert.assertEquals(input.replaceAll("&amp;", "&")
+         .replaceAll("&quot;", "\"").trim(), sw.toString());
+   }
+}
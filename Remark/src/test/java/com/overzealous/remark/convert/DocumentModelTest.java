@@ -0,0 +1,124 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.overzealous.remark.convert;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.net.URL;
+import org.apache.commons.io.FileUtils;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Assert;
+import org.junit.Test;
+import com.overzealous.remark.Options;
+import com.overzealous.remark.Remark;
+
+/**
+ * Verifies the markdown and provenance rendered from a DocumentModel match
+ * those of the direct conversion, and the kinds of its blocks.
+ * 
+ * @author Nathaniel Mills
+ */
+public class DocumentModelTest {
+
+	private static final String BASE_URI = "http://www.example.com/";
+
+	private static final Options[] OPTIONS = { Options.markdown(), Options.markdownExtra(),
+			Options.multiMarkdown(), Options.pegdownAllExtensions(), Options.github() };
+
+	private File[] getInputs() throws Exception {
+		URL u = DocumentModelTest.class.getResource("/conversions/html/");
+		File[] inputs = FileUtils.toFile(u).listFiles();
+		Assert.assertNotNull(inputs);
+		Assert.assertTrue(inputs.length > 0);
+		return inputs;
+	}
+
+	@Test
+	public void testMarkdownMatchesConversion() throws Exception {
+		for (Options options : OPTIONS) {
+			for (File input : getInputs()) {
+				String html = FileUtils.readFileToString(input, "UTF-8");
+				Remark remark = new Remark(options);
+				String expected = remark.convertFragment(html, BASE_URI);
+				DocumentModel model = remark.convertToModel(Jsoup.parseBodyFragment(html, BASE_URI), BASE_URI);
+				Assert.assertEquals(input.getName(), expected, MarkdownRenderer.render(model));
+			}
+		}
+	}
+
+	@Test
+	public void testProvenanceMatchesConversion() throws Exception {
+		for (Options options : OPTIONS) {
+			for (File input : getInputs()) {
+				String html = FileUtils.readFileToString(input, "UTF-8");
+				Remark remark = new Remark(options);
+				StringWriter expected = new StringWriter();
+				ProvenanceWriter pw = new ProvenanceWriter("in", "out", null, BASE_URI, "www.example.com",
+						expected);
+				remark.convert(Jsoup.parseBodyFragment(html, BASE_URI), pw, BASE_URI);
+				pw.close();
+
+				StringWriter rendered = new StringWriter();
+				pw = new ProvenanceWriter("in", "out", null, BASE_URI, "www.example.com", rendered);
+				DocumentModel model = remark.convertToModel(Jsoup.parseBodyFragment(html, BASE_URI), BASE_URI);
+				model.render(new ProvenanceRenderer(pw));
+				pw.close();
+				Assert.assertEquals(input.getName(), expected.toString(), rendered.toString());
+			}
+		}
+	}
+
+	@Test
+	public void testReferenceBlock() throws Exception {
+		String html = "<h1>The  Title</h1><p>Some <b>bold</b> &amp; <a href=\"http://www.example.com/x\">linked</a>"
+				+ " text &lt;here&gt;.</p><ul><li>one</li><li>two <code>x*y</code></li></ul>"
+				+ "<pre>a  b</pre><p>last</p>";
+		Remark remark = new Remark(Options.markdown());
+		Document doc = Jsoup.parseBodyFragment(html, BASE_URI);
+		DocumentModel model = remark.convertToModel(doc, BASE_URI);
+		Assert.assertEquals(DocumentModel.BlockKind.HEADING, model.getBlocks().get(0).getKind());
+		// the link reference is kept apart from the content
+		DocumentModel.Block last = model.getBlocks().get(model.getBlocks().size() - 1);
+		Assert.assertEquals(DocumentModel.BlockKind.REFERENCES, last.getKind());
+		Assert.assertNull(last.getElement());
+		Assert.assertTrue(last.getMarkdown().contains("http://www.example.com/x"));
+	}
+
+	@Test
+	public void testBlockKinds() throws Exception {
+		String html = "<div><h2>Title</h2>loose text<p>Some <a href=\"http://www.example.com/x\">linked</a> text</p>"
+				+ "<ul><li>one</li><li>two</li></ul></div><blockquote><p>quoted</p></blockquote><pre>a  b</pre><hr/>"
+				+ "<table><tr><th>h</th></tr><tr><td>c</td></tr></table>";
+		Remark remark = new Remark(Options.multiMarkdown());
+		DocumentModel model = remark.convertToModel(Jsoup.parseBodyFragment(html, BASE_URI), BASE_URI);
+		StringBuilder kinds = new StringBuilder();
+		for (DocumentModel.Block block : model.getBlocks()) {
+			kinds.append(block.getKind()).append(' ');
+			if (block.getElement() != null) {
+				Assert.assertEquals(block.getKind(), DocumentModel.BlockKind.fromElement(block.getElement()));
+			}
+		}
+		Assert.assertEquals("HEADING CONTENT PARAGRAPH LIST QUOTE CODE RULE TABLE REFERENCES ", kinds.toString());
+	}
+}
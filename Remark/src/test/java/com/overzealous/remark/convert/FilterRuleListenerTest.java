@@ -0,0 +1,105 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.overzealous.remark.convert;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.api.json.JSON;
+import com.api.json.JSONObject;
+
+/**
+ * @author Nathaniel Mills
+ */
+public class FilterRuleListenerTest {
+
+	private static final String FILTERS = "{\"*\":{\":tagnames\":[\"footer\"],\":all\":{\"class\":[\"sidebar\"]}},"
+			+ "\"www.example.com\":{\"div\":{\"id\":[\"promo\"]}}}";
+
+	static class RecordingListener implements DocumentConverter.FilterRuleListener {
+		final List<String> evaluated = new ArrayList<String>();
+		final List<String> matched = new ArrayList<String>();
+
+		@Override
+		public void evaluated(String rule, long nanos) {
+			Assert.assertTrue(nanos >= 0L);
+			evaluated.add(rule);
+		}
+
+		@Override
+		public void matched(String rule, Element node) {
+			matched.add(rule + "@" + node.tagName());
+		}
+	}
+
+	@After
+	public void removeListener() {
+		DocumentConverter.setFilterRuleListener(null);
+	}
+
+	private boolean check(String html, String selector) throws Exception {
+		JSONObject filters = (JSONObject) JSON.parse(FILTERS);
+		Document doc = Jsoup.parse(html, "http://www.example.com/");
+		Element node = doc.select(selector).first();
+		return DocumentConverter.checkHTMLFilters(filters, node.tagName(), node, null,
+				"http://www.example.com/", "www.example.com", "");
+	}
+
+	@Test
+	public void testReportsGeneralRuleMatch() throws Exception {
+		RecordingListener listener = new RecordingListener();
+		DocumentConverter.setFilterRuleListener(listener);
+		Assert.assertTrue(check("<div class=\"left sidebar\">x</div>", "div"));
+		Assert.assertEquals("[*~:tagnames, *~:all~class]", listener.evaluated.toString());
+		Assert.assertEquals("[*~:all~class~sidebar@div]", listener.matched.toString());
+	}
+
+	@Test
+	public void testReportsDomainRuleMatch() throws Exception {
+		RecordingListener listener = new RecordingListener();
+		DocumentConverter.setFilterRuleListener(listener);
+		Assert.assertTrue(check("<div id=\"promo\">x</div>", "div"));
+		Assert.assertEquals("[*~:tagnames, *~:all~class, www.example.com~div~id]",
+				listener.evaluated.toString());
+		Assert.assertEquals("[www.example.com~div~id~promo@div]", listener.matched.toString());
+	}
+
+	@Test
+	public void testUnfilteredAndUnregistered() throws Exception {
+		RecordingListener listener = new RecordingListener();
+		DocumentConverter.setFilterRuleListener(listener);
+		Assert.assertFalse(check("<p class=\"content\">x</p>", "p"));
+		Assert.assertTrue(listener.matched.isEmpty());
+		int evaluations = listener.evaluated.size();
+		DocumentConverter.setFilterRuleListener(null);
+		Assert.assertTrue(check("<footer>x</footer>", "footer"));
+		Assert.assertEquals(evaluations, listener.evaluated.size());
+	}
+}
@@ -0,0 +1,112 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.overzealous.remark.convert;
+
+import org.junit.Assert;
+import org.junit.Test;
+import com.overzealous.remark.Options;
+import com.overzealous.remark.Remark;
+import com.overzealous.remark.util.BlockWriter;
+
+/**
+ * @author Nathaniel Mills
+ */
+public class InlineBufferTest {
+
+	private static final String BASE_URI = "http://www.example.com/";
+
+	@Test
+	public void testNestedMarkersAroundContent() throws Exception {
+		InlineBuffer buffer = new InlineBuffer();
+		BlockWriter parent = BlockWriter.create();
+		InlineBuffer.Range outer = buffer.begin(parent, "*", "*");
+		buffer.getWriter().write(" ");
+		InlineBuffer.Range inner = buffer.begin(buffer.getWriter(), "**", "**");
+		Assert.assertTrue(inner.isInPlace());
+		buffer.getWriter().write("a ");
+		buffer.end(inner, "**", "**");
+
+		// the content of the inner range excludes the outer markers
+		Assert.assertEquals("**a** ", buffer.getContent(inner));
+		Assert.assertEquals(" ***a*** ", buffer.detach(outer, "*", "*"));
+	}
+
+	@Test
+	public void testMarkersWithoutSurroundingSpaces() throws Exception {
+		InlineBuffer buffer = new InlineBuffer();
+		InlineBuffer.Range outer = buffer.begin(BlockWriter.create(), " *", "*");
+		buffer.getWriter().write("b");
+		Assert.assertEquals("*b* ", buffer.detach(outer, "*", "* "));
+	}
+
+	@Test
+	public void testWhitespaceOnlyHasNoMarkers() throws Exception {
+		InlineBuffer buffer = new InlineBuffer();
+		InlineBuffer.Range outer = buffer.begin(BlockWriter.create(), "*", "*");
+		InlineBuffer.Range inner = buffer.begin(buffer.getWriter(), "**", "**");
+		buffer.getWriter().write(" \n");
+		buffer.end(inner, "**", "**");
+		Assert.assertTrue(inner.hasContent());
+		Assert.assertEquals(" \n", buffer.detach(outer, "*", "*"));
+	}
+
+	@Test
+	public void testEscapedOnce() throws Exception {
+		InlineBuffer buffer = new InlineBuffer();
+		InlineBuffer.Range outer = buffer.begin();
+		InlineBuffer.Range inner = buffer.begin(buffer.getWriter(), "*", "*");
+		buffer.getWriter().writeAsIs("<x>");
+		buffer.end(inner, "*", "*");
+		buffer.getWriter().write(" 1 > 0");
+		Assert.assertEquals("*&lt;x&gt;* 1 &gt; 0", buffer.detach(outer, null, null));
+	}
+
+	@Test
+	public void testWriterStateRestored() throws Exception {
+		InlineBuffer buffer = new InlineBuffer();
+		InlineBuffer.Range outer = buffer.begin();
+		BlockWriter writer = buffer.getWriter();
+		writer.writeBlock("block");
+		// the styled content is separated from the block before it
+		InlineBuffer.Range inner = buffer.begin(writer, "*", "*");
+		writer.write("a");
+		buffer.end(inner, "*", "*");
+		InlineBuffer.Range detached = buffer.begin();
+		writer.write("dropped");
+		Assert.assertEquals("dropped", buffer.detach(detached, null, null));
+		writer.write(" b");
+		Assert.assertEquals("block\n\n*a* b", buffer.detach(outer, null, null));
+	}
+
+	@Test
+	public void testNestedInlineContent() throws Exception {
+		Remark remark = new Remark(Options.github());
+		Assert.assertEquals("a***b***c",
+				remark.convertFragment("<p>a<em> <strong>b</strong> </em>c</p>", BASE_URI));
+		Assert.assertEquals("x *1 &lt; 2 [y **z**][y _z]*\n\n\n[y _z]: http://x.com/",
+				remark.convertFragment("<p>x <em>1 &lt; 2 <a href=\"http://x.com/\">y <b>z</b></a></em></p>",
+						BASE_URI));
+		Assert.assertEquals("q", remark.convertFragment("<p><i><b>  </b></i>q</p>", BASE_URI));
+	}
+}
@@ -0,0 +1,127 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.overzealous.remark.convert;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.net.URL;
+import org.apache.commons.io.FileUtils;
+import org.jsoup.Jsoup;
+import org.junit.Assert;
+import org.junit.Test;
+import com.overzealous.remark.Options;
+import com.overzealous.remark.Remark;
+
+/**
+ * Verifies converting the top level blocks of a document concurrently
+ * produces the same markdown and provenance as converting it serially.
+ * 
+ * @author Nathaniel Mills
+ */
+public class ParallelConversionTest {
+
+	private static final String BASE_URI = "http://www.example.com/";
+
+	private static final Options[] OPTIONS = { Options.markdown(), Options.markdownExtra(),
+			Options.multiMarkdown(), Options.pegdownAllExtensions(), Options.github() };
+
+	private static String[] convert(Options options, int parallelBlockNodes, String html) throws Exception {
+		Options copy = options.getCopy();
+		copy.parallelBlockNodes = parallelBlockNodes;
+		Remark remark = new Remark(copy);
+		StringWriter provenance = new StringWriter();
+		ProvenanceWriter pw = new ProvenanceWriter("in", "out", null, BASE_URI, "www.example.com", provenance);
+		String markdown = remark.convert(Jsoup.parseBodyFragment(html, BASE_URI), pw, BASE_URI);
+		pw.close();
+		return new String[] { markdown, provenance.toString() };
+	}
+
+	private static void assertParallelMatchesSerial(String name, Options options, String html) throws Exception {
+		String[] expected = convert(options, 0, html);
+		String[] actual = convert(options, 1, html);
+		Assert.assertEquals(name, expected[0], actual[0]);
+		Assert.assertEquals(name, expected[1], actual[1]);
+	}
+
+	/**
+	 * @return a document of many blocks whose links repeat, and whose link ids
+	 *         collide, across the blocks
+	 */
+	private static String syntheticDocument() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 60; i++) {
+			sb.append("<h2>Section ").append(i).append("</h2>\n");
+			sb.append("<p>Some <b>bold</b> text with <a href=\"http://www.example.com/page").append(i % 7)
+					.append("\">a link</a> and <a href=\"http://www.example.com/other").append(i)
+					.append("\">Section ").append(i).append("</a>.</p>\n");
+			sb.append("<p><a href=\"http://www.example.com/img").append(i % 5).append("\"><img src=\"/images/pic")
+					.append(i % 3).append(".png\"></a> <img src=\"http://www.example.com/\" alt=\"\"> <abbr title=\"")
+					.append("HyperText ").append(i % 2).append("\">HTML</abbr></p>\n");
+			if (i % 10 == 0) {
+				sb.append("<table><tr><th>Name</th><th>Link</th></tr><tr><td>row</td><td><a href=\"http://www.example.com/t")
+						.append(i).append("\">table link</a></td></tr></table>\n");
+				sb.append("<ul><li>one <a href=\"http://www.example.com/page1\">again</a></li><li>two</li></ul>\n");
+				sb.append("loose text <i>between</i> blocks\n");
+				sb.append("<!-- a comment -->\n");
+			}
+			if (i % 15 == 0) {
+				sb.append("<pre>code  block ").append(i).append("</pre>\n<blockquote><p>quoted</p></blockquote>\n");
+			}
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void testFixtures() throws Exception {
+		URL u = ParallelConversionTest.class.getResource("/conversions/html/");
+		File[] inputs = FileUtils.toFile(u).listFiles();
+		Assert.assertNotNull(inputs);
+		for (Options options : OPTIONS) {
+			for (File input : inputs) {
+				assertParallelMatchesSerial(input.getName(), options,
+						FileUtils.readFileToString(input, "UTF-8"));
+			}
+		}
+	}
+
+	@Test
+	public void testSyntheticDocument() throws Exception {
+		String html = syntheticDocument();
+		for (Options options : OPTIONS) {
+			assertParallelMatchesSerial("synthetic", options, html);
+		}
+		Options simpleIds = Options.markdownExtra();
+		simpleIds.simpleLinkIds = true;
+		assertParallelMatchesSerial("simpleLinkIds", simpleIds, html);
+	}
+
+	@Test
+	public void testResolveLinks() {
+		String[] replacements = { "", "Link 2" };
+		Assert.assertEquals("[a][] and [b][Link 2]",
+				DocumentConverter.resolveLinks("[a][\uFDD00\uFDD1] and [b][\uFDD01\uFDD1]", replacements));
+		// text that is not a link's mark is left as is
+		Assert.assertEquals("x\uFDD0y\uFDD1", DocumentConverter.resolveLinks("x\uFDD0y\uFDD1", replacements));
+	}
+}
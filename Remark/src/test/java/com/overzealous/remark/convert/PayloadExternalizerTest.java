@@ -0,0 +1,132 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.overzealous.remark.convert;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.overzealous.remark.Options;
+import com.overzealous.remark.Remark;
+import com.overzealous.remark.util.PayloadStore;
+
+/**
+ * @author Nathaniel Mills
+ */
+public class PayloadExternalizerTest {
+
+	private static final String BASE_URI = "http://www.example.com/";
+
+	// a 1x1 png
+	private static final String PNG = "data:image/png;base64,iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAYAAAAfFcSJAAAADUlEQVR42mNkYPhfDwAChwGA60e6kgAAAABJRU5ErkJggg==";
+
+	static class MemoryPayloadStore extends PayloadStore {
+		final Map<String, byte[]> payloads = new LinkedHashMap<String, byte[]>();
+
+		MemoryPayloadStore() {
+			super("payloads/");
+		}
+
+		@Override
+		protected synchronized void write(String name, byte[] payload) {
+			payloads.put(name, payload);
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	@Test
+	public void testDataURIsSavedOnce() throws Exception {
+		MemoryPayloadStore store = new MemoryPayloadStore();
+		Options options = Options.multiMarkdown();
+		options.payloadStore = store;
+		options.payloadMinBytes = 0;
+		String md = new Remark(options).convertFragment("<p>A <img alt=\"dot\" src=\"" + PNG
+				+ "\"> and <img alt=\"again\" data-src=\"" + PNG + "\"></p>", BASE_URI);
+		Assert.assertEquals(1, store.payloads.size());
+		String name = store.payloads.keySet().iterator().next();
+		Assert.assertTrue(name.endsWith(".png"));
+		Assert.assertEquals(64 + ".png".length(), name.length());
+		Assert.assertEquals("A ![dot][] and ![again][dot]\n\n\n[dot]: payloads/" + name, md);
+	}
+
+	@Test
+	public void testStyleAndSVG() throws Exception {
+		MemoryPayloadStore store = new MemoryPayloadStore();
+		Document doc = Jsoup.parse("<div style=\"color: red; background: url('data:text/plain,a%20b+c')\">x</div>"
+				+ "<svg viewBox=\"0 0 4 4\"><title>Chart</title><clipPath id=\"c\"><rect width=\"4\" height=\"4\"/></clipPath>"
+				+ "<svg><circle r=\"1\"/></svg></svg>", BASE_URI);
+		Assert.assertEquals(2, new PayloadExternalizer(store).externalize(doc));
+		Assert.assertEquals(2, store.payloads.size());
+		String[] names = store.payloads.keySet().toArray(new String[2]);
+		// the svg elements are replaced first
+		Assert.assertTrue(names[0].endsWith(".svg"));
+		Assert.assertEquals("<svg xmlns=\"http://www.w3.org/2000/svg\" viewBox=\"0 0 4 4\"><title>Chart</title>"
+				+ "<clipPath id=\"c\"><rect width=\"4\" height=\"4\" /></clipPath><svg><circle r=\"1\" /></svg></svg>",
+				new String(store.payloads.get(names[0]), "UTF-8"));
+		Assert.assertEquals(0, doc.select("svg").size());
+		Assert.assertEquals("<img data-src=\"payloads/" + names[0] + "\" alt=\"Chart\">",
+				doc.select("img").outerHtml());
+		Assert.assertEquals("a b+c", new String(store.payloads.get(names[1]), "UTF-8"));
+		Assert.assertEquals("color: red; background: url(payloads/" + names[1] + ")",
+				doc.select("div").attr("style"));
+	}
+
+	@Test
+	public void testSmallPayloadsLeftInPlace() throws Exception {
+		MemoryPayloadStore store = new MemoryPayloadStore();
+		Options options = Options.multiMarkdown();
+		options.payloadStore = store;
+		options.payloadMinBytes = 1024;
+		StringBuilder path = new StringBuilder("M0 0");
+		while (path.length() < 2048) {
+			path.append(" L1 1");
+		}
+		String small = "<p>Icon <svg><path d=\"M0 0\"/></svg> <img alt=\"dot\" src=\"" + PNG + "\"></p>";
+		// the icon and small image convert as they do without a store
+		Assert.assertEquals(new Remark(Options.multiMarkdown()).convertFragment(small, BASE_URI),
+				new Remark(options).convertFragment(small, BASE_URI));
+		Assert.assertEquals(0, store.payloads.size());
+		String md = new Remark(options).convertFragment("<p>Chart <svg><title>Chart</title><path d=\"" + path
+				+ "\"/></svg></p>", BASE_URI);
+		Assert.assertEquals(1, store.payloads.size());
+		String name = store.payloads.keySet().iterator().next();
+		Assert.assertTrue(name.endsWith(".svg"));
+		Assert.assertEquals("Chart ![Chart][]\n\n\n[Chart]: payloads/" + name, md);
+	}
+
+	@Test
+	public void testMalformedDataURILeftAsIs() throws Exception {
+		MemoryPayloadStore store = new MemoryPayloadStore();
+		Document doc = Jsoup.parse("<img data-src=\"data:image/png;base64,%%%\"><img src=\"data:nocomma\">", BASE_URI);
+		Assert.assertEquals(0, new PayloadExternalizer(store).externalize(doc));
+		Assert.assertEquals(0, store.payloads.size());
+		Assert.assertEquals("data:image/png;base64,%%%", doc.select("img").first().attr("data-src"));
+	}
+}
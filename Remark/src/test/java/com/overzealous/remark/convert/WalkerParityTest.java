@@ -0,0 +1,231 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.overzealous.remark.convert;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.io.FileUtils;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Node;
+import org.junit.Assert;
+import org.junit.Test;
+import com.overzealous.remark.Options;
+import com.overzealous.remark.Remark;
+import com.overzealous.remark.util.BlockWriter;
+
+/**
+ * Verifies the markdown, provenance and provenance searches produced by
+ * walking documents match those recorded (as digests in
+ * /walker/golden.properties) from the recursive walker the explicit stack
+ * walker replaced, and that deeply nested documents convert.
+ * 
+ * @author Nathaniel Mills
+ */
+public class WalkerParityTest {
+
+	private static final String BASE_URI = "http://www.example.com/";
+
+	private static final String[] OPTION_NAMES = { "markdown", "markdownExtra", "multiMarkdown",
+			"pegdownAllExtensions", "github" };
+
+	private static final Pattern LEVEL = Pattern.compile("\"level\": \"([^\"]+)\"");
+
+	private static Options getOptions(String name) {
+		if ("markdownExtra".equals(name)) {
+			return Options.markdownExtra();
+		} else if ("multiMarkdown".equals(name)) {
+			return Options.multiMarkdown();
+		} else if ("pegdownAllExtensions".equals(name)) {
+			return Options.pegdownAllExtensions();
+		} else if ("github".equals(name)) {
+			return Options.github();
+		}
+		return Options.markdown();
+	}
+
+	/**
+	 * Builds a document nesting the supplied wrappers (cycling through them)
+	 * to the given depth, with text, links and inline styling at each level.
+	 * 
+	 * @param depth
+	 *            the levels of nesting
+	 * @param wrappers
+	 *            pairs of opening and closing tags to nest
+	 * @return the html of the document
+	 */
+	static String nestedDocument(int depth, String... wrappers) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < depth; i++) {
+			int w = (i % (wrappers.length / 2)) * 2;
+			sb.append(wrappers[w]).append("level ").append(i);
+			if (i % 7 == 0) {
+				sb.append(" <a href=\"http://www.example.com/l").append(i % 3).append("\">link ").append(i)
+						.append("</a>");
+			}
+			if (i % 5 == 0) {
+				sb.append(" <b>bold</b> <i>italic</i> <code>x*y</code>");
+			}
+			sb.append(' ');
+		}
+		for (int i = depth - 1; i >= 0; i--) {
+			int w = (i % (wrappers.length / 2)) * 2;
+			sb.append(" after ").append(i).append(wrappers[w + 1]);
+		}
+		return sb.toString();
+	}
+
+	static Map<String, String> documents() throws Exception {
+		Map<String, String> documents = new TreeMap<String, String>();
+		URL u = WalkerParityTest.class.getResource("/conversions/html/");
+		for (File input : FileUtils.toFile(u).listFiles()) {
+			documents.put(input.getName(), FileUtils.readFileToString(input, "UTF-8"));
+		}
+		documents.put("nested-div", nestedDocument(60, "<div>", "</div>"));
+		documents.put("nested-span", nestedDocument(60, "<span>", "</span>"));
+		documents.put("nested-emphasis", nestedDocument(60, "<em>", "</em>", "<strong>", "</strong>",
+				"<span style=\"font-style:italic\">", "</span>"));
+		documents.put("nested-blocks", nestedDocument(60, "<blockquote>", "</blockquote>", "<ul><li>",
+				"</li><li>item</li></ul>", "<div>", "</div>", "<ol><li>", "</li></ol>", "<p>", "</p>", "<aside>",
+				"</aside>", "<article id=\"a\">", "</article>", "<header>", "</header>"));
+		documents.put("nested-mixed", nestedDocument(60, "<div>", "</div>", "<span>", "</span>", "<p><span>",
+				"</span></p>", "<blockquote><p>", "</p></blockquote>", "<ul><li><em>", "</em></li></ul>",
+				"<button>", "</button>", "<span role=\"note\">", "</span>", "<b>", "</b>"));
+		return documents;
+	}
+
+	private static String digest(String s) throws Exception {
+		MessageDigest md = MessageDigest.getInstance("SHA-256");
+		StringBuilder sb = new StringBuilder();
+		for (byte b : md.digest(s.getBytes(StandardCharsets.UTF_8))) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the digests of the markdown, provenance, and nodes found by
+	 *         searching for each provenance level, for each document and set
+	 *         of options
+	 */
+	static Map<String, String> digests() throws Exception {
+		Map<String, String> digests = new TreeMap<String, String>();
+		Map<String, String> documents = documents();
+		for (String optionName : OPTION_NAMES) {
+			for (Map.Entry<String, String> entry : documents.entrySet()) {
+				String key = optionName + "." + entry.getKey();
+				Remark remark = new Remark(getOptions(optionName));
+				StringWriter provenance = new StringWriter();
+				ProvenanceWriter pw = new ProvenanceWriter("in", "out", null, BASE_URI, "www.example.com",
+						provenance);
+				String markdown = remark.convert(Jsoup.parseBodyFragment(entry.getValue(), BASE_URI), pw,
+						BASE_URI);
+				pw.close();
+				digests.put(key + ".md", digest(markdown));
+				digests.put(key + ".provenance", digest(provenance.toString()));
+
+				// find the node for (a sample of) the levels annotated
+				Document doc = Jsoup.parseBodyFragment(entry.getValue(), BASE_URI);
+				StringBuilder found = new StringBuilder();
+				java.util.List<String> levels = new java.util.ArrayList<String>();
+				Matcher m = LEVEL.matcher(provenance.toString());
+				while (m.find()) {
+					levels.add(m.group(1));
+				}
+				int step = Math.max(1, levels.size() / 12);
+				for (int index = 0; index < levels.size(); index += step) {
+					String level = levels.get(index);
+					DocumentConverter converter = new DocumentConverter(getOptions(optionName));
+					converter.output = BlockWriter.create();
+					converter.lastNodeset = converter.blockNodes;
+					converter.linkIds = new java.util.LinkedHashMap<String, String>();
+					converter.linkUrls = new java.util.HashMap<String, String>();
+					converter.abbreviations = new java.util.LinkedHashMap<String, String>();
+					Node node = converter.walkNodes(DefaultNodeHandler.getInstance(), doc.body(),
+							converter.blockNodes, null, BASE_URI, "www.example.com", "1", level);
+					found.append(level).append('=').append(node == null ? "null" : node.outerHtml())
+							.append('\n');
+				}
+				digests.put(key + ".search", digest(found.toString()));
+			}
+		}
+		return digests;
+	}
+
+	@Test
+	public void testMatchesRecursiveWalker() throws Exception {
+		Properties golden = new Properties();
+		InputStream is = WalkerParityTest.class.getResourceAsStream("/walker/golden.properties");
+		try {
+			golden.load(is);
+		} finally {
+			is.close();
+		}
+		Map<String, String> digests = digests();
+		Assert.assertEquals(golden.size(), digests.size());
+		for (Map.Entry<String, String> entry : digests.entrySet()) {
+			Assert.assertEquals(entry.getKey(), golden.getProperty(entry.getKey()), entry.getValue());
+		}
+	}
+
+	@Test
+	public void testDeepNestingDoesNotOverflow() throws Throwable {
+		final String[][] wrappers = { { "<div>", "</div>" }, { "<span>", "</span>" },
+				{ "<em>", "</em>", "<b>", "</b>" }, { "<section><p>", "</p></section>" } };
+		final Throwable[] failure = new Throwable[1];
+		final String[] markdown = new String[wrappers.length];
+		// a small stack, so a walk that recursed per level would overflow
+		Thread thread = new Thread(null, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (int i = 0; i < wrappers.length; i++) {
+						markdown[i] = new Remark(Options.github()).convertFragment(nestedDocument(1500, wrappers[i]),
+								BASE_URI);
+					}
+				} catch (Throwable t) {
+					failure[0] = t;
+				}
+			}
+		}, "deep-walk", 256 * 1024);
+		thread.start();
+		thread.join();
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+		for (int i = 0; i < wrappers.length; i++) {
+			Assert.assertTrue(wrappers[i][0], markdown[i].contains("level 1499"));
+			Assert.assertTrue(wrappers[i][0], markdown[i].contains("after 0"));
+		}
+	}
+}
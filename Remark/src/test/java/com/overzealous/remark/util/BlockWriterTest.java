@@ -191,4 +191,18 @@ public class BlockWriterTest {
 		
 		Assert.assertEquals("block1\n\ninline1\n\nblock2\n\ninline2", bw.toString());
 	}
+
+	@Test
+	public void testBlockStateRestored() throws Exception {
+		BlockWriter bw = BlockWriter.create();
+		bw.writeBlock("block1");
+		BlockWriter.BlockState state = bw.getBlockState();
+		Assert.assertTrue(bw.advanceBlock());
+		bw.setBlockState(state);
+		bw.write("inline1");
+
+		Assert.assertEquals("block1\n\ninline1", bw.toString());
+		bw.setBlockState(BlockWriter.INITIAL_STATE);
+		Assert.assertFalse(bw.advanceBlock());
+	}
 }
@@ -122,6 +122,88 @@ public class MarkdownTableTest {
 		Assert.assertEquals(TestUtils.readResourceToString("/util/MarkdownTableAsCodeTest.md"), getTableString(mt, false, true));
 	}
 
+	@Test
+	public void testCellsMatchRows() throws Exception {
+		MarkdownTable mt = new MarkdownTable();
+		mt.startHeaderRow();
+		for(int i=1; i<4; i++) {
+			mt.addCell("h"+i, MarkdownTable.Alignment.find(i-2), 1);
+		}
+		mt.startBodyRow();
+		for(int i=1; i<4; i++) {
+			mt.addCell("col"+i, MarkdownTable.Alignment.LEFT, 1);
+		}
+		mt.startBodyRow();
+		mt.addCell("column 1", MarkdownTable.Alignment.LEFT, 1);
+		mt.addCell("column 2", MarkdownTable.Alignment.LEFT, 2);
+
+		Assert.assertEquals(TestUtils.readResourceToString("/util/MarkdownTableColspanTest.md"), getTableString(mt, true, false));
+	}
+
+	@Test
+	public void testStreamedTable() throws Exception {
+		StringWriter sw = new StringWriter();
+		BlockWriter bw = new BlockWriter(sw);
+		MarkdownTable mt = new MarkdownTable();
+		mt.setStreaming(bw, false, false, 1);
+		mt.startHeaderRow();
+		mt.addCell("a", MarkdownTable.Alignment.LEFT, 1);
+		mt.addCell("b", MarkdownTable.Alignment.RIGHT, 1);
+		mt.startBodyRow();
+		mt.addCell("one", MarkdownTable.Alignment.LEFT, 1);
+		mt.addCell("1", MarkdownTable.Alignment.LEFT, 1);
+		mt.startBodyRow();
+		// the sample has been written before this row
+		Assert.assertEquals("| a   | b |\n|:--- | -:|\n| one | 1 |", sw.toString());
+		mt.addCell("three", MarkdownTable.Alignment.LEFT, 1);
+		mt.addCell("3", MarkdownTable.Alignment.LEFT, 1);
+		mt.addCell("extra", MarkdownTable.Alignment.LEFT, 1);
+		mt.startBodyRow();
+		mt.addCell("x", MarkdownTable.Alignment.LEFT, 1);
+		mt.renderTable(bw, false, false);
+		// the cell past the sampled columns is kept in the last column
+		Assert.assertEquals("| a   | b |\n|:--- | -:|\n| one | 1 |\n| three | 3 extra |\n| x   |", sw.toString());
+	}
+
+	@Test
+	public void testStreamedTableKeepsCellsPastColumns() throws Exception {
+		StringWriter sw = new StringWriter();
+		BlockWriter bw = new BlockWriter(sw);
+		MarkdownTable mt = new MarkdownTable();
+		mt.setStreaming(bw, false, false, 0);
+		mt.startHeaderRow();
+		mt.addCell("a", MarkdownTable.Alignment.LEFT, 1);
+		mt.addCell("b", MarkdownTable.Alignment.LEFT, 1);
+		mt.startBodyRow();
+		mt.addCell("wide", MarkdownTable.Alignment.LEFT, 3);
+		mt.addCell("z", MarkdownTable.Alignment.LEFT, 1);
+		mt.renderTable(bw, false, false);
+		String table = sw.toString();
+		String lastRow = table.substring(table.lastIndexOf('\n') + 1);
+		Assert.assertTrue(lastRow, lastRow.contains("wide z"));
+		// no more columns than the header
+		Assert.assertEquals(3, lastRow.length() - lastRow.replace("|", "").length());
+	}
+
+	@Test
+	public void testStreamedTableWithinSample() throws Exception {
+		StringWriter sw = new StringWriter();
+		BlockWriter bw = new BlockWriter(sw);
+		MarkdownTable mt = new MarkdownTable();
+		mt.setStreaming(bw, false, false, 5);
+		mt.startHeaderRow();
+		for(int i=1; i<4; i++) {
+			mt.addCell("header"+i, MarkdownTable.Alignment.LEFT, 1);
+		}
+		mt.startBodyRow();
+		for(int i=1; i<4; i++) {
+			mt.addCell("column "+i, MarkdownTable.Alignment.LEFT, 1);
+		}
+		Assert.assertEquals("", sw.toString());
+		mt.renderTable(bw, false, false);
+		Assert.assertEquals(TestUtils.readResourceToString("/util/MarkdownTableTest.md"), '\n' + sw.toString());
+	}
+
 	private String getTableString(MarkdownTable mt, boolean allowColSpan, boolean renderAsCode) {
 		StringWriter sw = new StringWriter();
 		//noinspection IOResourceOpenedButNotSafelyClosed
@@ -0,0 +1,87 @@
+/**
+ * (c) Copyright 2020 IBM Corporation
+ * 1 New Orchard Road, 
+ * Armonk, New York, 10504-1722
+ * United States
+ * +1 914 499 1900
+ * support: Nathaniel Mills wnm3@us.ibm.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.overzealous.remark.util;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipFile;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Nathaniel Mills
+ */
+public class PayloadStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testExtensions() throws Exception {
+		Assert.assertEquals(".png", PayloadStore.getExtension("image/png"));
+		Assert.assertEquals(".jpg", PayloadStore.getExtension("IMAGE/JPEG"));
+		Assert.assertEquals(".svg", PayloadStore.getExtension("image/svg+xml"));
+		Assert.assertEquals(".x-icon", PayloadStore.getExtension("image/x-icon"));
+		Assert.assertEquals(".bin", PayloadStore.getExtension(null));
+		Assert.assertEquals(".bin", PayloadStore.getExtension("image/"));
+	}
+
+	@Test
+	public void testDirectoryStore() throws Exception {
+		Path dir = folder.getRoot().toPath().resolve("payloads");
+		PayloadStore store = new DirectoryPayloadStore(dir, "payloads/");
+		String ref = store.save("text/plain", "abc");
+		Assert.assertEquals("payloads/ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad.plain", ref);
+		Assert.assertEquals(ref, store.save("text/plain", "abc"));
+		store.close();
+		// a second store sharing the directory does not rewrite the payload
+		PayloadStore other = new DirectoryPayloadStore(dir, "payloads/");
+		Assert.assertEquals(ref, other.save("text/plain", "abc"));
+		File[] files = dir.toFile().listFiles();
+		Assert.assertEquals(1, files.length);
+		Assert.assertEquals("abc", new String(Files.readAllBytes(files[0].toPath()), "UTF-8"));
+	}
+
+	@Test
+	public void testArchiveStore() throws Exception {
+		Path archive = folder.getRoot().toPath().resolve("payloads.zip");
+		PayloadStore store = new ArchivePayloadStore(archive, "");
+		String first = store.save("image/png", new byte[] { 1, 2, 3 });
+		Assert.assertEquals(first, store.save("image/png", new byte[] { 1, 2, 3 }));
+		String second = store.save("image/png", new byte[] { 4 });
+		Assert.assertEquals(2, store.getSavedCount());
+		store.close();
+		ZipFile zip = new ZipFile(archive.toFile());
+		try {
+			Assert.assertEquals(2, zip.size());
+			Assert.assertNotNull(zip.getEntry(first));
+			Assert.assertNotNull(zip.getEntry(second));
+		} finally {
+			zip.close();
+		}
+	}
+}
@@ -0,0 +1,4 @@
+#! /bin/bash
+# start the web services without Liberty: ./runMDfromHTMLServer.sh [port [threads]]
+cd /store/WAAExec/MDfromHTMLWebServices
+java -jar ./MDfromHTMLWebServices-1.0.9-server.jar "$@"